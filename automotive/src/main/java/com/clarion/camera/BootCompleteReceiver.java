@@ -5,15 +5,12 @@ import android.content.Context;
 import android.content.Intent;
 import android.util.Log;
 
-import javax.security.auth.login.LoginException;
-
 public class BootCompleteReceiver extends BroadcastReceiver {
     private static final String TAG = "BootCompleteReceiver";
     @Override
     public void onReceive(Context context, Intent intent) {
-        Intent SensorServiceIntent = new Intent(context,
-                SensorManagerMonitorService.class);
-        Log.i(TAG, "onReceive: Starting SensorManagerMonitorService");
-        context.startService(SensorServiceIntent);
+        // also starts SensorManagerMonitorService, next to the other phases
+        Log.i(TAG, "onReceive: starting the camera startup pipeline");
+        CameraStartup.start(context);
     }
 }
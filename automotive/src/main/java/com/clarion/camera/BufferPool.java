@@ -0,0 +1,174 @@
+package com.clarion.camera;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Process-wide pool of large buffers, such as the surface-sized frame
+ * bitmaps and pixel buffers, that outlives the views using them. A buffer
+ * released by one surface or activity is handed to the next one asking for
+ * the same size instead of being allocated again.
+ *
+ * The pool has a memory budget for the buffers in use and the free ones
+ * together. Free buffers are dropped, oldest first, to stay within it. A
+ * buffer is still allocated when only the buffers in use exceed the budget,
+ * but that is counted, so the stats show when the budget is too small.
+ *
+ * Thread-safe.
+ */
+class BufferPool<B> {
+
+    /** Allocates and frees the pooled buffers. */
+    interface Allocator<B> {
+        B allocate(int width, int height);
+
+        long sizeOf(int width, int height);
+
+        /** Called for buffers that leave the pool. */
+        void free(B buffer);
+    }
+
+    private static final class Entry<B> {
+        final B buffer;
+        final int width;
+        final int height;
+        final long bytes;
+
+        Entry(B buffer, int width, int height, long bytes) {
+            this.buffer = buffer;
+            this.width = width;
+            this.height = height;
+            this.bytes = bytes;
+        }
+    }
+
+    private final Allocator<B> mAllocator;
+    private final long mBudgetBytes;
+    // free entries oldest first
+    private final List<Entry<B>> mFree = new ArrayList<>();
+    private final List<Entry<B>> mInUse = new ArrayList<>();
+    private long mFreeBytes = 0;
+    private long mInUseBytes = 0;
+    private long mHighWaterBytes = 0;
+
+    private long mAllocations = 0;
+    private long mReuses = 0;
+    private long mEvictions = 0;
+    private long mOverBudget = 0;
+
+    BufferPool(long budgetBytes, Allocator<B> allocator) {
+        if (budgetBytes <= 0 || allocator == null) {
+            throw new IllegalArgumentException("invalid pool configuration");
+        }
+        mBudgetBytes = budgetBytes;
+        mAllocator = allocator;
+    }
+
+    /** A free buffer of the size, or a new one. Its content is undefined. */
+    synchronized B acquire(int width, int height) {
+        for (int i = 0; i < mFree.size(); i++) {
+            Entry<B> entry = mFree.get(i);
+            if (entry.width == width && entry.height == height) {
+                mFree.remove(i);
+                mFreeBytes -= entry.bytes;
+                mInUse.add(entry);
+                mInUseBytes += entry.bytes;
+                mReuses++;
+                return entry.buffer;
+            }
+        }
+
+        long bytes = mAllocator.sizeOf(width, height);
+        // make room by dropping free buffers of other sizes
+        while (!mFree.isEmpty() && mInUseBytes + mFreeBytes + bytes > mBudgetBytes) {
+            evictOldest();
+        }
+        if (mInUseBytes + bytes > mBudgetBytes) {
+            mOverBudget++;
+        }
+        Entry<B> entry = new Entry<>(mAllocator.allocate(width, height), width, height, bytes);
+        mAllocations++;
+        mInUse.add(entry);
+        mInUseBytes += bytes;
+        mHighWaterBytes = Math.max(mHighWaterBytes, mInUseBytes + mFreeBytes);
+        return entry.buffer;
+    }
+
+    /** Returns a buffer from {@link #acquire}; it must not be used afterwards. */
+    synchronized void release(B buffer) {
+        for (int i = 0; i < mInUse.size(); i++) {
+            Entry<B> entry = mInUse.get(i);
+            if (entry.buffer == buffer) {
+                mInUse.remove(i);
+                mInUseBytes -= entry.bytes;
+                mFree.add(entry);
+                mFreeBytes += entry.bytes;
+                while (!mFree.isEmpty() && mInUseBytes + mFreeBytes > mBudgetBytes) {
+                    evictOldest();
+                }
+                return;
+            }
+        }
+        throw new IllegalStateException("buffer not in use: " + buffer);
+    }
+
+    /** Frees every buffer not in use, e.g. when the system runs low on memory. */
+    synchronized void trim() {
+        while (!mFree.isEmpty()) {
+            evictOldest();
+        }
+    }
+
+    long getBudgetBytes() {
+        return mBudgetBytes;
+    }
+
+    synchronized long getInUseBytes() {
+        return mInUseBytes;
+    }
+
+    synchronized long getFreeBytes() {
+        return mFreeBytes;
+    }
+
+    /** Most memory the pool ever held, in use and free. */
+    synchronized long getHighWaterBytes() {
+        return mHighWaterBytes;
+    }
+
+    synchronized long getAllocationCount() {
+        return mAllocations;
+    }
+
+    synchronized long getReuseCount() {
+        return mReuses;
+    }
+
+    synchronized long getEvictionCount() {
+        return mEvictions;
+    }
+
+    /** Allocations made while the buffers in use alone exceeded the budget. */
+    synchronized long getOverBudgetCount() {
+        return mOverBudget;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "BufferPool{inUse=" + mInUse.size() + "/" + mInUseBytes
+                + ", free=" + mFree.size() + "/" + mFreeBytes
+                + ", budget=" + mBudgetBytes
+                + ", highWater=" + mHighWaterBytes
+                + ", allocations=" + mAllocations
+                + ", reuses=" + mReuses
+                + ", evictions=" + mEvictions
+                + ", overBudget=" + mOverBudget + "}";
+    }
+
+    private void evictOldest() {
+        Entry<B> entry = mFree.remove(0);
+        mFreeBytes -= entry.bytes;
+        mEvictions++;
+        mAllocator.free(entry.buffer);
+    }
+}
@@ -1,25 +1,78 @@
 package com.clarion.camera;
 
 import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
 import android.util.AttributeSet;
 import android.util.Log;
 import android.view.SurfaceHolder;
 import android.view.SurfaceView;
 import android.graphics.Bitmap;
 import android.graphics.Canvas;
+import android.graphics.Color;
 import android.graphics.Rect;
 
-class CameraPreview extends SurfaceView implements SurfaceHolder.Callback, Runnable {
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.IntBuffer;
 
-    private static final boolean DEBUG = true;
+class CameraPreview extends SurfaceView implements SurfaceHolder.Callback {
+
+    private static final boolean DEBUG = BuildConfig.DEBUG;
     private static final String TAG="WebCam";
     protected Context context;
     private SurfaceHolder holder;
-    Thread mainLoop = null;
-    private Bitmap bmp=null;
+    // the capture and render loops, paused while the view is hidden or in
+    // standby; display-sized frames travel between them without locking
+    private final PreviewPipeline<Bitmap> pipeline;
+    // the display frames of pipeline, from CameraStartup.getBitmapPool()
+    private final Bitmap[] frameBitmaps = new Bitmap[FRAME_BITMAPS];
+    // render thread only, between lockSurface and postSurface
+    private Canvas canvas=null;
+
+    private boolean cameraAttached=false;
+    private boolean surfaceReady=false;
+    private int surfaceWidth=0;
+    private int surfaceHeight=0;
+    // work left for settle() until both loops are idle, main thread only
+    private boolean closePending=false;
+    private boolean framesPending=false;
+    private boolean detached=false;
+    // a loop did not park in time, settle() runs again once it has
+    private volatile boolean settlePending=false;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final Runnable settleRunnable = new Runnable() {
+        @Override
+        public void run() {
+            settle();
+        }
+    };
+    private final PipelineLoop.Listener loopListener = new PipelineLoop.Listener() {
+        @Override
+        public void onIdle(PipelineLoop loop) {
+            if (settlePending) {
+                mainHandler.post(settleRunnable);
+            }
+        }
+    };
+    // set by ReverseLifecycle through setPipelineState(), main thread only
+    private int pipelineState=ReverseLifecycle.STATE_ACTIVE;
+    // when reverse was engaged, until the first camera frame is on screen
+    private volatile long reverseNanos=0;
+    private final LatencyHistogram firstFrameLatency = new LatencyHistogram();
+    private volatile long firstFrameMisses=0;
+    // render thread only
+    private boolean firstFrameShown=false;
 
-    private boolean cameraExists=false;
-    private boolean shouldStop=false;
+    private final QualityGovernor.Listener qualityListener = new QualityGovernor.Listener() {
+        @Override
+        public void onQualityChanged(int oldLevel, int newLevel) {
+            PipelineTrace.RING.trace(PipelineTrace.QUALITY, oldLevel, newLevel);
+            Log.i(TAG, "quality: " + QualityGovernor.nameOf(oldLevel)
+                    + " -> " + QualityGovernor.nameOf(newLevel));
+        }
+    };
 
     // /dev/videox (x=cameraId+cameraBase) is used.
     // In some omap devices, system uses /dev/video[0-3],
@@ -28,27 +81,28 @@ class CameraPreview extends SurfaceView implements SurfaceHolder.Callback, Runna
     private int cameraId=0;
     private int cameraBase=0;
 
-    // This definition also exists in ImageProc.h.
-    // Webcam must support the resolution 640x480 with YUYV format.
-    static final int IMG_WIDTH=640;
-    static final int IMG_HEIGHT=480;
-
-    // The following variables are used to draw camera images.
-    private int winWidth=0;
-    private int winHeight=0;
-    private Rect rect;
-    private int dw, dh;
-    private float rate;
-
-    // JNI functions
-    public native int prepareCamera(int videoid);
-    public native int prepareCameraWithBase(int videoid, int camerabase);
-    public native void processCamera();
-    public native void stopCamera();
-    public native void pixeltobmp(Bitmap bitmap);
-//    static {
-//        System.loadLibrary("ImageProc");
-//    }
+    // raw frames are captured into these recycled direct buffers: one being
+    // filled, one being converted and one spare
+    static final int RAW_FRAMES=3;
+    // one front, one back and one spare display frame, see TripleBuffer
+    static final int FRAME_BITMAPS=3;
+    // allocated at boot by CameraStartup and shared with every later preview
+    private final FramePool framePool = CameraStartup.getFramePool();
+    // raw frames are also appended here while a recording is running
+    private volatile PipelineLog.Writer recorder = null;
+    // keeps the last seconds of raw frames for clips, see enableClips()
+    private volatile ClipRecorder clipRecorder = null;
+    private VehicleManager clipVehicleManager = null;
+    static final int CAMERA_FPS=30;
+    // the main thread waits at most one frame for the loops to pause or stop,
+    // a loop still inside its frame after that is left to settle()
+    private static final long LOOP_TIMEOUT_NANOS=1000000000L/CAMERA_FPS;
+
+    // the frame at half the surface size is scaled up nearest-neighbour by the blit
+    private final Rect halfRect = new Rect();
+    private final Rect fullRect = new Rect();
+    // the pixels of pipeline, from CameraStartup.getPixelPool()
+    private IntBuffer displayPixels=null;
 
     public CameraPreview(Context context) {
         super(context);
@@ -59,6 +113,7 @@ class CameraPreview extends SurfaceView implements SurfaceHolder.Callback, Runna
         holder = getHolder();
         holder.addCallback(this);
         holder.setType(SurfaceHolder.SURFACE_TYPE_NORMAL);
+        pipeline = newPipeline();
     }
 
     public CameraPreview(Context context, AttributeSet attrs) {
@@ -70,85 +125,467 @@ class CameraPreview extends SurfaceView implements SurfaceHolder.Callback, Runna
         holder = getHolder();
         holder.addCallback(this);
         holder.setType(SurfaceHolder.SURFACE_TYPE_NORMAL);
+        pipeline = newPipeline();
     }
 
-    @Override
-    public void run() {
-        while (true && cameraExists) {
-            //obtaining display area to draw a large image
-            if(winWidth==0){
-                winWidth=this.getWidth();
-                winHeight=this.getHeight();
-
-                if(winWidth*3/4<=winHeight){
-                    dw = 0;
-                    dh = (winHeight-winWidth*3/4)/2;
-                    rate = ((float)winWidth)/IMG_WIDTH;
-                    rect = new Rect(dw,dh,dw+winWidth-1,dh+winWidth*3/4-1);
-                }else{
-                    dw = (winWidth-winHeight*4/3)/2;
-                    dh = 0;
-                    rate = ((float)winHeight)/IMG_HEIGHT;
-                    rect = new Rect(dw,dh,dw+winHeight*4/3 -1,dh+winHeight-1);
-                }
+    private PreviewPipeline<Bitmap> newPipeline() {
+        PreviewPipeline<Bitmap> p = new PreviewPipeline<>(
+                new V4l2FrameSource(cameraId, cameraBase, framePool), pipelineHost);
+        p.setLoopListener(loopListener);
+        p.setQualityListener(qualityListener);
+        return p;
+    }
+
+    private final PreviewPipeline.Host<Bitmap> pipelineHost = new PreviewPipeline.Host<Bitmap>() {
+        @Override
+        public void onRawFrame(RawFrame raw) {
+            PipelineLog.Writer log = recorder;
+            if (log != null) {
+                record(log, raw, raw.getTimestampNanos());
             }
+            ClipRecorder clips = clipRecorder;
+            if (clips != null) {
+                clips.offerFrame(raw.getData(), raw.getTimestampNanos());
+            }
+        }
 
-            // obtaining a camera image (pixel data are stored in an array in JNI).
-            //processCamera();
-            // camera image to bmp
-            //pixeltobmp(bmp);
-
-            Canvas canvas = getHolder().lockCanvas();
-            if (canvas != null)
-            {
-                // draw camera bmp on canvas
-                canvas.drawBitmap(bmp,null,rect,null);
-                drawOnCanvas(canvas,bmp);
-                getHolder().unlockCanvasAndPost(canvas);
+        @Override
+        public void fillFrame(Bitmap frame, IntBuffer pixels, int width, int height) {
+            // a plain memory copy, the pixels are in the bitmap's own format;
+            // a half resolution frame still copies the whole buffer
+            pixels.rewind();
+            frame.copyPixelsFromBuffer(pixels);
+        }
+
+        @Override
+        public void onSourceFailed(IOException e) {
+            Log.e(TAG, "captureLoop: frame source failed", e);
+        }
+
+        @Override
+        public boolean lockSurface() {
+            canvas = getHolder().lockCanvas();
+            return canvas != null;
+        }
+
+        @Override
+        public void drawFrame(Bitmap frame, int width, int height, boolean stale) {
+            // the frame already has the surface size, no scaling needed,
+            // unless it was converted at half size to save time
+            if (stale) {
+                canvas.drawColor(Color.BLACK);
+            } else if (width != fullRect.width() || height != fullRect.height()) {
+                halfRect.set(0, 0, width, height);
+                canvas.drawBitmap(frame, halfRect, fullRect, null);
+            } else {
+                canvas.drawBitmap(frame, 0, 0, null);
             }
+            drawOnCanvas(canvas, frame);
+        }
 
-            if(shouldStop){
-                shouldStop = false;
-                break;
+        @Override
+        public void postSurface() {
+            getHolder().unlockCanvasAndPost(canvas);
+            canvas = null;
+        }
+
+        @Override
+        public void onFramePosted(long capturedNanos, long postedNanos) {
+            recordFirstFrame(postedNanos);
+            if (!firstFrameShown) {
+                firstFrameShown = true;
+                CameraStartup.mark(CameraStartup.MILESTONE_FIRST_FRAME);
             }
         }
+    };
+
+    private void recordFirstFrame(long posted) {
+        long reverse = reverseNanos;
+        if (reverse == 0) {
+            return;
+        }
+        reverseNanos = 0;
+        long elapsed = posted - reverse;
+        firstFrameLatency.record(elapsed);
+        if (elapsed > ReverseLifecycle.FIRST_FRAME_DEADLINE_NANOS) {
+            firstFrameMisses++;
+            Log.w(TAG, "first frame " + elapsed / 1000000L + " ms after reverse");
+        }
+    }
+
+    private void record(PipelineLog.Writer log, RawFrame raw, long captured) {
+        try {
+            log.writeFrame(raw.getData(), captured);
+        } catch (IOException e) {
+            Log.e(TAG, "record: recording stopped", e);
+            stopRecording();
+        }
     }
 
     public void drawOnCanvas(Canvas canvas, Bitmap videoBitmap) {
     }
 
+    /** Redraws the current frame, e.g. after the overlay state changed. */
+    public void requestRender() {
+        pipeline.requestRender();
+    }
+
+    /**
+     * Estimated time from drawing on the canvas until the frame is on screen:
+     * the measured draw time plus one frame for composition and scan-out.
+     */
+    public long getDisplayLatencyNanos() {
+        return pipeline.getDisplayLatencyNanos();
+    }
+
+    /**
+     * Writes the per-stage latency percentiles and the frame counters, e.g.
+     * from Activity#dump for {@code adb shell dumpsys activity}.
+     */
+    public void dumpLatency(PrintWriter writer) {
+        pipeline.dump(writer);
+        writer.println(String.format("reverse to first frame: %d times, p99 %.1f ms,"
+                        + " max %.1f ms, %d late",
+                firstFrameLatency.getCount(),
+                firstFrameLatency.getPercentileNanos(0.99) / 1e6,
+                firstFrameLatency.getMaxNanos() / 1e6, firstFrameMisses));
+        ClipRecorder clips = clipRecorder;
+        if (clips != null) {
+            writer.println(clips);
+        }
+    }
+
+    /** Clears the latency histograms, e.g. before a measurement run. */
+    public void resetLatency() {
+        pipeline.getLatency().reset();
+    }
+
+    /**
+     * Replaces the webcam, e.g. by a {@link SyntheticFrameSource} or a
+     * {@link FileReplayFrameSource} reading from {@link #getFramePool()}.
+     * Takes effect when the surface is created next.
+     */
+    void setFrameSource(FrameSource source) {
+        if (source.getWidth() * source.getHeight() * 2 > framePool.getFrameBytes()) {
+            throw new IllegalArgumentException("frames do not fit the pool");
+        }
+        pipeline.setFrameSource(source);
+    }
+
+    FramePool getFramePool() {
+        return framePool;
+    }
+
+    /**
+     * Starts writing the raw camera frames to a {@link PipelineLog}; sensor
+     * samples can be added through {@link #getRecorder()}. A running
+     * recording is finished first.
+     */
+    public synchronized void startRecording(File file) throws IOException {
+        stopRecording();
+        FrameSource source = pipeline.getFrameSource();
+        recorder = new PipelineLog.Writer(file, source.getWidth(), source.getHeight());
+        Log.i(TAG, "startRecording: " + file);
+    }
+
+    public synchronized void stopRecording() {
+        PipelineLog.Writer log = recorder;
+        recorder = null;
+        if (log != null) {
+            try {
+                log.close();
+                Log.i(TAG, "stopRecording: " + log.getFrameCount() + " frames, "
+                        + log.getSampleCount() + " samples");
+            } catch (IOException e) {
+                Log.e(TAG, "stopRecording: failed to finish the log", e);
+            }
+        }
+    }
+
+    /** The running recording, or null. */
+    PipelineLog.Writer getRecorder() {
+        return recorder;
+    }
+
+    /**
+     * Keeps the last seconds of raw frames, together with the state of the
+     * given vehicle, in the clip recorder of {@link CameraStartup}, so that
+     * {@link #triggerClip(String)} can save what led up to an event. The
+     * recorder is attached when the loops start, once its startup phase has
+     * allocated it. Main thread only.
+     */
+    void enableClips(VehicleManager vehicleManager) {
+        clipVehicleManager = vehicleManager;
+    }
+
+    /** Stops keeping frames; a clip being written is still finished. */
+    void disableClips() {
+        clipVehicleManager = null;
+        detachClips();
+    }
+
+    // takes the shared recorder over if its startup phase is done
+    private void attachClips() {
+        ClipRecorder clips = CameraStartup.peekClipRecorder();
+        if (clips != null) {
+            clips.setVehicleManager(clipVehicleManager);
+            clipRecorder = clips;
+        }
+    }
+
+    // leaves the recorder with CameraStartup for the next preview
+    private void detachClips() {
+        ClipRecorder clips = clipRecorder;
+        clipRecorder = null;
+        if (clips != null && clips.getVehicleManager() == clipVehicleManager) {
+            clips.setVehicleManager(null);
+        }
+    }
+
+    /**
+     * Saves the frames of the last window to a clip in the background.
+     *
+     * @return false if clips are disabled, nothing was captured yet or the
+     *         previous clip is still being written
+     */
+    public boolean triggerClip(String reason) {
+        ClipRecorder clips = clipRecorder;
+        boolean triggered = clips != null && clips.trigger(reason);
+        PipelineTrace.RING.trace(PipelineTrace.CLIP_TRIGGER, triggered ? 1 : 0);
+        return triggered;
+    }
+
+    /** Caps the render rate of the preview; halved at the lowest quality level. */
+    public void setTargetFps(int targetFps) {
+        pipeline.setTargetFps(targetFps);
+    }
+
+    /** Current {@link QualityGovernor} level, for drawOnCanvas. */
+    protected int getQualityLevel() {
+        return pipeline.getQualityLevel();
+    }
+
+    /** Frame time budget of the quality governor. */
+    public void setFrameBudgetNanos(long budgetNanos) {
+        pipeline.setFrameBudgetNanos(budgetNanos);
+    }
+
+    /**
+     * Follows the {@link ReverseLifecycle}: ACTIVE captures and draws,
+     * STANDBY pauses both but keeps the camera open and the loop threads and
+     * frames alive, OFF ends the threads and closes the camera as well.
+     * Main thread only.
+     *
+     * @param reverseNanos when reverse was engaged, to measure the time to
+     *                     the first frame on screen, or 0
+     */
+    public void setPipelineState(int state, long reverseNanos) {
+        PipelineTrace.RING.trace(PipelineTrace.PIPELINE_STATE, pipelineState, state);
+        pipelineState = state;
+        if (state == ReverseLifecycle.STATE_ACTIVE) {
+            this.reverseNanos = reverseNanos;
+            openSource();
+            if (!pipeline.isStarted()) {
+                // starts the loops once the surface is there
+                settle();
+            } else if (cameraAttached) {
+                // the loops are running, but the camera may only just be open
+                pipeline.resumeCapture();
+            }
+        } else if (state == ReverseLifecycle.STATE_STANDBY) {
+            if (pipeline.isStarted()) {
+                pauseLoops();
+            }
+            openSource();
+        } else {
+            // also ends loops that are paused
+            stopLoops();
+            closePending = true;
+            settle();
+        }
+    }
+
+    private void openSource() {
+        // a close still waiting for the capture loop is no longer wanted
+        closePending = false;
+        if (cameraAttached) {
+            return;
+        }
+        try {
+            pipeline.getFrameSource().open();
+            cameraAttached = true;
+        } catch (IOException e) {
+            // the preview stays black
+            Log.w(TAG, "openSource: no camera, " + e.getMessage());
+        }
+    }
+
+    // keeps the source open while the capture loop may still be reading it
+    private void closeSource() {
+        if (!cameraAttached) {
+            return;
+        }
+        if (pipeline.isCapturing()) {
+            Log.e(TAG, "closeSource: capture loop did not stop, " + pipeline);
+            return;
+        }
+        pipeline.getFrameSource().close();
+        cameraAttached = false;
+    }
+
     @Override
     public void surfaceCreated(SurfaceHolder holder) {
-        if(DEBUG) Log.d(TAG, "surfaceCreated");
-        if(bmp==null){
-            bmp = Bitmap.createBitmap(IMG_WIDTH, IMG_HEIGHT, Bitmap.Config.ARGB_8888);
+        PipelineTrace.RING.trace(PipelineTrace.SURFACE_CREATED);
+        if (pipelineState != ReverseLifecycle.STATE_OFF) {
+            openSource();
         }
-        // /dev/videox (x=cameraId + cameraBase) is used
-//        int ret = prepareCameraWithBase(cameraId, cameraBase);
-//
-//        if(ret!=-1) cameraExists = true;
 
-        cameraExists = true;
-        mainLoop = new Thread(this);
-        mainLoop.start();
+        // the loops start in surfaceChanged, once the surface size is known
     }
 
     @Override
     public void surfaceChanged(SurfaceHolder holder, int format, int width, int height) {
-        if(DEBUG) Log.d(TAG, "surfaceChanged");
+        PipelineTrace.RING.trace(PipelineTrace.SURFACE_CHANGED, width, height);
+        // the next start prepares the frames and the overlay at this size
+        CameraStartup.noteSurfaceSize(context, width, height);
+        if(pipeline.isStarted()){
+            pauseLoops();
+        }
+        surfaceWidth = width;
+        surfaceHeight = height;
+        surfaceReady = true;
+        // reallocates the frames and restarts the loops once they are idle
+        framesPending = true;
+        settle();
     }
 
     @Override
     public void surfaceDestroyed(SurfaceHolder holder) {
-        if(DEBUG) Log.d(TAG, "surfaceDestroyed");
-        if(cameraExists){
-            shouldStop = true;
-            while(shouldStop){
-                try{
-                    Thread.sleep(100); // wait for thread stopping
-                }catch(Exception e){}
+        PipelineTrace.RING.trace(PipelineTrace.SURFACE_DESTROYED);
+        surfaceReady = false;
+        // the threads stay parked until the surface is back
+        if(pipeline.isStarted()){
+            pauseLoops();
+        }
+        // in standby the camera stays open for a quick return to reverse
+        if (pipelineState != ReverseLifecycle.STATE_STANDBY) {
+            closePending = true;
+        }
+        settle();
+        stopRecording();
+        if(DEBUG) Log.d(TAG, "surfaceDestroyed: " + pipeline);
+    }
+
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        detached = false;
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        detached = true;
+        stopLoops();
+        closePending = true;
+        settle();
+    }
+
+    // Finishes what the lifecycle callbacks leave to do once neither loop is
+    // inside a frame: closing the source, releasing or reallocating the
+    // frames and starting the loops. A loop that did not park or end in time
+    // is not waited for; its listener brings us back here once it has.
+    // Main thread only.
+    private void settle() {
+        if (!pipeline.loopsIdle()) {
+            settlePending = true;
+            Log.w(TAG, "settle: waiting for " + pipeline);
+            return;
+        }
+        settlePending = false;
+        if (closePending) {
+            closePending = false;
+            closeSource();
+        }
+        if (detached) {
+            // the raw frames are all back in the shared pool once the source
+            // is closed, and the next preview, e.g. after an activity
+            // recreation, reuses them and the display frames
+            releaseFrames();
+            detachClips();
+            pipeline.shutdown();
+            return;
+        }
+        if (framesPending) {
+            framesPending = false;
+            if(!pipeline.framesMatch(surfaceWidth, surfaceHeight)){
+                allocateFrames(surfaceWidth, surfaceHeight);
+            }
+        }
+        if (surfaceReady && pipelineState == ReverseLifecycle.STATE_ACTIVE
+                && !pipeline.isStarted() && pipeline.hasFrames()) {
+            startLoops();
+        }
+    }
+
+    // the loops must be idle
+    private void allocateFrames(int width, int height) {
+        releaseFrames();
+        BufferPool<Bitmap> pool = CameraStartup.getBitmapPool();
+        Bitmap[] bitmaps = frameBitmaps;
+        for (int i = 0; i < FRAME_BITMAPS; i++) {
+            bitmaps[i] = pool.acquire(width, height);
+            // black until the camera delivers the first frame
+            bitmaps[i].eraseColor(Color.BLACK);
+        }
+        displayPixels = CameraStartup.getPixelPool().acquire(width, height);
+        pipeline.setFrames(bitmaps[0], bitmaps[1], bitmaps[2], displayPixels, width, height);
+        fullRect.set(0, 0, width, height);
+    }
+
+    // hands the frame bitmaps and pixels back to the pools, the loops must be idle
+    private void releaseFrames() {
+        if (!pipeline.hasFrames()) {
+            return;
+        }
+        pipeline.clearFrames();
+        BufferPool<Bitmap> pool = CameraStartup.getBitmapPool();
+        for (int i = 0; i < FRAME_BITMAPS; i++) {
+            pool.release(frameBitmaps[i]);
+            frameBitmaps[i] = null;
+        }
+        CameraStartup.getPixelPool().release(displayPixels);
+        displayPixels = null;
+    }
+
+    // starts the loops, or unparks them if they are paused
+    private void startLoops() {
+        if (clipRecorder == null && clipVehicleManager != null) {
+            attachClips();
+        }
+        pipeline.start(cameraAttached);
+    }
+
+    // parks the loops after their current frame, keeping the threads and
+    // the frames for a quick restart; waits one frame for both together
+    private void pauseLoops() {
+        try {
+            if (!pipeline.pause(LOOP_TIMEOUT_NANOS)) {
+                Log.w(TAG, "pauseLoops: " + pipeline);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // ends the loops and joins their threads; waits one frame for both together
+    private void stopLoops() {
+        try {
+            if (!pipeline.stop(LOOP_TIMEOUT_NANOS)) {
+                Log.w(TAG, "stopLoops: " + pipeline);
             }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
-        //stopCamera();
     }
 }
@@ -0,0 +1,354 @@
+package com.clarion.camera;
+
+import android.content.Context;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.content.pm.PackageManager;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.SystemClock;
+import android.util.DisplayMetrics;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Everything the rear view needs before its first frame, prepared in
+ * parallel from boot ({@link BootCompleteReceiver}) instead of one after
+ * the other when the view is first shown:
+ *
+ * <pre>
+ *   overlay        overlay mapped from its raw pixel cache, or decoded and scaled
+ *   frame-pool     raw frame buffers allocated
+ *   frame-bitmaps  surface-sized frame bitmaps and pixels allocated into their pools
+ *   native         ImageProc JNI library loaded
+ *   clips          frame ring of the event clips allocated
+ *   car-service    SensorManagerMonitorService started, which connects to Car
+ * </pre>
+ *
+ * The view takes the results when it needs them and falls back to doing
+ * the work itself if the phase failed. Started again by the activity, so
+ * the same path is used when the app is launched by hand.
+ *
+ * The overlay and the frames are prepared for the size of the preview
+ * surface the last run reported ({@link #noteSurfaceSize}), which can be
+ * smaller than the display, e.g. next to system bars; the display size is
+ * only a guess for the very first run.
+ *
+ * Also owns the {@link BufferPool}s of surface-sized bitmaps and pixel
+ * arrays that frames are converted into, the raw
+ * {@link FramePool} and the {@link ClipRecorder}, so they survive surface,
+ * configuration and activity recreation.
+ */
+final class CameraStartup {
+    private static final String TAG = "CameraStartup";
+
+    static final String MILESTONE_CAR_CONNECTED = "car-connected";
+    static final String MILESTONE_FIRST_FRAME = "first-frame";
+    // frames at full HD take 8 MB each: the preview's three and those of the
+    // one replacing it on an activity recreation
+    private static final long BITMAP_POOL_BYTES = 48L * 1024 * 1024;
+    private static final int BYTES_PER_PIXEL = 4;
+    // the converted pixels of one full HD frame take 8 MB: the preview's and
+    // those of the one replacing it on an activity recreation
+    private static final long PIXEL_POOL_BYTES = 16L * 1024 * 1024;
+    private static final String PREFERENCES = "camera_startup";
+    private static final String KEY_SURFACE_WIDTH = "surface_width";
+    private static final String KEY_SURFACE_HEIGHT = "surface_height";
+    private static final String OVERLAY_CACHE_FILE = "overlay.pix";
+    // pre-roll of event clips: 10 s in 32 MB, i.e. about 5 VGA frames per second
+    private static final int CLIP_SECONDS = 10;
+    private static final long CLIP_BUDGET_BYTES = 32L * 1024 * 1024;
+    private static final String CLIP_DIRECTORY = "clips";
+
+    private static final BufferPool<Bitmap> sBitmapPool = new BufferPool<>(BITMAP_POOL_BYTES,
+            new BufferPool.Allocator<Bitmap>() {
+                @Override
+                public Bitmap allocate(int width, int height) {
+                    return Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+                }
+
+                @Override
+                public long sizeOf(int width, int height) {
+                    return (long) width * height * BYTES_PER_PIXEL;
+                }
+
+                @Override
+                public void free(Bitmap bitmap) {
+                    bitmap.recycle();
+                }
+            });
+
+    private static final BufferPool<IntBuffer> sPixelPool = new BufferPool<>(PIXEL_POOL_BYTES,
+            new BufferPool.Allocator<IntBuffer>() {
+                @Override
+                public IntBuffer allocate(int width, int height) {
+                    return ByteBuffer.allocateDirect(width * height * BYTES_PER_PIXEL)
+                            .order(ByteOrder.nativeOrder()).asIntBuffer();
+                }
+
+                @Override
+                public long sizeOf(int width, int height) {
+                    return (long) width * height * BYTES_PER_PIXEL;
+                }
+
+                @Override
+                public void free(IntBuffer pixels) {
+                    // left to the GC
+                }
+            });
+
+    private static StartupPipeline sPipeline;
+    private static long sStartedSinceBootMillis;
+    private static StartupPipeline.Phase<Bitmap> sOverlay;
+    private static StartupPipeline.Phase<FramePool> sFramePool;
+    // the pool every preview captures into, see getFramePool()
+    private static FramePool sSharedFramePool;
+    // main thread, see noteSurfaceSize()
+    private static int sNotedWidth;
+    private static int sNotedHeight;
+    private static StartupPipeline.Phase<ClipRecorder> sClips;
+
+    private CameraStartup() {
+    }
+
+    /** Starts the phases once per process; later calls return right away. */
+    static synchronized void start(Context context) {
+        if (sPipeline != null) {
+            return;
+        }
+        final Context app = context.getApplicationContext();
+        StartupPipeline pipeline = new StartupPipeline();
+        final DisplayMetrics display = app.getResources().getDisplayMetrics();
+        sOverlay = pipeline.add("overlay", new Callable<Bitmap>() {
+            @Override
+            public Bitmap call() throws IOException {
+                return loadOverlay(app, display);
+            }
+        });
+        sFramePool = pipeline.add("frame-pool", new Callable<FramePool>() {
+            @Override
+            public FramePool call() {
+                return newFramePool();
+            }
+        });
+        pipeline.add("frame-bitmaps", new Callable<Void>() {
+            @Override
+            public Void call() {
+                // allocated once and left free in the pools for the preview
+                SharedPreferences surface = app.getSharedPreferences(PREFERENCES,
+                        Context.MODE_PRIVATE);
+                int width = surface.getInt(KEY_SURFACE_WIDTH, display.widthPixels);
+                int height = surface.getInt(KEY_SURFACE_HEIGHT, display.heightPixels);
+                Bitmap[] bitmaps = new Bitmap[CameraPreview.FRAME_BITMAPS];
+                for (int i = 0; i < bitmaps.length; i++) {
+                    bitmaps[i] = sBitmapPool.acquire(width, height);
+                }
+                for (Bitmap bitmap : bitmaps) {
+                    sBitmapPool.release(bitmap);
+                }
+                sPixelPool.release(sPixelPool.acquire(width, height));
+                return null;
+            }
+        });
+        pipeline.add("native", new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                V4l2FrameSource.loadLibrary();
+                return null;
+            }
+        });
+        sClips = pipeline.add("clips", new Callable<ClipRecorder>() {
+            @Override
+            public ClipRecorder call() {
+                ClipRecorder clips = new ClipRecorder(new File(app.getFilesDir(), CLIP_DIRECTORY),
+                        V4l2FrameSource.WIDTH, V4l2FrameSource.HEIGHT, CLIP_SECONDS,
+                        CLIP_BUDGET_BYTES, CameraPreview.CAMERA_FPS, null);
+                clips.setErrorListener(new ClipRecorder.ErrorListener() {
+                    @Override
+                    public void onClipFailed(File clip, IOException error) {
+                        Log.w(TAG, "clips: cannot write " + clip, error);
+                    }
+                });
+                Log.i(TAG, "clips: " + clips.getCapacity() + " frames");
+                return clips;
+            }
+        });
+        pipeline.add("car-service", new Callable<Void>() {
+            @Override
+            public Void call() {
+                app.startService(new Intent(app, SensorManagerMonitorService.class));
+                return null;
+            }
+        });
+        sStartedSinceBootMillis = SystemClock.elapsedRealtime();
+        pipeline.start();
+        sPipeline = pipeline;
+        Log.i(TAG, "start: " + sStartedSinceBootMillis + " ms after boot");
+    }
+
+    /**
+     * The overlay scaled for the preview surface. Maps the raw pixels written
+     * by an earlier start, see {@link OverlayCacheFile}; the cache is
+     * rewritten when the surface size or the density changed, or the app was
+     * installed again, which is the only way the PNG changes. A hit never
+     * reads the PNG.
+     */
+    private static Bitmap loadOverlay(Context app, DisplayMetrics display) throws IOException {
+        SharedPreferences surface = app.getSharedPreferences(PREFERENCES, Context.MODE_PRIVATE);
+        int width = surface.getInt(KEY_SURFACE_WIDTH, display.widthPixels);
+        int height = surface.getInt(KEY_SURFACE_HEIGHT, display.heightPixels);
+        OverlayCacheFile.Key key = new OverlayCacheFile.Key(width, height,
+                display.densityDpi, packageUpdateTime(app));
+        File cache = new File(app.getCacheDir(), OVERLAY_CACHE_FILE);
+        OverlayCacheFile.Pixels pixels = OverlayCacheFile.load(cache, key);
+        if (pixels != null) {
+            Bitmap overlay = Bitmap.createBitmap(pixels.width, pixels.height,
+                    Bitmap.Config.ARGB_8888);
+            overlay.copyPixelsFromBuffer(pixels.data);
+            return overlay;
+        }
+
+        Bitmap decoded = BitmapFactory.decodeResource(app.getResources(), R.drawable.overlay);
+        Bitmap overlay = Bitmap.createScaledBitmap(decoded,
+                RenderTransformCache.overlayTargetWidth(width),
+                RenderTransformCache.overlayTargetHeight(height), true);
+        if (overlay.getConfig() != Bitmap.Config.ARGB_8888) {
+            overlay = overlay.copy(Bitmap.Config.ARGB_8888, false);
+        }
+        if (overlay != decoded) {
+            decoded.recycle();
+        }
+        ByteBuffer buffer = ByteBuffer.allocateDirect(overlay.getByteCount());
+        overlay.copyPixelsToBuffer(buffer);
+        buffer.flip();
+        try {
+            // only a miss pays for reading the whole PNG again
+            long checksum = OverlayCacheFile.checksum(
+                    app.getResources().openRawResource(R.drawable.overlay));
+            OverlayCacheFile.write(cache, key, checksum, overlay.getWidth(),
+                    overlay.getHeight(), buffer);
+            Log.i(TAG, "loadOverlay: cache written for " + key);
+        } catch (IOException e) {
+            // decoded again on the next start
+            Log.w(TAG, "loadOverlay: cannot write " + cache, e);
+        }
+        return overlay;
+    }
+
+    private static long packageUpdateTime(Context app) throws IOException {
+        try {
+            return app.getPackageManager().getPackageInfo(app.getPackageName(), 0)
+                    .lastUpdateTime;
+        } catch (PackageManager.NameNotFoundException e) {
+            throw new IOException("no package info for " + app.getPackageName(), e);
+        }
+    }
+
+    /** The overlay, waiting for the phase if needed. Not for the UI thread. */
+    static Bitmap getOverlay(Context context) {
+        start(context);
+        Bitmap overlay = getResult(sOverlay);
+        if (overlay == null) {
+            overlay = BitmapFactory.decodeResource(context.getResources(), R.drawable.overlay);
+        }
+        return overlay;
+    }
+
+    /**
+     * The raw frame pool shared by every preview of the process, waiting for
+     * its phase if needed. There is one webcam, so one preview captures at a
+     * time, and a preview has all its frames back in the pool once its
+     * capture loop has stopped; the pool never has to be handed back.
+     */
+    static synchronized FramePool getFramePool() {
+        if (sSharedFramePool == null) {
+            FramePool pool = sFramePool != null ? getResult(sFramePool) : null;
+            sSharedFramePool = pool != null ? pool : newFramePool();
+        }
+        return sSharedFramePool;
+    }
+
+    private static FramePool newFramePool() {
+        return new FramePool(V4l2FrameSource.WIDTH * V4l2FrameSource.HEIGHT * 2,
+                CameraPreview.RAW_FRAMES);
+    }
+
+    /**
+     * Remembers the size of the preview surface, so the next start prepares
+     * the frames and the overlay for it instead of for the display. Main
+     * thread.
+     */
+    static void noteSurfaceSize(Context context, int width, int height) {
+        if (width == sNotedWidth && height == sNotedHeight) {
+            return;
+        }
+        sNotedWidth = width;
+        sNotedHeight = height;
+        context.getApplicationContext().getSharedPreferences(PREFERENCES, Context.MODE_PRIVATE)
+                .edit()
+                .putInt(KEY_SURFACE_WIDTH, width)
+                .putInt(KEY_SURFACE_HEIGHT, height)
+                .apply();
+    }
+
+    /**
+     * The clip recorder shared by every preview of the process, or null if
+     * its phase has not finished yet or failed. Never waits.
+     */
+    static ClipRecorder peekClipRecorder() {
+        StartupPipeline.Phase<ClipRecorder> clips;
+        synchronized (CameraStartup.class) {
+            clips = sClips;
+        }
+        return clips != null && clips.isDone() ? getResult(clips) : null;
+    }
+
+    /** Surface-sized ARGB_8888 bitmaps shared by every preview of the process. */
+    static BufferPool<Bitmap> getBitmapPool() {
+        return sBitmapPool;
+    }
+
+    /**
+     * Surface-sized direct pixel buffers in the byte order of the bitmaps,
+     * for converted frames, shared likewise.
+     */
+    static BufferPool<IntBuffer> getPixelPool() {
+        return sPixelPool;
+    }
+
+    static synchronized void mark(String milestone) {
+        if (sPipeline != null) {
+            sPipeline.mark(milestone);
+        }
+    }
+
+    static synchronized void dump(PrintWriter writer) {
+        if (sPipeline == null) {
+            writer.println("startup not run");
+            return;
+        }
+        writer.println("startup " + sStartedSinceBootMillis + " ms after boot (ms):");
+        sPipeline.dump(writer);
+        writer.println(sBitmapPool);
+        writer.println(sPixelPool);
+    }
+
+    private static <T> T getResult(StartupPipeline.Phase<T> phase) {
+        try {
+            return phase.get();
+        } catch (ExecutionException e) {
+            Log.w(TAG, phase.getName() + " failed", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return null;
+    }
+}
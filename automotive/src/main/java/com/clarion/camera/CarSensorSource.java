@@ -0,0 +1,131 @@
+package com.clarion.camera;
+
+import android.car.Car;
+import android.car.CarNotConnectedException;
+import android.car.hardware.CarSensorEvent;
+import android.car.hardware.CarSensorManager;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.ServiceConnection;
+import android.content.pm.PackageManager;
+import android.os.IBinder;
+import android.util.Log;
+
+/**
+ * The single Car service connection of the process. Once connected it
+ * attaches itself to {@link VehicleDataHub}, which decides what is
+ * subscribed at which rate, and feeds it every sensor event.
+ *
+ * This car SDK has no steering sensor type, so steering subscriptions are
+ * ignored here and the hub's steering slot stays empty.
+ */
+final class CarSensorSource implements VehicleDataHub.SensorSource {
+    private static final String TAG = "CarSensorSource";
+
+    private static CarSensorSource sInstance;
+
+    private final VehicleDataHub mHub;
+    private final Car mCar;
+    private volatile CarSensorManager mSensorManager;
+
+    private final ServiceConnection mConnection = new ServiceConnection() {
+        @Override
+        public void onServiceConnected(ComponentName className, IBinder service) {
+            Log.d(TAG, "onServiceConnected: Connected to Car Service");
+            CameraStartup.mark(CameraStartup.MILESTONE_CAR_CONNECTED);
+            try {
+                mSensorManager = (CarSensorManager) mCar.getCarManager(Car.SENSOR_SERVICE);
+                mHub.attach(CarSensorSource.this);
+            } catch (CarNotConnectedException e) {
+                Log.e(TAG, "Car not connected in onServiceConnected");
+            }
+        }
+
+        @Override
+        public void onServiceDisconnected(ComponentName className) {
+            Log.d(TAG, "onServiceDisconnected: Disconnected from Car Service");
+            mHub.detach(CarSensorSource.this);
+            mSensorManager = null;
+        }
+    };
+
+    private final CarSensorManager.OnSensorChangedListener mListener =
+            new CarSensorManager.OnSensorChangedListener() {
+        @Override
+        public void onSensorChanged(CarSensorEvent carSensorEvent) {
+            switch (carSensorEvent.sensorType) {
+                case CarSensorManager.SENSOR_TYPE_GEAR:
+                    if (carSensorEvent.intValues.length > 0) {
+                        PipelineTrace.RING.trace(PipelineTrace.SENSOR_GEAR,
+                                carSensorEvent.intValues[0]);
+                        mHub.onGear(carSensorEvent.intValues[0], carSensorEvent.timestamp);
+                    }
+                    break;
+                case CarSensorManager.SENSOR_TYPE_CAR_SPEED:
+                    if (carSensorEvent.floatValues.length > 0) {
+                        PipelineTrace.RING.trace(PipelineTrace.SENSOR_SPEED,
+                                carSensorEvent.floatValues[0]);
+                        mHub.onSpeed(carSensorEvent.floatValues[0], carSensorEvent.timestamp);
+                    }
+                    break;
+                default:
+                    PipelineTrace.RING.trace(PipelineTrace.SENSOR_UNHANDLED,
+                            carSensorEvent.sensorType);
+            }
+        }
+    };
+
+    private CarSensorSource(Context context, VehicleDataHub hub) {
+        mHub = hub;
+        mCar = Car.createCar(context, mConnection);
+    }
+
+    /**
+     * Creates the connection on first use and (re)connects it if needed.
+     * Main thread.
+     */
+    static synchronized void connect(Context context) {
+        if (sInstance == null) {
+            if (!context.getPackageManager().hasSystemFeature(
+                    PackageManager.FEATURE_AUTOMOTIVE)) {
+                Log.w(TAG, "connect: FEATURE_AUTOMOTIVE not available");
+                return;
+            }
+            sInstance = new CarSensorSource(context.getApplicationContext(),
+                    VehicleDataHub.getInstance());
+        }
+        Car car = sInstance.mCar;
+        if (!car.isConnected() && !car.isConnecting()) {
+            car.connect();
+        }
+    }
+
+    @Override
+    public void setRate(int sensor, int rate) {
+        CarSensorManager sensorManager = mSensorManager;
+        int sensorType = toCarSensorType(sensor);
+        if (sensorManager == null || sensorType < 0) {
+            return;
+        }
+        PipelineTrace.RING.trace(PipelineTrace.SENSOR_RATE, sensorType, rate);
+        try {
+            sensorManager.unregisterListener(mListener, sensorType);
+            if (rate != VehicleDataHub.RATE_OFF) {
+                sensorManager.registerListener(mListener, sensorType, rate);
+            }
+        } catch (CarNotConnectedException e) {
+            Log.e(TAG, "Can not connected in SENSOR");
+        }
+    }
+
+    private static int toCarSensorType(int sensor) {
+        switch (sensor) {
+            case VehicleDataHub.SENSOR_GEAR:
+                return CarSensorManager.SENSOR_TYPE_GEAR;
+            case VehicleDataHub.SENSOR_SPEED:
+                return CarSensorManager.SENSOR_TYPE_CAR_SPEED;
+            default:
+                return -1;
+        }
+    }
+}
@@ -0,0 +1,384 @@
+package com.clarion.camera;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Keeps the last seconds of raw frames and vehicle state in memory and
+ * writes them to a {@link PipelineLog} clip when something happens: an
+ * explicit {@link #trigger}, hard braking, or a gear change reported by
+ * {@link SensorManagerMonitorService}.
+ *
+ * All frame buffers are allocated up front within a fixed memory budget.
+ * If the budget holds fewer frames than the window at the camera rate, only
+ * every n-th frame is kept, evenly spaced over the window. Clips are written
+ * by a single low-priority thread; the slots of a clip stay pinned until
+ * they are written, and frames that arrive while every slot is pinned are
+ * dropped and counted. The capture thread never waits for the disk and the
+ * render thread is not involved at all.
+ */
+class ClipRecorder {
+    private static final String TAG = "ClipRecorder";
+
+    private static final int FREE = 0;
+    private static final int FILLING = 1;
+    private static final int FILLED = 2;
+    private static final int PINNED = 3;
+
+    // a drop of more than this many m/s per second counts as hard braking
+    static final float DEFAULT_HARD_BRAKE_DECELERATION = 6f;
+    // speed samples closer than this are too noisy to tell braking apart
+    private static final long MIN_BRAKE_INTERVAL_NANOS = 100000000L;
+
+    /** Told about clips that could not be written, on the writer thread. */
+    interface ErrorListener {
+        void onClipFailed(File clip, IOException error);
+    }
+
+    private final File mDirectory;
+    private final int mWidth;
+    private final int mHeight;
+    private final long mWindowNanos;
+    private final long mMinFrameIntervalNanos;
+    private volatile VehicleManager mVehicleManager;
+    private final VehicleManager.VehicleState mVehicleState =
+            new VehicleManager.VehicleState();
+    private float mHardBrakeDeceleration = DEFAULT_HARD_BRAKE_DECELERATION;
+    private volatile ErrorListener mErrorListener;
+
+    // ring of slots, guarded by mLock; frame bytes are copied outside of it
+    private final Object mLock = new Object();
+    private final ByteBuffer[] mFrames;
+    private final long[] mTimestamps;
+    private final int[] mGears;
+    private final float[] mSpeeds;
+    private final float[] mSteeringAngles;
+    private final int[] mStates;
+    private int mNext = 0;
+    private long mLastKeptNanos = 0;
+
+    // clip handed to the writer thread
+    private final int[] mClipSlots;
+    private int mClipLength = 0;
+    private String mClipReason;
+    private boolean mClipPending = false;
+    private boolean mWriting = false;
+    private boolean mShutdown = false;
+    private final Thread mWriter;
+
+    // capture thread only
+    private float mLastSpeed = 0;
+    private long mLastSpeedNanos = 0;
+
+    private long mKeptFrames = 0;
+    private long mSkippedFrames = 0;
+    private long mDroppedFrames = 0;
+    private long mClipsWritten = 0;
+    private long mIgnoredTriggers = 0;
+    private long mFailedClips = 0;
+    private File mLastClip;
+
+    /**
+     * @param windowSeconds length of the pre-roll kept in memory
+     * @param budgetBytes   memory for the frame buffers; at least two frames
+     * @param cameraFps     rate frames are offered at
+     */
+    ClipRecorder(File directory, int width, int height, int windowSeconds,
+                 long budgetBytes, int cameraFps, VehicleManager vehicleManager) {
+        int frameBytes = width * height * 2;
+        long slots = Math.min(budgetBytes / frameBytes, (long) windowSeconds * cameraFps);
+        if (slots < 2) {
+            throw new IllegalArgumentException("budget of " + budgetBytes
+                    + " bytes holds less than two frames");
+        }
+        mDirectory = directory;
+        mWidth = width;
+        mHeight = height;
+        mWindowNanos = windowSeconds * 1000000000L;
+        // at the camera rate, unless the budget forces fewer frames
+        mMinFrameIntervalNanos = Math.max(1000000000L / cameraFps, mWindowNanos / slots)
+                - 1000000000L / cameraFps / 2;
+        mVehicleManager = vehicleManager;
+
+        int count = (int) slots;
+        mFrames = new ByteBuffer[count];
+        for (int i = 0; i < count; i++) {
+            mFrames[i] = ByteBuffer.allocateDirect(frameBytes);
+        }
+        mTimestamps = new long[count];
+        mGears = new int[count];
+        mSpeeds = new float[count];
+        mSteeringAngles = new float[count];
+        mStates = new int[count];
+        mClipSlots = new int[count];
+
+        mWriter = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writerLoop();
+            }
+        }, TAG);
+        mWriter.setPriority(Thread.MIN_PRIORITY);
+        mWriter.setDaemon(true);
+        mWriter.start();
+    }
+
+    int getCapacity() {
+        return mFrames.length;
+    }
+
+    /**
+     * Whose state is kept with the frames; the recorder outlives the views,
+     * each attaches its own. Only while no frames are offered.
+     */
+    void setVehicleManager(VehicleManager vehicleManager) {
+        mVehicleManager = vehicleManager;
+        // speeds of another vehicle manager are no reference for braking
+        mLastSpeedNanos = 0;
+    }
+
+    VehicleManager getVehicleManager() {
+        return mVehicleManager;
+    }
+
+    void setErrorListener(ErrorListener listener) {
+        mErrorListener = listener;
+    }
+
+    void setHardBrakeDeceleration(float metersPerSecondSquared) {
+        mHardBrakeDeceleration = metersPerSecondSquared;
+    }
+
+    /**
+     * Capture thread: keeps a copy of the frame with the current vehicle
+     * state, unless the frame falls between two kept frames or every slot
+     * is pinned by a clip being written.
+     */
+    void offerFrame(ByteBuffer yuyv, long timestampNanos) {
+        VehicleManager vehicleManager = mVehicleManager;
+        if (vehicleManager != null) {
+            vehicleManager.readSnapshot(mVehicleState);
+            checkHardBraking(mVehicleState.speed, mVehicleState.speedTimestampNanos);
+        }
+
+        int slot;
+        synchronized (mLock) {
+            if (mLastKeptNanos != 0
+                    && timestampNanos - mLastKeptNanos < mMinFrameIntervalNanos) {
+                mSkippedFrames++;
+                return;
+            }
+            slot = mNext;
+            if (mStates[slot] == PINNED) {
+                mDroppedFrames++;
+                return;
+            }
+            mStates[slot] = FILLING;
+            mNext = (slot + 1) % mFrames.length;
+            mLastKeptNanos = timestampNanos;
+        }
+
+        ByteBuffer target = mFrames[slot];
+        target.clear();
+        int position = yuyv.position();
+        target.put(yuyv);
+        yuyv.position(position);
+        target.flip();
+
+        synchronized (mLock) {
+            mTimestamps[slot] = timestampNanos;
+            mGears[slot] = mVehicleState.gearPos;
+            mSpeeds[slot] = mVehicleState.speed;
+            mSteeringAngles[slot] = (float) mVehicleState.steeringAngle;
+            mStates[slot] = FILLED;
+            mKeptFrames++;
+        }
+    }
+
+    /**
+     * Writes the frames of the last window to a new clip in the background.
+     * Ignored while the previous clip is still being written.
+     *
+     * @return false if the trigger was ignored
+     */
+    boolean trigger(String reason) {
+        synchronized (mLock) {
+            if (mClipPending || mWriting || mShutdown) {
+                mIgnoredTriggers++;
+                return false;
+            }
+            long newest = mLastKeptNanos;
+            int length = 0;
+            // oldest first: the ring starts at the next slot to be written
+            for (int i = 0; i < mFrames.length; i++) {
+                int slot = (mNext + i) % mFrames.length;
+                if (mStates[slot] == FILLED && newest - mTimestamps[slot] <= mWindowNanos) {
+                    mStates[slot] = PINNED;
+                    mClipSlots[length++] = slot;
+                }
+            }
+            if (length == 0) {
+                mIgnoredTriggers++;
+                return false;
+            }
+            mClipLength = length;
+            mClipReason = reason;
+            mClipPending = true;
+            mLock.notifyAll();
+            return true;
+        }
+    }
+
+    /** Waits until no clip is pending or being written, for tests and shutdown. */
+    boolean awaitIdle(long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        synchronized (mLock) {
+            while (mClipPending || mWriting) {
+                long wait = deadline - System.currentTimeMillis();
+                if (wait <= 0) {
+                    return false;
+                }
+                mLock.wait(wait);
+            }
+            return true;
+        }
+    }
+
+    /** Stops the writer thread once the current clip is written. */
+    void shutdown() {
+        synchronized (mLock) {
+            mShutdown = true;
+            mLock.notifyAll();
+        }
+    }
+
+    File getLastClip() {
+        synchronized (mLock) {
+            return mLastClip;
+        }
+    }
+
+    long getDroppedFrames() {
+        synchronized (mLock) {
+            return mDroppedFrames;
+        }
+    }
+
+    long getClipsWritten() {
+        synchronized (mLock) {
+            return mClipsWritten;
+        }
+    }
+
+    @Override
+    public String toString() {
+        synchronized (mLock) {
+            return "ClipRecorder{slots=" + mFrames.length
+                    + ", kept=" + mKeptFrames
+                    + ", skipped=" + mSkippedFrames
+                    + ", dropped=" + mDroppedFrames
+                    + ", clips=" + mClipsWritten
+                    + ", failed=" + mFailedClips
+                    + ", ignoredTriggers=" + mIgnoredTriggers + "}";
+        }
+    }
+
+    private void checkHardBraking(float speed, long timestampNanos) {
+        if (timestampNanos == 0 || timestampNanos - mLastSpeedNanos < MIN_BRAKE_INTERVAL_NANOS) {
+            return;
+        }
+        if (mLastSpeedNanos != 0) {
+            float deceleration = (mLastSpeed - speed)
+                    / ((timestampNanos - mLastSpeedNanos) / 1e9f);
+            if (deceleration > mHardBrakeDeceleration) {
+                trigger("hardbrake");
+            }
+        }
+        mLastSpeed = speed;
+        mLastSpeedNanos = timestampNanos;
+    }
+
+    private void writerLoop() {
+        while (true) {
+            int length;
+            String reason;
+            synchronized (mLock) {
+                while (!mClipPending && !mShutdown) {
+                    try {
+                        mLock.wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (!mClipPending) {
+                    return;
+                }
+                mClipPending = false;
+                mWriting = true;
+                length = mClipLength;
+                reason = mClipReason;
+            }
+
+            File file = new File(mDirectory, "clip-" + System.currentTimeMillis()
+                    + "-" + reason.replaceAll("[^A-Za-z0-9]", "") + ".clog");
+            boolean written = writeClip(file, length);
+
+            synchronized (mLock) {
+                mWriting = false;
+                if (written) {
+                    mClipsWritten++;
+                    mLastClip = file;
+                } else {
+                    mFailedClips++;
+                }
+                mLock.notifyAll();
+            }
+        }
+    }
+
+    // writes the pinned slots oldest first and hands each one back right away
+    private boolean writeClip(File file, int length) {
+        PipelineLog.Writer log = null;
+        boolean written = false;
+        int done = 0;
+        try {
+            mDirectory.mkdirs();
+            log = new PipelineLog.Writer(file, mWidth, mHeight);
+            for (; done < length; done++) {
+                int slot = mClipSlots[done];
+                long timestamp = mTimestamps[slot];
+                log.writeGearPos(mGears[slot], timestamp);
+                log.writeSpeed(mSpeeds[slot], timestamp);
+                log.writeSteeringAngle(mSteeringAngles[slot], timestamp);
+                log.writeFrame(mFrames[slot], timestamp);
+                unpin(slot);
+            }
+            log.close();
+            written = true;
+        } catch (IOException e) {
+            ErrorListener listener = mErrorListener;
+            if (listener != null) {
+                listener.onClipFailed(file, e);
+            }
+        } finally {
+            for (; done < length; done++) {
+                unpin(mClipSlots[done]);
+            }
+            if (!written && log != null) {
+                try {
+                    log.close();
+                } catch (IOException e) {
+                    // already failed
+                }
+            }
+        }
+        return written;
+    }
+
+    private void unpin(int slot) {
+        synchronized (mLock) {
+            mStates[slot] = FILLED;
+        }
+    }
+}
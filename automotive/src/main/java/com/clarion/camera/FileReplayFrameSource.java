@@ -0,0 +1,110 @@
+package com.clarion.camera;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Replays raw YUYV frames from a file, back to back without any header, at
+ * a fixed frame rate. Starts over at the end of the file if looping is
+ * enabled, otherwise {@link #nextFrame()} throws once the file is exhausted.
+ */
+class FileReplayFrameSource implements FrameSource {
+    private final File mFile;
+    private final int mWidth;
+    private final int mHeight;
+    private final int mFrameBytes;
+    private final FramePacer mPacer;
+    private final boolean mLoop;
+    private final FramePool mPool;
+
+    private FileInputStream mInput;
+    private FileChannel mChannel;
+    private long mSequence;
+
+    FileReplayFrameSource(File file, int width, int height, int fps, boolean loop,
+                          FramePool pool) {
+        if (pool.getFrameBytes() < width * height * 2) {
+            throw new IllegalArgumentException("pool buffers too small for "
+                    + width + "x" + height);
+        }
+        mFile = file;
+        mWidth = width;
+        mHeight = height;
+        mFrameBytes = width * height * 2;
+        mPacer = new FramePacer(fps);
+        mLoop = loop;
+        mPool = pool;
+    }
+
+    @Override
+    public int getWidth() {
+        return mWidth;
+    }
+
+    @Override
+    public int getHeight() {
+        return mHeight;
+    }
+
+    @Override
+    public void open() throws IOException {
+        if (mFile.length() < mFrameBytes) {
+            throw new IOException(mFile + " does not hold a single "
+                    + mWidth + "x" + mHeight + " frame");
+        }
+        mInput = new FileInputStream(mFile);
+        mChannel = mInput.getChannel();
+        mPacer.reset();
+        mSequence = 0;
+    }
+
+    @Override
+    public RawFrame nextFrame() throws IOException, InterruptedException {
+        mPacer.awaitNextFrame();
+
+        RawFrame frame = mPool.acquire();
+        try {
+            if (mChannel.size() - mChannel.position() < mFrameBytes) {
+                // a trailing partial frame is skipped
+                if (!mLoop) {
+                    throw new IOException("end of " + mFile);
+                }
+                mChannel.position(0);
+            }
+            ByteBuffer data = frame.getData();
+            data.limit(mFrameBytes);
+            while (data.hasRemaining()) {
+                if (mChannel.read(data) < 0) {
+                    throw new IOException("unexpected end of " + mFile);
+                }
+            }
+            data.flip();
+        } catch (Throwable e) {
+            frame.release();
+            throw e;
+        }
+        frame.set(System.nanoTime(), ++mSequence);
+        return frame;
+    }
+
+    @Override
+    public void wakeUp() {
+        mPacer.wakeUp();
+    }
+
+    @Override
+    public void close() {
+        if (mInput != null) {
+            try {
+                mInput.close();
+            } catch (IOException e) {
+                // nothing left to do with the file
+            }
+            mInput = null;
+            mChannel = null;
+        }
+    }
+}
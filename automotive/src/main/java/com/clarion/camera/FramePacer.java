@@ -0,0 +1,47 @@
+package com.clarion.camera;
+
+/**
+ * Paces a frame source that is not clocked by hardware to a fixed frame
+ * rate. If the caller falls behind by more than a frame, the missed frames
+ * are skipped instead of being delivered in a burst, as a camera would.
+ */
+class FramePacer {
+    private final long mFrameIntervalNanos;
+    private final WakeableSleep mSleep = new WakeableSleep();
+    private long mNextFrameNanos = 0;
+
+    FramePacer(int fps) {
+        if (fps <= 0) {
+            throw new IllegalArgumentException("fps must be positive: " + fps);
+        }
+        mFrameIntervalNanos = 1000000000L / fps;
+    }
+
+    /** The next frame is delivered right away. */
+    void reset() {
+        mNextFrameNanos = 0;
+    }
+
+    /**
+     * Sleeps until the next frame is due.
+     *
+     * @throws InterruptedException if woken, see {@link #wakeUp()}; the
+     *         frame is still due
+     */
+    void awaitNextFrame() throws InterruptedException {
+        long now = System.nanoTime();
+        if (mNextFrameNanos == 0) {
+            mNextFrameNanos = now;
+        }
+        if (mNextFrameNanos - now < -mFrameIntervalNanos) {
+            mNextFrameNanos = now;
+        }
+        mSleep.until(mNextFrameNanos);
+        mNextFrameNanos += mFrameIntervalNanos;
+    }
+
+    /** Cuts the current or the next {@link #awaitNextFrame()} short. Any thread. */
+    void wakeUp() {
+        mSleep.wakeUp();
+    }
+}
@@ -0,0 +1,71 @@
+package com.clarion.camera;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Fixed set of direct buffers for raw camera frames. Buffers are allocated
+ * once and recycled through {@link #acquire()} and {@link RawFrame#release()},
+ * so capturing never allocates and native code can write straight into
+ * them. When every buffer is in use, acquire blocks until one comes back,
+ * which throttles a source that runs ahead of the pipeline.
+ */
+class FramePool {
+    private final int mFrameBytes;
+    private final RawFrame[] mFree;
+    private int mFreeCount;
+    private final Object mLock = new Object();
+
+    FramePool(int frameBytes, int frames) {
+        if (frameBytes <= 0 || frames <= 0) {
+            throw new IllegalArgumentException("invalid pool " + frames + "x" + frameBytes);
+        }
+        mFrameBytes = frameBytes;
+        mFree = new RawFrame[frames];
+        for (int i = 0; i < frames; i++) {
+            mFree[i] = new RawFrame(this, ByteBuffer.allocateDirect(frameBytes));
+        }
+        mFreeCount = frames;
+    }
+
+    int getFrameBytes() {
+        return mFrameBytes;
+    }
+
+    int getCapacity() {
+        return mFree.length;
+    }
+
+    int getFreeCount() {
+        synchronized (mLock) {
+            return mFreeCount;
+        }
+    }
+
+    /** Takes a free frame, waiting for one to be released if necessary. */
+    RawFrame acquire() throws InterruptedException {
+        synchronized (mLock) {
+            while (mFreeCount == 0) {
+                mLock.wait();
+            }
+            RawFrame frame = mFree[--mFreeCount];
+            mFree[mFreeCount] = null;
+            frame.getData().clear();
+            return frame;
+        }
+    }
+
+    void release(RawFrame frame) {
+        synchronized (mLock) {
+            if (mFreeCount == mFree.length) {
+                throw new IllegalStateException("frame released twice");
+            }
+            for (int i = 0; i < mFreeCount; i++) {
+                if (mFree[i] == frame) {
+                    throw new IllegalStateException("frame released twice");
+                }
+            }
+            mFree[mFreeCount++] = frame;
+            mLock.notify();
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package com.clarion.camera;
+
+/**
+ * Paces the render loop of {@link CameraPreview}. A frame is only rendered
+ * after a new camera frame or a new overlay state has been signalled, and
+ * never faster than the target frame rate.
+ *
+ * Frames that are superseded by a newer one before they could be rendered
+ * are counted as dropped; renders that start more than one frame interval
+ * after their frame became ready are counted as late.
+ */
+class FrameScheduler {
+    static final int DEFAULT_TARGET_FPS = 30;
+    private static final long NANOS_PER_SECOND = 1000000000L;
+    private static final long NANOS_PER_MILLI = 1000000L;
+
+    private final Object mLock = new Object();
+    private final NanoClock mClock;
+    private long mFrameIntervalNanos;
+
+    private boolean mFramePending = false;
+    private boolean mOverlayPending = false;
+    private boolean mStopped = false;
+    private long mReadyTimeNanos;
+    private long mLastRenderTimeNanos;
+
+    private long mRenderedFrames = 0;
+    private long mDroppedFrames = 0;
+    private long mLateFrames = 0;
+
+    FrameScheduler(int targetFps) {
+        this(targetFps, NanoClock.SYSTEM);
+    }
+
+    FrameScheduler(int targetFps, NanoClock clock) {
+        mClock = clock;
+        setTargetFps(targetFps);
+    }
+
+    /** Caps the render rate; the first frame after a pause is never delayed. */
+    void setTargetFps(int targetFps) {
+        if (targetFps <= 0) {
+            throw new IllegalArgumentException("targetFps must be positive: " + targetFps);
+        }
+        synchronized (mLock) {
+            mFrameIntervalNanos = NANOS_PER_SECOND / targetFps;
+            mLock.notifyAll();
+        }
+    }
+
+    long getFrameIntervalNanos() {
+        synchronized (mLock) {
+            return mFrameIntervalNanos;
+        }
+    }
+
+    /** Called by the capture side once a new camera frame can be drawn. */
+    void onFrameAvailable() {
+        synchronized (mLock) {
+            if (mFramePending) {
+                mDroppedFrames++;
+            }
+            markReady();
+            mFramePending = true;
+            mLock.notifyAll();
+        }
+    }
+
+    /** Called when the overlay state changed and the current frame must be redrawn. */
+    void onOverlayChanged() {
+        synchronized (mLock) {
+            markReady();
+            mOverlayPending = true;
+            mLock.notifyAll();
+        }
+    }
+
+    /**
+     * Blocks until something new is ready to render and the target frame
+     * interval since the previous render has elapsed.
+     *
+     * @return true if the caller should render a frame now, false once
+     *         {@link #stop()} has been called
+     */
+    boolean awaitRender() throws InterruptedException {
+        synchronized (mLock) {
+            while (true) {
+                if (mStopped) {
+                    return false;
+                }
+                if (!mFramePending && !mOverlayPending) {
+                    mLock.wait();
+                    continue;
+                }
+                long wait = tryRenderLocked(mClock.nanoTime());
+                if (wait > 0) {
+                    mLock.wait(wait / NANOS_PER_MILLI, (int) (wait % NANOS_PER_MILLI));
+                    continue;
+                }
+                return true;
+            }
+        }
+    }
+
+    /**
+     * {@link #awaitRender()} without blocking.
+     *
+     * @return true if the caller should render a frame now, false if nothing
+     *         is pending, the frame interval has not elapsed or it is stopped
+     */
+    boolean tryRender() {
+        synchronized (mLock) {
+            return !mStopped && (mFramePending || mOverlayPending)
+                    && tryRenderLocked(mClock.nanoTime()) == 0;
+        }
+    }
+
+    // counts the render and returns 0 if it may start now, else the time to wait
+    private long tryRenderLocked(long now) {
+        long wait = mLastRenderTimeNanos + mFrameIntervalNanos - now;
+        if (mRenderedFrames > 0 && wait > 0) {
+            return wait;
+        }
+        if (now - mReadyTimeNanos > mFrameIntervalNanos) {
+            mLateFrames++;
+        }
+        mFramePending = false;
+        mOverlayPending = false;
+        mLastRenderTimeNanos = now;
+        mRenderedFrames++;
+        return 0;
+    }
+
+    /** Wakes up the render loop and makes {@link #awaitRender()} return false. */
+    void stop() {
+        synchronized (mLock) {
+            mStopped = true;
+            mLock.notifyAll();
+        }
+    }
+
+    /** Re-arms the scheduler after {@link #stop()}, keeping the statistics. */
+    void start() {
+        synchronized (mLock) {
+            mStopped = false;
+            mFramePending = false;
+            mOverlayPending = false;
+        }
+    }
+
+    long getRenderedFrames() {
+        synchronized (mLock) {
+            return mRenderedFrames;
+        }
+    }
+
+    long getDroppedFrames() {
+        synchronized (mLock) {
+            return mDroppedFrames;
+        }
+    }
+
+    long getLateFrames() {
+        synchronized (mLock) {
+            return mLateFrames;
+        }
+    }
+
+    @Override
+    public String toString() {
+        synchronized (mLock) {
+            return "FrameScheduler{fps=" + (NANOS_PER_SECOND / mFrameIntervalNanos)
+                    + ", rendered=" + mRenderedFrames
+                    + ", dropped=" + mDroppedFrames
+                    + ", late=" + mLateFrames + "}";
+        }
+    }
+
+    private void markReady() {
+        if (!mFramePending && !mOverlayPending) {
+            mReadyTimeNanos = mClock.nanoTime();
+        }
+    }
+}
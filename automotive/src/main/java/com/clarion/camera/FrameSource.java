@@ -0,0 +1,39 @@
+package com.clarion.camera;
+
+import java.io.IOException;
+
+/**
+ * Where the rear view picture comes from: the V4L2 webcam, a synthetic test
+ * pattern or a recorded file. Every source delivers packed YUYV frames of a
+ * fixed size in buffers of a {@link FramePool}.
+ *
+ * A source is opened and closed on the main thread while the capture loop
+ * is not running, i.e. paused or stopped, and read on the capture thread
+ * only, so implementations need no locking of their own, except for
+ * {@link #wakeUp()}.
+ */
+interface FrameSource {
+
+    int getWidth();
+
+    int getHeight();
+
+    /** Opens the device or file; throws if the source is not available. */
+    void open() throws IOException;
+
+    /**
+     * Blocks until the next frame is available.
+     *
+     * @return a pooled frame the caller has to {@link RawFrame#release()}
+     */
+    RawFrame nextFrame() throws IOException, InterruptedException;
+
+    /**
+     * Makes a {@link #nextFrame()} blocked on another thread, or the next
+     * call if none is, throw InterruptedException without a frame, so the
+     * capture loop can park or end. Any thread.
+     */
+    void wakeUp();
+
+    void close();
+}
@@ -0,0 +1,181 @@
+package com.clarion.camera;
+
+/**
+ * Projected reversing guide lines, precomputed for every quantized steering
+ * angle.
+ *
+ * The path of the rear wheels is taken from a bicycle model of the vehicle
+ * (a circle around the instantaneous turning center for the road wheel
+ * angle) and projected onto the screen through a pinhole model of the rear
+ * camera. All of that happens in {@link #setViewport} for the whole angle
+ * range; a frame then only looks up the segments of its angle bucket and
+ * hands them to {@code Canvas#drawLines(float[], int, int, Paint)}.
+ *
+ * Positive steering angles bend the far end of the lines to the right of the
+ * (mirrored) picture. Distances are in meters, angles in degrees.
+ */
+class GuideLineGeometry {
+    static final int SEGMENTS_PER_LINE = 16;
+    // two lines, each SEGMENTS_PER_LINE segments of (x0, y0, x1, y1)
+    static final int FLOATS_PER_ANGLE = 2 * SEGMENTS_PER_LINE * 4;
+
+    /**
+     * Vehicle and camera parameters. Defaults describe a mid-size car with
+     * the camera above the license plate.
+     */
+    static class Params {
+        double wheelbase = 2.7;
+        double trackWidth = 1.55;
+        // from the rear axle back to the camera
+        double cameraOffset = 1.0;
+        double cameraHeight = 1.0;
+        // downward tilt of the optical axis
+        double cameraPitchDegrees = 30;
+        double horizontalFovDegrees = 120;
+        // steering wheel angle per road wheel angle
+        double steeringRatio = 16;
+        double maxSteeringAngle = 540;
+        // length of the lines, measured from the camera along the path
+        double minDistance = 0.3;
+        double maxDistance = 3.5;
+        double angleStep = 1;
+    }
+
+    private final Params mParams;
+    private final int mAngleCount;
+
+    private int mWidth;
+    private int mHeight;
+    private float[] mPoints;
+
+    GuideLineGeometry() {
+        this(new Params());
+    }
+
+    GuideLineGeometry(Params params) {
+        if (params.angleStep <= 0 || params.maxSteeringAngle <= 0
+                || params.maxDistance <= params.minDistance) {
+            throw new IllegalArgumentException("invalid guide line parameters");
+        }
+        mParams = params;
+        mAngleCount = 2 * (int) Math.ceil(params.maxSteeringAngle / params.angleStep) + 1;
+    }
+
+    /**
+     * Rebuilds the table for the given screen size.
+     *
+     * @return false if the size did not change and the table was kept
+     */
+    boolean setViewport(int width, int height) {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("invalid viewport " + width + "x" + height);
+        }
+        if (mPoints != null && width == mWidth && height == mHeight) {
+            return false;
+        }
+        mWidth = width;
+        mHeight = height;
+        float[] points = mPoints != null ? mPoints : new float[mAngleCount * FLOATS_PER_ANGLE];
+        for (int index = 0; index < mAngleCount; index++) {
+            project(angleOf(index), points, index * FLOATS_PER_ANGLE);
+        }
+        mPoints = points;
+        return true;
+    }
+
+    /** Table index of the bucket closest to the steering angle. */
+    int indexFor(double steeringAngle) {
+        int half = mAngleCount / 2;
+        long index = Math.round(steeringAngle / mParams.angleStep) + half;
+        if (index < 0) {
+            return 0;
+        }
+        if (index >= mAngleCount) {
+            return mAngleCount - 1;
+        }
+        return (int) index;
+    }
+
+    /** Steering angle the bucket was built for. */
+    double angleOf(int index) {
+        return (index - mAngleCount / 2) * mParams.angleStep;
+    }
+
+    int getAngleCount() {
+        return mAngleCount;
+    }
+
+    /** All buckets, {@link #FLOATS_PER_ANGLE} floats each; null before {@link #setViewport}. */
+    float[] getPoints() {
+        return mPoints;
+    }
+
+    /** Offset of the bucket's first segment in {@link #getPoints()}. */
+    int getOffset(int index) {
+        return index * FLOATS_PER_ANGLE;
+    }
+
+    private void project(double steeringAngle, float[] out, int offset) {
+        Params p = mParams;
+        double roadWheelAngle = Math.toRadians(steeringAngle / p.steeringRatio);
+        // signed curvature of the rear axle path, 1/m
+        double curvature = Math.tan(roadWheelAngle) / p.wheelbase;
+
+        double pitch = Math.toRadians(p.cameraPitchDegrees);
+        double sinPitch = Math.sin(pitch);
+        double cosPitch = Math.cos(pitch);
+        double focal = 0.5 * mWidth / Math.tan(Math.toRadians(p.horizontalFovDegrees) / 2);
+        double centerX = 0.5 * mWidth;
+        double centerY = 0.5 * mHeight;
+
+        // the path starts at the camera, which is cameraOffset behind the axle
+        double start = p.cameraOffset + p.minDistance;
+        double end = p.cameraOffset + p.maxDistance;
+        if (curvature != 0) {
+            // stop after a quarter turn, the lines would bend back behind the camera
+            end = Math.min(end, 0.5 * Math.PI / Math.abs(curvature));
+            start = Math.min(start, end);
+        }
+
+        int out0 = offset;
+        for (int side = -1; side <= 1; side += 2) {
+            double lateral = side * 0.5 * p.trackWidth;
+            float lastX = 0;
+            float lastY = 0;
+            for (int i = 0; i <= SEGMENTS_PER_LINE; i++) {
+                double s = start + (end - start) * i / SEGMENTS_PER_LINE;
+                double heading = curvature * s;
+                double x;
+                double z;
+                if (curvature == 0) {
+                    x = 0;
+                    z = s;
+                } else {
+                    x = (1 - Math.cos(heading)) / curvature;
+                    z = Math.sin(heading) / curvature;
+                }
+                // offset sideways along the normal of the path
+                x += lateral * Math.cos(heading);
+                z -= lateral * Math.sin(heading);
+
+                // ground point relative to the camera, rotated by the tilt
+                double behind = z - p.cameraOffset;
+                double depth = behind * cosPitch + p.cameraHeight * sinPitch;
+                double down = p.cameraHeight * cosPitch - behind * sinPitch;
+                if (depth < 1e-3) {
+                    depth = 1e-3;
+                }
+                float screenX = (float) (centerX + focal * x / depth);
+                float screenY = (float) (centerY + focal * down / depth);
+                if (i > 0) {
+                    out[out0++] = lastX;
+                    out[out0++] = lastY;
+                    out[out0++] = screenX;
+                    out[out0++] = screenY;
+                }
+                lastX = screenX;
+                lastY = screenY;
+            }
+        }
+    }
+}
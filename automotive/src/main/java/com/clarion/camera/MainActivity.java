@@ -1,69 +1,122 @@
 package com.clarion.camera;
 
-import androidx.annotation.GuardedBy;
 import androidx.annotation.NonNull;
 import androidx.appcompat.app.AppCompatActivity;
 
 import android.car.Car;
-import android.car.CarNotConnectedException;
-import android.car.hardware.CarSensorEvent;
-import android.car.hardware.CarSensorManager;
-import android.content.ComponentName;
-import android.content.ServiceConnection;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
 import android.content.pm.PackageManager;
 import android.os.Bundle;
-import android.os.IBinder;
+import android.os.Handler;
+import android.os.Looper;
 import android.util.Log;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.io.PrintWriter;
 
 public class MainActivity extends AppCompatActivity {
     private static final String TAG = "MainActivity";
     RearviewCameraView mCameraView;
-    private Car mCarService;
     private final String[] permissions = new String[]{Car.PERMISSION_POWERTRAIN,Car.PERMISSION_SPEED};
     //    private final String[] permissions = new String[]{Car.PERMISSION_SPEED};
     //PERMISSION_READ_STEERING_STATE android.car.permission.READ_CAR_STEERING
-    private Object mCarSensorManagerReady = new Object();
-    private CarSensorManager mCarSensorManager;
 
+    private final SensorEventBus mSensorEventBus = new SensorEventBus();
 
-    /**
-     * Callback for receiving updates from the sensor manager. A Callback can be
-     * registered using {@link #registerCallback}.
-     */
-    public static abstract class Callback {
-
-        public void OnGearPosValChange(int propValue) {
+    // sensor samples arrive through the process-wide hub, coalesced, and are
+    // drained on the main thread at most once per burst, so the binder
+    // thread never runs callback code
+    private final VehicleDataHub mVehicleDataHub = VehicleDataHub.getInstance();
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private SensorEventStore.Reader mSensorEventReader;
+    private final Runnable mDrainSensorEvents = new Runnable() {
+        @Override
+        public void run() {
+            mVehicleDataHub.drainTo(mSensorEventReader, mSensorEventBus);
         }
+    };
 
-
-        public void OnSpeedValChange(Float propValue) {
+    // a gear change seen by SensorManagerMonitorService saves a clip of the pre-roll
+    private final BroadcastReceiver mGearChangedReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            if (mCameraView != null) {
+                mCameraView.triggerClip("gear" + intent.getIntExtra(
+                        SensorManagerMonitorService.EXTRA_GEAR, 0));
+            }
         }
-    }
-    @GuardedBy("mCallbacks")
-    private List<Callback> mCallbacks = new ArrayList<>();
+    };
 
-    public void registerCallback(Callback callback) {
-        synchronized (mCallbacks) {
-            mCallbacks.add(callback);
+    // follows the ReverseLifecycle of SensorManagerMonitorService
+    private final BroadcastReceiver mPipelineStateReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            int state = intent.getIntExtra(SensorManagerMonitorService.EXTRA_STATE,
+                    ReverseLifecycle.STATE_ACTIVE);
+            int previous = intent.getIntExtra(SensorManagerMonitorService.EXTRA_PREVIOUS_STATE,
+                    ReverseLifecycle.STATE_OFF);
+            long reverseNanos = intent.getLongExtra(
+                    SensorManagerMonitorService.EXTRA_REVERSE_NANOS, 0);
+            if (mCameraView != null) {
+                mCameraView.setPipelineState(state, reverseNanos);
+            }
+            if (state == ReverseLifecycle.STATE_OFF) {
+                finish();
+            } else if (state == ReverseLifecycle.STATE_STANDBY
+                    && previous == ReverseLifecycle.STATE_ACTIVE) {
+                // out of reverse: hide, but keep the pipeline warm
+                moveTaskToBack(true);
+            }
         }
+    };
+
+    public void registerCallback(SensorEventBus.Callback callback) {
+        mSensorEventBus.registerCallback(callback);
     }
 
-    public void unregisterCallback(Callback callback) {
-        synchronized (mCallbacks) {
-            mCallbacks.remove(callback);
-        }
+    public void unregisterCallback(SensorEventBus.Callback callback) {
+        mSensorEventBus.unregisterCallback(callback);
     }
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
+        // no-op after boot; otherwise prepares the preview in parallel
+        CameraStartup.start(this);
         setContentView(R.layout.activity_main);
         mCameraView = (RearviewCameraView) findViewById(R.id.camera_view_id);
+        registerCallback(mValueCallback);
+        mSensorEventReader = mVehicleDataHub.register(new Runnable() {
+            @Override
+            public void run() {
+                mHandler.post(mDrainSensorEvents);
+            }
+        });
+        registerReceiver(mGearChangedReceiver,
+                new IntentFilter(SensorManagerMonitorService.ACTION_GEAR_CHANGED));
+        registerReceiver(mPipelineStateReceiver,
+                new IntentFilter(SensorManagerMonitorService.ACTION_PIPELINE_STATE));
+        startFirstFrameMeasurement(getIntent());
+    }
 
-        EstablishCarServiceConnection();
+    @Override
+    protected void onNewIntent(Intent intent) {
+        super.onNewIntent(intent);
+        startFirstFrameMeasurement(intent);
+    }
+
+    // started for reverse by SensorManagerMonitorService
+    private void startFirstFrameMeasurement(Intent intent) {
+        long reverseNanos = intent.getLongExtra(
+                SensorManagerMonitorService.EXTRA_REVERSE_NANOS, 0);
+        if (reverseNanos != 0) {
+            mCameraView.setPipelineState(ReverseLifecycle.STATE_ACTIVE, reverseNanos);
+        }
     }
 
     @Override
@@ -71,12 +124,64 @@ public class MainActivity extends AppCompatActivity {
         super.onDestroy();
 
         unregisterCallback(mValueCallback);
+        unregisterReceiver(mGearChangedReceiver);
+        unregisterReceiver(mPipelineStateReceiver);
+        mVehicleDataHub.unregister(mSensorEventReader);
+        mHandler.removeCallbacks(mDrainSensorEvents);
+    }
 
-        if (mCarSensorManager != null) {
-            mCarSensorManager.unregisterListener(mSenserListener);
+    // adb shell dumpsys activity com.clarion.camera/.MainActivity
+    //     [reset | record <file> | stop-record | clip [reason] | trace]
+    @Override
+    public void dump(String prefix, FileDescriptor fd, PrintWriter writer, String[] args) {
+        super.dump(prefix, fd, writer, args);
+        if (mCameraView == null) {
+            return;
         }
-        if (mCarService != null) {
-            mCarService.disconnect();
+        writer.println(prefix + "Camera pipeline latency (ms):");
+        mCameraView.dumpLatency(writer);
+        CameraStartup.dump(writer);
+        writer.println(mVehicleDataHub);
+        if (args == null || args.length == 0) {
+            return;
+        }
+        if ("reset".equals(args[0])) {
+            mCameraView.resetLatency();
+        } else if ("record".equals(args[0]) && args.length > 1) {
+            try {
+                mCameraView.startRecording(new File(args[1]));
+                writer.println("recording to " + args[1]);
+            } catch (IOException e) {
+                writer.println("cannot record to " + args[1] + ": " + e);
+            }
+        } else if ("stop-record".equals(args[0])) {
+            mCameraView.stopRecording();
+        } else if ("trace".equals(args[0])) {
+            PipelineTrace.RING.dump(writer, PipelineTrace.RING.getCapacity());
+        } else if ("clip".equals(args[0])) {
+            String reason = args.length > 1 ? args[1] : "dumpsys";
+            writer.println(mCameraView.triggerClip(reason)
+                    ? "saving clip" : "clip ignored");
+        }
+    }
+
+    // adds a sensor sample to a running recording, stamped on arrival like the frames
+    private void recordSensorEvent(int sensorType, float value, long timestampNanos) {
+        PipelineLog.Writer recorder = mCameraView == null ? null : mCameraView.getRecorder();
+        if (recorder == null) {
+            return;
+        }
+        try {
+            if (sensorType == VehicleDataHub.SENSOR_GEAR) {
+                recorder.writeGearPos((int) value, timestampNanos);
+            } else if (sensorType == VehicleDataHub.SENSOR_STEERING) {
+                recorder.writeSteeringAngle(value, timestampNanos);
+            } else {
+                recorder.writeSpeed(value, timestampNanos);
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "recordSensorEvent: recording stopped", e);
+            mCameraView.stopRecording();
         }
     }
 
@@ -86,6 +191,16 @@ public class MainActivity extends AppCompatActivity {
         startService();//Can this be done in OnCreate
     }
 
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        if (level >= TRIM_MEMORY_BACKGROUND) {
+            // only the free bitmaps, the ones on screen stay
+            CameraStartup.getBitmapPool().trim();
+            CameraStartup.getPixelPool().trim();
+        }
+    }
+
     @Override
     public void onRequestPermissionsResult(int requestCode, @NonNull String[] permissions, @NonNull int[] grantResults) {
         super.onRequestPermissionsResult(requestCode, permissions, grantResults);
@@ -99,14 +214,8 @@ public class MainActivity extends AppCompatActivity {
         if(checkSelfPermission(permissions[0]) == PackageManager.PERMISSION_GRANTED) {
             Log.d(TAG, "startService: Permission for"+permissions[0]+" is GRANTED");
 
-            if(mCarService == null) {
-                Log.d(TAG, "EstablishCarServiceConnection:  mCarService is NULL");
-                return;
-            }
-
-            if (!mCarService.isConnected() && !mCarService.isConnecting()) {
-                mCarService.connect();
-            }
+            // shared with SensorManagerMonitorService
+            CarSensorSource.connect(this);
         }
         else
         {
@@ -115,115 +224,35 @@ public class MainActivity extends AppCompatActivity {
         }
     }
 
-    private ServiceConnection mConnection = new ServiceConnection() {
-        @Override
-        public void onServiceConnected(ComponentName componentName, IBinder iBinder) {
-            Log.d(TAG, "onServiceConnected: Connected to Car Service");
-            initializeCallbacks();
-            onCarServiceReady();
-        }
-
-        @Override
-        public void onServiceDisconnected(ComponentName componentName) {
-            Log.d(TAG, "onServiceDisconnected: Disconnected from Car Service");
-        }
-    };
-
-    private void initializeCallbacks() {
-        registerCallback(mValueCallback);
-    }
-
-    private void EstablishCarServiceConnection() {
-        if (!getPackageManager().hasSystemFeature(PackageManager.FEATURE_AUTOMOTIVE)) {
-            Log.w(TAG, "EstablishCarServiceConnection: FEATURE_AUTOMOTIVE not available");
-            return;
-        }
-
-        if(mCarService == null) {
-            Log.d(TAG, "EstablishCarServiceConnection:  mCarService is NULL");
-            mCarService = Car.createCar(this,mConnection);
-            //requestRefresh();
-        }
-        else{
-            Log.d(TAG, "EstablishCarServiceConnection: mCarService is already created");
-        }
-    }
-
-    private void onCarServiceReady() {
-        Log.d(TAG, "onCarServiceReady: entry");
-
-        synchronized (mCarSensorManagerReady) {
-            try {
-                initSensorManager((CarSensorManager) mCarService.getCarManager(
-                        Car.SENSOR_SERVICE));
-
-                mCarSensorManagerReady.notifyAll();
-                Log.d(TAG, "onCarServiceReady: mCarSensorManagerReady notified");
-            } catch (CarNotConnectedException e) {
-                Log.e(TAG, "Car not connected in onServiceConnected");
-            }
-        }
-    }
-
-    CarSensorManager.OnSensorChangedListener   mSenserListener = new CarSensorManager.OnSensorChangedListener() {
-        @Override
-        public void onSensorChanged(CarSensorEvent carSensorEvent) {
-            Log.d(TAG, "onSensorChanged: callback carSensorEvent.sensorType = " + carSensorEvent.sensorType);
-            switch (carSensorEvent.sensorType) {
-                case CarSensorManager.SENSOR_TYPE_GEAR:
-                    if(carSensorEvent.intValues.length > 0)  { handleGearPosUpdate(carSensorEvent.intValues[0]);}
-                    break;
-                case CarSensorManager.SENSOR_TYPE_CAR_SPEED:
-                    if(carSensorEvent.floatValues.length > 0)  { handleSpeedUpdate(carSensorEvent.floatValues[0]);}
-                    break;
-                default:
-                    if (Log.isLoggable(TAG, Log.DEBUG)) {
-                        Log.d(TAG, "Unhandled Sensor event, id: " + carSensorEvent.sensorType);
-                    }
-            }
-        }
-    };
-
-    private void initSensorManager(CarSensorManager carSensorManager) {
-        mCarSensorManager = carSensorManager;
-        try {
-            mCarSensorManager.registerListener(mSenserListener,
-                    CarSensorManager.SENSOR_TYPE_GEAR,CarSensorManager.SENSOR_RATE_NORMAL);
-            mCarSensorManager.registerListener(mSenserListener,
-                    CarSensorManager.SENSOR_TYPE_CAR_SPEED,CarSensorManager.SENSOR_RATE_NORMAL);
-        } catch (CarNotConnectedException e) {
-            Log.e(TAG, "Can not connected in SENSOR");
-        }
-    }
-
-    private MainActivity.Callback mValueCallback = new MainActivity.Callback() {
+    private SensorEventBus.Callback mValueCallback = new SensorEventBus.Callback() {
         @Override
         public void OnGearPosValChange(int propValue) {
             super.OnGearPosValChange(propValue);
-            Log.d(TAG, "OnGearPosValChange: GearType = "+propValue*15);
-            mCameraView.getVehicleManager().setSteeringAngle(propValue*15);
+            PipelineTrace.RING.trace(PipelineTrace.ACTIVITY_GEAR, propValue);
+            recordSensorEvent(VehicleDataHub.SENSOR_GEAR, propValue, System.nanoTime());
+            // when the sensor took the sample, not when the main thread got to it
+            long sampled = mSensorEventReader.getTimestamp(SensorEventStore.SLOT_GEAR);
+            mCameraView.getVehicleManager().setGearPos(propValue, sampled);
         }
 
         @Override
-        public void OnSpeedValChange(Float propValue) {
+        public void OnSpeedValChange(float propValue) {
             super.OnSpeedValChange(propValue);
-            Log.d(TAG, "OnSpeedValChange: Speed = "+propValue);
-            mCameraView.getVehicleManager().setSteeringAngle(propValue);
+            PipelineTrace.RING.trace(PipelineTrace.ACTIVITY_SPEED, propValue);
+            recordSensorEvent(VehicleDataHub.SENSOR_SPEED, propValue, System.nanoTime());
+            long sampled = mSensorEventReader.getTimestamp(SensorEventStore.SLOT_SPEED);
+            mCameraView.getVehicleManager().setSpeed(propValue, sampled);
         }
-    };
 
-    private void handleGearPosUpdate(int pos) {
-        synchronized (mCallbacks) {
-            for (int i = 0; i < mCallbacks.size(); i++) {
-                mCallbacks.get(i).OnGearPosValChange(pos);
-            }
-        }
-    }
-    private void handleSpeedUpdate(float speed) {
-        synchronized (mCallbacks) {
-            for (int i = 0; i < mCallbacks.size(); i++) {
-                mCallbacks.get(i).OnSpeedValChange(speed);
-            }
+        // CarSensorSource has no steering sensor yet, until then the
+        // predictor gets no samples and the lines stay straight
+        @Override
+        public void OnSteeringAngleValChange(float propValue) {
+            super.OnSteeringAngleValChange(propValue);
+            recordSensorEvent(VehicleDataHub.SENSOR_STEERING, propValue, System.nanoTime());
+            long sampled = mSensorEventReader.getTimestamp(SensorEventStore.SLOT_STEERING);
+            mCameraView.getVehicleManager().setSteeringAngle(propValue, sampled);
         }
-    }
+    };
+
 }
\ No newline at end of file
@@ -0,0 +1,222 @@
+package com.clarion.camera;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+
+/**
+ * Fused YUYV to ARGB conversion, horizontal mirroring and scaling to the
+ * display resolution in a single pass, so the rear view frame can be blitted
+ * without any scaling or a second drawBitmap.
+ *
+ * Every destination pixel is looked up through column and row index tables
+ * that are computed once for a source/destination size pair (nearest
+ * neighbour). The color math is the same as {@link YuyvConverter}.
+ * Converting a frame allocates nothing.
+ *
+ * Frames for a Bitmap are converted into a direct buffer in the bitmap's
+ * own byte order instead of an int array, so Bitmap.copyPixelsFromBuffer
+ * only has to copy the memory; setPixels would copy and convert every
+ * pixel once more.
+ */
+class MirrorScaleKernel {
+    private static final boolean LITTLE_ENDIAN =
+            ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN;
+
+    private final int mSourceWidth;
+    private final int mSourceHeight;
+    private final int mWidth;
+    private final int mHeight;
+    private final RowStripes mStripes;
+
+    // byte offset of the Y sample inside a source row, per destination column
+    private final int[] mLumaOffset;
+    // byte offset of the U sample of the Y0 U Y1 V group, per destination column
+    private final int[] mChromaOffset;
+    // byte offset of the source row, per destination row
+    private final int[] mRowOffset;
+
+    // frame being converted, read by the stripe workers
+    private ByteBuffer mSource;
+    private int[] mDestination;
+    private int mStride;
+    // per stripe: a converted row, and a view of the bitmap buffer to put it
+    // in, so the stripes do not share a buffer position
+    private final int[][] mLines;
+    private final IntBuffer[] mViews;
+    private IntBuffer mViewsOf;
+
+    private final RowStripes.Task mConvertRows = new RowStripes.Task() {
+        @Override
+        public void processRows(int stripe, int firstRow, int endRow) {
+            convertRows(mSource, mDestination, firstRow, endRow);
+        }
+    };
+
+    private final RowStripes.Task mConvertBitmapRows = new RowStripes.Task() {
+        @Override
+        public void processRows(int stripe, int firstRow, int endRow) {
+            convertBitmapRows(mSource, mViews[stripe], mLines[stripe], mStride,
+                    firstRow, endRow);
+        }
+    };
+
+    MirrorScaleKernel(int sourceWidth, int sourceHeight, int width, int height,
+                      RowStripes stripes) {
+        if (sourceWidth <= 0 || sourceHeight <= 0 || (sourceWidth & 1) != 0) {
+            throw new IllegalArgumentException("invalid source size "
+                    + sourceWidth + "x" + sourceHeight);
+        }
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("invalid destination size "
+                    + width + "x" + height);
+        }
+        mSourceWidth = sourceWidth;
+        mSourceHeight = sourceHeight;
+        mWidth = width;
+        mHeight = height;
+        mStripes = stripes;
+
+        mLumaOffset = new int[width];
+        mChromaOffset = new int[width];
+        for (int x = 0; x < width; x++) {
+            // mirrored: the left edge of the screen shows the right edge of the feed
+            int sourceX = sourceWidth - 1 - (int) ((long) x * sourceWidth / width);
+            mLumaOffset[x] = sourceX * 2;
+            mChromaOffset[x] = (sourceX & ~1) * 2 + 1;
+        }
+
+        mRowOffset = new int[height];
+        for (int y = 0; y < height; y++) {
+            int sourceY = (int) ((long) y * sourceHeight / height);
+            mRowOffset[y] = sourceY * sourceWidth * 2;
+        }
+
+        mLines = new int[stripes.getStripeCount()][width];
+        mViews = new IntBuffer[stripes.getStripeCount()];
+    }
+
+    int getWidth() {
+        return mWidth;
+    }
+
+    int getHeight() {
+        return mHeight;
+    }
+
+    boolean matches(int sourceWidth, int sourceHeight, int width, int height) {
+        return mSourceWidth == sourceWidth && mSourceHeight == sourceHeight
+                && mWidth == width && mHeight == height;
+    }
+
+    /**
+     * Converts one frame.
+     *
+     * @param yuyv source frame, read with absolute gets
+     * @param argb receives width * height display pixels
+     */
+    void convert(ByteBuffer yuyv, int[] argb) {
+        if (yuyv.capacity() < mSourceWidth * mSourceHeight * 2
+                || argb.length < mWidth * mHeight) {
+            throw new IllegalArgumentException("buffers too small for "
+                    + mSourceWidth + "x" + mSourceHeight + " -> " + mWidth + "x" + mHeight);
+        }
+        mSource = yuyv;
+        mDestination = argb;
+        try {
+            mStripes.run(mConvertRows, mHeight);
+        } finally {
+            mSource = null;
+            mDestination = null;
+        }
+    }
+
+    /**
+     * Converts one frame for Bitmap.copyPixelsFromBuffer of an ARGB_8888
+     * bitmap, i.e. R, G, B and A in memory.
+     *
+     * @param yuyv source frame, read with absolute gets
+     * @param pixels native order view of a direct buffer, written with
+     *               absolute puts; receives height rows of width pixels
+     * @param stride pixels from one row to the next, at least the width,
+     *               e.g. the width of a larger bitmap
+     */
+    void convert(ByteBuffer yuyv, IntBuffer pixels, int stride) {
+        if (yuyv.capacity() < mSourceWidth * mSourceHeight * 2 || stride < mWidth
+                || pixels.capacity() < (mHeight - 1) * stride + mWidth) {
+            throw new IllegalArgumentException("buffers too small for "
+                    + mSourceWidth + "x" + mSourceHeight + " -> " + mWidth + "x" + mHeight);
+        }
+        if (mViewsOf != pixels) {
+            // only when the buffer changed, e.g. after the surface did
+            for (int i = 0; i < mViews.length; i++) {
+                mViews[i] = pixels.duplicate();
+            }
+            mViewsOf = pixels;
+        }
+        mSource = yuyv;
+        mStride = stride;
+        try {
+            mStripes.run(mConvertBitmapRows, mHeight);
+        } finally {
+            mSource = null;
+        }
+    }
+
+    /** An 0xAARRGGBB color as the int a native order buffer of a bitmap holds. */
+    static int toBitmapOrder(int argb) {
+        // R, G, B, A in memory
+        int abgr = (argb & 0xff00ff00) | ((argb >>> 16) & 0xff) | ((argb & 0xff) << 16);
+        return LITTLE_ENDIAN ? abgr : Integer.reverseBytes(abgr);
+    }
+
+    private void convertRows(ByteBuffer yuyv, int[] argb, int firstRow, int endRow) {
+        int out = firstRow * mWidth;
+        for (int y = firstRow; y < endRow; y++) {
+            int row = mRowOffset[y];
+            if (y > firstRow && row == mRowOffset[y - 1]) {
+                // upscaled: the same source row as the line above
+                System.arraycopy(argb, out - mWidth, argb, out, mWidth);
+            } else {
+                convertLine(yuyv, row, argb, out);
+            }
+            out += mWidth;
+        }
+    }
+
+    private void convertBitmapRows(ByteBuffer yuyv, IntBuffer view, int[] line, int stride,
+                                   int firstRow, int endRow) {
+        int lastRow = -1;
+        for (int y = firstRow; y < endRow; y++) {
+            int row = mRowOffset[y];
+            // upscaled rows put the same line again
+            if (row != lastRow) {
+                convertLine(yuyv, row, line, 0);
+                for (int x = 0; x < mWidth; x++) {
+                    line[x] = toBitmapOrder(line[x]);
+                }
+                lastRow = row;
+            }
+            view.position(y * stride);
+            view.put(line, 0, mWidth);
+        }
+    }
+
+    // one destination row from the source row at the given byte offset
+    private void convertLine(ByteBuffer yuyv, int row, int[] argb, int out) {
+        int[] lumaOffset = mLumaOffset;
+        int[] chromaOffset = mChromaOffset;
+        int lastLuma = -1;
+        int pixel = 0;
+        for (int x = 0; x < mWidth; x++) {
+            int luma = lumaOffset[x];
+            if (luma != lastLuma) {
+                int chroma = row + chromaOffset[x];
+                pixel = YuyvConverter.toArgb(yuyv.get(row + luma),
+                        yuyv.get(chroma), yuyv.get(chroma + 2));
+                lastLuma = luma;
+            }
+            argb[out++] = pixel;
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package com.clarion.camera;
+
+/**
+ * Source of the current time for the pipeline's timers, replaced by a
+ * simulated one in tests.
+ */
+interface NanoClock {
+    NanoClock SYSTEM = new NanoClock() {
+        @Override
+        public long nanoTime() {
+            return System.nanoTime();
+        }
+    };
+
+    long nanoTime();
+}
@@ -0,0 +1,169 @@
+package com.clarion.camera;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+/**
+ * Raw pixel cache of the overlay, already scaled to the display, so later
+ * starts map it instead of decoding and scaling the PNG. The pixels are
+ * stored in the bitmap's own memory layout and copied straight from the
+ * mapping into a bitmap.
+ *
+ * Layout, little endian:
+ * <pre>
+ *   header   int magic 'OVLC', int version,
+ *            int display width, int display height, int display density,
+ *            long package update time, long asset checksum,
+ *            int width, int height
+ *   pixels   width * height * 4 bytes
+ * </pre>
+ * The {@link Key} of the header has to match exactly, so a cache written for
+ * another display or by another install of the app is never used. The asset
+ * can only change with an install, so checking the key reads nothing but
+ * the header; the asset checksum is taken when the cache is written and
+ * kept to tell which PNG the pixels came from.
+ */
+final class OverlayCacheFile {
+    static final int MAGIC = 0x434c564f; // "OVLC"
+    static final int VERSION = 2;
+    static final int HEADER_BYTES = 44;
+    static final int BYTES_PER_PIXEL = 4;
+
+    private static final int CHECKSUM_BUFFER_BYTES = 16 * 1024;
+
+    /** What the cached pixels were made for. */
+    static final class Key {
+        final int displayWidth;
+        final int displayHeight;
+        final int densityDpi;
+        // PackageInfo.lastUpdateTime, changes with every install
+        final long packageUpdateTime;
+
+        Key(int displayWidth, int displayHeight, int densityDpi, long packageUpdateTime) {
+            this.displayWidth = displayWidth;
+            this.displayHeight = displayHeight;
+            this.densityDpi = densityDpi;
+            this.packageUpdateTime = packageUpdateTime;
+        }
+
+        @Override
+        public String toString() {
+            return displayWidth + "x" + displayHeight + "@" + densityDpi
+                    + "dpi, installed " + packageUpdateTime;
+        }
+    }
+
+    /** The cached overlay; {@link #data} holds exactly its pixels. */
+    static final class Pixels {
+        final int width;
+        final int height;
+        final long assetChecksum;
+        final ByteBuffer data;
+
+        private Pixels(int width, int height, long assetChecksum, ByteBuffer data) {
+            this.width = width;
+            this.height = height;
+            this.assetChecksum = assetChecksum;
+            this.data = data;
+        }
+    }
+
+    private OverlayCacheFile() {
+    }
+
+    /** CRC32 of the asset, e.g. of the PNG resource stream. Closes the stream. */
+    static long checksum(InputStream asset) throws IOException {
+        CRC32 crc = new CRC32();
+        byte[] buffer = new byte[CHECKSUM_BUFFER_BYTES];
+        try {
+            int read;
+            while ((read = asset.read(buffer)) > 0) {
+                crc.update(buffer, 0, read);
+            }
+        } finally {
+            asset.close();
+        }
+        return crc.getValue();
+    }
+
+    /**
+     * Maps the cached pixels.
+     *
+     * @return null if there is no cache, it is damaged or it was written for
+     *         another key
+     */
+    static Pixels load(File file, Key key) throws IOException {
+        if (!file.isFile()) {
+            return null;
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel channel = raf.getChannel()) {
+            long length = channel.size();
+            if (length < HEADER_BYTES) {
+                return null;
+            }
+            ByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, 0, length)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            if (map.getInt() != MAGIC || map.getInt() != VERSION
+                    || map.getInt() != key.displayWidth
+                    || map.getInt() != key.displayHeight
+                    || map.getInt() != key.densityDpi
+                    || map.getLong() != key.packageUpdateTime) {
+                return null;
+            }
+            long assetChecksum = map.getLong();
+            int width = map.getInt();
+            int height = map.getInt();
+            if (width <= 0 || height <= 0
+                    || length != HEADER_BYTES + (long) width * height * BYTES_PER_PIXEL) {
+                return null;
+            }
+            // the mapping stays valid after the channel is closed
+            return new Pixels(width, height, assetChecksum, map.slice());
+        }
+    }
+
+    /**
+     * Writes the pixels between position and limit, leaving the buffer as it
+     * was, scaled from the asset with the given {@link #checksum}. The file is replaced atomically, so a crash never leaves a
+     * half-written cache behind.
+     */
+    static void write(File file, Key key, long assetChecksum, int width, int height,
+                      ByteBuffer pixels) throws IOException {
+        if (pixels.remaining() != width * height * BYTES_PER_PIXEL) {
+            throw new IllegalArgumentException("pixels have " + pixels.remaining()
+                    + " bytes, expected " + width * height * BYTES_PER_PIXEL);
+        }
+        File temp = new File(file.getPath() + ".tmp");
+        try (RandomAccessFile raf = new RandomAccessFile(temp, "rw");
+             FileChannel channel = raf.getChannel()) {
+            raf.setLength(0);
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(MAGIC);
+            header.putInt(VERSION);
+            header.putInt(key.displayWidth);
+            header.putInt(key.displayHeight);
+            header.putInt(key.densityDpi);
+            header.putLong(key.packageUpdateTime);
+            header.putLong(assetChecksum);
+            header.putInt(width);
+            header.putInt(height);
+            header.flip();
+            ByteBuffer data = pixels.duplicate();
+            while (header.hasRemaining() || data.hasRemaining()) {
+                channel.write(new ByteBuffer[] {header, data});
+            }
+            channel.force(false);
+        }
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            throw new IOException("cannot replace " + file);
+        }
+    }
+}
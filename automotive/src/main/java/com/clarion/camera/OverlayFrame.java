@@ -0,0 +1,75 @@
+package com.clarion.camera;
+
+/**
+ * The per-frame overlay decisions of {@code RearviewCameraView.drawOnCanvas}
+ * that do not need a Canvas: reading the vehicle state, predicting the
+ * steering angle for the moment the frame is on screen, picking the guide
+ * line bucket and updating the cached transforms. The view then only draws
+ * what {@link #prepare} returns; PipelineSoak draws the same.
+ *
+ * Render thread only. A frame allocates nothing.
+ */
+class OverlayFrame {
+    /** {@link #prepare} result when only the static overlay is drawn. */
+    static final int STATIC_OVERLAY = -1;
+
+    private final VehicleManager mVehicleManager;
+    // read once per frame, so every layer of a frame uses the same values
+    private final VehicleManager.VehicleState mVehicleState =
+            new VehicleManager.VehicleState();
+    // projected dynamic lines for every steering angle bucket
+    private final GuideLineGeometry mGuideLines = new GuideLineGeometry();
+    // render state, rebuilt only when its inputs change
+    private final RenderTransformCache mTransforms = new RenderTransformCache();
+    private boolean mTransformsChanged = false;
+
+    OverlayFrame(VehicleManager vehicleManager) {
+        mVehicleManager = vehicleManager;
+    }
+
+    /**
+     * Prepares the overlay of one frame.
+     *
+     * @param nowNanos            in the time base of the sensor samples
+     * @param displayLatencyNanos from drawing until the frame is on screen
+     * @param qualityLevel        of the {@link QualityGovernor}
+     * @return the guide line bucket to draw, see
+     *         {@link GuideLineGeometry#getOffset(int)}, or
+     *         {@link #STATIC_OVERLAY} if the overlay is drawn on its own
+     */
+    int prepare(long nowNanos, long displayLatencyNanos, int qualityLevel,
+                int screenWidth, int screenHeight, int overlayWidth, int overlayHeight) {
+        mVehicleManager.readSnapshot(mVehicleState);
+        mVehicleManager.setPipelineLatencyNanos(displayLatencyNanos);
+        double steeringAngle = mVehicleManager.predictSteeringAngle(mVehicleState, nowNanos);
+
+        // the table is only rebuilt when the surface size changes
+        mGuideLines.setViewport(screenWidth, screenHeight);
+        if (qualityLevel >= QualityGovernor.LEVEL_STATIC_OVERLAY) {
+            // under load: only the straight overlay
+            mTransformsChanged = mTransforms.update(0, screenWidth, screenHeight,
+                    overlayWidth, overlayHeight);
+            return STATIC_OVERLAY;
+        }
+        int bucket = mGuideLines.indexFor(steeringAngle);
+        mTransformsChanged = mTransforms.update(mGuideLines.angleOf(bucket),
+                screenWidth, screenHeight, overlayWidth, overlayHeight);
+        return bucket;
+    }
+
+    /**
+     * Whether the last {@link #prepare} changed the transforms, i.e. the
+     * Matrix and Paint objects built from them are out of date.
+     */
+    boolean transformsChanged() {
+        return mTransformsChanged;
+    }
+
+    RenderTransformCache getTransforms() {
+        return mTransforms;
+    }
+
+    GuideLineGeometry getGuideLines() {
+        return mGuideLines;
+    }
+}
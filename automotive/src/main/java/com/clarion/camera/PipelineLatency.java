@@ -0,0 +1,91 @@
+package com.clarion.camera;
+
+import java.io.PrintWriter;
+
+/**
+ * Per-stage latency of the camera pipeline, one {@link LatencyHistogram}
+ * per stage. A frame passes these timestamps:
+ *
+ * <pre>
+ *   captured   processCamera() returned with a new frame
+ *   copied     raw frame copied out of the JNI layer
+ *   published  converted to display pixels and handed to the render thread
+ *   rendering  picked up by the render thread
+ *   composed   video and overlay drawn on the canvas
+ *   posted     unlockCanvasAndPost() returned
+ * </pre>
+ *
+ * and each stage is the time between two of them; {@link #STAGE_TOTAL} is
+ * the whole way from capture to post. Safe to record from the capture and
+ * render threads while another thread dumps.
+ */
+class PipelineLatency {
+    static final int STAGE_CAPTURE = 0;
+    static final int STAGE_CONVERT = 1;
+    static final int STAGE_QUEUE = 2;
+    static final int STAGE_COMPOSE = 3;
+    static final int STAGE_POST = 4;
+    static final int STAGE_TOTAL = 5;
+    static final int STAGE_COUNT = 6;
+
+    private static final String[] STAGE_NAMES = {
+            "capture", "convert", "queue", "compose", "post", "total"
+    };
+    private static final double NANOS_PER_MILLI = 1e6;
+
+    private final LatencyHistogram[] mHistograms = new LatencyHistogram[STAGE_COUNT];
+
+    PipelineLatency() {
+        for (int stage = 0; stage < STAGE_COUNT; stage++) {
+            mHistograms[stage] = new LatencyHistogram();
+        }
+    }
+
+    /** Capture thread: the frame captured at capturedNanos was just published. */
+    void recordCapture(long capturedNanos, long copiedNanos, long publishedNanos) {
+        mHistograms[STAGE_CAPTURE].record(copiedNanos - capturedNanos);
+        mHistograms[STAGE_CONVERT].record(publishedNanos - copiedNanos);
+    }
+
+    /**
+     * Render thread: a frame was posted. Pass 0 for capturedNanos and
+     * publishedNanos if only the overlay was redrawn; then only the compose
+     * and post stages are recorded.
+     */
+    void recordRender(long capturedNanos, long publishedNanos, long renderingNanos,
+                      long composedNanos, long postedNanos) {
+        if (capturedNanos != 0) {
+            mHistograms[STAGE_QUEUE].record(renderingNanos - publishedNanos);
+            mHistograms[STAGE_TOTAL].record(postedNanos - capturedNanos);
+        }
+        mHistograms[STAGE_COMPOSE].record(composedNanos - renderingNanos);
+        mHistograms[STAGE_POST].record(postedNanos - composedNanos);
+    }
+
+    LatencyHistogram getHistogram(int stage) {
+        return mHistograms[stage];
+    }
+
+    void reset() {
+        for (int stage = 0; stage < STAGE_COUNT; stage++) {
+            mHistograms[stage].reset();
+        }
+    }
+
+    /** Writes one line per stage: sample count, mean, p50/p90/p99 and max in ms. */
+    void dump(PrintWriter writer) {
+        writer.println(String.format("%-8s %8s %8s %8s %8s %8s %8s",
+                "stage", "count", "mean", "p50", "p90", "p99", "max"));
+        for (int stage = 0; stage < STAGE_COUNT; stage++) {
+            LatencyHistogram histogram = mHistograms[stage];
+            writer.println(String.format("%-8s %8d %8.2f %8.2f %8.2f %8.2f %8.2f",
+                    STAGE_NAMES[stage], histogram.getCount(),
+                    histogram.getMeanNanos() / NANOS_PER_MILLI,
+                    histogram.getPercentileNanos(0.50) / NANOS_PER_MILLI,
+                    histogram.getPercentileNanos(0.90) / NANOS_PER_MILLI,
+                    histogram.getPercentileNanos(0.99) / NANOS_PER_MILLI,
+                    histogram.getMaxNanos() / NANOS_PER_MILLI));
+        }
+        writer.flush();
+    }
+}
@@ -0,0 +1,306 @@
+package com.clarion.camera;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Binary log of raw camera frames and vehicle sensor samples, written and
+ * read through memory-mapped file regions, so a session recorded in the car
+ * can be replayed frame for frame on a workstation
+ * ({@link PipelineLogPlayer}).
+ *
+ * Layout, little endian:
+ * <pre>
+ *   header   int magic 'CLOG', int version, int frame width, int frame height
+ *   record   byte type, long timestamp in ns since the first record, payload
+ *            FRAME     int length, length bytes of YUYV
+ *            GEAR      int gear
+ *            SPEED     float speed
+ *            STEERING  float steering angle
+ * </pre>
+ * A type of 0 marks the end of the log; the file is also truncated to its
+ * content on close, but a log cut short by a crash still reads up to the
+ * last complete record.
+ */
+class PipelineLog {
+    static final int MAGIC = 0x474f4c43; // "CLOG"
+    static final int VERSION = 1;
+    static final int HEADER_BYTES = 16;
+
+    static final byte TYPE_END = 0;
+    static final byte TYPE_FRAME = 1;
+    static final byte TYPE_GEAR = 2;
+    static final byte TYPE_SPEED = 3;
+    static final byte TYPE_STEERING = 4;
+
+    private static final int RECORD_HEADER_BYTES = 1 + 8;
+    // size of the file regions mapped at a time
+    private static final int MAP_BYTES = 32 * 1024 * 1024;
+
+    private PipelineLog() {
+    }
+
+    /**
+     * Appends records to a new log. Frames and sensor samples may be written
+     * from different threads.
+     */
+    static class Writer implements Closeable {
+        private final RandomAccessFile mFile;
+        private final FileChannel mChannel;
+        private final int mFrameBytes;
+        private MappedByteBuffer mMap;
+        private long mMapPosition;
+        private long mStartNanos = -1;
+        private long mFrameCount = 0;
+        private long mSampleCount = 0;
+        private boolean mClosed = false;
+
+        Writer(File file, int width, int height) throws IOException {
+            mFile = new RandomAccessFile(file, "rw");
+            mFile.setLength(0);
+            mChannel = mFile.getChannel();
+            mFrameBytes = width * height * 2;
+            ensure(HEADER_BYTES);
+            mMap.putInt(MAGIC);
+            mMap.putInt(VERSION);
+            mMap.putInt(width);
+            mMap.putInt(height);
+        }
+
+        /** Writes the frame between position and limit, leaving the buffer as it was. */
+        synchronized void writeFrame(ByteBuffer yuyv, long timestampNanos) throws IOException {
+            int length = yuyv.remaining();
+            if (length != mFrameBytes) {
+                throw new IllegalArgumentException("frame has " + length
+                        + " bytes, expected " + mFrameBytes);
+            }
+            beginRecord(TYPE_FRAME, timestampNanos, 4 + length);
+            mMap.putInt(length);
+            int position = yuyv.position();
+            mMap.put(yuyv);
+            yuyv.position(position);
+            mFrameCount++;
+        }
+
+        synchronized void writeGearPos(int gear, long timestampNanos) throws IOException {
+            beginRecord(TYPE_GEAR, timestampNanos, 4);
+            mMap.putInt(gear);
+            mSampleCount++;
+        }
+
+        synchronized void writeSpeed(float speed, long timestampNanos) throws IOException {
+            beginRecord(TYPE_SPEED, timestampNanos, 4);
+            mMap.putFloat(speed);
+            mSampleCount++;
+        }
+
+        synchronized void writeSteeringAngle(float angle, long timestampNanos)
+                throws IOException {
+            beginRecord(TYPE_STEERING, timestampNanos, 4);
+            mMap.putFloat(angle);
+            mSampleCount++;
+        }
+
+        synchronized long getBytesWritten() {
+            return mMap == null ? mMapPosition : mMapPosition + mMap.position();
+        }
+
+        synchronized long getFrameCount() {
+            return mFrameCount;
+        }
+
+        synchronized long getSampleCount() {
+            return mSampleCount;
+        }
+
+        @Override
+        public synchronized void close() throws IOException {
+            if (mClosed) {
+                return;
+            }
+            mClosed = true;
+            long length = getBytesWritten();
+            mMap.force();
+            mMap = null;
+            mMapPosition = length;
+            mChannel.truncate(length);
+            mFile.close();
+        }
+
+        private void beginRecord(byte type, long timestampNanos, int payloadBytes)
+                throws IOException {
+            if (mClosed) {
+                throw new IOException("log already closed");
+            }
+            if (mStartNanos < 0) {
+                mStartNanos = timestampNanos;
+            }
+            ensure(RECORD_HEADER_BYTES + payloadBytes);
+            mMap.put(type);
+            mMap.putLong(Math.max(0, timestampNanos - mStartNanos));
+        }
+
+        // maps the next region once the current one cannot take the record
+        private void ensure(int bytes) throws IOException {
+            if (mMap != null && mMap.remaining() >= bytes) {
+                return;
+            }
+            long position = mMap == null ? 0 : mMapPosition + mMap.position();
+            mMap = mChannel.map(FileChannel.MapMode.READ_WRITE, position,
+                    Math.max(MAP_BYTES, bytes));
+            mMap.order(ByteOrder.LITTLE_ENDIAN);
+            mMapPosition = position;
+        }
+    }
+
+    /**
+     * Reads a log record by record: call {@link #next()}, then the getters
+     * for the current record.
+     */
+    static class Reader implements Closeable {
+        private final RandomAccessFile mFile;
+        private final FileChannel mChannel;
+        private final long mLength;
+        private final int mWidth;
+        private final int mHeight;
+        private MappedByteBuffer mMap;
+        private long mMapPosition;
+
+        private byte mType = TYPE_END;
+        private long mTimestampNanos;
+        private int mValue;
+        private int mFrameOffset;
+        private int mFrameLength;
+
+        Reader(File file) throws IOException {
+            mFile = new RandomAccessFile(file, "r");
+            mChannel = mFile.getChannel();
+            mLength = mChannel.size();
+            try {
+                if (!ensure(HEADER_BYTES) || mMap.getInt() != MAGIC) {
+                    throw new IOException(file + " is not a pipeline log");
+                }
+                int version = mMap.getInt();
+                if (version != VERSION) {
+                    throw new IOException("unsupported log version " + version);
+                }
+                mWidth = mMap.getInt();
+                mHeight = mMap.getInt();
+            } catch (IOException e) {
+                mFile.close();
+                throw e;
+            }
+        }
+
+        int getWidth() {
+            return mWidth;
+        }
+
+        int getHeight() {
+            return mHeight;
+        }
+
+        /** Goes back to the first record. */
+        void rewind() throws IOException {
+            mMap = null;
+            ensure(HEADER_BYTES);
+            mMap.position(HEADER_BYTES);
+            mType = TYPE_END;
+        }
+
+        /**
+         * Advances to the next record.
+         *
+         * @return false at the end of the log or at a record cut short
+         */
+        boolean next() throws IOException {
+            if (mType == TYPE_FRAME) {
+                mMap.position(mFrameOffset + mFrameLength);
+            }
+            mType = TYPE_END;
+            if (!ensure(RECORD_HEADER_BYTES + 4)) {
+                return false;
+            }
+            byte type = mMap.get();
+            long timestamp = mMap.getLong();
+            int value = mMap.getInt();
+            if (type == TYPE_FRAME) {
+                // remap so that the whole frame is in one region
+                mMap.position(mMap.position() - RECORD_HEADER_BYTES - 4);
+                if (value < 0 || !ensure(RECORD_HEADER_BYTES + 4 + value)) {
+                    return false;
+                }
+                mMap.position(mMap.position() + RECORD_HEADER_BYTES + 4);
+                mFrameOffset = mMap.position();
+                mFrameLength = value;
+            } else if (type < TYPE_GEAR || type > TYPE_STEERING) {
+                return false;
+            }
+            mType = type;
+            mTimestampNanos = timestamp;
+            mValue = value;
+            return true;
+        }
+
+        byte getType() {
+            return mType;
+        }
+
+        /** Time of the record since the first record of the log. */
+        long getTimestampNanos() {
+            return mTimestampNanos;
+        }
+
+        int getGearPos() {
+            return mValue;
+        }
+
+        /** Speed or steering angle of a SPEED or STEERING record. */
+        float getFloatValue() {
+            return Float.intBitsToFloat(mValue);
+        }
+
+        int getFrameLength() {
+            return mFrameLength;
+        }
+
+        /** Copies the frame of the current FRAME record into the target buffer. */
+        void readFrame(ByteBuffer target) {
+            if (mType != TYPE_FRAME) {
+                throw new IllegalStateException("current record is no frame");
+            }
+            ByteBuffer frame = mMap.duplicate();
+            frame.limit(mFrameOffset + mFrameLength);
+            frame.position(mFrameOffset);
+            target.put(frame);
+        }
+
+        @Override
+        public void close() throws IOException {
+            mMap = null;
+            mFile.close();
+        }
+
+        // makes the next bytes available in the mapped region
+        private boolean ensure(int bytes) throws IOException {
+            long position = mMap == null ? 0 : mMapPosition + mMap.position();
+            if (mMap != null && mMap.remaining() >= bytes) {
+                return true;
+            }
+            if (mLength - position < bytes) {
+                return false;
+            }
+            long size = Math.min(mLength - position, Math.max(MAP_BYTES, bytes));
+            mMap = mChannel.map(FileChannel.MapMode.READ_ONLY, position, size);
+            mMap.order(ByteOrder.LITTLE_ENDIAN);
+            mMapPosition = position;
+            return true;
+        }
+    }
+}
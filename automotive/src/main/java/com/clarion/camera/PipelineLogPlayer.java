@@ -0,0 +1,148 @@
+package com.clarion.camera;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Replays a {@link PipelineLog} into the pipeline: frames come out of
+ * {@link #nextFrame()} like from a camera, and the sensor samples recorded
+ * between two frames are published into a {@link SensorEventStore} just
+ * before the frame that followed them. Since the capture thread drives the
+ * replay, frames and samples keep their recorded order.
+ *
+ * In real-time mode records are delivered at their recorded pace, with
+ * timestamps rebased to the time of the replay. Otherwise they are
+ * delivered as fast as the pipeline takes them, which is what a profiling
+ * run wants.
+ */
+class PipelineLogPlayer implements FrameSource {
+    private final File mFile;
+    private final FramePool mPool;
+    private final SensorEventStore mStore;
+    private final boolean mRealTime;
+    private final boolean mLoop;
+    private final WakeableSleep mSleep = new WakeableSleep();
+
+    private PipelineLog.Reader mReader;
+    // the current record was read but not delivered yet, see wakeUp()
+    private boolean mRecordPending;
+    private int mWidth;
+    private int mHeight;
+    private long mStartNanos;
+    private long mSequence;
+    private long mLoopCount;
+
+    PipelineLogPlayer(File file, FramePool pool, SensorEventStore store,
+                      boolean realTime, boolean loop) throws IOException {
+        mFile = file;
+        mPool = pool;
+        mStore = store;
+        mRealTime = realTime;
+        mLoop = loop;
+        // read the frame size up front, the pipeline is sized before open()
+        PipelineLog.Reader reader = new PipelineLog.Reader(file);
+        mWidth = reader.getWidth();
+        mHeight = reader.getHeight();
+        reader.close();
+        if (pool.getFrameBytes() < mWidth * mHeight * 2) {
+            throw new IllegalArgumentException("pool buffers too small for "
+                    + mWidth + "x" + mHeight);
+        }
+    }
+
+    @Override
+    public int getWidth() {
+        return mWidth;
+    }
+
+    @Override
+    public int getHeight() {
+        return mHeight;
+    }
+
+    @Override
+    public void open() throws IOException {
+        mReader = new PipelineLog.Reader(mFile);
+        mRecordPending = false;
+        mStartNanos = System.nanoTime();
+        mSequence = 0;
+        mLoopCount = 0;
+    }
+
+    /** Number of times the log was started over. */
+    long getLoopCount() {
+        return mLoopCount;
+    }
+
+    @Override
+    public RawFrame nextFrame() throws IOException, InterruptedException {
+        if (mReader == null) {
+            throw new IOException("log not open");
+        }
+        while (true) {
+            if (!mRecordPending) {
+                if (!mReader.next()) {
+                    if (!mLoop || mSequence == 0) {
+                        throw new IOException("end of " + mFile);
+                    }
+                    mReader.rewind();
+                    mStartNanos = System.nanoTime();
+                    mLoopCount++;
+                    continue;
+                }
+                mRecordPending = true;
+            }
+
+            long timestamp = mStartNanos + mReader.getTimestampNanos();
+            if (mRealTime) {
+                // when woken the record stays pending for the next call
+                mSleep.until(timestamp);
+            } else {
+                timestamp = System.nanoTime();
+            }
+            mRecordPending = false;
+
+            switch (mReader.getType()) {
+                case PipelineLog.TYPE_GEAR:
+                    mStore.publishGearPos(mReader.getGearPos(), timestamp);
+                    break;
+                case PipelineLog.TYPE_SPEED:
+                    mStore.publishSpeed(mReader.getFloatValue(), timestamp);
+                    break;
+                case PipelineLog.TYPE_STEERING:
+                    mStore.publishSteeringAngle(mReader.getFloatValue(), timestamp);
+                    break;
+                case PipelineLog.TYPE_FRAME:
+                    RawFrame frame = mPool.acquire();
+                    try {
+                        mReader.readFrame(frame.getData());
+                        frame.getData().flip();
+                    } catch (Throwable e) {
+                        frame.release();
+                        throw e;
+                    }
+                    frame.set(timestamp, ++mSequence);
+                    return frame;
+                default:
+                    break;
+            }
+        }
+    }
+
+    @Override
+    public void wakeUp() {
+        mSleep.wakeUp();
+    }
+
+    @Override
+    public void close() {
+        if (mReader != null) {
+            try {
+                mReader.close();
+            } catch (IOException e) {
+                // nothing left to do with the file
+            }
+            mReader = null;
+        }
+    }
+}
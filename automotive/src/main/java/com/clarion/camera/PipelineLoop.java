@@ -0,0 +1,246 @@
+package com.clarion.camera;
+
+/**
+ * A thread that runs one stage of the camera pipeline, e.g. capture or
+ * render, iteration by iteration, and can be paused, resumed and stopped
+ * from the main thread.
+ *
+ * Pausing parks the thread between two iterations and keeps it, and
+ * everything the stage allocated, alive, so {@link #resume()} is only a
+ * notify. Stopping ends the thread and joins it. Both hand the request to
+ * the loop and wait for it to be acknowledged instead of polling; an
+ * iteration blocked on something that has to be woken up, such as
+ * {@link FrameScheduler#awaitRender()} or {@link FrameSource#nextFrame()},
+ * is woken through the waker passed to the constructor, so the wait is at
+ * most one iteration. A caller that cannot wait that long gives up after
+ * its timeout and hears from the {@link Listener} once the loop has
+ * parked or ended.
+ */
+class PipelineLoop {
+    static final int STATE_STOPPED = 0;
+    static final int STATE_PAUSED = 1;
+    static final int STATE_RUNNING = 2;
+
+    /** One stage of the pipeline. */
+    interface Body {
+        /**
+         * Runs one iteration, e.g. captures or renders one frame.
+         *
+         * @return false if the stage cannot go on, e.g. its source failed;
+         *         the thread then ends as if it had been stopped
+         */
+        boolean runOnce() throws InterruptedException;
+    }
+
+    /** Notified on the loop thread, without the loop's lock held. */
+    interface Listener {
+        /** The loop has parked or ended, e.g. after a pause that timed out. */
+        void onIdle(PipelineLoop loop);
+    }
+
+    private final String mName;
+    private final Body mBody;
+    private final Runnable mWaker;
+    private volatile Listener mListener;
+    private final Object mLock = new Object();
+    private Thread mThread;
+    // what the main thread asked for and what the loop has acknowledged
+    private int mRequested = STATE_STOPPED;
+    private int mState = STATE_STOPPED;
+    private long mLastTransitionNanos = 0;
+
+    /**
+     * @param waker run after a pause or stop request to wake the body up
+     *              if it is blocked, or null if every iteration is short;
+     *              a body it wakes throws InterruptedException, after which
+     *              the loop parks, ends or simply goes on
+     */
+    PipelineLoop(String name, Body body, Runnable waker) {
+        mName = name;
+        mBody = body;
+        mWaker = waker;
+    }
+
+    void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    /** Starts the thread, or unparks it if it is paused. Returns right away. */
+    void resume() {
+        long start = System.nanoTime();
+        synchronized (mLock) {
+            mRequested = STATE_RUNNING;
+            if (mThread == null) {
+                mThread = new Thread(mLoop, mName);
+                mThread.start();
+            } else {
+                mLock.notifyAll();
+            }
+            mLastTransitionNanos = System.nanoTime() - start;
+        }
+    }
+
+    /**
+     * Parks the thread after its current iteration.
+     *
+     * @return true if the loop is paused or stopped, false if it did not
+     *         finish its iteration within the timeout; it will still park
+     */
+    boolean pause(long timeoutNanos) throws InterruptedException {
+        return transition(STATE_PAUSED, timeoutNanos);
+    }
+
+    /**
+     * Ends the thread after its current iteration and joins it.
+     *
+     * @return true if the thread has ended, false if it did not finish its
+     *         iteration within the timeout; it will still end
+     */
+    boolean stop(long timeoutNanos) throws InterruptedException {
+        return transition(STATE_STOPPED, timeoutNanos);
+    }
+
+    int getState() {
+        synchronized (mLock) {
+            return mState;
+        }
+    }
+
+    /** How long the last pause, resume or stop waited for the loop. */
+    long getLastTransitionNanos() {
+        synchronized (mLock) {
+            return mLastTransitionNanos;
+        }
+    }
+
+    static String nameOf(int state) {
+        switch (state) {
+            case STATE_STOPPED:
+                return "STOPPED";
+            case STATE_PAUSED:
+                return "PAUSED";
+            case STATE_RUNNING:
+                return "RUNNING";
+            default:
+                return "UNKNOWN";
+        }
+    }
+
+    @Override
+    public String toString() {
+        synchronized (mLock) {
+            return "PipelineLoop{" + mName + " " + nameOf(mState)
+                    + ", last transition " + mLastTransitionNanos / 1000 + " us}";
+        }
+    }
+
+    private boolean transition(int target, long timeoutNanos) throws InterruptedException {
+        long start = System.nanoTime();
+        Thread thread;
+        synchronized (mLock) {
+            thread = mThread;
+            if (thread == null) {
+                return true;
+            }
+            // a stopped loop is also paused, but a paused one is not stopped
+            mRequested = target == STATE_PAUSED && mRequested == STATE_STOPPED
+                    ? STATE_STOPPED : target;
+            mLock.notifyAll();
+        }
+        if (mWaker != null) {
+            mWaker.run();
+        }
+        long deadline = start + timeoutNanos;
+        synchronized (mLock) {
+            while (mThread != null && !(target == STATE_PAUSED && mState == STATE_PAUSED)) {
+                long wait = deadline - System.nanoTime();
+                if (wait <= 0) {
+                    mLastTransitionNanos = System.nanoTime() - start;
+                    return false;
+                }
+                mLock.wait(wait / 1000000L, (int) (wait % 1000000L));
+            }
+        }
+        if (target == STATE_STOPPED) {
+            // the loop is done, only the thread's exit is left
+            long wait = Math.max(1, deadline - System.nanoTime());
+            thread.join(wait / 1000000L, (int) (wait % 1000000L));
+        }
+        synchronized (mLock) {
+            mLastTransitionNanos = System.nanoTime() - start;
+        }
+        return target != STATE_STOPPED || !thread.isAlive();
+    }
+
+    private final Runnable mLoop = new Runnable() {
+        @Override
+        public void run() {
+            boolean ended = false;
+            boolean idle = true;
+            try {
+                while (awaitRunning()) {
+                    boolean more;
+                    try {
+                        more = mBody.runOnce();
+                    } catch (InterruptedException e) {
+                        // woken, awaitRunning() tells what was asked for
+                        continue;
+                    }
+                    if (!more) {
+                        ended = true;
+                        break;
+                    }
+                }
+            } catch (InterruptedException e) {
+                // stopping
+            } finally {
+                synchronized (mLock) {
+                    mState = STATE_STOPPED;
+                    if (!ended && mRequested == STATE_RUNNING) {
+                        // resumed while this thread was on its way out
+                        mThread = new Thread(mLoop, mName);
+                        mThread.start();
+                        idle = false;
+                    } else {
+                        mThread = null;
+                        mRequested = STATE_STOPPED;
+                    }
+                    mLock.notifyAll();
+                }
+                if (idle) {
+                    notifyIdle();
+                }
+            }
+        }
+    };
+
+    // parks while paused; false once the loop is to end
+    private boolean awaitRunning() throws InterruptedException {
+        while (true) {
+            boolean parked = false;
+            synchronized (mLock) {
+                if (mRequested != STATE_PAUSED) {
+                    mState = mRequested;
+                    return mRequested == STATE_RUNNING;
+                }
+                if (mState != STATE_PAUSED) {
+                    mState = STATE_PAUSED;
+                    mLock.notifyAll();
+                    parked = true;
+                } else {
+                    mLock.wait();
+                }
+            }
+            if (parked) {
+                notifyIdle();
+            }
+        }
+    }
+
+    private void notifyIdle() {
+        Listener listener = mListener;
+        if (listener != null) {
+            listener.onIdle(this);
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package com.clarion.camera;
+
+/**
+ * The process-wide {@link TraceRing} and the events traced into it on the
+ * sensor, main and render paths. Decoded by
+ * {@code adb shell dumpsys activity com.clarion.camera/.MainActivity trace}.
+ */
+final class PipelineTrace {
+    static final TraceRing RING = new TraceRing(4096);
+
+    // CarSensorSource, binder thread: raw samples before coalescing
+    static final int SENSOR_GEAR = RING.defineEvent("sensor-gear", "i");
+    static final int SENSOR_SPEED = RING.defineEvent("sensor-speed", "f");
+    static final int SENSOR_UNHANDLED = RING.defineEvent("sensor-unhandled", "i");
+    // VehicleDataHub sensor, rate
+    static final int SENSOR_RATE = RING.defineEvent("sensor-rate", "ii");
+    // consumers, main thread: samples after coalescing
+    static final int ACTIVITY_GEAR = RING.defineEvent("activity-gear", "i");
+    static final int ACTIVITY_SPEED = RING.defineEvent("activity-speed", "f");
+    static final int SERVICE_GEAR = RING.defineEvent("service-gear", "i");
+    // ReverseLifecycle old state, new state
+    static final int PIPELINE_STATE = RING.defineEvent("pipeline-state", "ii");
+    // CameraPreview
+    static final int SURFACE_CREATED = RING.defineEvent("surface-created", "");
+    static final int SURFACE_CHANGED = RING.defineEvent("surface-changed", "ii");
+    static final int SURFACE_DESTROYED = RING.defineEvent("surface-destroyed", "");
+    // QualityGovernor old level, new level
+    static final int QUALITY = RING.defineEvent("quality", "ii");
+    // 1 if a clip is being saved, 0 if ignored
+    static final int CLIP_TRIGGER = RING.defineEvent("clip-trigger", "i");
+
+    private PipelineTrace() {
+    }
+}
@@ -0,0 +1,407 @@
+package com.clarion.camera;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.IntBuffer;
+
+/**
+ * The Android-free part of the camera preview: the capture and render
+ * {@link PipelineLoop}s, the {@link FrameScheduler} that paces rendering,
+ * the {@link QualityGovernor} and the {@link PipelineLatency} they report
+ * to, and the display frames handed over through a {@link TripleBuffer}.
+ *
+ * Whatever needs the platform is left to a {@link Host}: storing converted
+ * pixels in a display frame and drawing it on the surface. CameraPreview
+ * hosts it with Bitmaps and a SurfaceView, PipelineSoak with int arrays on
+ * a plain JVM, so the soak runs the same threads, pacing and quality steps
+ * as the car.
+ *
+ * The lifecycle methods are called on one thread, e.g. the main thread; the
+ * frames and the source may only change while {@link #loopsIdle()}.
+ *
+ * @param <F> a display frame, e.g. a Bitmap
+ */
+class PreviewPipeline<F> {
+
+    /** The platform side of the preview. */
+    interface Host<F> {
+        /**
+         * Capture thread: a raw frame before it is converted, e.g. to record
+         * it. The frame is released afterwards and must not be kept.
+         */
+        void onRawFrame(RawFrame raw);
+
+        /**
+         * Capture thread: stores the converted pixels, the top left
+         * width x height of which are valid, in a display frame. They are
+         * in the byte order of an ARGB_8888 bitmap and have its stride,
+         * see {@link MirrorScaleKernel#convert(java.nio.ByteBuffer, IntBuffer, int)}.
+         */
+        void fillFrame(F frame, IntBuffer pixels, int width, int height);
+
+        /** Capture thread: the source failed, the capture loop has ended. */
+        void onSourceFailed(IOException e);
+
+        /**
+         * Render thread: waits for a buffer of the surface to draw into.
+         *
+         * @return false if there is none, e.g. the surface is gone
+         */
+        boolean lockSurface();
+
+        /**
+         * Render thread: draws the top left width x height of the frame
+         * scaled to the surface, or black if it is stale, i.e. left over
+         * from before the loops started, then the overlay.
+         */
+        void drawFrame(F frame, int width, int height, boolean stale);
+
+        /** Render thread: hands the drawn buffer to the display. */
+        void postSurface();
+
+        /** Render thread: a camera frame captured since the start was posted. */
+        void onFramePosted(long capturedNanos, long postedNanos);
+    }
+
+    private static final class Frame<F> {
+        final F buffer;
+        // when the source delivered this frame, 0 before the first one
+        long capturedNanos;
+        // the valid part of the buffer, smaller at half resolution
+        int width;
+        int height;
+
+        Frame(F buffer) {
+            this.buffer = buffer;
+        }
+    }
+
+    private final Host<F> mHost;
+    private final PipelineLoop mRenderLoop;
+    private final PipelineLoop mCaptureLoop;
+    private FrameSource mSource;
+    // the loops are running
+    private boolean mStarted = false;
+
+    // renders only when a new frame or overlay state is ready, capped at the target fps
+    private final FrameScheduler mScheduler =
+            new FrameScheduler(FrameScheduler.DEFAULT_TARGET_FPS);
+    // lowers the preview quality step by step while frames overrun the budget
+    private final QualityGovernor mGovernor =
+            new QualityGovernor(QualityGovernor.DEFAULT_BUDGET_NANOS);
+    private volatile QualityGovernor.Listener mQualityListener;
+    private volatile int mTargetFps = FrameScheduler.DEFAULT_TARGET_FPS;
+    // capture to post latency of every stage
+    private final PipelineLatency mLatency = new PipelineLatency();
+    // smoothed time from lockSurface to postSurface
+    private volatile long mDrawNanos = 0;
+    // conversion time of the latest frame, part of the frame cost the governor sees
+    private volatile long mConvertNanos = 0;
+    // frames captured before the loops (re)started are not shown
+    private volatile long mStartedNanos = 0;
+
+    private TripleBuffer<Frame<F>> mFrames = null;
+    private IntBuffer mPixels = null;
+    private int mWidth = 0;
+    private int mHeight = 0;
+    // raw frames are converted, mirrored and scaled to the surface size in
+    // one pass, or to half the size, scaled up nearest-neighbour by the host
+    private RowStripes mStripes = null;
+    private MirrorScaleKernel mKernel = null;
+    private MirrorScaleKernel mHalfKernel = null;
+
+    PreviewPipeline(FrameSource source, Host<F> host) {
+        mSource = source;
+        mHost = host;
+        mGovernor.setListener(new QualityGovernor.Listener() {
+            @Override
+            public void onQualityChanged(int oldLevel, int newLevel) {
+                applyRenderRate(newLevel);
+                QualityGovernor.Listener listener = mQualityListener;
+                if (listener != null) {
+                    listener.onQualityChanged(oldLevel, newLevel);
+                }
+            }
+        });
+        mRenderLoop = new PipelineLoop("CameraRender", new PipelineLoop.Body() {
+            @Override
+            public boolean runOnce() throws InterruptedException {
+                // false while paused or stopped, the loop then parks or ends
+                if (mScheduler.awaitRender()) {
+                    renderFrame();
+                }
+                return true;
+            }
+        }, new Runnable() {
+            @Override
+            public void run() {
+                mScheduler.stop();
+            }
+        });
+        // Capture thread: fills the back buffer with each camera frame and
+        // publishes it, independent of how fast the surface can be drawn.
+        // A pause or stop wakes it up if it is still waiting for the camera.
+        mCaptureLoop = new PipelineLoop("CameraCapture", new PipelineLoop.Body() {
+            @Override
+            public boolean runOnce() throws InterruptedException {
+                try {
+                    captureFrame();
+                    return true;
+                } catch (IOException e) {
+                    mHost.onSourceFailed(e);
+                    return false;
+                }
+            }
+        }, new Runnable() {
+            @Override
+            public void run() {
+                mSource.wakeUp();
+            }
+        });
+    }
+
+    private void renderFrame() {
+        // take the newest complete frame, or keep the current one if the
+        // render was only requested for an overlay change
+        boolean newFrame = mFrames.swapToLatest();
+        Frame<F> frame = mFrames.getFrontBuffer();
+        // left over from before a standby
+        boolean stale = frame.capturedNanos < mStartedNanos;
+
+        long drawStart = System.nanoTime();
+        if (!mHost.lockSurface()) {
+            return;
+        }
+        // blocking for a free buffer above is not render work
+        long locked = System.nanoTime();
+        mHost.drawFrame(frame.buffer, frame.width, frame.height, stale);
+        long composed = System.nanoTime();
+        mHost.postSurface();
+        long posted = System.nanoTime();
+        long elapsed = posted - drawStart;
+        mDrawNanos = mDrawNanos == 0 ? elapsed : mDrawNanos + (elapsed - mDrawNanos) / 8;
+        mGovernor.onFrame(posted - locked, mConvertNanos, posted);
+        if (newFrame && !stale && frame.capturedNanos != 0) {
+            mLatency.recordRender(frame.capturedNanos, mFrames.getFrontTimestamp(),
+                    drawStart, composed, posted);
+            mHost.onFramePosted(frame.capturedNanos, posted);
+        } else {
+            mLatency.recordRender(0, 0, drawStart, composed, posted);
+        }
+    }
+
+    private void captureFrame() throws IOException, InterruptedException {
+        // blocks until the source delivers the next frame
+        RawFrame raw = mSource.nextFrame();
+        long captured = raw.getTimestampNanos();
+        long copied = System.nanoTime();
+        mHost.onRawFrame(raw);
+        // camera image to a mirrored, surface-sized frame
+        boolean half = mGovernor.getLevel() >= QualityGovernor.LEVEL_HALF_RESOLUTION;
+        MirrorScaleKernel k = half ? mHalfKernel : mKernel;
+        k.convert(raw.getData(), mPixels, mWidth);
+        raw.release();
+        Frame<F> frame = mFrames.getBackBuffer();
+        mHost.fillFrame(frame.buffer, mPixels, k.getWidth(), k.getHeight());
+        frame.capturedNanos = captured;
+        frame.width = k.getWidth();
+        frame.height = k.getHeight();
+        long published = System.nanoTime();
+        mFrames.publish(published);
+        mConvertNanos = published - copied;
+        mLatency.recordCapture(captured, copied, published);
+        mScheduler.onFrameAvailable();
+    }
+
+    /** Notified on a loop thread once it has parked or ended. */
+    void setLoopListener(PipelineLoop.Listener listener) {
+        mRenderLoop.setListener(listener);
+        mCaptureLoop.setListener(listener);
+    }
+
+    /** Notified on the render thread after the render rate followed the level. */
+    void setQualityListener(QualityGovernor.Listener listener) {
+        mQualityListener = listener;
+    }
+
+    FrameSource getFrameSource() {
+        return mSource;
+    }
+
+    /** Replaces the source; the capture loop must not be running. */
+    void setFrameSource(FrameSource source) {
+        mSource = source;
+    }
+
+    /**
+     * Takes the display frames, all of width x height, and the pixels the
+     * frames are converted into, a native order view of a direct buffer of
+     * the same size; the loops must be idle.
+     */
+    void setFrames(F front, F back, F spare, IntBuffer pixels, int width, int height) {
+        mFrames = new TripleBuffer<>(new Frame<>(front), new Frame<>(back),
+                new Frame<>(spare));
+        mPixels = pixels;
+        mWidth = width;
+        mHeight = height;
+        if (mStripes == null) {
+            mStripes = RowStripes.forAvailableCores("FrameKernel");
+        }
+        mKernel = new MirrorScaleKernel(mSource.getWidth(), mSource.getHeight(),
+                width, height, mStripes);
+        mHalfKernel = new MirrorScaleKernel(mSource.getWidth(), mSource.getHeight(),
+                Math.max(1, width / 2), Math.max(1, height / 2), mStripes);
+    }
+
+    /** Whether the frames set last fit this size and the current source. */
+    boolean framesMatch(int width, int height) {
+        return mFrames != null && width == mWidth && height == mHeight
+                && mKernel.matches(mSource.getWidth(), mSource.getHeight(), width, height);
+    }
+
+    boolean hasFrames() {
+        return mFrames != null;
+    }
+
+    /** Lets go of the frames, which the caller may then reuse; the loops must be idle. */
+    void clearFrames() {
+        mFrames = null;
+        mPixels = null;
+        mWidth = 0;
+        mHeight = 0;
+    }
+
+    /** Ends the kernel threads; the frames are cleared first. */
+    void shutdown() {
+        clearFrames();
+        if (mStripes != null) {
+            mStripes.shutdown();
+            mStripes = null;
+        }
+    }
+
+    /**
+     * Starts the loops, or unparks them if they are paused; the capture
+     * loop only if the source is open. Needs the frames.
+     */
+    void start(boolean sourceOpen) {
+        mStarted = true;
+        // every start is judged afresh at full quality
+        mGovernor.reset();
+        applyRenderRate(QualityGovernor.LEVEL_FULL);
+        mStartedNanos = System.nanoTime();
+        mScheduler.start();
+        mRenderLoop.resume();
+        if (sourceOpen) {
+            mCaptureLoop.resume();
+        }
+        // draw the first frame right away, even before the camera delivers one
+        mScheduler.onOverlayChanged();
+    }
+
+    /** Starts capturing, e.g. once the source opened after the loops started. */
+    void resumeCapture() {
+        mCaptureLoop.resume();
+    }
+
+    boolean isStarted() {
+        return mStarted;
+    }
+
+    /**
+     * Parks the loops after their current frame, keeping the threads and
+     * the frames for a quick restart; waits for both together.
+     *
+     * @return false if a loop is still inside its frame after the timeout
+     */
+    boolean pause(long timeoutNanos) throws InterruptedException {
+        mStarted = false;
+        long deadline = System.nanoTime() + timeoutNanos;
+        return mRenderLoop.pause(timeoutNanos)
+                & mCaptureLoop.pause(Math.max(0, deadline - System.nanoTime()));
+    }
+
+    /**
+     * Ends the loops and joins their threads; waits for both together.
+     *
+     * @return false if a loop is still inside its frame after the timeout
+     */
+    boolean stop(long timeoutNanos) throws InterruptedException {
+        mStarted = false;
+        long deadline = System.nanoTime() + timeoutNanos;
+        return mRenderLoop.stop(timeoutNanos)
+                & mCaptureLoop.stop(Math.max(0, deadline - System.nanoTime()));
+    }
+
+    /**
+     * Neither loop is inside a frame, so frames and source may change; a
+     * loop that did not acknowledge a pause or stop in time still is.
+     */
+    boolean loopsIdle() {
+        return mRenderLoop.getState() != PipelineLoop.STATE_RUNNING
+                && !isCapturing();
+    }
+
+    /** The capture loop may be reading the source. */
+    boolean isCapturing() {
+        return mCaptureLoop.getState() == PipelineLoop.STATE_RUNNING;
+    }
+
+    /** Redraws the current frame, e.g. after the overlay state changed. */
+    void requestRender() {
+        mScheduler.onOverlayChanged();
+    }
+
+    /**
+     * Estimated time from drawing on the surface until the frame is on
+     * screen: the measured draw time plus one frame for composition and
+     * scan-out.
+     */
+    long getDisplayLatencyNanos() {
+        return mDrawNanos + mScheduler.getFrameIntervalNanos();
+    }
+
+    long getRenderedFrames() {
+        return mScheduler.getRenderedFrames();
+    }
+
+    /** Caps the render rate; halved at the lowest quality level. */
+    void setTargetFps(int targetFps) {
+        if (targetFps <= 0) {
+            throw new IllegalArgumentException("targetFps must be positive: " + targetFps);
+        }
+        mTargetFps = targetFps;
+        applyRenderRate(mGovernor.getLevel());
+    }
+
+    int getQualityLevel() {
+        return mGovernor.getLevel();
+    }
+
+    void setFrameBudgetNanos(long budgetNanos) {
+        mGovernor.setBudgetNanos(budgetNanos);
+    }
+
+    PipelineLatency getLatency() {
+        return mLatency;
+    }
+
+    private void applyRenderRate(int level) {
+        int fps = mTargetFps;
+        mScheduler.setTargetFps(level >= QualityGovernor.LEVEL_LOW_RATE
+                ? Math.max(1, fps / 2) : fps);
+    }
+
+    /** The scheduler, the loops, the per-stage latency and the quality levels. */
+    void dump(PrintWriter writer) {
+        writer.println(mScheduler);
+        writer.println(mRenderLoop + " " + mCaptureLoop);
+        mLatency.dump(writer);
+        mGovernor.dump(writer);
+    }
+
+    @Override
+    public String toString() {
+        return mRenderLoop + " " + mCaptureLoop;
+    }
+}
@@ -0,0 +1,221 @@
+package com.clarion.camera;
+
+import java.io.PrintWriter;
+
+/**
+ * Trades preview quality for frame time when the SoC is busy.
+ *
+ * The render loop reports what every frame cost; the governor smooths it
+ * and compares it to a budget. Capture and render run on their own threads
+ * and overlap, so a frame costs as much as the busier of the two, not their
+ * sum. While frames overrun the budget it steps
+ * down one level at a time, in a fixed order:
+ *
+ * <pre>
+ *   FULL             full resolution conversion, dynamic guide lines
+ *   HALF_RESOLUTION  frames converted at half size, upscaled nearest-neighbour
+ *   STATIC_OVERLAY   only the static overlay, no per-angle dynamic lines
+ *   LOW_RATE         half the target render rate
+ * </pre>
+ *
+ * Stepping down needs only a few slow frames, stepping back up needs a long
+ * run of frames well under the budget, so the level does not flap around
+ * the threshold. Every change is counted and the latest ones are kept for
+ * {@link #dump(PrintWriter)}. Called from the render thread only, except
+ * for {@link #getLevel()} and the dump.
+ */
+class QualityGovernor {
+    static final int LEVEL_FULL = 0;
+    static final int LEVEL_HALF_RESOLUTION = 1;
+    static final int LEVEL_STATIC_OVERLAY = 2;
+    static final int LEVEL_LOW_RATE = 3;
+    static final int LEVEL_COUNT = 4;
+
+    private static final String[] LEVEL_NAMES = {
+            "full", "half-resolution", "static-overlay", "low-rate"
+    };
+
+    // two thirds of a 30 fps frame, leaving room for composition and scan-out
+    static final long DEFAULT_BUDGET_NANOS = 22000000L;
+    // consecutive frames over the budget before stepping down
+    static final int DOWNGRADE_FRAMES = 5;
+    // consecutive frames under UPGRADE_FRACTION of the budget before stepping up
+    static final int UPGRADE_FRAMES = 90;
+    static final double UPGRADE_FRACTION = 0.6;
+    // weight of the newest frame in the smoothed frame time
+    private static final double SMOOTHING = 0.25;
+    private static final int HISTORY = 16;
+    private static final double NANOS_PER_MILLI = 1e6;
+
+    /** Notified on the render thread when the level changed. */
+    interface Listener {
+        void onQualityChanged(int oldLevel, int newLevel);
+    }
+
+    private volatile long mBudgetNanos;
+    private volatile int mLevel = LEVEL_FULL;
+    private Listener mListener;
+
+    private double mSmoothedNanos = 0;
+    private int mOverBudget = 0;
+    private int mUnderBudget = 0;
+
+    private final Object mStatsLock = new Object();
+    private final long[] mFramesAtLevel = new long[LEVEL_COUNT];
+    private long mDowngrades = 0;
+    private long mUpgrades = 0;
+    // ring of the latest changes
+    private final long[] mChangeTimes = new long[HISTORY];
+    private final int[] mChangeLevels = new int[HISTORY];
+    private final double[] mChangeFrameNanos = new double[HISTORY];
+    private int mChangeCount = 0;
+
+    QualityGovernor(long budgetNanos) {
+        setBudgetNanos(budgetNanos);
+    }
+
+    void setBudgetNanos(long budgetNanos) {
+        if (budgetNanos <= 0) {
+            throw new IllegalArgumentException("budget must be positive: " + budgetNanos);
+        }
+        mBudgetNanos = budgetNanos;
+    }
+
+    long getBudgetNanos() {
+        return mBudgetNanos;
+    }
+
+    void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    int getLevel() {
+        return mLevel;
+    }
+
+    static String nameOf(int level) {
+        return LEVEL_NAMES[level];
+    }
+
+    /**
+     * Reports the busy time of both threads for one frame: the render time
+     * from the locked canvas to the post, and the conversion time of the
+     * capture thread. Waiting for a buffer is not work and not counted.
+     *
+     * @return the level to use from the next frame on
+     */
+    int onFrame(long renderNanos, long convertNanos, long nowNanos) {
+        // each thread has the whole frame interval for its share
+        return onFrame(Math.max(renderNanos, convertNanos), nowNanos);
+    }
+
+    /**
+     * Reports the cost of one frame on the slowest stage of the pipeline.
+     *
+     * @return the level to use from the next frame on
+     */
+    int onFrame(long frameNanos, long nowNanos) {
+        mSmoothedNanos = mSmoothedNanos == 0 ? frameNanos
+                : mSmoothedNanos + (frameNanos - mSmoothedNanos) * SMOOTHING;
+        int level = mLevel;
+        synchronized (mStatsLock) {
+            mFramesAtLevel[level]++;
+        }
+
+        long budget = mBudgetNanos;
+        if (mSmoothedNanos > budget) {
+            mUnderBudget = 0;
+            if (++mOverBudget >= DOWNGRADE_FRAMES && level < LEVEL_COUNT - 1) {
+                changeLevel(level + 1, mSmoothedNanos, nowNanos);
+            }
+        } else if (mSmoothedNanos < budget * UPGRADE_FRACTION) {
+            mOverBudget = 0;
+            if (++mUnderBudget >= UPGRADE_FRAMES && level > LEVEL_FULL) {
+                changeLevel(level - 1, mSmoothedNanos, nowNanos);
+            }
+        } else {
+            // in between: hold the level
+            mOverBudget = 0;
+            mUnderBudget = 0;
+        }
+        return mLevel;
+    }
+
+    /** Back to full quality, e.g. when the preview restarts. */
+    void reset() {
+        mSmoothedNanos = 0;
+        mOverBudget = 0;
+        mUnderBudget = 0;
+        mLevel = LEVEL_FULL;
+    }
+
+    long getDowngrades() {
+        synchronized (mStatsLock) {
+            return mDowngrades;
+        }
+    }
+
+    long getUpgrades() {
+        synchronized (mStatsLock) {
+            return mUpgrades;
+        }
+    }
+
+    long getFramesAtLevel(int level) {
+        synchronized (mStatsLock) {
+            return mFramesAtLevel[level];
+        }
+    }
+
+    /** Writes the current level, the frames per level and the latest changes. */
+    void dump(PrintWriter writer) {
+        synchronized (mStatsLock) {
+            writer.println(String.format("quality %s, budget %.1f ms, %d down, %d up",
+                    LEVEL_NAMES[mLevel], mBudgetNanos / NANOS_PER_MILLI,
+                    mDowngrades, mUpgrades));
+            for (int level = 0; level < LEVEL_COUNT; level++) {
+                writer.println(String.format("  %-16s %8d frames",
+                        LEVEL_NAMES[level], mFramesAtLevel[level]));
+            }
+            int first = Math.max(0, mChangeCount - HISTORY);
+            for (int i = first; i < mChangeCount; i++) {
+                int slot = i % HISTORY;
+                writer.println(String.format("  at %d ms -> %s (frame %.1f ms)",
+                        mChangeTimes[slot] / 1000000L, LEVEL_NAMES[mChangeLevels[slot]],
+                        mChangeFrameNanos[slot] / NANOS_PER_MILLI));
+            }
+        }
+        writer.flush();
+    }
+
+    @Override
+    public String toString() {
+        return "QualityGovernor{level=" + LEVEL_NAMES[mLevel]
+                + ", down=" + getDowngrades() + ", up=" + getUpgrades() + "}";
+    }
+
+    private void changeLevel(int level, double frameNanos, long nowNanos) {
+        int oldLevel = mLevel;
+        mLevel = level;
+        // judge the new level by its own frames only
+        mSmoothedNanos = 0;
+        mOverBudget = 0;
+        mUnderBudget = 0;
+        synchronized (mStatsLock) {
+            if (level > oldLevel) {
+                mDowngrades++;
+            } else {
+                mUpgrades++;
+            }
+            int slot = mChangeCount % HISTORY;
+            mChangeTimes[slot] = nowNanos;
+            mChangeLevels[slot] = level;
+            mChangeFrameNanos[slot] = frameNanos;
+            mChangeCount++;
+        }
+        Listener listener = mListener;
+        if (listener != null) {
+            listener.onQualityChanged(oldLevel, level);
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package com.clarion.camera;
+
+import java.nio.ByteBuffer;
+
+/**
+ * One YUYV camera frame in a direct buffer owned by a {@link FramePool}.
+ * Whoever received the frame from a {@link FrameSource} must call
+ * {@link #release()} once done, which hands the buffer back for the next
+ * capture instead of allocating a new one.
+ */
+class RawFrame {
+    private final FramePool mPool;
+    private final ByteBuffer mData;
+    private long mTimestampNanos;
+    private long mSequence;
+
+    RawFrame(FramePool pool, ByteBuffer data) {
+        mPool = pool;
+        mData = data;
+    }
+
+    /** Frame bytes, position 0 and limit at the frame size. */
+    ByteBuffer getData() {
+        return mData;
+    }
+
+    /** {@link System#nanoTime()} at which the frame was captured. */
+    long getTimestampNanos() {
+        return mTimestampNanos;
+    }
+
+    /** Number of the frame since the source was opened, starting at 1. */
+    long getSequence() {
+        return mSequence;
+    }
+
+    void set(long timestampNanos, long sequence) {
+        mTimestampNanos = timestampNanos;
+        mSequence = sequence;
+    }
+
+    void release() {
+        mPool.release(this);
+    }
+}
@@ -3,12 +3,13 @@ package com.clarion.camera;
 import android.content.Context;
 import android.content.Intent;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Matrix;
 import android.graphics.Paint;
+import android.os.SystemClock;
 import android.util.AttributeSet;
+import android.util.DisplayMetrics;
 import android.util.Log;
 import android.view.SurfaceHolder;
 
@@ -16,8 +17,18 @@ public class RearviewCameraView extends CameraPreview {
     private static final String TAG = "RearviewCameraView";
 
     private VehicleManager mVehicleManager;
-    private static Bitmap sOverlayLinesBitmap = null;
-    private static Bitmap sSteeringAngleLinesBitmap = null;
+    // what the overlay of a frame looks like, see drawOnCanvas
+    private OverlayFrame mOverlayFrame;
+    // decoded once per process by CameraStartup, fetched on the render thread
+    private Bitmap mOverlayLinesBitmap = null;
+    private static final float GUIDE_LINE_WIDTH = 6;
+
+    // pushed from the transforms of mOverlayFrame only when they change
+    private final Matrix mOverlayMatrix = new Matrix();
+    private final Paint mOverlayPaint = new Paint();
+    private final Paint mDynamicLinesPaint = new Paint();
+    private volatile int mScreenWidth;
+    private volatile int mScreenHeight;
 
     public RearviewCameraView(Context context) {
         super(context);
@@ -33,29 +44,58 @@ public class RearviewCameraView extends CameraPreview {
 
     private void init() {
         Log.d(TAG, "init: start");
-        if(sOverlayLinesBitmap == null) {
-            sOverlayLinesBitmap = BitmapFactory.decodeResource(getResources(),
-                    R.drawable.overlay);
-        }
+        // the overlay is decoded in the background, see CameraStartup
+        CameraStartup.start(getContext());
 
-        if(sSteeringAngleLinesBitmap == null) {
-            sSteeringAngleLinesBitmap = BitmapFactory.decodeResource(getResources(),
-                    R.drawable.dynamiclines);
-        }
+        mDynamicLinesPaint.setColor(Color.YELLOW);
+        mDynamicLinesPaint.setStyle(Paint.Style.STROKE);
+        mDynamicLinesPaint.setStrokeWidth(GUIDE_LINE_WIDTH);
+        mDynamicLinesPaint.setStrokeCap(Paint.Cap.ROUND);
+        mDynamicLinesPaint.setAntiAlias(true);
 
         //[ROHIT]
         mVehicleManager = new VehicleManager();
+        mOverlayFrame = new OverlayFrame(mVehicleManager);
+        mVehicleManager.setOnChangeListener(new VehicleManager.OnChangeListener() {
+            @Override
+            public void onVehicleStateChanged() {
+                // the static overlay does not follow the steering angle
+                if (getQualityLevel() < QualityGovernor.LEVEL_STATIC_OVERLAY) {
+                    requestRender();
+                }
+            }
+        });
+        // the frames themselves are kept process-wide by CameraStartup
+        enableClips(mVehicleManager);
+
+        // until the surface reports its real size assume a full screen view
+        DisplayMetrics displayMetrics = getContext().getResources().getDisplayMetrics();
+        mScreenWidth = displayMetrics.widthPixels;
+        mScreenHeight = displayMetrics.heightPixels;
     }
 
     @Override
     public void drawOnCanvas(Canvas canvas, Bitmap videoBitmap) {
-        canvas.drawColor(Color.BLACK);
-        canvas.drawBitmap(videoBitmap, createVideoFeedMatrix(videoBitmap),
-                null);
-        canvas.drawBitmap(sOverlayLinesBitmap, createOverlayMatrix(),
-                createOverlayPaint());
-        canvas.drawBitmap(sSteeringAngleLinesBitmap, createDynamicLinesMatrix(),
-                createDynamicLinesPaint());
+        // videoBitmap was already mirrored and scaled to the surface and drawn
+        if (mOverlayLinesBitmap == null) {
+            // waits for the startup phase only if it has not finished yet
+            mOverlayLinesBitmap = CameraStartup.getOverlay(getContext());
+        }
+        // the samples carry CarSensorEvent timestamps, i.e. elapsed realtime
+        int bucket = mOverlayFrame.prepare(SystemClock.elapsedRealtimeNanos(),
+                getDisplayLatencyNanos(), getQualityLevel(), mScreenWidth, mScreenHeight,
+                mOverlayLinesBitmap.getWidth(), mOverlayLinesBitmap.getHeight());
+        if (mOverlayFrame.transformsChanged()) {
+            updateTransforms(mOverlayFrame.getTransforms());
+        }
+        // the overlay is pre-scaled, so this is an unfiltered blit of its own
+        // bounds faded by the paint alpha, with the lines drawn over it
+        canvas.drawBitmap(mOverlayLinesBitmap, mOverlayMatrix, mOverlayPaint);
+        if (bucket != OverlayFrame.STATIC_OVERLAY) {
+            GuideLineGeometry guideLines = mOverlayFrame.getGuideLines();
+            canvas.drawLines(guideLines.getPoints(), guideLines.getOffset(bucket),
+                    GuideLineGeometry.FLOATS_PER_ANGLE, mDynamicLinesPaint);
+        }
     }
 
     @Override
@@ -67,6 +107,13 @@ public class RearviewCameraView extends CameraPreview {
 //                mVehicleConnection, Context.BIND_AUTO_CREATE);
     }
 
+    @Override
+    public void surfaceChanged(SurfaceHolder holder, int format, int width, int height) {
+        mScreenWidth = width;
+        mScreenHeight = height;
+        super.surfaceChanged(holder, format, width, height);
+    }
+
     @Override
     public void surfaceDestroyed(SurfaceHolder holder) {
         Log.d(TAG, "surfaceDestroyed: start");
@@ -74,158 +121,14 @@ public class RearviewCameraView extends CameraPreview {
 //        getContext().unbindService(mVehicleConnection);
     }
 
-    private Matrix createVideoFeedMatrix(Bitmap bitmap) {
-        Matrix videoFeedMatrix = new Matrix();
-
-        videoFeedMatrix.preScale(-computeScreenToFeedWidthRatio(bitmap),
-                computeScreenToFeedHeightRatio(bitmap));
-        videoFeedMatrix.postTranslate((float)(0.5 * getScreenWidth() +
-                        (0.5 * computeAdjustedVideoFeedWidth(bitmap))),
-                (float)((0.5 * getScreenHeight()) -
-                        (0.5 * computeAdjustedVideoFeedHeight(bitmap))));
-
-        return videoFeedMatrix;
-    }
-
-    private Matrix createOverlayMatrix() {
-        Matrix overlayMatrix = new Matrix();
-
-        overlayMatrix.preScale(computeScreenToOverlayWidthRatio(),
-                computeScreenToOverlayHeightRatio());
-        overlayMatrix.postTranslate(computeOverlayHorizontalTranslation(),
-                computeOverlayVerticalTranslation());
-
-        return overlayMatrix;
-    }
-
-    private Matrix createDynamicLinesMatrix() {
-        //place dynamic lines directly on top of overlay by using same
-        //translations/ratios
-        float screenToDynamicLinesHeightRatio =
-                computeScreenToOverlayHeightRatio();
-        float screenToDynamicLinesWidthRatio =
-                computeScreenToOverlayWidthRatio();
-        float dynamicLinesVerticalTranslation =
-                computeOverlayVerticalTranslation();
-        float dynamicLinesHorizontalTranslation =
-                computeOverlayHorizontalTranslation();
-
-        Matrix dynamicLinesMatrix = new Matrix();
-
-        dynamicLinesMatrix.preScale(screenToDynamicLinesWidthRatio,
-                screenToDynamicLinesHeightRatio);
-        dynamicLinesMatrix.postTranslate(dynamicLinesHorizontalTranslation +
-                        3*(float)getSteeringWheelAngle()/2,
-                dynamicLinesVerticalTranslation);
-
-        //number divided by must be larger than the maximum absolute value the
-        //steering wheel can produce because the x skew must be less than 1
-        dynamicLinesMatrix.postSkew((float) -getSteeringWheelAngle() / 480, 0);
-
-        return dynamicLinesMatrix;
-    }
-
-    private Paint createOverlayPaint(){
-        double steeringWheelAngle = getSteeringWheelAngle();
-        Paint overlayPaint = new Paint();
-
-        if (steeringWheelAngle == 0) {
-            overlayPaint.setAlpha(255);
-        } else if (steeringWheelAngle / 2 > 0 && steeringWheelAngle / 2 <= 255) {
-            overlayPaint.setAlpha((int)(255 - steeringWheelAngle / 2));
-        } else if (steeringWheelAngle / 2 < 0 && steeringWheelAngle / 2 >= -255) {
-            overlayPaint.setAlpha((int)(255 + steeringWheelAngle / 2));
-        } else {
-            overlayPaint.setAlpha(0);
-        }
-
-        return overlayPaint;
-    }
-
-    private double getSteeringWheelAngle() {
-        double steeringWheelAngle = 0;
-//        try {
-//            if(mVehicleManager != null) {
-//                steeringWheelAngle = ((SteeringWheelAngle)mVehicleManager.get(
-//                        SteeringWheelAngle.class)).getValue().doubleValue();
-//            }
-//        } catch(UnrecognizedMeasurementTypeException e) {
-//        } catch(NoValueException e) {
-//        }
-        steeringWheelAngle = mVehicleManager.getSteeringAngle();
-        return steeringWheelAngle;
-    }
-
-    private Paint createDynamicLinesPaint() {
-        int steeringWheelAngle = (int) getSteeringWheelAngle();
-        Paint paint = new Paint();
-
-        if (steeringWheelAngle >= 0 && steeringWheelAngle < 255){
-            paint.setAlpha(steeringWheelAngle);
-        } else if (steeringWheelAngle < 0 && steeringWheelAngle > -255){
-            paint.setAlpha(-steeringWheelAngle);
-        } else {
-            paint.setAlpha(255);
-        }
-        return paint;
-    }
-
-    /**overlay translation computation methods**/
-    private float computeOverlayHorizontalTranslation() {
-        return (float)((0.5 * getScreenWidth()) -
-                (0.5 * computeAdjustedOverlayWidth()));
-    }
-
-    private float computeOverlayVerticalTranslation() {
-        return (float)((0.5 * getScreenHeight()) -
-                (0.3 * computeAdjustedOverlayHeight()));
-    }
-
-    /**screen to overlay ratio computation methods**/
-    private float computeScreenToOverlayHeightRatio() {
-        return (float)(0.5 * getScreenHeight() /
-                sOverlayLinesBitmap.getHeight());
-    }
-
-    private float computeScreenToOverlayWidthRatio() {
-        return (float)(0.85 * getScreenWidth() /
-                sOverlayLinesBitmap.getWidth());
-    }
-
-    /**screen to video feed ratio computation methods**/
-    private float computeScreenToFeedHeightRatio(Bitmap bitmap) {
-        return getScreenHeight() / bitmap.getHeight();
-    }
-
-    private float computeScreenToFeedWidthRatio(Bitmap bitmap) {
-        return getScreenWidth() / bitmap.getWidth();
-    }
-
-    /**adjusted video feed dimensions computation methods**/
-    private float computeAdjustedVideoFeedHeight(Bitmap bitmap) {
-        return computeScreenToFeedHeightRatio(bitmap) * bitmap.getHeight();
-    }
-
-    private float computeAdjustedVideoFeedWidth(Bitmap bitmap) {
-        return computeScreenToFeedWidthRatio(bitmap) * bitmap.getWidth();
-    }
-
-    /**adjusted overlay dimensions computation methods**/
-    private float computeAdjustedOverlayHeight() {
-        return computeScreenToOverlayHeightRatio()*sOverlayLinesBitmap.getHeight();
-    }
-
-    private float computeAdjustedOverlayWidth() {
-        return computeScreenToOverlayWidthRatio()*sOverlayLinesBitmap.getWidth();
-    }
-
-    /**get screen dimensions methods**/
-    private float getScreenHeight() {
-        return getContext().getResources().getDisplayMetrics().heightPixels;
-    }
-
-    private float getScreenWidth() {
-        return getContext().getResources().getDisplayMetrics().widthPixels;
+    /**
+     * Pushes the cached transform state to the Matrix/Paint objects, which is
+     * only needed when the steering angle bucket or one of the sizes changed.
+     */
+    private void updateTransforms(RenderTransformCache transforms) {
+        mOverlayMatrix.setValues(transforms.getOverlayMatrix());
+        mOverlayPaint.setAlpha(transforms.getOverlayAlpha());
+        mDynamicLinesPaint.setAlpha(transforms.getDynamicLinesAlpha());
     }
 
     public  VehicleManager getVehicleManager(){
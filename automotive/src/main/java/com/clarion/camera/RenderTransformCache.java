@@ -0,0 +1,146 @@
+package com.clarion.camera;
+
+/**
+ * Cached transform and paint state for the {@link RearviewCameraView} render
+ * path. The overlay matrix and the alpha values are only rebuilt when the
+ * steering angle, the surface size or the overlay size changes, so
+ * steady-state frames neither allocate nor recompute anything. The video
+ * feed itself is already mirrored and scaled by {@link MirrorScaleKernel},
+ * the guide lines come from {@link GuideLineGeometry}.
+ *
+ * Matrices are kept as 3x3 row-major arrays in the layout expected by
+ * {@code android.graphics.Matrix#setValues(float[])}.
+ *
+ * An overlay that already has its target size on the screen, see
+ * {@link #overlayTargetWidth} and {@link OverlayCacheFile}, is only
+ * translated, so drawing it does not filter.
+ */
+class RenderTransformCache {
+    static final int MATRIX_SIZE = 9;
+    // share of the screen covered by the overlay
+    private static final double OVERLAY_WIDTH_FRACTION = 0.85;
+    private static final double OVERLAY_HEIGHT_FRACTION = 0.5;
+
+    private final float[] mOverlayMatrix = new float[MATRIX_SIZE];
+    private int mOverlayAlpha = 255;
+    private int mDynamicLinesAlpha = 0;
+
+    private boolean mValid = false;
+    private double mSteeringAngle;
+    private int mScreenWidth;
+    private int mScreenHeight;
+    private int mOverlayWidth;
+    private int mOverlayHeight;
+
+    /**
+     * Brings the cached state up to date with the given inputs.
+     *
+     * @return true if anything was rebuilt and has to be pushed to the
+     *         Matrix/Paint objects, false if the cached state is unchanged
+     */
+    boolean update(double steeringAngle, int screenWidth, int screenHeight,
+                   int overlayWidth, int overlayHeight) {
+        boolean geometryChanged = !mValid
+                || screenWidth != mScreenWidth || screenHeight != mScreenHeight
+                || overlayWidth != mOverlayWidth || overlayHeight != mOverlayHeight;
+        boolean angleChanged = !mValid || steeringAngle != mSteeringAngle;
+
+        if (!geometryChanged && !angleChanged) {
+            return false;
+        }
+
+        if (geometryChanged) {
+            mScreenWidth = screenWidth;
+            mScreenHeight = screenHeight;
+            mOverlayWidth = overlayWidth;
+            mOverlayHeight = overlayHeight;
+            rebuildGeometry();
+        }
+        mSteeringAngle = steeringAngle;
+        rebuildSteering();
+        mValid = true;
+        return true;
+    }
+
+    /** Forces a full rebuild on the next {@link #update}. */
+    void invalidate() {
+        mValid = false;
+    }
+
+    /** Width of the overlay on a screen of the given width. */
+    static int overlayTargetWidth(int screenWidth) {
+        return (int) Math.round(OVERLAY_WIDTH_FRACTION * screenWidth);
+    }
+
+    /** Height of the overlay on a screen of the given height. */
+    static int overlayTargetHeight(int screenHeight) {
+        return (int) Math.round(OVERLAY_HEIGHT_FRACTION * screenHeight);
+    }
+
+    float[] getOverlayMatrix() {
+        return mOverlayMatrix;
+    }
+
+    int getOverlayAlpha() {
+        return mOverlayAlpha;
+    }
+
+    int getDynamicLinesAlpha() {
+        return mDynamicLinesAlpha;
+    }
+
+    private void rebuildGeometry() {
+        float screenWidth = mScreenWidth;
+        float screenHeight = mScreenHeight;
+
+        //overlay: centered horizontally, slightly above the vertical center
+        float widthRatio = mOverlayWidth == overlayTargetWidth(mScreenWidth) ? 1
+                : (float)(OVERLAY_WIDTH_FRACTION * screenWidth / mOverlayWidth);
+        float heightRatio = mOverlayHeight == overlayTargetHeight(mScreenHeight) ? 1
+                : (float)(OVERLAY_HEIGHT_FRACTION * screenHeight / mOverlayHeight);
+        float horizontalTranslation = (float)((0.5 * screenWidth) -
+                (0.5 * (widthRatio * mOverlayWidth)));
+        float verticalTranslation = (float)((0.5 * screenHeight) -
+                (0.3 * (heightRatio * mOverlayHeight)));
+        setAffine(mOverlayMatrix, widthRatio, 0,
+                horizontalTranslation, heightRatio,
+                verticalTranslation);
+    }
+
+    private void rebuildSteering() {
+        double steeringWheelAngle = mSteeringAngle;
+
+        if (steeringWheelAngle == 0) {
+            mOverlayAlpha = 255;
+        } else if (steeringWheelAngle / 2 > 0 && steeringWheelAngle / 2 <= 255) {
+            mOverlayAlpha = (int)(255 - steeringWheelAngle / 2);
+        } else if (steeringWheelAngle / 2 < 0 && steeringWheelAngle / 2 >= -255) {
+            mOverlayAlpha = (int)(255 + steeringWheelAngle / 2);
+        } else {
+            mOverlayAlpha = 0;
+        }
+
+        int intAngle = (int) steeringWheelAngle;
+        if (intAngle >= 0 && intAngle < 255) {
+            mDynamicLinesAlpha = intAngle;
+        } else if (intAngle < 0 && intAngle > -255) {
+            mDynamicLinesAlpha = -intAngle;
+        } else {
+            mDynamicLinesAlpha = 255;
+        }
+    }
+
+    private static void setAffine(float[] matrix, float scaleX, float skewX,
+                                  float translateX, float scaleY,
+                                  float translateY) {
+        matrix[0] = scaleX;
+        matrix[1] = skewX;
+        matrix[2] = translateX;
+        matrix[3] = 0;
+        matrix[4] = scaleY;
+        matrix[5] = translateY;
+        matrix[6] = 0;
+        matrix[7] = 0;
+        matrix[8] = 1;
+    }
+}
@@ -0,0 +1,177 @@
+package com.clarion.camera;
+
+/**
+ * Decides from gear and speed whether the camera pipeline is off, warm or
+ * showing the rear view.
+ *
+ * <pre>
+ *   OFF      camera closed, no buffers
+ *   STANDBY  camera open and buffers allocated, nothing captured or drawn
+ *   ACTIVE   capturing and drawing
+ * </pre>
+ *
+ * Reverse must be reported for {@link #REVERSE_DEBOUNCE_NANOS} before the
+ * pipeline goes ACTIVE, short enough to leave most of the
+ * {@link #FIRST_FRAME_DEADLINE_NANOS} for starting the preview. Leaving
+ * reverse keeps the view for {@link #ACTIVE_HOLD_NANOS}, so shifting
+ * R-N-R while parking does not restart it, unless the car drives off
+ * faster than {@link #EXIT_SPEED}. The pipeline then stays warm for
+ * {@link #STANDBY_TIMEOUT_NANOS} before it is shut down. Slowing down below
+ * {@link #PARKING_SPEED}, which usually comes before reversing, warms it up
+ * again.
+ *
+ * Not thread safe: feed it from one thread and call {@link #update()} by
+ * {@link #getNextDeadlineNanos()} at the latest, so that the timeouts fire.
+ */
+class ReverseLifecycle {
+    static final int STATE_OFF = 0;
+    static final int STATE_STANDBY = 1;
+    static final int STATE_ACTIVE = 2;
+
+    private static final String[] STATE_NAMES = {"off", "standby", "active"};
+
+    // CarSensorEvent.GEAR_REVERSE
+    static final int GEAR_REVERSE = 2;
+
+    static final long REVERSE_DEBOUNCE_NANOS = 50000000L;
+    static final long ACTIVE_HOLD_NANOS = 1500000000L;
+    static final long STANDBY_TIMEOUT_NANOS = 30000000000L;
+    // a rear view camera image is due within 2 s of shifting into reverse
+    static final long FIRST_FRAME_DEADLINE_NANOS = 2000000000L;
+    // m/s
+    static final float EXIT_SPEED = 15 / 3.6f;
+    static final float PARKING_SPEED = 10 / 3.6f;
+
+    private static final long NO_DEADLINE = Long.MAX_VALUE;
+
+    /** Notified from within the call that caused the change. */
+    interface Listener {
+        /**
+         * @param reverseNanos when reverse was first reported, for measuring
+         *                     the time to the first displayed frame
+         */
+        void onStateChanged(int oldState, int newState, long reverseNanos);
+    }
+
+    private final NanoClock mClock;
+    private Listener mListener;
+    private int mState = STATE_OFF;
+
+    private boolean mReverse = false;
+    private long mReverseSinceNanos;
+    private long mReverseLeftNanos;
+    // speed unknown until the first sample
+    private float mSpeed = -1;
+    private long mWarmSinceNanos;
+
+    private long mActivations = 0;
+    private long mShutdowns = 0;
+
+    ReverseLifecycle(NanoClock clock) {
+        mClock = clock;
+    }
+
+    void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    int getState() {
+        return mState;
+    }
+
+    static String nameOf(int state) {
+        return STATE_NAMES[state];
+    }
+
+    void onGear(int gear) {
+        long now = mClock.nanoTime();
+        boolean reverse = gear == GEAR_REVERSE;
+        if (reverse && !mReverse) {
+            mReverseSinceNanos = now;
+        } else if (!reverse && mReverse) {
+            mReverseLeftNanos = now;
+        }
+        mReverse = reverse;
+        evaluate(now);
+    }
+
+    /** Vehicle speed in m/s. */
+    void onSpeed(float speed) {
+        long now = mClock.nanoTime();
+        boolean slowedDown = speed < PARKING_SPEED
+                && (mSpeed < 0 || mSpeed >= PARKING_SPEED);
+        mSpeed = speed;
+        if (slowedDown) {
+            mWarmSinceNanos = now;
+            if (mState == STATE_OFF) {
+                changeState(STATE_STANDBY);
+            }
+        }
+        evaluate(now);
+    }
+
+    /** Applies the timeouts that expired. */
+    void update() {
+        evaluate(mClock.nanoTime());
+    }
+
+    /** Time at which {@link #update()} has to run next, or Long.MAX_VALUE. */
+    long getNextDeadlineNanos() {
+        switch (mState) {
+            case STATE_ACTIVE:
+                return mReverse ? NO_DEADLINE : mReverseLeftNanos + ACTIVE_HOLD_NANOS;
+            case STATE_STANDBY:
+                return mReverse ? mReverseSinceNanos + REVERSE_DEBOUNCE_NANOS
+                        : mWarmSinceNanos + STANDBY_TIMEOUT_NANOS;
+            default:
+                return mReverse ? mReverseSinceNanos + REVERSE_DEBOUNCE_NANOS : NO_DEADLINE;
+        }
+    }
+
+    long getActivations() {
+        return mActivations;
+    }
+
+    long getShutdowns() {
+        return mShutdowns;
+    }
+
+    @Override
+    public String toString() {
+        return "ReverseLifecycle{state=" + STATE_NAMES[mState]
+                + ", activations=" + mActivations
+                + ", shutdowns=" + mShutdowns + "}";
+    }
+
+    private void evaluate(long now) {
+        switch (mState) {
+            case STATE_ACTIVE:
+                if (!mReverse && (now - mReverseLeftNanos >= ACTIVE_HOLD_NANOS
+                        || mSpeed > EXIT_SPEED)) {
+                    mWarmSinceNanos = now;
+                    changeState(STATE_STANDBY);
+                }
+                break;
+            case STATE_STANDBY:
+            case STATE_OFF:
+                if (mReverse && now - mReverseSinceNanos >= REVERSE_DEBOUNCE_NANOS) {
+                    mActivations++;
+                    changeState(STATE_ACTIVE);
+                } else if (mState == STATE_STANDBY && !mReverse
+                        && now - mWarmSinceNanos >= STANDBY_TIMEOUT_NANOS) {
+                    mShutdowns++;
+                    changeState(STATE_OFF);
+                }
+                break;
+        }
+    }
+
+    private void changeState(int state) {
+        int oldState = mState;
+        mState = state;
+        Listener listener = mListener;
+        if (listener != null) {
+            listener.onStateChanged(oldState, state, mReverseSinceNanos);
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package com.clarion.camera;
+
+/**
+ * Splits per-row image work into stripes and runs them on a fixed set of
+ * worker threads plus the calling thread. Running a task allocates nothing,
+ * so it can be used once per frame.
+ *
+ * {@link #run} must not be called from several threads at once.
+ */
+class RowStripes {
+
+    /** Work on a range of rows; called concurrently for disjoint ranges. */
+    interface Task {
+        /**
+         * @param stripe which of the {@link #getStripeCount()} stripes this
+         *               is, e.g. to pick scratch memory of its own
+         */
+        void processRows(int stripe, int firstRow, int endRow);
+    }
+
+    private final Thread[] mWorkers;
+
+    // hand-off between run() and the workers, guarded by mLock
+    private final Object mLock = new Object();
+    private int mGeneration = 0;
+    private int mPending = 0;
+    private boolean mShutdown = false;
+    private Task mTask;
+    private int mRows;
+
+    /**
+     * @param threads number of stripes, including the calling thread; 1 runs
+     *                everything on the caller
+     */
+    RowStripes(String name, int threads) {
+        if (threads <= 0) {
+            throw new IllegalArgumentException("threads must be positive: " + threads);
+        }
+        mWorkers = new Thread[threads - 1];
+        for (int i = 0; i < mWorkers.length; i++) {
+            final int stripe = i + 1;
+            mWorkers[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    workerLoop(stripe);
+                }
+            }, name + "-" + stripe);
+            mWorkers[i].setDaemon(true);
+            mWorkers[i].start();
+        }
+    }
+
+    /** One stripe per available core. */
+    static RowStripes forAvailableCores(String name) {
+        return new RowStripes(name, Runtime.getRuntime().availableProcessors());
+    }
+
+    int getStripeCount() {
+        return mWorkers.length + 1;
+    }
+
+    /** Runs the task over rows [0, rows) and returns once every stripe is done. */
+    void run(Task task, int rows) {
+        if (mWorkers.length == 0 || rows < getStripeCount()) {
+            task.processRows(0, 0, rows);
+            return;
+        }
+
+        synchronized (mLock) {
+            if (mShutdown) {
+                throw new IllegalStateException("stripes were shut down");
+            }
+            mTask = task;
+            mRows = rows;
+            mPending = mWorkers.length;
+            mGeneration++;
+            mLock.notifyAll();
+        }
+
+        task.processRows(0, 0, stripeStart(0, rows));
+
+        boolean interrupted = false;
+        synchronized (mLock) {
+            while (mPending > 0) {
+                try {
+                    mLock.wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            mTask = null;
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /** Stops the worker threads; {@link #run} cannot be used afterwards. */
+    void shutdown() {
+        synchronized (mLock) {
+            mShutdown = true;
+            mLock.notifyAll();
+        }
+    }
+
+    // first row after the given stripe
+    private int stripeStart(int stripe, int rows) {
+        return (int) ((long) rows * (stripe + 1) / getStripeCount());
+    }
+
+    private void workerLoop(int stripe) {
+        int seenGeneration = 0;
+        while (true) {
+            Task task;
+            int rows;
+            synchronized (mLock) {
+                while (mGeneration == seenGeneration && !mShutdown) {
+                    try {
+                        mLock.wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (mShutdown) {
+                    return;
+                }
+                seenGeneration = mGeneration;
+                task = mTask;
+                rows = mRows;
+            }
+
+            try {
+                task.processRows(stripe, stripeStart(stripe - 1, rows),
+                        stripeStart(stripe, rows));
+            } finally {
+                synchronized (mLock) {
+                    if (--mPending == 0) {
+                        mLock.notifyAll();
+                    }
+                }
+            }
+        }
+    }
+}
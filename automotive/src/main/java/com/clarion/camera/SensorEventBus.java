@@ -0,0 +1,90 @@
+package com.clarion.camera;
+
+/**
+ * Fans gear, speed and steering updates out to the in-process subscribers.
+ *
+ * Dispatch iterates over an immutable snapshot of the subscriber array
+ * without taking a lock. Registering and unregistering copy the array
+ * (copy-on-write), so they never wait for a subscriber that is busy inside
+ * a callback. Values are passed as primitives, nothing is boxed per sample.
+ */
+public class SensorEventBus {
+    private static final Callback[] NO_CALLBACKS = new Callback[0];
+
+    /**
+     * Callback for receiving updates from the sensor manager. A Callback can be
+     * registered using {@link #registerCallback}.
+     */
+    public static abstract class Callback {
+
+        public void OnGearPosValChange(int propValue) {
+        }
+
+        public void OnSpeedValChange(float propValue) {
+        }
+
+        public void OnSteeringAngleValChange(float propValue) {
+        }
+    }
+
+    // only replaced, never modified; writers are serialized by mWriteLock
+    private volatile Callback[] mCallbacks = NO_CALLBACKS;
+    private final Object mWriteLock = new Object();
+
+    public void registerCallback(Callback callback) {
+        if (callback == null) {
+            throw new IllegalArgumentException("callback must not be null");
+        }
+        synchronized (mWriteLock) {
+            Callback[] current = mCallbacks;
+            Callback[] updated = new Callback[current.length + 1];
+            System.arraycopy(current, 0, updated, 0, current.length);
+            updated[current.length] = callback;
+            mCallbacks = updated;
+        }
+    }
+
+    public void unregisterCallback(Callback callback) {
+        synchronized (mWriteLock) {
+            Callback[] current = mCallbacks;
+            for (int i = 0; i < current.length; i++) {
+                if (current[i] == callback) {
+                    if (current.length == 1) {
+                        mCallbacks = NO_CALLBACKS;
+                        return;
+                    }
+                    Callback[] updated = new Callback[current.length - 1];
+                    System.arraycopy(current, 0, updated, 0, i);
+                    System.arraycopy(current, i + 1, updated, i, current.length - i - 1);
+                    mCallbacks = updated;
+                    return;
+                }
+            }
+        }
+    }
+
+    public int getCallbackCount() {
+        return mCallbacks.length;
+    }
+
+    public void dispatchGearPos(int gear) {
+        Callback[] callbacks = mCallbacks;
+        for (int i = 0; i < callbacks.length; i++) {
+            callbacks[i].OnGearPosValChange(gear);
+        }
+    }
+
+    public void dispatchSpeed(float speed) {
+        Callback[] callbacks = mCallbacks;
+        for (int i = 0; i < callbacks.length; i++) {
+            callbacks[i].OnSpeedValChange(speed);
+        }
+    }
+
+    public void dispatchSteeringAngle(float angle) {
+        Callback[] callbacks = mCallbacks;
+        for (int i = 0; i < callbacks.length; i++) {
+            callbacks[i].OnSteeringAngleValChange(angle);
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package com.clarion.camera;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Latest-value store for vehicle sensor samples with one slot per sensor
+ * type. Publishing only overwrites the slot, so a burst of samples coalesces
+ * into the newest value, and the publishing (binder) thread never runs
+ * consumer code.
+ *
+ * Every consumer owns a {@link Reader} and drains the store at its own rate;
+ * a poll only reports the slots that changed since that reader's previous
+ * poll. A reader can carry a wake-up that runs at most once per burst, i.e.
+ * on the first publish after the reader last polled.
+ */
+class SensorEventStore {
+    static final int SLOT_GEAR = 0;
+    static final int SLOT_SPEED = 1;
+    static final int SLOT_STEERING = 2;
+    static final int SLOT_COUNT = 3;
+
+    private static final Reader[] NO_READERS = new Reader[0];
+
+    // per slot seqlock: odd while a publish is in progress, +2 per publish
+    private final AtomicLongArray mVersions = new AtomicLongArray(SLOT_COUNT);
+    private final AtomicLongArray mValues = new AtomicLongArray(SLOT_COUNT);
+    private final AtomicLongArray mTimestamps = new AtomicLongArray(SLOT_COUNT);
+    private final Object mWriteLock = new Object();
+
+    // copy-on-write, like the callbacks in SensorEventBus
+    private volatile Reader[] mReaders = NO_READERS;
+
+    /**
+     * One consumer's view of the store. Poll it from a single thread only.
+     */
+    static class Reader {
+        private final Runnable mWakeup;
+        private final AtomicBoolean mWakeupPending = new AtomicBoolean(false);
+        private final long[] mSeenVersions = new long[SLOT_COUNT];
+        private final long[] mValues = new long[SLOT_COUNT];
+        private final long[] mTimestamps = new long[SLOT_COUNT];
+
+        private Reader(Runnable wakeup) {
+            mWakeup = wakeup;
+        }
+
+        int getGearPos() {
+            return (int) mValues[SLOT_GEAR];
+        }
+
+        float getSpeed() {
+            return Float.intBitsToFloat((int) mValues[SLOT_SPEED]);
+        }
+
+        float getSteeringAngle() {
+            return Float.intBitsToFloat((int) mValues[SLOT_STEERING]);
+        }
+
+        /** Sensor timestamp of the last value polled from the slot. */
+        long getTimestamp(int slot) {
+            return mTimestamps[slot];
+        }
+
+        private void wakeUp() {
+            if (mWakeup != null && mWakeupPending.compareAndSet(false, true)) {
+                mWakeup.run();
+            }
+        }
+    }
+
+    /**
+     * @param wakeup run on the publishing thread at most once per burst;
+     *               typically posts a drain to the consumer's own thread.
+     *               May be null for consumers that poll on their own.
+     */
+    Reader newReader(Runnable wakeup) {
+        Reader reader = new Reader(wakeup);
+        synchronized (mWriteLock) {
+            Reader[] current = mReaders;
+            Reader[] updated = new Reader[current.length + 1];
+            System.arraycopy(current, 0, updated, 0, current.length);
+            updated[current.length] = reader;
+            mReaders = updated;
+        }
+        return reader;
+    }
+
+    void removeReader(Reader reader) {
+        synchronized (mWriteLock) {
+            Reader[] current = mReaders;
+            for (int i = 0; i < current.length; i++) {
+                if (current[i] == reader) {
+                    Reader[] updated = new Reader[current.length - 1];
+                    System.arraycopy(current, 0, updated, 0, i);
+                    System.arraycopy(current, i + 1, updated, i, current.length - i - 1);
+                    mReaders = updated;
+                    return;
+                }
+            }
+        }
+    }
+
+    void publishGearPos(int gear, long timestampNanos) {
+        publish(SLOT_GEAR, gear, timestampNanos);
+    }
+
+    void publishSpeed(float speed, long timestampNanos) {
+        publish(SLOT_SPEED, Float.floatToRawIntBits(speed), timestampNanos);
+    }
+
+    void publishSteeringAngle(float angle, long timestampNanos) {
+        publish(SLOT_STEERING, Float.floatToRawIntBits(angle), timestampNanos);
+    }
+
+    /** Number of samples published into the slot so far. */
+    long getPublishCount(int slot) {
+        return mVersions.get(slot) >>> 1;
+    }
+
+    /**
+     * Copies every slot that changed since the reader's previous poll into
+     * the reader.
+     *
+     * @return bit mask of the changed slots, (1 << SLOT_x)
+     */
+    int poll(Reader reader) {
+        // clear first, so a publish racing with this poll wakes us up again
+        reader.mWakeupPending.set(false);
+        int changed = 0;
+        for (int slot = 0; slot < SLOT_COUNT; slot++) {
+            long version;
+            long value;
+            long timestamp;
+            do {
+                version = mVersions.get(slot);
+                value = mValues.get(slot);
+                timestamp = mTimestamps.get(slot);
+            } while ((version & 1) != 0 || version != mVersions.get(slot));
+
+            if (version != reader.mSeenVersions[slot]) {
+                reader.mSeenVersions[slot] = version;
+                reader.mValues[slot] = value;
+                reader.mTimestamps[slot] = timestamp;
+                changed |= 1 << slot;
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Polls the reader and forwards the changed values to the bus.
+     *
+     * @return bit mask of the changed slots
+     */
+    int drainTo(Reader reader, SensorEventBus bus) {
+        int changed = poll(reader);
+        if ((changed & (1 << SLOT_GEAR)) != 0) {
+            bus.dispatchGearPos(reader.getGearPos());
+        }
+        if ((changed & (1 << SLOT_SPEED)) != 0) {
+            bus.dispatchSpeed(reader.getSpeed());
+        }
+        if ((changed & (1 << SLOT_STEERING)) != 0) {
+            bus.dispatchSteeringAngle(reader.getSteeringAngle());
+        }
+        return changed;
+    }
+
+    private void publish(int slot, long value, long timestampNanos) {
+        synchronized (mWriteLock) {
+            long version = mVersions.get(slot);
+            mVersions.set(slot, version + 1);
+            mValues.set(slot, value);
+            mTimestamps.set(slot, timestampNanos);
+            mVersions.set(slot, version + 2);
+        }
+        Reader[] readers = mReaders;
+        for (int i = 0; i < readers.length; i++) {
+            readers[i].wakeUp();
+        }
+    }
+}
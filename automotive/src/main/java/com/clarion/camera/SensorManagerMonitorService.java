@@ -1,71 +1,62 @@
 package com.clarion.camera;
 
 import android.app.Service;
-import android.car.Car;
-import android.car.CarNotConnectedException;
-import android.car.hardware.CarSensorEvent;
-import android.car.hardware.CarSensorManager;
-import android.content.ComponentName;
 import android.content.Intent;
-import android.content.ServiceConnection;
-import android.content.pm.PackageManager;
 import android.os.Handler;
 import android.os.IBinder;
 import android.util.Log;
 
-import androidx.annotation.GuardedBy;
 import androidx.annotation.Nullable;
 
-import java.util.ArrayList;
-import java.util.List;
-
 public class SensorManagerMonitorService extends Service {
     private static final String TAG = "SensorManagerMonitorSer";
-    private Car mCarService;
-    private Object mCarSensorManagerReady = new Object();
-    private CarSensorManager mCarSensorManager;
     private final Handler mHandler = new Handler();
     public static final String ACTION_GEAR_UNREVERSED =
             "com.clarion.camera.GEAR_UNREVERSED";
-
-    /**
-     * Callback for receiving updates from the sensor manager. A Callback can be
-     * registered using {@link #registerCallback}.
-     */
-    public static abstract class Callback {
-
-        public void OnGearPosValChange(int propValue) {
+    // sent within the package whenever the gear changes, e.g. to save a clip
+    public static final String ACTION_GEAR_CHANGED =
+            "com.clarion.camera.GEAR_CHANGED";
+    public static final String EXTRA_GEAR = "gear";
+    // sent within the package whenever the ReverseLifecycle state changes
+    public static final String ACTION_PIPELINE_STATE =
+            "com.clarion.camera.PIPELINE_STATE";
+    public static final String EXTRA_STATE = "state";
+    public static final String EXTRA_PREVIOUS_STATE = "previous_state";
+    public static final String EXTRA_REVERSE_NANOS = "reverse_nanos";
+    private static final int GEAR_UNKNOWN = -1;
+    private int mLastGear = GEAR_UNKNOWN;
+
+    private final SensorEventBus mSensorEventBus = new SensorEventBus();
+
+    // decides when the camera pipeline is off, warm or shown; main thread only
+    private final ReverseLifecycle mLifecycle =
+            new ReverseLifecycle(NanoClock.SYSTEM);
+    private final Runnable mUpdateLifecycle = new Runnable() {
+        @Override
+        public void run() {
+            mLifecycle.update();
+            scheduleLifecycleUpdate();
         }
-    }
-
-    @GuardedBy("mCallbacks")
-    private List<SensorManagerMonitorService.Callback> mCallbacks = new ArrayList<>();
+    };
 
-    public void registerCallback(SensorManagerMonitorService.Callback callback) {
-        synchronized (mCallbacks) {
-            mCallbacks.add(callback);
+    // gear and speed samples from the process-wide hub, drained on the main thread
+    private final VehicleDataHub mVehicleDataHub = VehicleDataHub.getInstance();
+    private SensorEventStore.Reader mSensorEventReader;
+    private final Runnable mDrainSensorEvents = new Runnable() {
+        @Override
+        public void run() {
+            mVehicleDataHub.drainTo(mSensorEventReader, mSensorEventBus);
         }
-    }
+    };
 
-    public void unregisterCallback(SensorManagerMonitorService.Callback callback) {
-        synchronized (mCallbacks) {
-            mCallbacks.remove(callback);
-        }
+    public void registerCallback(SensorEventBus.Callback callback) {
+        mSensorEventBus.registerCallback(callback);
     }
 
+    public void unregisterCallback(SensorEventBus.Callback callback) {
+        mSensorEventBus.unregisterCallback(callback);
+    }
 
-    ServiceConnection mConnection = new ServiceConnection() {
-        public void onServiceConnected(ComponentName className,
-                                       IBinder service) {
-            Log.d(TAG, "onServiceConnected: Connected to Car Service");
-            initializeCallbacks();
-            onCarServiceReady();
-        }
-
-        public void onServiceDisconnected(ComponentName className) {
-            Log.d(TAG, "onServiceDisconnected: Disconnected from Car Service");
-        }
-    };
 
     @Nullable
     @Override
@@ -77,138 +68,86 @@ public class SensorManagerMonitorService extends Service {
     public void onCreate() {
         super.onCreate();
         Log.i(TAG, "onCreate: SensorManagerMonitorService");
-        EstablishCarServiceConnection();
-        startService();
-    }
-
-    private void onCarServiceReady() {
-        Log.d(TAG, "onCarServiceReady: entry");
-
-        synchronized (mCarSensorManagerReady) {
-            try {
-                initSensorManager((CarSensorManager) mCarService.getCarManager(
-                        Car.SENSOR_SERVICE));
-
-                mCarSensorManagerReady.notifyAll();
-                Log.d(TAG, "onCarServiceReady: mCarSensorManagerReady notified");
-            } catch (CarNotConnectedException e) {
-                Log.e(TAG, "Car not connected in onServiceConnected");
-            }
-        }
-    }
-
-    private void EstablishCarServiceConnection() {
-        if (!getPackageManager().hasSystemFeature(PackageManager.FEATURE_AUTOMOTIVE)) {
-            Log.w(TAG, "EstablishCarServiceConnection: FEATURE_AUTOMOTIVE not available");
-            return;
-        }
-
-        if(mCarService == null) {
-            Log.d(TAG, "EstablishCarServiceConnection:  mCarService is NULL");
-            mCarService = Car.createCar(this,mConnection);
-            //requestRefresh();
-        }
-        else{
-            Log.d(TAG, "EstablishCarServiceConnection: mCarService is already created");
-        }
-    }
-
-    private void startService() {
-            if(mCarService == null) {
-                Log.d(TAG, "EstablishCarServiceConnection:  mCarService is NULL");
-                return;
+        registerCallback(mValueCallback);
+        mSensorEventReader = mVehicleDataHub.register(new Runnable() {
+            @Override
+            public void run() {
+                mHandler.post(mDrainSensorEvents);
             }
-
-            if (!mCarService.isConnected() && !mCarService.isConnecting()) {
-                mCarService.connect();
+        });
+        mLifecycle.setListener(new ReverseLifecycle.Listener() {
+            @Override
+            public void onStateChanged(int oldState, int newState, long reverseNanos) {
+                onPipelineStateChanged(oldState, newState, reverseNanos);
             }
+        });
+        // the Car connection is shared with MainActivity
+        CarSensorSource.connect(this);
     }
 
-    CarSensorManager.OnSensorChangedListener   mSenserListener = new CarSensorManager.OnSensorChangedListener() {
+    private SensorEventBus.Callback mValueCallback = new SensorEventBus.Callback() {
         @Override
-        public void onSensorChanged(CarSensorEvent carSensorEvent) {
-            Log.d(TAG, "onSensorChanged: callback carSensorEvent.sensorType = " + carSensorEvent.sensorType);
-            switch (carSensorEvent.sensorType) {
-                case CarSensorManager.SENSOR_TYPE_GEAR:
-                   // if(carSensorEvent.intValues.length > 0)  { handleGearPosUpdate(carSensorEvent.intValues[0]);}
-                    break;
-                default:
-                    if (Log.isLoggable(TAG, Log.DEBUG)) {
-                        Log.d(TAG, "Unhandled Sensor event, id: " + carSensorEvent.sensorType);
-                    }
+        public void OnGearPosValChange(int propValue) {
+            super.OnGearPosValChange(propValue);
+            PipelineTrace.RING.trace(PipelineTrace.SERVICE_GEAR, propValue);
+            if (mLastGear != GEAR_UNKNOWN && propValue != mLastGear) {
+                sendGearChangedBroadcast(propValue);
             }
+            mLastGear = propValue;
+            mLifecycle.onGear(propValue);
+            scheduleLifecycleUpdate();
         }
-    };
 
-    private void initSensorManager(CarSensorManager carSensorManager) {
-        mCarSensorManager = carSensorManager;
-        try {
-            mCarSensorManager.registerListener(mSenserListener,
-                    CarSensorManager.SENSOR_TYPE_GEAR,CarSensorManager.SENSOR_RATE_NORMAL);
-        } catch (CarNotConnectedException e) {
-            Log.e(TAG, "Can not connected in SENSOR");
+        @Override
+        public void OnSpeedValChange(float propValue) {
+            super.OnSpeedValChange(propValue);
+            mLifecycle.onSpeed(propValue);
+            scheduleLifecycleUpdate();
         }
-    }
+    };
 
-    private void handleGearPosUpdate(int pos) {
-        synchronized (mCallbacks) {
-            for (int i = 0; i < mCallbacks.size(); i++) {
-                mCallbacks.get(i).OnGearPosValChange(pos);
-            }
+    // runs mLifecycle.update() when its next timeout expires
+    private void scheduleLifecycleUpdate() {
+        mHandler.removeCallbacks(mUpdateLifecycle);
+        long deadline = mLifecycle.getNextDeadlineNanos();
+        if (deadline != Long.MAX_VALUE) {
+            long delayMillis = Math.max(0, deadline - System.nanoTime()) / 1000000L;
+            mHandler.postDelayed(mUpdateLifecycle, delayMillis + 1);
         }
     }
 
-    private SensorManagerMonitorService.Callback mValueCallback = new SensorManagerMonitorService.Callback() {
-        @Override
-        public void OnGearPosValChange(int propValue) {
-            super.OnGearPosValChange(propValue);
-            Log.d(TAG, "OnGearPosValChange: GearPosition = "+propValue);
-//            final int gearPosition  = propValue;
-//            mHandler.post(new Runnable() {
-//                public void run() {
-//                    if(gearPosition == 2&&
-//                            !CameraFeedActivity.isRunning()){
-//                        Log.i(TAG, "run: calling startRearviewCameraActivity ");
-//                        startRearviewCameraActivity();
-//                    } else if(gearPosition !=
-//                            2&&
-//                            CameraFeedActivity.isRunning()) {
-//                        Log.i(TAG, "run: calling sendVehicleUnreversedBroadcast ");
-//                        sendVehicleUnreversedBroadcast();
-//                    }
-//                }
-//
-//                private void startRearviewCameraActivity() {
-//                    Intent intent = new Intent(
-//                            SensorManagerMonitorService.this,
-//                            CameraFeedActivity.class);
-//                    intent.setFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
-//                    SensorManagerMonitorService.this.startActivity(intent);
-//                }
-//
-//                private void sendVehicleUnreversedBroadcast() {
-//                    Intent unreversedIntent = new Intent(
-//                            ACTION_GEAR_UNREVERSED);
-//                    sendBroadcast(unreversedIntent);
-//                }
-//            });
+    private void onPipelineStateChanged(int oldState, int newState, long reverseNanos) {
+        Log.i(TAG, "pipeline " + ReverseLifecycle.nameOf(oldState) + " -> "
+                + ReverseLifecycle.nameOf(newState));
+        Intent intent = new Intent(ACTION_PIPELINE_STATE);
+        intent.setPackage(getPackageName());
+        intent.putExtra(EXTRA_STATE, newState);
+        intent.putExtra(EXTRA_PREVIOUS_STATE, oldState);
+        intent.putExtra(EXTRA_REVERSE_NANOS, reverseNanos);
+        sendBroadcast(intent);
+        if (newState == ReverseLifecycle.STATE_ACTIVE) {
+            // brings the rear view to the front, or starts it cold from OFF
+            Intent activity = new Intent(this, MainActivity.class);
+            activity.setFlags(Intent.FLAG_ACTIVITY_NEW_TASK
+                    | Intent.FLAG_ACTIVITY_REORDER_TO_FRONT);
+            activity.putExtra(EXTRA_REVERSE_NANOS, reverseNanos);
+            startActivity(activity);
         }
-    };
+    }
 
-    private void initializeCallbacks() {
-        registerCallback(mValueCallback);
+    private void sendGearChangedBroadcast(int gear) {
+        Intent intent = new Intent(ACTION_GEAR_CHANGED);
+        intent.setPackage(getPackageName());
+        intent.putExtra(EXTRA_GEAR, gear);
+        sendBroadcast(intent);
     }
 
     @Override
     public void onDestroy() {
         super.onDestroy();
         unregisterCallback(mValueCallback);
-
-        if (mCarSensorManager != null) {
-            mCarSensorManager.unregisterListener(mSenserListener);
-        }
-        if (mCarService != null) {
-            mCarService.disconnect();
-        }
+        mHandler.removeCallbacks(mUpdateLifecycle);
+        mVehicleDataHub.unregister(mSensorEventReader);
+        mHandler.removeCallbacks(mDrainSensorEvents);
     }
 }
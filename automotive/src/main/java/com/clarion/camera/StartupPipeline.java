@@ -0,0 +1,131 @@
+package com.clarion.camera;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Runs independent startup phases in parallel, one thread each, and records
+ * when every phase started and finished, plus milestones such as the first
+ * frame on screen, relative to {@link #start()}.
+ *
+ * Phases are added before the start; their results are picked up with
+ * {@link Phase#get()}, which waits if the phase is still running.
+ */
+class StartupPipeline {
+    private static final double NANOS_PER_MILLI = 1e6;
+
+    /** One phase and its result. */
+    static final class Phase<T> {
+        private final String mName;
+        private final FutureTask<T> mTask;
+        private volatile long mStartNanos;
+        private volatile long mEndNanos;
+
+        private Phase(String name, final Callable<T> work) {
+            mName = name;
+            mTask = new FutureTask<>(new Callable<T>() {
+                @Override
+                public T call() throws Exception {
+                    mStartNanos = System.nanoTime();
+                    try {
+                        return work.call();
+                    } finally {
+                        mEndNanos = System.nanoTime();
+                    }
+                }
+            });
+        }
+
+        String getName() {
+            return mName;
+        }
+
+        boolean isDone() {
+            return mTask.isDone();
+        }
+
+        /**
+         * Waits for the phase to finish.
+         *
+         * @throws ExecutionException if the phase failed
+         */
+        T get() throws InterruptedException, ExecutionException {
+            return mTask.get();
+        }
+
+        long getDurationNanos() {
+            long end = mEndNanos;
+            return end == 0 ? 0 : end - mStartNanos;
+        }
+    }
+
+    private final List<Phase<?>> mPhases = new ArrayList<>();
+    private final List<String> mMilestones = new ArrayList<>();
+    private final List<Long> mMilestoneNanos = new ArrayList<>();
+    private volatile long mStartNanos = 0;
+
+    /** Adds a phase; all phases start together in {@link #start()}. */
+    synchronized <T> Phase<T> add(String name, Callable<T> work) {
+        if (mStartNanos != 0) {
+            throw new IllegalStateException("pipeline already started");
+        }
+        Phase<T> phase = new Phase<>(name, work);
+        mPhases.add(phase);
+        return phase;
+    }
+
+    synchronized void start() {
+        if (mStartNanos != 0) {
+            return;
+        }
+        mStartNanos = System.nanoTime();
+        for (Phase<?> phase : mPhases) {
+            Thread thread = new Thread(phase.mTask, "Startup-" + phase.mName);
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    boolean isStarted() {
+        return mStartNanos != 0;
+    }
+
+    /** Records a milestone the first time it is reached; later calls are ignored. */
+    synchronized void mark(String milestone) {
+        if (!mMilestones.contains(milestone)) {
+            mMilestones.add(milestone);
+            mMilestoneNanos.add(System.nanoTime());
+        }
+    }
+
+    /** Time from the start to the milestone, or -1 if it was not reached yet. */
+    synchronized long getMilestoneNanos(String milestone) {
+        int index = mMilestones.indexOf(milestone);
+        return index < 0 || mStartNanos == 0 ? -1 : mMilestoneNanos.get(index) - mStartNanos;
+    }
+
+    /** Writes the start offset and duration of every phase and the milestones in ms. */
+    synchronized void dump(PrintWriter writer) {
+        writer.println(String.format("%-14s %8s %8s", "phase", "start", "duration"));
+        for (Phase<?> phase : mPhases) {
+            long start = phase.mStartNanos;
+            if (start == 0) {
+                writer.println(String.format("%-14s %8s", phase.mName, "pending"));
+            } else {
+                writer.println(String.format("%-14s %8.1f %8s", phase.mName,
+                        (start - mStartNanos) / NANOS_PER_MILLI,
+                        phase.isDone() ? String.format("%.1f",
+                                phase.getDurationNanos() / NANOS_PER_MILLI) : "running"));
+            }
+        }
+        for (int i = 0; i < mMilestones.size(); i++) {
+            writer.println(String.format("%-14s %8.1f", mMilestones.get(i),
+                    (mMilestoneNanos.get(i) - mStartNanos) / NANOS_PER_MILLI));
+        }
+        writer.flush();
+    }
+}
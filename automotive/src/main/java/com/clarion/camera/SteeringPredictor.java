@@ -0,0 +1,114 @@
+package com.clarion.camera;
+
+/**
+ * Alpha-beta filter for the steering wheel angle. It smooths the sensor
+ * samples and tracks the angular rate, so the angle can be extrapolated to
+ * the time a frame will actually be on screen.
+ *
+ * Not thread-safe; {@link VehicleManager} feeds it under its write lock and
+ * publishes the filtered angle and rate with the rest of the vehicle state.
+ */
+class SteeringPredictor {
+    static final double DEFAULT_ALPHA = 0.6;
+    static final double DEFAULT_BETA = 0.15;
+    // never extrapolate further than this past the last sample; once the
+    // sample is older, the rate is faded out over another horizon, so the
+    // lines settle on the last angle when the sensor stops reporting
+    static final long DEFAULT_MAX_HORIZON_NANOS = 200000000L;
+
+    private static final double NANOS_PER_SECOND = 1e9;
+
+    private final double mAlpha;
+    private final double mBeta;
+
+    private boolean mInitialized = false;
+    private double mAngle;
+    private double mRate;
+    private long mTimestampNanos;
+
+    SteeringPredictor() {
+        this(DEFAULT_ALPHA, DEFAULT_BETA);
+    }
+
+    /**
+     * @param alpha weight of a new sample on the angle, in (0, 1]
+     * @param beta  weight of a new sample on the rate, in [0, 2)
+     */
+    SteeringPredictor(double alpha, double beta) {
+        if (alpha <= 0 || alpha > 1 || beta < 0 || beta >= 2) {
+            throw new IllegalArgumentException("invalid gains alpha=" + alpha + " beta=" + beta);
+        }
+        mAlpha = alpha;
+        mBeta = beta;
+    }
+
+    /**
+     * @param maxGapNanos a sample arriving later than this after the previous
+     *                    one restarts the filter, the old rate says nothing
+     *                    about the wheel any more
+     */
+    void addSample(double angle, long timestampNanos, long maxGapNanos) {
+        if (!mInitialized || timestampNanos - mTimestampNanos > maxGapNanos) {
+            mAngle = angle;
+            mRate = 0;
+            mTimestampNanos = timestampNanos;
+            mInitialized = true;
+            return;
+        }
+
+        double dt = (timestampNanos - mTimestampNanos) / NANOS_PER_SECOND;
+        if (dt <= 0) {
+            // out of order or duplicate timestamp, only correct the angle
+            mAngle += mAlpha * (angle - mAngle);
+            return;
+        }
+
+        double predicted = mAngle + mRate * dt;
+        double residual = angle - predicted;
+        mAngle = predicted + mAlpha * residual;
+        mRate += mBeta * residual / dt;
+        mTimestampNanos = timestampNanos;
+    }
+
+    void addSample(double angle, long timestampNanos) {
+        addSample(angle, timestampNanos, DEFAULT_MAX_HORIZON_NANOS);
+    }
+
+    void reset() {
+        mInitialized = false;
+        mAngle = 0;
+        mRate = 0;
+    }
+
+    /** Filtered angle at the time of the last sample. */
+    double getAngle() {
+        return mAngle;
+    }
+
+    /** Estimated angular rate, in angle units per second. */
+    double getRate() {
+        return mRate;
+    }
+
+    long getTimestampNanos() {
+        return mTimestampNanos;
+    }
+
+    /**
+     * Extrapolates a filtered angle to the given time. Times before the sample
+     * return the sample itself. Up to the horizon the rate is applied in
+     * full; past it the sample is stale, so the prediction goes back to the
+     * sample over one more horizon and stays there.
+     */
+    static double extrapolate(double angle, double rate, long sampleTimestampNanos,
+                              long targetTimestampNanos, long maxHorizonNanos) {
+        long ahead = targetTimestampNanos - sampleTimestampNanos;
+        if (ahead <= 0 || ahead >= 2 * maxHorizonNanos) {
+            return angle;
+        }
+        if (ahead > maxHorizonNanos) {
+            ahead = 2 * maxHorizonNanos - ahead;
+        }
+        return angle + rate * (ahead / NANOS_PER_SECOND);
+    }
+}
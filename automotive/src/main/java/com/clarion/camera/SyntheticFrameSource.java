@@ -0,0 +1,85 @@
+package com.clarion.camera;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Test pattern in place of the webcam: a moving gradient with a bright bar
+ * at a fixed frame rate, so consecutive frames differ in every row like a
+ * real picture. Lets the whole stack run on a device or a host without a
+ * camera.
+ */
+class SyntheticFrameSource implements FrameSource {
+    private final int mWidth;
+    private final int mHeight;
+    private final FramePacer mPacer;
+    private final FramePool mPool;
+    private long mSequence;
+
+    SyntheticFrameSource(int width, int height, int fps, FramePool pool) {
+        if ((width & 1) != 0 || pool.getFrameBytes() < width * height * 2) {
+            throw new IllegalArgumentException("invalid frame size " + width + "x" + height);
+        }
+        mWidth = width;
+        mHeight = height;
+        mPacer = new FramePacer(fps);
+        mPool = pool;
+    }
+
+    @Override
+    public int getWidth() {
+        return mWidth;
+    }
+
+    @Override
+    public int getHeight() {
+        return mHeight;
+    }
+
+    @Override
+    public void open() {
+        mPacer.reset();
+        mSequence = 0;
+    }
+
+    @Override
+    public RawFrame nextFrame() throws InterruptedException {
+        mPacer.awaitNextFrame();
+
+        RawFrame frame = mPool.acquire();
+        try {
+            long timestamp = System.nanoTime();
+            render(frame.getData(), mWidth, mHeight, (int) mSequence);
+            frame.getData().limit(mWidth * mHeight * 2);
+            frame.set(timestamp, ++mSequence);
+            return frame;
+        } catch (Throwable e) {
+            frame.release();
+            throw e;
+        }
+    }
+
+    @Override
+    public void wakeUp() {
+        mPacer.wakeUp();
+    }
+
+    @Override
+    public void close() {
+    }
+
+    static void render(ByteBuffer yuyv, int width, int height, int frameNumber) {
+        int bar = (frameNumber * 4) % width;
+        for (int y = 0; y < height; y++) {
+            int row = y * width * 2;
+            int v = (128 + y / 4 + frameNumber) & 0xff;
+            for (int x = 0; x < width; x += 2) {
+                int luma = Math.abs(x - bar) < 16 ? 235 : 16 + ((x + y + frameNumber) & 0x7f);
+                int offset = row + x * 2;
+                yuyv.put(offset, (byte) luma);
+                yuyv.put(offset + 1, (byte) (x * 255 / width));
+                yuyv.put(offset + 2, (byte) luma);
+                yuyv.put(offset + 3, (byte) v);
+            }
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package com.clarion.camera;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Preallocated ring of fixed-size binary trace records for the hot paths,
+ * where building a log string per event would allocate and contend on logd.
+ *
+ * A record is a timestamp, an event id and two primitive arguments.
+ * Writers claim a record with one atomic increment and never block or
+ * allocate; when the ring is full the oldest records are overwritten.
+ * Events are defined once up front with a name and an argument format, so
+ * {@link #dump} can decode the records into text on demand.
+ */
+class TraceRing {
+    /** Argument formats, one character per argument in {@link #defineEvent}. */
+    static final char ARG_INT = 'i';
+    static final char ARG_LONG = 'l';
+    static final char ARG_FLOAT = 'f';
+
+    // timestamp, event, arg0, arg1
+    private static final int RECORD_LONGS = 4;
+    private static final int MAX_ARGS = 2;
+    private static final double NANOS_PER_MILLI = 1e6;
+
+    private final int mMask;
+    private final AtomicLongArray mRecords;
+    // per record: sequence number + 1 of the record stored there, -1 while written
+    private final AtomicLongArray mSequences;
+    private final AtomicLong mNext = new AtomicLong();
+    private final List<String> mNames = new ArrayList<>();
+    private final List<String> mFormats = new ArrayList<>();
+    private volatile boolean mEnabled = true;
+
+    /**
+     * @param capacity number of records kept, a power of two
+     */
+    TraceRing(int capacity) {
+        if (capacity <= 0 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("capacity must be a power of two: " + capacity);
+        }
+        mMask = capacity - 1;
+        mRecords = new AtomicLongArray(capacity * RECORD_LONGS);
+        mSequences = new AtomicLongArray(capacity);
+    }
+
+    /**
+     * Defines an event and returns its id.
+     *
+     * @param format up to two of {@link #ARG_INT}, {@link #ARG_LONG} and
+     *               {@link #ARG_FLOAT}, e.g. "if"; "" for no arguments
+     */
+    synchronized int defineEvent(String name, String format) {
+        if (format.length() > MAX_ARGS) {
+            throw new IllegalArgumentException("too many arguments: " + format);
+        }
+        for (int i = 0; i < format.length(); i++) {
+            char arg = format.charAt(i);
+            if (arg != ARG_INT && arg != ARG_LONG && arg != ARG_FLOAT) {
+                throw new IllegalArgumentException("unknown argument format: " + format);
+            }
+        }
+        mNames.add(name);
+        mFormats.add(format);
+        return mNames.size() - 1;
+    }
+
+    void setEnabled(boolean enabled) {
+        mEnabled = enabled;
+    }
+
+    boolean isEnabled() {
+        return mEnabled;
+    }
+
+    int getCapacity() {
+        return mMask + 1;
+    }
+
+    /** Number of records written so far, including overwritten ones. */
+    long getRecordCount() {
+        return mNext.get();
+    }
+
+    void trace(int event) {
+        trace(event, 0, 0);
+    }
+
+    void trace(int event, long arg0) {
+        trace(event, arg0, 0);
+    }
+
+    void trace(int event, float arg0) {
+        trace(event, Float.floatToRawIntBits(arg0), 0);
+    }
+
+    void trace(int event, long arg0, float arg1) {
+        trace(event, arg0, Float.floatToRawIntBits(arg1));
+    }
+
+    void trace(int event, long arg0, long arg1) {
+        if (!mEnabled) {
+            return;
+        }
+        long sequence = mNext.getAndIncrement();
+        int index = (int) sequence & mMask;
+        int offset = index * RECORD_LONGS;
+        mSequences.set(index, -1);
+        mRecords.set(offset, System.nanoTime());
+        mRecords.set(offset + 1, event);
+        mRecords.set(offset + 2, arg0);
+        mRecords.set(offset + 3, arg1);
+        mSequences.set(index, sequence + 1);
+    }
+
+    /**
+     * Decodes the newest records, oldest first, one per line with its age
+     * in ms relative to the dump. Records overwritten or still being
+     * written while the dump runs are skipped.
+     */
+    void dump(PrintWriter writer, int maxRecords) {
+        long now = System.nanoTime();
+        long end = mNext.get();
+        long count = Math.min(Math.min(end, getCapacity()), maxRecords);
+        writer.println("trace: " + end + " records, showing " + count);
+        long[] record = new long[RECORD_LONGS];
+        StringBuilder line = new StringBuilder();
+        for (long sequence = end - count; sequence < end; sequence++) {
+            if (!read(sequence, record)) {
+                continue;
+            }
+            line.setLength(0);
+            line.append(String.format("%10.3f ", (record[0] - now) / NANOS_PER_MILLI));
+            appendEvent(line, (int) record[1], record[2], record[3]);
+            writer.println(line);
+        }
+        writer.flush();
+    }
+
+    // copies the record if it still holds the given sequence number
+    private boolean read(long sequence, long[] record) {
+        int index = (int) sequence & mMask;
+        int offset = index * RECORD_LONGS;
+        if (mSequences.get(index) != sequence + 1) {
+            return false;
+        }
+        for (int i = 0; i < RECORD_LONGS; i++) {
+            record[i] = mRecords.get(offset + i);
+        }
+        return mSequences.get(index) == sequence + 1;
+    }
+
+    private synchronized void appendEvent(StringBuilder line, int event, long arg0, long arg1) {
+        if (event < 0 || event >= mNames.size()) {
+            line.append("event-").append(event).append(' ').append(arg0).append(' ').append(arg1);
+            return;
+        }
+        line.append(mNames.get(event));
+        String format = mFormats.get(event);
+        for (int i = 0; i < format.length(); i++) {
+            long arg = i == 0 ? arg0 : arg1;
+            line.append(' ');
+            switch (format.charAt(i)) {
+                case ARG_INT:
+                    line.append((int) arg);
+                    break;
+                case ARG_FLOAT:
+                    line.append(Float.intBitsToFloat((int) arg));
+                    break;
+                default:
+                    line.append(arg);
+            }
+        }
+    }
+}
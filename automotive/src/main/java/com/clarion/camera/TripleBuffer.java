@@ -0,0 +1,120 @@
+package com.clarion.camera;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Lock-free triple buffer for handing frames from one producer (capture) to
+ * one consumer (render) thread.
+ *
+ * The producer always fills the back buffer and publishes it, the consumer
+ * always takes the newest complete frame; neither side ever blocks or sees a
+ * buffer the other side is writing. A frame that is overwritten by a newer
+ * one before the consumer took it is counted as dropped.
+ *
+ * Exactly one thread may call the producer methods and exactly one thread
+ * the consumer methods.
+ */
+class TripleBuffer<T> {
+    private static final int INDEX_MASK = 0x3;
+    private static final int FRESH = 0x4;
+
+    private final Object[] mBuffers;
+    private final long[] mSequences = new long[3];
+    private final long[] mTimestamps = new long[3];
+
+    // index of the buffer in the middle, plus FRESH if it holds an unread frame
+    private final AtomicInteger mMiddle = new AtomicInteger(1);
+
+    // producer side
+    private int mBack = 0;
+    private long mNextSequence = 1;
+    private volatile long mPublished = 0;
+    private volatile long mDropped = 0;
+
+    // consumer side
+    private int mFront = 2;
+    private volatile long mConsumed = 0;
+
+    TripleBuffer(T first, T second, T third) {
+        if (first == null || second == null || third == null) {
+            throw new IllegalArgumentException("buffers must not be null");
+        }
+        mBuffers = new Object[] { first, second, third };
+    }
+
+    /** Producer: the buffer to fill with the next frame. */
+    @SuppressWarnings("unchecked")
+    T getBackBuffer() {
+        return (T) mBuffers[mBack];
+    }
+
+    /**
+     * Producer: makes the back buffer the newest frame and returns its
+     * sequence number. The next call to {@link #getBackBuffer()} returns a
+     * different buffer.
+     */
+    long publish(long timestampNanos) {
+        long sequence = mNextSequence++;
+        mSequences[mBack] = sequence;
+        mTimestamps[mBack] = timestampNanos;
+        // getAndSet releases the frame contents to the consumer
+        int previous = mMiddle.getAndSet(mBack | FRESH);
+        mBack = previous & INDEX_MASK;
+        if ((previous & FRESH) != 0) {
+            mDropped = mDropped + 1;
+        }
+        mPublished = sequence;
+        return sequence;
+    }
+
+    /**
+     * Consumer: takes the newest published frame if there is one.
+     *
+     * @return true if the front buffer now holds a frame that was not seen
+     *         before, false if it still holds the previous one
+     */
+    boolean swapToLatest() {
+        if ((mMiddle.get() & FRESH) == 0) {
+            return false;
+        }
+        int previous = mMiddle.getAndSet(mFront);
+        mFront = previous & INDEX_MASK;
+        mConsumed = mConsumed + 1;
+        return true;
+    }
+
+    /** Consumer: the frame taken by the last successful {@link #swapToLatest()}. */
+    @SuppressWarnings("unchecked")
+    T getFrontBuffer() {
+        return (T) mBuffers[mFront];
+    }
+
+    /** Consumer: sequence number of the front frame, 0 if none was taken yet. */
+    long getFrontSequence() {
+        return mSequences[mFront];
+    }
+
+    /** Consumer: timestamp the front frame was published with. */
+    long getFrontTimestamp() {
+        return mTimestamps[mFront];
+    }
+
+    long getPublishedCount() {
+        return mPublished;
+    }
+
+    long getDroppedCount() {
+        return mDropped;
+    }
+
+    long getConsumedCount() {
+        return mConsumed;
+    }
+
+    @Override
+    public String toString() {
+        return "TripleBuffer{published=" + mPublished
+                + ", consumed=" + mConsumed
+                + ", dropped=" + mDropped + "}";
+    }
+}
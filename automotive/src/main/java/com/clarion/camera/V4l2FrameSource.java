@@ -0,0 +1,133 @@
+package com.clarion.camera;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * The USB webcam, captured by the ImageProc JNI library through V4L2.
+ * /dev/videoX with X = cameraId + cameraBase is opened; some omap devices
+ * use /dev/video[0-3] themselves, there use cameraId=0 and cameraBase=4.
+ * The webcam must support 640x480 YUYV (see ImageProc.h).
+ *
+ * {@link #nextFrame()} blocks in processCamera() until the driver delivers
+ * a frame; pixeltobuffer() then copies it out of the driver's buffer into a
+ * pooled direct buffer. That copy is the only one before the conversion,
+ * and it lets the driver buffer be queued again right away.
+ *
+ * The libImageProc.so shipped in jniLibs still only exports the natives of
+ * the old com.camera.simplewebcam.CameraPreview, not the ones declared here.
+ * Until a build with these exports ships, {@link #open()} fails with an
+ * IOException and the preview stays black instead of crashing.
+ */
+class V4l2FrameSource implements FrameSource {
+    // This definition also exists in ImageProc.h.
+    static final int WIDTH = 640;
+    static final int HEIGHT = 480;
+
+    private static boolean sLibraryLoaded = false;
+    // set once the library turned out not to export our natives
+    private static UnsatisfiedLinkError sNativesMissing = null;
+
+    private final int mCameraId;
+    private final int mCameraBase;
+    private final FramePool mPool;
+    private boolean mOpen = false;
+    private long mSequence;
+
+    // JNI functions of libImageProc
+    private native int prepareCameraWithBase(int videoid, int camerabase);
+    private native void processCamera();
+    private native void stopCamera();
+    // copies the frame captured by processCamera() into a direct buffer
+    private native void pixeltobuffer(ByteBuffer yuyv);
+
+    V4l2FrameSource(int cameraId, int cameraBase, FramePool pool) {
+        if (pool.getFrameBytes() < WIDTH * HEIGHT * 2) {
+            throw new IllegalArgumentException("pool buffers too small for the webcam");
+        }
+        mCameraId = cameraId;
+        mCameraBase = cameraBase;
+        mPool = pool;
+    }
+
+    @Override
+    public int getWidth() {
+        return WIDTH;
+    }
+
+    @Override
+    public int getHeight() {
+        return HEIGHT;
+    }
+
+    @Override
+    public void open() throws IOException {
+        loadLibrary();
+        int result;
+        synchronized (V4l2FrameSource.class) {
+            try {
+                if (sNativesMissing != null) {
+                    throw sNativesMissing;
+                }
+                result = prepareCameraWithBase(mCameraId, mCameraBase);
+            } catch (UnsatisfiedLinkError e) {
+                sNativesMissing = e;
+                throw new IOException("ImageProc library lacks the V4l2FrameSource natives", e);
+            }
+        }
+        if (result == -1) {
+            throw new IOException("no webcam at /dev/video" + (mCameraId + mCameraBase));
+        }
+        mOpen = true;
+        mSequence = 0;
+    }
+
+    /** Loads the JNI library; called on open, or earlier to take it off the first frame. */
+    static synchronized void loadLibrary() throws IOException {
+        if (!sLibraryLoaded) {
+            try {
+                System.loadLibrary("ImageProc");
+            } catch (UnsatisfiedLinkError e) {
+                throw new IOException("ImageProc library not available", e);
+            }
+            sLibraryLoaded = true;
+        }
+    }
+
+    @Override
+    public RawFrame nextFrame() throws IOException, InterruptedException {
+        if (!mOpen) {
+            throw new IOException("webcam not open");
+        }
+        RawFrame frame = mPool.acquire();
+        try {
+            processCamera();
+            long timestamp = System.nanoTime();
+            pixeltobuffer(frame.getData());
+            frame.getData().limit(WIDTH * HEIGHT * 2);
+            frame.set(timestamp, ++mSequence);
+            return frame;
+        } catch (Throwable e) {
+            // back to the pool, or the capture loop runs out of frames
+            frame.release();
+            throw e;
+        }
+    }
+
+    /**
+     * The driver wait in processCamera() cannot be cut short from Java; it
+     * gives up after the select() timeout of libImageProc, about 2 s, and
+     * the capture loop parks then.
+     */
+    @Override
+    public void wakeUp() {
+    }
+
+    @Override
+    public void close() {
+        if (mOpen) {
+            stopCamera();
+            mOpen = false;
+        }
+    }
+}
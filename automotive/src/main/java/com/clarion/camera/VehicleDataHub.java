@@ -0,0 +1,216 @@
+package com.clarion.camera;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Process-wide entry point for vehicle sensor data. It holds the one
+ * subscription to the vehicle (a {@link SensorSource}, normally
+ * {@link CarSensorSource} on the single Car connection) and fans the
+ * samples out to every in-process consumer through a shared
+ * {@link SensorEventStore}; each consumer owns a reader and drains it to
+ * its own {@link SensorEventBus}.
+ *
+ * Sensors are only subscribed while at least one consumer is registered.
+ * Speed and steering are subscribed at {@link #RATE_FASTEST} while the car
+ * is in reverse, where the guide lines follow them, and at
+ * {@link #RATE_NORMAL} otherwise; gear always at {@link #RATE_NORMAL}.
+ *
+ * The subscriptions are changed on their own thread, in the order they were
+ * decided, and never on the caller's: a gear change arrives in the sensor
+ * listener's binder callback, which must not unregister that listener
+ * while it runs, nor do it while holding the hub's lock.
+ */
+class VehicleDataHub {
+    static final int SENSOR_GEAR = 0;
+    static final int SENSOR_SPEED = 1;
+    static final int SENSOR_STEERING = 2;
+    static final int SENSOR_COUNT = 3;
+
+    // same values as CarSensorManager.SENSOR_RATE_*
+    static final int RATE_OFF = -1;
+    static final int RATE_NORMAL = 1;
+    static final int RATE_FASTEST = 100;
+
+    /** Subscribes to the vehicle, e.g. through CarSensorManager or a fake. */
+    interface SensorSource {
+        /** (Re)subscribes the sensor at the rate, or unsubscribes it for RATE_OFF. */
+        void setRate(int sensor, int rate);
+    }
+
+    private static VehicleDataHub sInstance;
+
+    private final SensorEventStore mStore = new SensorEventStore();
+    private final Executor mRateExecutor;
+    private final Object mLock = new Object();
+    private SensorSource mSource;
+    private int mConsumers = 0;
+    private volatile boolean mReverse = false;
+    // rate each sensor is subscribed at by mSource, once mRateExecutor got to it
+    private final int[] mRates = {RATE_OFF, RATE_OFF, RATE_OFF};
+    private long mRateChanges = 0;
+
+    /**
+     * @param rateExecutor runs the {@link SensorSource#setRate} calls one
+     *                     after the other, see the class comment
+     */
+    VehicleDataHub(Executor rateExecutor) {
+        mRateExecutor = rateExecutor;
+    }
+
+    static synchronized VehicleDataHub getInstance() {
+        if (sInstance == null) {
+            ExecutorService rates = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "VehicleDataHub");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            sInstance = new VehicleDataHub(rates);
+        }
+        return sInstance;
+    }
+
+    /**
+     * Adds a consumer.
+     *
+     * @param wakeup run on the sensor thread at most once per burst of
+     *               samples, see {@link SensorEventStore#newReader}
+     */
+    SensorEventStore.Reader register(Runnable wakeup) {
+        SensorEventStore.Reader reader = mStore.newReader(wakeup);
+        synchronized (mLock) {
+            mConsumers++;
+            applyRates();
+        }
+        return reader;
+    }
+
+    void unregister(SensorEventStore.Reader reader) {
+        mStore.removeReader(reader);
+        synchronized (mLock) {
+            if (mConsumers > 0) {
+                mConsumers--;
+            }
+            applyRates();
+        }
+    }
+
+    /** Dispatches what changed since the reader last drained, see {@link SensorEventStore#drainTo}. */
+    int drainTo(SensorEventStore.Reader reader, SensorEventBus bus) {
+        return mStore.drainTo(reader, bus);
+    }
+
+    /** Connects the vehicle, once it is available, and subscribes what consumers need. */
+    void attach(SensorSource source) {
+        synchronized (mLock) {
+            if (mSource == source) {
+                return;
+            }
+            detachLocked();
+            mSource = source;
+            applyRates();
+        }
+    }
+
+    /** Forgets the vehicle, e.g. after the Car service disconnected. */
+    void detach(SensorSource source) {
+        synchronized (mLock) {
+            if (mSource == source) {
+                // the subscriptions died with the connection
+                mSource = null;
+                for (int sensor = 0; sensor < SENSOR_COUNT; sensor++) {
+                    mRates[sensor] = RATE_OFF;
+                }
+            }
+        }
+    }
+
+    // sensor thread
+    void onGear(int gear, long timestampNanos) {
+        mStore.publishGearPos(gear, timestampNanos);
+        boolean reverse = gear == ReverseLifecycle.GEAR_REVERSE;
+        if (reverse != mReverse) {
+            synchronized (mLock) {
+                mReverse = reverse;
+                applyRates();
+            }
+        }
+    }
+
+    void onSpeed(float speed, long timestampNanos) {
+        mStore.publishSpeed(speed, timestampNanos);
+    }
+
+    void onSteeringAngle(float angle, long timestampNanos) {
+        mStore.publishSteeringAngle(angle, timestampNanos);
+    }
+
+    boolean isReverse() {
+        return mReverse;
+    }
+
+    int getRate(int sensor) {
+        synchronized (mLock) {
+            return mRates[sensor];
+        }
+    }
+
+    int getConsumerCount() {
+        synchronized (mLock) {
+            return mConsumers;
+        }
+    }
+
+    @Override
+    public String toString() {
+        synchronized (mLock) {
+            return "VehicleDataHub{consumers=" + mConsumers
+                    + ", attached=" + (mSource != null)
+                    + ", reverse=" + mReverse
+                    + ", rates=" + mRates[SENSOR_GEAR] + "/" + mRates[SENSOR_SPEED]
+                    + "/" + mRates[SENSOR_STEERING]
+                    + ", rateChanges=" + mRateChanges + "}";
+        }
+    }
+
+    private void detachLocked() {
+        if (mSource == null) {
+            return;
+        }
+        for (int sensor = 0; sensor < SENSOR_COUNT; sensor++) {
+            setRateLocked(sensor, RATE_OFF);
+        }
+        mSource = null;
+    }
+
+    // brings the subscriptions in line with the consumers and the gear
+    private void applyRates() {
+        if (mSource == null) {
+            return;
+        }
+        boolean subscribed = mConsumers > 0;
+        int motionRate = mReverse ? RATE_FASTEST : RATE_NORMAL;
+        setRateLocked(SENSOR_GEAR, subscribed ? RATE_NORMAL : RATE_OFF);
+        setRateLocked(SENSOR_SPEED, subscribed ? motionRate : RATE_OFF);
+        setRateLocked(SENSOR_STEERING, subscribed ? motionRate : RATE_OFF);
+    }
+
+    private void setRateLocked(final int sensor, final int rate) {
+        if (mRates[sensor] != rate) {
+            mRates[sensor] = rate;
+            mRateChanges++;
+            final SensorSource source = mSource;
+            mRateExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    source.setRate(sensor, rate);
+                }
+            });
+        }
+    }
+}
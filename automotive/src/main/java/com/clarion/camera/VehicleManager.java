@@ -1,9 +1,64 @@
 package com.clarion.camera;
 
-import android.content.Context;
-
+/**
+ * Vehicle state shown by the rear view overlay: steering angle, gear and
+ * speed, each with the time it was last updated.
+ *
+ * Sensor threads write through the setters, the render thread reads one
+ * consistent {@link VehicleState} per frame with {@link #readSnapshot}. The
+ * fields are published through a sequence lock, so a snapshot never mixes
+ * values from the middle of an update, and reading takes no lock and
+ * allocates nothing. All timestamps have to come from one clock, e.g. the
+ * sensor timestamps, and {@link #predictSteeringAngle} is given the current
+ * time on that clock.
+ *
+ * Steering samples also go through a {@link SteeringPredictor}, so the
+ * overlay can use the angle predicted for the moment the frame is displayed
+ * ({@link #predictSteeringAngle}) instead of the last raw sample.
+ */
 public class VehicleManager {
-    private double m_steeringAngle = 0;
+
+    /**
+     * Caller-owned copy of the vehicle state, filled by {@link #readSnapshot}.
+     */
+    public static class VehicleState {
+        public double steeringAngle;
+        public long steeringAngleTimestampNanos;
+        // smoothed angle at steeringAngleTimestampNanos and its rate per second
+        public double filteredSteeringAngle;
+        public double steeringAngleRate;
+        public int gearPos;
+        public long gearPosTimestampNanos;
+        public float speed;
+        public long speedTimestampNanos;
+        // increases with every update, useful to skip unchanged snapshots
+        public long version;
+    }
+
+    /**
+     * Notified whenever a value shown in the overlay changes.
+     */
+    public interface OnChangeListener {
+        void onVehicleStateChanged();
+    }
+
+    // sequence lock: odd while an update is in progress
+    private volatile long mVersion = 0;
+    private volatile double m_steeringAngle = 0;
+    private volatile long mSteeringAngleTimestamp = 0;
+    private volatile double mFilteredSteeringAngle = 0;
+    private volatile double mSteeringAngleRate = 0;
+    private volatile int mGearPos = 0;
+    private volatile long mGearPosTimestamp = 0;
+    private volatile float mSpeed = 0;
+    private volatile long mSpeedTimestamp = 0;
+
+    private final Object mWriteLock = new Object();
+    private final SteeringPredictor mSteeringPredictor = new SteeringPredictor();
+    private volatile OnChangeListener mListener;
+
+    // time from rendering a frame until it is on screen, measured by the view
+    private volatile long mPipelineLatencyNanos = 0;
 
     public VehicleManager() {
     }
@@ -12,7 +67,123 @@ public class VehicleManager {
         return m_steeringAngle;
     }
 
-    public void setSteeringAngle(float angle) {
-         m_steeringAngle = angle;
+    public void setSteeringAngle(float angle, long timestampNanos) {
+        boolean changed;
+        synchronized (mWriteLock) {
+            // unchanged samples still matter to the filter, they slow the rate down
+            changed = m_steeringAngle != angle;
+            beginWrite();
+            writeSteeringAngle(angle, timestampNanos);
+            endWrite();
+        }
+        if (changed) {
+            notifyChanged();
+        }
+    }
+
+    public void setGearPos(int gearPos, long timestampNanos) {
+        synchronized (mWriteLock) {
+            beginWrite();
+            mGearPos = gearPos;
+            mGearPosTimestamp = timestampNanos;
+            endWrite();
+        }
+    }
+
+    public void setSpeed(float speed, long timestampNanos) {
+        synchronized (mWriteLock) {
+            beginWrite();
+            mSpeed = speed;
+            mSpeedTimestamp = timestampNanos;
+            endWrite();
+        }
+    }
+
+    /** Updates all fields at once; readers see either none or all of them. */
+    public void setState(double steeringAngle, int gearPos, float speed,
+                         long timestampNanos) {
+        synchronized (mWriteLock) {
+            beginWrite();
+            writeSteeringAngle(steeringAngle, timestampNanos);
+            mGearPos = gearPos;
+            mGearPosTimestamp = timestampNanos;
+            mSpeed = speed;
+            mSpeedTimestamp = timestampNanos;
+            endWrite();
+        }
+        notifyChanged();
+    }
+
+    /**
+     * Copies a consistent snapshot of all fields into the given state,
+     * retrying while a writer is in the middle of an update.
+     */
+    public void readSnapshot(VehicleState state) {
+        long version;
+        do {
+            version = mVersion;
+            if ((version & 1) != 0) {
+                continue;
+            }
+            state.steeringAngle = m_steeringAngle;
+            state.steeringAngleTimestampNanos = mSteeringAngleTimestamp;
+            state.filteredSteeringAngle = mFilteredSteeringAngle;
+            state.steeringAngleRate = mSteeringAngleRate;
+            state.gearPos = mGearPos;
+            state.gearPosTimestampNanos = mGearPosTimestamp;
+            state.speed = mSpeed;
+            state.speedTimestampNanos = mSpeedTimestamp;
+        } while ((version & 1) != 0 || version != mVersion);
+        state.version = version >>> 1;
+    }
+
+    /**
+     * Steering angle expected at the time a frame rendered now is displayed:
+     * the filtered angle of the snapshot, extrapolated by its rate over the
+     * time since the sample plus the measured pipeline latency. A sample
+     * older than {@link SteeringPredictor#DEFAULT_MAX_HORIZON_NANOS} is no
+     * longer extrapolated, see {@link SteeringPredictor#extrapolate}.
+     */
+    public double predictSteeringAngle(VehicleState state, long nowNanos) {
+        return SteeringPredictor.extrapolate(state.filteredSteeringAngle,
+                state.steeringAngleRate, state.steeringAngleTimestampNanos,
+                nowNanos + mPipelineLatencyNanos,
+                SteeringPredictor.DEFAULT_MAX_HORIZON_NANOS);
+    }
+
+    public void setPipelineLatencyNanos(long latencyNanos) {
+        mPipelineLatencyNanos = latencyNanos;
+    }
+
+    public long getPipelineLatencyNanos() {
+        return mPipelineLatencyNanos;
+    }
+
+    public void setOnChangeListener(OnChangeListener listener) {
+        mListener = listener;
+    }
+
+    // called with mWriteLock held, inside beginWrite()/endWrite()
+    private void writeSteeringAngle(double angle, long timestampNanos) {
+        m_steeringAngle = angle;
+        mSteeringAngleTimestamp = timestampNanos;
+        mSteeringPredictor.addSample(angle, timestampNanos);
+        mFilteredSteeringAngle = mSteeringPredictor.getAngle();
+        mSteeringAngleRate = mSteeringPredictor.getRate();
+    }
+
+    private void beginWrite() {
+        mVersion = mVersion + 1;
+    }
+
+    private void endWrite() {
+        mVersion = mVersion + 1;
+    }
+
+    private void notifyChanged() {
+        OnChangeListener listener = mListener;
+        if (listener != null) {
+            listener.onVehicleStateChanged();
+        }
     }
 }
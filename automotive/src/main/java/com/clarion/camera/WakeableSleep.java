@@ -0,0 +1,38 @@
+package com.clarion.camera;
+
+/**
+ * A sleep of a frame source that another thread can cut short, so a capture
+ * loop waiting in {@link FrameSource#nextFrame()} parks or ends without
+ * waiting for the frame, see {@link FrameSource#wakeUp()}.
+ */
+class WakeableSleep {
+    private final Object mLock = new Object();
+    private boolean mWoken = false;
+
+    /**
+     * Sleeps until {@link System#nanoTime()} reaches the deadline.
+     *
+     * @throws InterruptedException if woken before or during the sleep
+     */
+    void until(long deadlineNanos) throws InterruptedException {
+        synchronized (mLock) {
+            while (!mWoken) {
+                long wait = deadlineNanos - System.nanoTime();
+                if (wait <= 0) {
+                    return;
+                }
+                mLock.wait(wait / 1000000L, (int) (wait % 1000000L));
+            }
+            mWoken = false;
+            throw new InterruptedException("woken up");
+        }
+    }
+
+    /** Ends the current sleep, or the next one if none is in progress. Any thread. */
+    void wakeUp() {
+        synchronized (mLock) {
+            mWoken = true;
+            mLock.notifyAll();
+        }
+    }
+}
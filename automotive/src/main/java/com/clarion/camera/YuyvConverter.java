@@ -0,0 +1,182 @@
+package com.clarion.camera;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Pure Java YUYV (YUV 4:2:2) to ARGB conversion for the webcam frames.
+ *
+ * The integer fixed-point math is the same as yuyv422toABGRY() in
+ * libImageProc, so the output is bit-exact with the native pixeltobmp()
+ * path. Output pixels use the {@code android.graphics.Color} int layout
+ * expected by Bitmap#setPixels.
+ *
+ * The preview itself converts with {@link MirrorScaleKernel}, which fuses
+ * the same math with mirroring and scaling; this class is its reference and
+ * the baseline of the benchmarks. The app does not choose between Java and
+ * native conversion per device: the shipped libImageProc never hands raw
+ * frames to Java, see {@link V4l2FrameSource}.
+ *
+ * Rows are split into stripes that are converted in parallel by
+ * {@link RowStripes}. Converting a frame allocates nothing.
+ * {@link #convert} must not be called from several threads at once.
+ */
+class YuyvConverter {
+    // 10-bit fixed-point coefficients, as in ImageProc.c
+    private static final int[] Y_TABLE = new int[256];
+    private static final int[] V_RED_TABLE = new int[256];
+    private static final int[] V_GREEN_TABLE = new int[256];
+    private static final int[] U_GREEN_TABLE = new int[256];
+    private static final int[] U_BLUE_TABLE = new int[256];
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            Y_TABLE[i] = Math.max(0, 1192 * (i - 16));
+            V_RED_TABLE[i] = 1634 * (i - 128);
+            V_GREEN_TABLE[i] = 833 * (i - 128);
+            U_GREEN_TABLE[i] = 400 * (i - 128);
+            U_BLUE_TABLE[i] = 2066 * (i - 128);
+        }
+    }
+
+    private final int mWidth;
+    private final int mHeight;
+    private final RowStripes mStripes;
+
+    // frame being converted, read by the stripe workers
+    private ByteBuffer mSource;
+    private int[] mDestination;
+
+    private final RowStripes.Task mConvertRows = new RowStripes.Task() {
+        @Override
+        public void processRows(int stripe, int firstRow, int endRow) {
+            convertRows(mSource, mDestination, mWidth, firstRow, endRow);
+        }
+    };
+
+    YuyvConverter(int width, int height, RowStripes stripes) {
+        if (width <= 0 || height <= 0 || (width & 1) != 0) {
+            throw new IllegalArgumentException("invalid frame size " + width + "x" + height);
+        }
+        mWidth = width;
+        mHeight = height;
+        mStripes = stripes;
+    }
+
+    int getWidth() {
+        return mWidth;
+    }
+
+    int getHeight() {
+        return mHeight;
+    }
+
+    /**
+     * Converts one frame.
+     *
+     * @param yuyv width * height * 2 bytes of packed Y0 U Y1 V samples,
+     *             read with absolute gets so its position is left untouched
+     * @param argb receives width * height pixels
+     */
+    void convert(ByteBuffer yuyv, int[] argb) {
+        if (yuyv.capacity() < mWidth * mHeight * 2 || argb.length < mWidth * mHeight) {
+            throw new IllegalArgumentException("buffers too small for "
+                    + mWidth + "x" + mHeight);
+        }
+        mSource = yuyv;
+        mDestination = argb;
+        try {
+            mStripes.run(mConvertRows, mHeight);
+        } finally {
+            mSource = null;
+            mDestination = null;
+        }
+    }
+
+    /**
+     * Average time one {@link #convert} takes for the given frame, e.g. to
+     * compare it with the native conversion on a device.
+     */
+    long measureNanosPerFrame(ByteBuffer yuyv, int[] argb, int frames) {
+        // warm up so the JIT has compiled the row loop
+        for (int i = 0; i < Math.min(frames, 10); i++) {
+            convert(yuyv, argb);
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < frames; i++) {
+            convert(yuyv, argb);
+        }
+        return (System.nanoTime() - start) / Math.max(1, frames);
+    }
+
+    /** Converts rows [firstRow, endRow) of a frame. */
+    static void convertRows(ByteBuffer yuyv, int[] argb, int width,
+                            int firstRow, int endRow) {
+        int in = firstRow * width * 2;
+        int out = firstRow * width;
+        int end = endRow * width;
+        while (out < end) {
+            int y1 = Y_TABLE[yuyv.get(in) & 0xff];
+            int u = yuyv.get(in + 1) & 0xff;
+            int y2 = Y_TABLE[yuyv.get(in + 2) & 0xff];
+            int v = yuyv.get(in + 3) & 0xff;
+            in += 4;
+
+            int red = V_RED_TABLE[v];
+            int green = -V_GREEN_TABLE[v] - U_GREEN_TABLE[u];
+            int blue = U_BLUE_TABLE[u];
+            argb[out++] = pack(y1 + red, y1 + green, y1 + blue);
+            argb[out++] = pack(y2 + red, y2 + green, y2 + blue);
+        }
+    }
+
+    /** Packs 10-bit fixed-point channels into an opaque ARGB pixel. */
+    static int pack(int red, int green, int blue) {
+        red >>= 10;
+        green >>= 10;
+        blue >>= 10;
+        red = red > 255 ? 255 : red < 0 ? 0 : red;
+        green = green > 255 ? 255 : green < 0 ? 0 : green;
+        blue = blue > 255 ? 255 : blue < 0 ? 0 : blue;
+        return 0xff000000 | (red << 16) | (green << 8) | blue;
+    }
+
+    /** Converts a single pixel; shares the fixed-point math with the fast path. */
+    static int toArgb(int y, int u, int v) {
+        int luma = Y_TABLE[y & 0xff];
+        u &= 0xff;
+        v &= 0xff;
+        return pack(luma + V_RED_TABLE[v],
+                luma - V_GREEN_TABLE[v] - U_GREEN_TABLE[u],
+                luma + U_BLUE_TABLE[u]);
+    }
+
+    /**
+     * Straightforward single-threaded conversion written directly from the
+     * ImageProc formulas, used to verify the fast path.
+     */
+    static void convertReference(byte[] yuyv, int[] argb, int width, int height) {
+        for (int i = 0; i < width * height / 2; i++) {
+            int y1 = yuyv[4 * i] & 0xff;
+            int u = (yuyv[4 * i + 1] & 0xff) - 128;
+            int y2 = yuyv[4 * i + 2] & 0xff;
+            int v = (yuyv[4 * i + 3] & 0xff) - 128;
+            argb[2 * i] = referencePixel(y1, u, v);
+            argb[2 * i + 1] = referencePixel(y2, u, v);
+        }
+    }
+
+    private static int referencePixel(int y, int u, int v) {
+        int luma = 1192 * (y - 16);
+        if (luma < 0) {
+            luma = 0;
+        }
+        int red = clamp((luma + 1634 * v) >> 10);
+        int green = clamp((luma - 833 * v - 400 * u) >> 10);
+        int blue = clamp((luma + 2066 * u) >> 10);
+        return 0xff000000 | (red << 16) | (green << 8) | blue;
+    }
+
+    private static int clamp(int value) {
+        return Math.max(0, Math.min(255, value));
+    }
+}
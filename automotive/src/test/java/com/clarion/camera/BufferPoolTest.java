@@ -0,0 +1,124 @@
+package com.clarion.camera;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Host-side tests for {@link BufferPool} with plain int arrays as buffers.
+ */
+public class BufferPoolTest {
+
+    private static class ArrayAllocator implements BufferPool.Allocator<int[]> {
+        final List<int[]> freed = new ArrayList<>();
+
+        @Override
+        public int[] allocate(int width, int height) {
+            return new int[width * height];
+        }
+
+        @Override
+        public long sizeOf(int width, int height) {
+            return (long) width * height * 4;
+        }
+
+        @Override
+        public void free(int[] buffer) {
+            freed.add(buffer);
+        }
+    }
+
+    @Test
+    public void reusesReleasedBuffersOfTheSameSize() {
+        BufferPool<int[]> pool = new BufferPool<>(1000, new ArrayAllocator());
+        int[] first = pool.acquire(10, 10);
+        pool.release(first);
+        assertSame(first, pool.acquire(10, 10));
+        assertEquals(1, pool.getAllocationCount());
+        assertEquals(1, pool.getReuseCount());
+
+        // another size is a new buffer
+        int[] other = pool.acquire(5, 5);
+        assertNotSame(first, other);
+        assertEquals(2, pool.getAllocationCount());
+        assertEquals(500, pool.getInUseBytes());
+    }
+
+    @Test
+    public void staysFlatOverRepeatedRecreation() {
+        BufferPool<int[]> pool = new BufferPool<>(10000, new ArrayAllocator());
+        // a surface with three frames, recreated again and again
+        for (int round = 0; round < 100; round++) {
+            int[][] frames = new int[3][];
+            for (int i = 0; i < frames.length; i++) {
+                frames[i] = pool.acquire(20, 20);
+            }
+            for (int[] frame : frames) {
+                pool.release(frame);
+            }
+        }
+        assertEquals(3, pool.getAllocationCount());
+        assertEquals(297, pool.getReuseCount());
+        assertEquals(4800, pool.getHighWaterBytes());
+        assertEquals(0, pool.getInUseBytes());
+        assertEquals(4800, pool.getFreeBytes());
+    }
+
+    @Test
+    public void dropsOldFreeBuffersToStayWithinTheBudget() {
+        ArrayAllocator allocator = new ArrayAllocator();
+        BufferPool<int[]> pool = new BufferPool<>(1000, allocator);
+        int[] small = pool.acquire(10, 5);
+        int[] medium = pool.acquire(10, 6);
+        pool.release(small);
+        pool.release(medium);
+        assertEquals(440, pool.getFreeBytes());
+
+        // the new size needs room: the oldest free buffer goes first
+        pool.acquire(10, 15);
+        assertEquals(1, pool.getEvictionCount());
+        assertSame(small, allocator.freed.get(0));
+        assertEquals(240, pool.getFreeBytes());
+        assertEquals(600, pool.getInUseBytes());
+        assertEquals(0, pool.getOverBudgetCount());
+    }
+
+    @Test
+    public void countsAllocationsBeyondTheBudget() {
+        BufferPool<int[]> pool = new BufferPool<>(1000, new ArrayAllocator());
+        pool.acquire(10, 20);
+        int[] second = pool.acquire(10, 20);
+        assertNotNull(second);
+        assertEquals(1, pool.getOverBudgetCount());
+        assertEquals(1600, pool.getHighWaterBytes());
+
+        // nothing is kept free while over budget
+        pool.release(second);
+        assertEquals(0, pool.getFreeBytes());
+        assertEquals(1, pool.getEvictionCount());
+    }
+
+    @Test
+    public void trimFreesOnlyUnusedBuffers() {
+        ArrayAllocator allocator = new ArrayAllocator();
+        BufferPool<int[]> pool = new BufferPool<>(10000, allocator);
+        int[] used = pool.acquire(10, 10);
+        pool.release(pool.acquire(10, 10));
+        pool.trim();
+        assertEquals(0, pool.getFreeBytes());
+        assertEquals(400, pool.getInUseBytes());
+        assertEquals(1, allocator.freed.size());
+        assertNotSame(used, allocator.freed.get(0));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void rejectsDoubleReleases() {
+        BufferPool<int[]> pool = new BufferPool<>(1000, new ArrayAllocator());
+        int[] buffer = pool.acquire(2, 2);
+        pool.release(buffer);
+        pool.release(buffer);
+    }
+}
@@ -0,0 +1,178 @@
+package com.clarion.camera;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.Assert.*;
+
+/**
+ * Host-side tests for {@link ClipRecorder}.
+ */
+public class ClipRecorderTest {
+    private static final int WIDTH = 16;
+    private static final int HEIGHT = 4;
+    private static final int FRAME_BYTES = WIDTH * HEIGHT * 2;
+    private static final int FPS = 30;
+    private static final long FRAME_NANOS = 1000000000L / FPS;
+    private static final long START = 1000000000L;
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private ClipRecorder mRecorder;
+
+    @After
+    public void tearDown() {
+        if (mRecorder != null) {
+            mRecorder.shutdown();
+        }
+    }
+
+    private static ByteBuffer frame(int index) {
+        ByteBuffer frame = ByteBuffer.allocateDirect(FRAME_BYTES);
+        for (int i = 0; i < FRAME_BYTES; i++) {
+            frame.put(i, (byte) index);
+        }
+        return frame;
+    }
+
+    private void offer(int from, int to) {
+        for (int i = from; i < to; i++) {
+            mRecorder.offerFrame(frame(i), START + i * FRAME_NANOS);
+        }
+    }
+
+    // first byte of every frame in the clip
+    private static int[] readClip(File clip) throws IOException {
+        PipelineLog.Reader reader = new PipelineLog.Reader(clip);
+        ByteBuffer target = ByteBuffer.allocate(FRAME_BYTES);
+        int[] frames = new int[0];
+        try {
+            while (reader.next()) {
+                if (reader.getType() == PipelineLog.TYPE_FRAME) {
+                    target.clear();
+                    reader.readFrame(target);
+                    int[] grown = new int[frames.length + 1];
+                    System.arraycopy(frames, 0, grown, 0, frames.length);
+                    grown[frames.length] = target.get(0);
+                    frames = grown;
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return frames;
+    }
+
+    @Test
+    public void keepsEveryFrameWhenTheBudgetAllows() {
+        mRecorder = new ClipRecorder(mFolder.getRoot(), WIDTH, HEIGHT, 2,
+                1024L * FRAME_BYTES, FPS, null);
+        assertEquals(2 * FPS, mRecorder.getCapacity());
+    }
+
+    @Test
+    public void savesTheLastWindowOldestFirst() throws Exception {
+        mRecorder = new ClipRecorder(mFolder.getRoot(), WIDTH, HEIGHT, 1,
+                10L * FRAME_BYTES, FPS, null);
+        assertEquals(10, mRecorder.getCapacity());
+        // 2 s of frames; the budget allows one frame in three over 1 s
+        offer(0, 2 * FPS);
+        assertTrue(mRecorder.trigger("test"));
+        assertTrue(mRecorder.awaitIdle(5000));
+
+        assertEquals(1, mRecorder.getClipsWritten());
+        File clip = mRecorder.getLastClip();
+        assertTrue(clip.getName().endsWith("-test.clog"));
+        int[] frames = readClip(clip);
+        assertEquals(10, frames.length);
+        assertEquals(57, frames[frames.length - 1]);
+        for (int i = 1; i < frames.length; i++) {
+            assertEquals(3, frames[i] - frames[i - 1]);
+        }
+    }
+
+    @Test
+    public void ignoresTriggersWithoutFrames() {
+        mRecorder = new ClipRecorder(mFolder.getRoot(), WIDTH, HEIGHT, 1,
+                10L * FRAME_BYTES, FPS, null);
+        assertFalse(mRecorder.trigger("empty"));
+    }
+
+    @Test
+    public void hardBrakingSavesAClip() throws Exception {
+        VehicleManager vehicle = new VehicleManager();
+        mRecorder = new ClipRecorder(mFolder.getRoot(), WIDTH, HEIGHT, 1,
+                64L * FRAME_BYTES, FPS, vehicle);
+        // coasting down at 1 m/s^2
+        for (int i = 0; i < 10; i++) {
+            vehicle.setSpeed(10f - i * 0.2f, START + i * 6 * FRAME_NANOS);
+            offer(i * 6, i * 6 + 6);
+        }
+        assertTrue(mRecorder.awaitIdle(5000));
+        assertEquals(0, mRecorder.getClipsWritten());
+
+        // 1.6 m/s less within 200 ms: 8 m/s^2
+        vehicle.setSpeed(6.4f, START + 10 * 6 * FRAME_NANOS);
+        offer(60, 61);
+        assertTrue(mRecorder.awaitIdle(5000));
+        assertEquals(1, mRecorder.getClipsWritten());
+        assertTrue(mRecorder.getLastClip().getName().endsWith("-hardbrake.clog"));
+    }
+
+    @Test
+    public void anotherVehicleIsNoBrakingReference() throws Exception {
+        mRecorder = new ClipRecorder(mFolder.getRoot(), WIDTH, HEIGHT, 1,
+                64L * FRAME_BYTES, FPS, null);
+        VehicleManager first = new VehicleManager();
+        first.setSpeed(10f, START);
+        mRecorder.setVehicleManager(first);
+        offer(0, 6);
+
+        // the next view's vehicle manager starts from zero
+        VehicleManager second = new VehicleManager();
+        second.setSpeed(0f, START + 6 * FRAME_NANOS);
+        mRecorder.setVehicleManager(second);
+        assertSame(second, mRecorder.getVehicleManager());
+        offer(6, 12);
+        assertTrue(mRecorder.awaitIdle(5000));
+        assertEquals(0, mRecorder.getClipsWritten());
+    }
+
+    @Test
+    public void failedClipsReleaseTheirFrames() throws Exception {
+        File notADirectory = mFolder.newFile("clips");
+        mRecorder = new ClipRecorder(notADirectory, WIDTH, HEIGHT, 1,
+                4L * FRAME_BYTES, FPS, null);
+        final List<File> failed = new CopyOnWriteArrayList<>();
+        mRecorder.setErrorListener(new ClipRecorder.ErrorListener() {
+            @Override
+            public void onClipFailed(File clip, IOException error) {
+                failed.add(clip);
+            }
+        });
+        offer(0, FPS);
+        assertTrue(mRecorder.trigger("test"));
+        assertTrue(mRecorder.awaitIdle(5000));
+        assertEquals(0, mRecorder.getClipsWritten());
+        assertEquals(1, failed.size());
+        assertTrue(failed.get(0).getName().endsWith("-test.clog"));
+
+        // every slot is free for new frames again
+        offer(FPS, 2 * FPS);
+        assertEquals(0, mRecorder.getDroppedFrames());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsBudgetsBelowTwoFrames() {
+        new ClipRecorder(mFolder.getRoot(), WIDTH, HEIGHT, 1, FRAME_BYTES, FPS, null);
+    }
+}
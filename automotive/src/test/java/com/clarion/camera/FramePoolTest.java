@@ -0,0 +1,63 @@
+package com.clarion.camera;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * Host-side tests for {@link FramePool}.
+ */
+public class FramePoolTest {
+
+    @Test
+    public void recyclesTheSameDirectBuffers() throws InterruptedException {
+        FramePool pool = new FramePool(64, 2);
+        RawFrame first = pool.acquire();
+        RawFrame second = pool.acquire();
+        assertNotSame(first, second);
+        assertTrue(first.getData().isDirect());
+        assertEquals(64, first.getData().capacity());
+        assertEquals(0, pool.getFreeCount());
+
+        first.getData().limit(10);
+        first.release();
+        RawFrame again = pool.acquire();
+        assertSame(first, again);
+        // handed out cleared
+        assertEquals(64, again.getData().limit());
+    }
+
+    @Test
+    public void acquireWaitsForARelease() throws InterruptedException {
+        final FramePool pool = new FramePool(16, 1);
+        final RawFrame held = pool.acquire();
+        final AtomicReference<RawFrame> acquired = new AtomicReference<>();
+        Thread waiter = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    acquired.set(pool.acquire());
+                } catch (InterruptedException e) {
+                    // test failed anyway
+                }
+            }
+        });
+        waiter.start();
+        Thread.sleep(50);
+        assertNull(acquired.get());
+
+        held.release();
+        waiter.join(1000);
+        assertSame(held, acquired.get());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void rejectsADoubleRelease() throws InterruptedException {
+        FramePool pool = new FramePool(16, 2);
+        RawFrame frame = pool.acquire();
+        frame.release();
+        frame.release();
+    }
+}
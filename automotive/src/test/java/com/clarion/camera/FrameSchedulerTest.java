@@ -0,0 +1,121 @@
+package com.clarion.camera;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+/**
+ * Host-side tests for {@link FrameScheduler}. Pacing is checked against a
+ * simulated clock; the blocking tests only use latches.
+ */
+public class FrameSchedulerTest {
+    private static final long FRAME_NANOS = 1000000000L / 20;
+
+    private static class FakeClock implements NanoClock {
+        long now = 1000;
+
+        @Override
+        public long nanoTime() {
+            return now;
+        }
+    }
+
+    @Test
+    public void rendersOnlyAfterSomethingWasSignalled() {
+        FakeClock clock = new FakeClock();
+        FrameScheduler scheduler = new FrameScheduler(20, clock);
+        assertFalse(scheduler.tryRender());
+        clock.now += 10 * FRAME_NANOS;
+        assertFalse(scheduler.tryRender());
+
+        scheduler.onOverlayChanged();
+        assertTrue(scheduler.tryRender());
+        assertFalse(scheduler.tryRender());
+        assertEquals(1, scheduler.getRenderedFrames());
+    }
+
+    @Test
+    public void capsRenderRateAndCountsDroppedFrames() {
+        FakeClock clock = new FakeClock();
+        FrameScheduler scheduler = new FrameScheduler(20, clock);
+        scheduler.onFrameAvailable();
+        // the first frame is not delayed
+        assertTrue(scheduler.tryRender());
+
+        // a frame every ms for one frame interval: one render, the rest dropped
+        int rendered = 0;
+        for (int ms = 1; ms <= 50; ms++) {
+            clock.now += 1000000L;
+            scheduler.onFrameAvailable();
+            if (scheduler.tryRender()) {
+                rendered++;
+            }
+        }
+        assertEquals(1, rendered);
+        assertEquals(49, scheduler.getDroppedFrames());
+        assertEquals(2, scheduler.getRenderedFrames());
+    }
+
+    @Test
+    public void countsFramesRenderedLate() {
+        FakeClock clock = new FakeClock();
+        FrameScheduler scheduler = new FrameScheduler(20, clock);
+        scheduler.onFrameAvailable();
+        clock.now += 2 * FRAME_NANOS;
+        assertTrue(scheduler.tryRender());
+        assertEquals(1, scheduler.getLateFrames());
+    }
+
+    @Test
+    public void awaitRenderReturnsOnceSignalled() throws Exception {
+        final FrameScheduler scheduler = new FrameScheduler(1000);
+        final CountDownLatch waiting = new CountDownLatch(1);
+        final CountDownLatch rendered = new CountDownLatch(1);
+        Thread renderer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    waiting.countDown();
+                    if (scheduler.awaitRender()) {
+                        rendered.countDown();
+                    }
+                } catch (InterruptedException e) {
+                    // test ends
+                }
+            }
+        });
+        renderer.start();
+        assertTrue(waiting.await(5, TimeUnit.SECONDS));
+        scheduler.onOverlayChanged();
+        assertTrue(rendered.await(5, TimeUnit.SECONDS));
+        renderer.join(5000);
+        assertEquals(1, scheduler.getRenderedFrames());
+    }
+
+    @Test
+    public void stopWakesUpTheRenderLoop() throws Exception {
+        final FrameScheduler scheduler = new FrameScheduler(30);
+        final AtomicBoolean result = new AtomicBoolean(true);
+        Thread renderer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    result.set(scheduler.awaitRender());
+                } catch (InterruptedException e) {
+                    // test fails on the assertion below
+                }
+            }
+        });
+        renderer.start();
+        scheduler.stop();
+        renderer.join(5000);
+
+        assertFalse(renderer.isAlive());
+        assertFalse(result.get());
+        assertFalse(scheduler.tryRender());
+    }
+}
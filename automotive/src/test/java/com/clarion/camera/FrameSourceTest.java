@@ -0,0 +1,162 @@
+package com.clarion.camera;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Host-side tests for the {@link FrameSource}s that do not need a webcam.
+ */
+public class FrameSourceTest {
+    private static final int WIDTH = 16;
+    private static final int HEIGHT = 4;
+    private static final int FRAME_BYTES = WIDTH * HEIGHT * 2;
+    // fast enough that the tests do not wait for the pacing
+    private static final int FPS = 1000;
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    @Test
+    public void syntheticFramesMoveAndComeFromThePool() throws Exception {
+        FramePool pool = new FramePool(FRAME_BYTES, 2);
+        SyntheticFrameSource source = new SyntheticFrameSource(WIDTH, HEIGHT, FPS, pool);
+        source.open();
+
+        RawFrame first = source.nextFrame();
+        assertEquals(1, first.getSequence());
+        assertEquals(FRAME_BYTES, first.getData().remaining());
+        byte[] firstBytes = new byte[FRAME_BYTES];
+        first.getData().duplicate().get(firstBytes);
+        first.release();
+
+        RawFrame second = source.nextFrame();
+        assertEquals(2, second.getSequence());
+        byte[] secondBytes = new byte[FRAME_BYTES];
+        second.getData().duplicate().get(secondBytes);
+        assertFalse(Arrays.equals(firstBytes, secondBytes));
+        second.release();
+        assertEquals(2, pool.getFreeCount());
+    }
+
+    @Test
+    public void wakeUpCutsTheWaitForAFrameShort() throws Exception {
+        FramePool pool = new FramePool(FRAME_BYTES, 1);
+        // a frame a second, the capture loop must not wait for it
+        final SyntheticFrameSource source = new SyntheticFrameSource(WIDTH, HEIGHT, 1, pool);
+        source.open();
+        source.nextFrame().release();
+
+        Thread waker = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                source.wakeUp();
+            }
+        });
+        long start = System.nanoTime();
+        waker.start();
+        try {
+            source.nextFrame();
+            fail("not woken");
+        } catch (InterruptedException expected) {
+        }
+        waker.join();
+        assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(500));
+        // nothing taken from the pool for the frame that did not come
+        assertEquals(1, pool.getFreeCount());
+    }
+
+    @Test
+    public void aFailedReadGivesTheFrameBack() throws Exception {
+        FramePool pool = new FramePool(FRAME_BYTES, 1);
+        File file = writeFrames(2, 0);
+        FileReplayFrameSource source = new FileReplayFrameSource(file, WIDTH, HEIGHT, FPS,
+                true, pool);
+        source.open();
+        try {
+            source.nextFrame().release();
+            // cut short under the open source, the loop finds half a frame
+            RandomAccessFile raw = new RandomAccessFile(file, "rw");
+            raw.setLength(FRAME_BYTES / 2);
+            raw.close();
+            try {
+                source.nextFrame();
+                fail("read half a frame");
+            } catch (IOException expected) {
+            }
+            assertEquals(1, pool.getFreeCount());
+        } finally {
+            source.close();
+        }
+    }
+
+    private File writeFrames(int frames, int extraBytes) throws IOException {
+        File file = mFolder.newFile("frames.yuyv");
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            for (int i = 0; i < frames; i++) {
+                byte[] frame = new byte[FRAME_BYTES];
+                Arrays.fill(frame, (byte) i);
+                out.write(frame);
+            }
+            out.write(new byte[extraBytes]);
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+
+    @Test
+    public void replaysFramesInOrderAndLoops() throws Exception {
+        FramePool pool = new FramePool(FRAME_BYTES, 2);
+        FileReplayFrameSource source = new FileReplayFrameSource(writeFrames(3, 7),
+                WIDTH, HEIGHT, FPS, true, pool);
+        source.open();
+        try {
+            for (int i = 0; i < 7; i++) {
+                RawFrame frame = source.nextFrame();
+                assertEquals(FRAME_BYTES, frame.getData().remaining());
+                // the partial frame at the end is skipped
+                assertEquals(i % 3, frame.getData().get(FRAME_BYTES - 1));
+                frame.release();
+            }
+        } finally {
+            source.close();
+        }
+    }
+
+    @Test
+    public void stopsAtTheEndWithoutLooping() throws Exception {
+        FramePool pool = new FramePool(FRAME_BYTES, 1);
+        FileReplayFrameSource source = new FileReplayFrameSource(writeFrames(1, 0),
+                WIDTH, HEIGHT, FPS, false, pool);
+        source.open();
+        try {
+            source.nextFrame().release();
+            try {
+                source.nextFrame();
+                fail("expected the end of the file");
+            } catch (IOException expected) {
+                // the frame went back to the pool
+                assertEquals(1, pool.getFreeCount());
+            }
+        } finally {
+            source.close();
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void refusesAFileWithoutAFullFrame() throws Exception {
+        new FileReplayFrameSource(writeFrames(0, 10), WIDTH, HEIGHT, FPS, true,
+                new FramePool(FRAME_BYTES, 1)).open();
+    }
+}
@@ -0,0 +1,93 @@
+package com.clarion.camera;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Host-side tests for {@link GuideLineGeometry}.
+ */
+public class GuideLineGeometryTest {
+    private static final int WIDTH = 1280;
+    private static final int HEIGHT = 720;
+
+    private static GuideLineGeometry newGeometry() {
+        GuideLineGeometry geometry = new GuideLineGeometry();
+        geometry.setViewport(WIDTH, HEIGHT);
+        return geometry;
+    }
+
+    // x of the far end of the left (side 0) or right (side 1) line
+    private static float farX(GuideLineGeometry geometry, double angle, int side) {
+        int offset = geometry.getOffset(geometry.indexFor(angle))
+                + (side + 1) * GuideLineGeometry.SEGMENTS_PER_LINE * 4 - 2;
+        return geometry.getPoints()[offset];
+    }
+
+    @Test
+    public void straightLinesAreSymmetricAndConverge() {
+        GuideLineGeometry geometry = newGeometry();
+        float[] points = geometry.getPoints();
+        int offset = geometry.getOffset(geometry.indexFor(0));
+        int rightLine = offset + GuideLineGeometry.SEGMENTS_PER_LINE * 4;
+        for (int i = 0; i < GuideLineGeometry.SEGMENTS_PER_LINE * 4; i += 2) {
+            assertEquals(WIDTH - points[offset + i], points[rightLine + i], 1e-2f);
+            assertEquals(points[offset + i + 1], points[rightLine + i + 1], 1e-2f);
+        }
+        // near end at the bottom and wider apart than the far end
+        float nearWidth = points[rightLine] - points[offset];
+        float farWidth = farX(geometry, 0, 1) - farX(geometry, 0, 0);
+        assertTrue(nearWidth > farWidth);
+        assertTrue(points[offset + 1] > points[rightLine - 1]);
+    }
+
+    @Test
+    public void steeringBendsTheFarEndSideways() {
+        GuideLineGeometry geometry = newGeometry();
+        assertTrue(farX(geometry, 200, 0) > farX(geometry, 0, 0));
+        assertTrue(farX(geometry, -200, 1) < farX(geometry, 0, 1));
+        assertEquals(WIDTH - farX(geometry, 300, 0), farX(geometry, -300, 1), 1e-2f);
+        assertTrue(farX(geometry, 400, 0) > farX(geometry, 200, 0));
+    }
+
+    @Test
+    public void segmentsAreContinuous() {
+        GuideLineGeometry geometry = newGeometry();
+        float[] points = geometry.getPoints();
+        for (int index = 0; index < geometry.getAngleCount(); index++) {
+            int offset = geometry.getOffset(index);
+            for (int i = 0; i < GuideLineGeometry.FLOATS_PER_ANGLE; i += 4) {
+                assertFalse(Float.isNaN(points[offset + i]));
+                assertFalse(Float.isNaN(points[offset + i + 1]));
+                if (i % (GuideLineGeometry.SEGMENTS_PER_LINE * 4) != 0) {
+                    assertEquals(points[offset + i - 2], points[offset + i], 0);
+                    assertEquals(points[offset + i - 1], points[offset + i + 1], 0);
+                }
+            }
+            // the far end is always inside the picture
+            float farY = points[offset + GuideLineGeometry.FLOATS_PER_ANGLE - 1];
+            assertTrue(farY >= 0 && farY <= HEIGHT);
+        }
+    }
+
+    @Test
+    public void anglesAreQuantizedAndClamped() {
+        GuideLineGeometry geometry = newGeometry();
+        assertEquals(geometry.indexFor(10), geometry.indexFor(10.3));
+        assertEquals(10, geometry.angleOf(geometry.indexFor(9.7)), 0);
+        assertEquals(0, geometry.indexFor(-10000));
+        assertEquals(geometry.getAngleCount() - 1, geometry.indexFor(10000));
+        assertEquals(-540, geometry.angleOf(0), 0);
+    }
+
+    @Test
+    public void tableIsOnlyRebuiltForANewViewport() {
+        GuideLineGeometry geometry = newGeometry();
+        float[] points = geometry.getPoints();
+        float far = farX(geometry, 0, 1);
+        assertFalse(geometry.setViewport(WIDTH, HEIGHT));
+        assertTrue(geometry.setViewport(WIDTH / 2, HEIGHT / 2));
+        assertSame(points, geometry.getPoints());
+        assertEquals(far / 2, farX(geometry, 0, 1), 1e-2f);
+    }
+}
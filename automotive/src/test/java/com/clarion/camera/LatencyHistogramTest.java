@@ -0,0 +1,118 @@
+package com.clarion.camera;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Host-side tests for {@link LatencyHistogram}.
+ */
+public class LatencyHistogramTest {
+
+    @Test
+    public void bucketsCoverEveryValueWithinA64th() {
+        int previous = -1;
+        for (long value = 0; value < 1L << 20; value += 1 + value / 64) {
+            int bucket = LatencyHistogram.bucketOf(value);
+            assertTrue(bucket >= previous);
+            long upper = LatencyHistogram.upperBoundOf(bucket);
+            assertTrue(value <= upper);
+            assertTrue(value >= LatencyHistogram.lowerBoundOf(bucket));
+            assertTrue("value " + value + " upper " + upper, upper - value <= value / 64);
+            if (bucket > 0) {
+                assertTrue(value > LatencyHistogram.upperBoundOf(bucket - 1));
+            }
+            previous = bucket;
+        }
+        assertEquals(LatencyHistogram.BUCKET_COUNT - 1,
+                LatencyHistogram.bucketOf(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void percentilesOfAUniformDistribution() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        // 1..1000 microseconds
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i * 1000L);
+        }
+        assertEquals(1000, histogram.getCount());
+        assertEquals(1000000L, histogram.getMaxNanos());
+        assertEquals(500500L, histogram.getMeanNanos());
+        assertEquals(500000, histogram.getPercentileNanos(0.5), 500000 / 128);
+        assertEquals(990000, histogram.getPercentileNanos(0.99), 990000 / 128);
+        assertEquals(1000000L, histogram.getPercentileNanos(1));
+
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getPercentileNanos(0.99));
+    }
+
+    @Test
+    public void p99SeesTheSlowTail() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        Random random = new Random(3);
+        for (int i = 0; i < 10000; i++) {
+            // 2% of the frames take 50 ms instead of about 10 ms
+            long nanos = i % 50 == 0 ? 50000000L : 10000000L + random.nextInt(1000000);
+            histogram.record(nanos);
+        }
+        assertTrue(histogram.getPercentileNanos(0.5) < 12000000L);
+        assertEquals(50000000L, histogram.getPercentileNanos(0.99), 50000000L / 128);
+    }
+
+    @Test
+    public void p99OfFrameTimesIsWithinThreePercent() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        Random random = new Random(7);
+        long[] samples = new long[100000];
+        for (int i = 0; i < samples.length; i++) {
+            // 30 fps frames with 2 ms of jitter
+            samples[i] = 33333333L + (long) (random.nextGaussian() * 2000000);
+            histogram.record(samples[i]);
+        }
+        Arrays.sort(samples);
+        long p50 = samples[samples.length / 2 - 1];
+        long p99 = samples[(int) Math.ceil(samples.length * 0.99) - 1];
+        assertEquals(p50, histogram.getPercentileNanos(0.5), p50 * 0.03);
+        assertEquals(p99, histogram.getPercentileNanos(0.99), p99 * 0.03);
+    }
+
+    @Test
+    public void steadyFramesAreNotReportedAsAnOverrun() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < 1000; i++) {
+            histogram.record(33333333L);
+        }
+        // the budget of a 30 fps frame, not the bound of a wide bucket
+        assertEquals(33333333L, histogram.getPercentileNanos(0.5), 33333333L / 128);
+        assertEquals(33333333L, histogram.getPercentileNanos(0.99), 33333333L / 128);
+    }
+
+    @Test
+    public void concurrentRecordingLosesNothing() throws InterruptedException {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        final int perThread = 100000;
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            final long value = (t + 1) * 1000L;
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < perThread; i++) {
+                        histogram.record(value);
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(threads.length * perThread, histogram.getCount());
+        assertEquals(4000L, histogram.getMaxNanos());
+        assertEquals(2500L, histogram.getMeanNanos());
+    }
+}
@@ -0,0 +1,119 @@
+package com.clarion.camera;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Host-side tests for {@link MirrorScaleKernel}.
+ */
+public class MirrorScaleKernelTest {
+    private static final int SOURCE_WIDTH = 640;
+    private static final int SOURCE_HEIGHT = 480;
+
+    // convert, then mirror and scale, as separate steps
+    private static int[] expected(byte[] frame, int width, int height) {
+        int[] converted = new int[SOURCE_WIDTH * SOURCE_HEIGHT];
+        YuyvConverter.convertReference(frame, converted, SOURCE_WIDTH, SOURCE_HEIGHT);
+        int[] result = new int[width * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                // nearest neighbour, columns mirrored
+                int sourceX = SOURCE_WIDTH - 1 - (int) ((long) x * SOURCE_WIDTH / width);
+                int sourceY = (int) ((long) y * SOURCE_HEIGHT / height);
+                result[y * width + x] = converted[sourceY * SOURCE_WIDTH + sourceX];
+            }
+        }
+        return result;
+    }
+
+    private static void assertFused(int width, int height, int threads) {
+        byte[] frame = new byte[SOURCE_WIDTH * SOURCE_HEIGHT * 2];
+        new Random(width * 31 + height).nextBytes(frame);
+        RowStripes stripes = new RowStripes("test", threads);
+        try {
+            MirrorScaleKernel kernel = new MirrorScaleKernel(SOURCE_WIDTH, SOURCE_HEIGHT,
+                    width, height, stripes);
+            int[] actual = new int[width * height];
+            kernel.convert(ByteBuffer.wrap(frame), actual);
+            assertArrayEquals(width + "x" + height, expected(frame, width, height), actual);
+        } finally {
+            stripes.shutdown();
+        }
+    }
+
+    @Test
+    public void mirrorsWithoutScaling() {
+        assertFused(SOURCE_WIDTH, SOURCE_HEIGHT, 1);
+    }
+
+    @Test
+    public void upscalesToDisplayResolution() {
+        assertFused(1280, 720, 4);
+        assertFused(1920, 1080, 3);
+    }
+
+    @Test
+    public void downscales() {
+        assertFused(320, 200, 2);
+    }
+
+    @Test
+    public void firstColumnShowsLastSourceColumn() {
+        byte[] frame = new byte[SOURCE_WIDTH * SOURCE_HEIGHT * 2];
+        // right-most pixel of every row is white, the rest black
+        for (int i = 0; i < frame.length; i += 4) {
+            frame[i] = 16;
+            frame[i + 1] = (byte) 128;
+            frame[i + 2] = (byte) ((i / 4) % (SOURCE_WIDTH / 2) == SOURCE_WIDTH / 2 - 1 ? 235 : 16);
+            frame[i + 3] = (byte) 128;
+        }
+        MirrorScaleKernel kernel = new MirrorScaleKernel(SOURCE_WIDTH, SOURCE_HEIGHT,
+                SOURCE_WIDTH, SOURCE_HEIGHT, new RowStripes("test", 1));
+        int[] argb = new int[SOURCE_WIDTH * SOURCE_HEIGHT];
+        kernel.convert(ByteBuffer.wrap(frame), argb);
+        assertEquals(0xfffefefe, argb[0]);
+        assertEquals(0xff000000, argb[1]);
+        assertEquals(0xff000000, argb[SOURCE_WIDTH - 1]);
+    }
+
+    @Test
+    public void convertsIntoABitmapBufferWithItsStride() {
+        int width = 640;
+        int height = 360;
+        // a half resolution frame in the buffer of a full one
+        int stride = width * 2;
+        byte[] frame = new byte[SOURCE_WIDTH * SOURCE_HEIGHT * 2];
+        new Random(5).nextBytes(frame);
+        RowStripes stripes = new RowStripes("test", 3);
+        try {
+            MirrorScaleKernel kernel = new MirrorScaleKernel(SOURCE_WIDTH, SOURCE_HEIGHT,
+                    width, height, stripes);
+            ByteBuffer bytes = ByteBuffer.allocateDirect(stride * height * 2 * 4)
+                    .order(ByteOrder.nativeOrder());
+            kernel.convert(ByteBuffer.wrap(frame), bytes.asIntBuffer(), stride);
+
+            int[] expected = expected(frame, width, height);
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < width; x++) {
+                    int argb = expected[y * width + x];
+                    // R, G, B, A in memory, like an ARGB_8888 bitmap
+                    int offset = (y * stride + x) * 4;
+                    assertEquals((argb >>> 16) & 0xff, bytes.get(offset) & 0xff);
+                    assertEquals((argb >>> 8) & 0xff, bytes.get(offset + 1) & 0xff);
+                    assertEquals(argb & 0xff, bytes.get(offset + 2) & 0xff);
+                    assertEquals(argb >>> 24, bytes.get(offset + 3) & 0xff);
+                }
+                // the rest of the row is not touched
+                assertEquals(0, bytes.getInt((y * stride + width) * 4));
+            }
+        } finally {
+            stripes.shutdown();
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package com.clarion.camera;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+/**
+ * Host-side tests for {@link OverlayCacheFile}.
+ */
+public class OverlayCacheFileTest {
+    private static final OverlayCacheFile.Key KEY =
+            new OverlayCacheFile.Key(1280, 720, 160, 1500000000000L);
+    private static final long ASSET_CHECKSUM = 0x1234abcdL;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static ByteBuffer pixels(int width, int height) {
+        ByteBuffer pixels = ByteBuffer.allocateDirect(
+                width * height * OverlayCacheFile.BYTES_PER_PIXEL);
+        for (int i = 0; pixels.hasRemaining(); i++) {
+            pixels.put((byte) i);
+        }
+        pixels.flip();
+        return pixels;
+    }
+
+    @Test
+    public void mapsWhatWasWritten() throws Exception {
+        File file = new File(folder.getRoot(), "overlay.pix");
+        ByteBuffer pixels = pixels(17, 9);
+        OverlayCacheFile.write(file, KEY, ASSET_CHECKSUM, 17, 9, pixels);
+        assertEquals(0, pixels.position());
+        assertEquals(OverlayCacheFile.HEADER_BYTES + 17 * 9 * 4, file.length());
+
+        OverlayCacheFile.Pixels loaded = OverlayCacheFile.load(file,
+                new OverlayCacheFile.Key(1280, 720, 160, 1500000000000L));
+        assertNotNull(loaded);
+        assertEquals(17, loaded.width);
+        assertEquals(9, loaded.height);
+        assertEquals(ASSET_CHECKSUM, loaded.assetChecksum);
+        assertEquals(pixels, loaded.data);
+        assertFalse(new File(file.getPath() + ".tmp").exists());
+    }
+
+    @Test
+    public void missesForAnotherDisplayOrInstall() throws Exception {
+        File file = new File(folder.getRoot(), "overlay.pix");
+        assertNull(OverlayCacheFile.load(file, KEY));
+        OverlayCacheFile.write(file, KEY, ASSET_CHECKSUM, 4, 4, pixels(4, 4));
+
+        assertNull(OverlayCacheFile.load(file, new OverlayCacheFile.Key(1920, 720, 160,
+                KEY.packageUpdateTime)));
+        assertNull(OverlayCacheFile.load(file, new OverlayCacheFile.Key(1280, 720, 240,
+                KEY.packageUpdateTime)));
+        assertNull(OverlayCacheFile.load(file, new OverlayCacheFile.Key(1280, 720, 160,
+                KEY.packageUpdateTime + 1)));
+        assertNotNull(OverlayCacheFile.load(file, KEY));
+    }
+
+    @Test
+    public void missesForATruncatedFile() throws Exception {
+        File file = new File(folder.getRoot(), "overlay.pix");
+        OverlayCacheFile.write(file, KEY, ASSET_CHECKSUM, 4, 4, pixels(4, 4));
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(file.length() - 1);
+        }
+        assertNull(OverlayCacheFile.load(file, KEY));
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(10);
+        }
+        assertNull(OverlayCacheFile.load(file, KEY));
+    }
+
+    @Test
+    public void rewritingReplacesTheCache() throws Exception {
+        File file = new File(folder.getRoot(), "overlay.pix");
+        OverlayCacheFile.write(file, KEY, ASSET_CHECKSUM, 4, 4, pixels(4, 4));
+        OverlayCacheFile.Key rotated = new OverlayCacheFile.Key(720, 1280, 160,
+                KEY.packageUpdateTime);
+        OverlayCacheFile.write(file, rotated, ASSET_CHECKSUM, 2, 8, pixels(2, 8));
+        assertNull(OverlayCacheFile.load(file, KEY));
+        assertEquals(8, OverlayCacheFile.load(file, rotated).height);
+    }
+
+    @Test
+    public void checksumFollowsTheAssetBytes() throws Exception {
+        long checksum = OverlayCacheFile.checksum(
+                new ByteArrayInputStream(new byte[] {1, 2, 3}));
+        assertEquals(checksum, OverlayCacheFile.checksum(
+                new ByteArrayInputStream(new byte[] {1, 2, 3})));
+        assertNotEquals(checksum, OverlayCacheFile.checksum(
+                new ByteArrayInputStream(new byte[] {1, 2, 4})));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsPixelsOfTheWrongSize() throws Exception {
+        OverlayCacheFile.write(new File(folder.getRoot(), "overlay.pix"), KEY,
+                ASSET_CHECKSUM, 4, 4, pixels(4, 3));
+    }
+}
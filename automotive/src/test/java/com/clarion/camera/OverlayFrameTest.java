@@ -0,0 +1,119 @@
+package com.clarion.camera;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Host-side tests for {@link OverlayFrame}, the Canvas-free part of drawing
+ * the overlay of a frame.
+ */
+public class OverlayFrameTest {
+    private static final int SCREEN_WIDTH = 1280;
+    private static final int SCREEN_HEIGHT = 720;
+    private static final int OVERLAY_WIDTH = RenderTransformCache.overlayTargetWidth(SCREEN_WIDTH);
+    private static final int OVERLAY_HEIGHT =
+            RenderTransformCache.overlayTargetHeight(SCREEN_HEIGHT);
+    private static final long FRAME_NANOS = 33333333L;
+    private static final long LATENCY_NANOS = 50000000L;
+    private static final int FRAMES = 100000;
+
+    private static int prepare(OverlayFrame frame, long now, int level) {
+        return frame.prepare(now, LATENCY_NANOS, level, SCREEN_WIDTH, SCREEN_HEIGHT,
+                OVERLAY_WIDTH, OVERLAY_HEIGHT);
+    }
+
+    @Test
+    public void drawsTheBucketOfTheSteeringAngle() {
+        VehicleManager vehicleManager = new VehicleManager();
+        OverlayFrame frame = new OverlayFrame(vehicleManager);
+        long now = 1000000000L;
+        vehicleManager.setSteeringAngle(120, now);
+
+        int bucket = prepare(frame, now, QualityGovernor.LEVEL_FULL);
+        GuideLineGeometry guideLines = frame.getGuideLines();
+        assertEquals(guideLines.indexFor(vehicleManager.predictSteeringAngle(
+                snapshot(vehicleManager), now)), bucket);
+        assertNotNull(guideLines.getPoints());
+        assertTrue(frame.transformsChanged());
+        assertEquals(LATENCY_NANOS, vehicleManager.getPipelineLatencyNanos());
+
+        // nothing changed, the Matrix and Paints stay as they are
+        assertEquals(bucket, prepare(frame, now, QualityGovernor.LEVEL_FULL));
+        assertFalse(frame.transformsChanged());
+    }
+
+    @Test
+    public void staticOverlayUnderLoad() {
+        VehicleManager vehicleManager = new VehicleManager();
+        OverlayFrame frame = new OverlayFrame(vehicleManager);
+        long now = 1000000000L;
+        vehicleManager.setSteeringAngle(300, now);
+        prepare(frame, now, QualityGovernor.LEVEL_FULL);
+
+        assertEquals(OverlayFrame.STATIC_OVERLAY,
+                prepare(frame, now, QualityGovernor.LEVEL_STATIC_OVERLAY));
+        assertTrue(frame.transformsChanged());
+        // the straight overlay at full alpha
+        assertEquals(255, frame.getTransforms().getOverlayAlpha());
+    }
+
+    @Test
+    public void framesDoNotAllocate() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threadBean =
+                (com.sun.management.ThreadMXBean) bean;
+        assumeTrue(threadBean.isThreadAllocatedMemorySupported());
+        threadBean.setThreadAllocatedMemoryEnabled(true);
+
+        VehicleManager vehicleManager = new VehicleManager();
+        OverlayFrame frame = new OverlayFrame(vehicleManager);
+        long threadId = Thread.currentThread().getId();
+        // warm up so that class loading and JIT do not show up as allocations
+        long now = 0;
+        for (int i = 0; i < 20000; i++) {
+            now += FRAME_NANOS;
+            drive(vehicleManager, frame, i, now);
+        }
+
+        long before = threadBean.getThreadAllocatedBytes(threadId);
+        int rebuilds = 0;
+        for (int i = 0; i < FRAMES; i++) {
+            now += FRAME_NANOS;
+            if (drive(vehicleManager, frame, i, now)) {
+                rebuilds++;
+            }
+        }
+        long allocated = threadBean.getThreadAllocatedBytes(threadId) - before;
+
+        // the wheel turns, so buckets and transforms change along the way
+        assertTrue(rebuilds > 0);
+        // the counter itself may report a few bytes of bookkeeping, but a
+        // single object per frame would add up to at least 16 bytes per frame
+        assertTrue("bytes allocated by " + FRAMES + " frames: " + allocated,
+                allocated < FRAMES);
+    }
+
+    // a steering sample every third frame, a full quality frame every frame
+    // and a static overlay one now and then; true if the transforms changed
+    private static boolean drive(VehicleManager vehicleManager, OverlayFrame frame, int i,
+                                 long now) {
+        if (i % 3 == 0) {
+            vehicleManager.setSteeringAngle((i / 3) % 1000 - 500, now);
+        }
+        int level = i % 500 == 0 ? QualityGovernor.LEVEL_STATIC_OVERLAY
+                : QualityGovernor.LEVEL_FULL;
+        prepare(frame, now, level);
+        return frame.transformsChanged();
+    }
+
+    private static VehicleManager.VehicleState snapshot(VehicleManager vehicleManager) {
+        VehicleManager.VehicleState state = new VehicleManager.VehicleState();
+        vehicleManager.readSnapshot(state);
+        return state;
+    }
+}
@@ -0,0 +1,45 @@
+package com.clarion.camera;
+
+import org.junit.Test;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+import static org.junit.Assert.*;
+
+/**
+ * Host-side tests for {@link PipelineLatency}.
+ */
+public class PipelineLatencyTest {
+    private static final long MS = 1000000L;
+
+    @Test
+    public void splitsAFrameIntoStages() {
+        PipelineLatency latency = new PipelineLatency();
+        latency.recordCapture(100 * MS, 102 * MS, 106 * MS);
+        latency.recordRender(100 * MS, 106 * MS, 110 * MS, 113 * MS, 114 * MS);
+        // an overlay-only redraw has no capture time
+        latency.recordRender(0, 0, 200 * MS, 203 * MS, 204 * MS);
+
+        assertEquals(2 * MS, latency.getHistogram(PipelineLatency.STAGE_CAPTURE).getMaxNanos());
+        assertEquals(4 * MS, latency.getHistogram(PipelineLatency.STAGE_CONVERT).getMaxNanos());
+        assertEquals(4 * MS, latency.getHistogram(PipelineLatency.STAGE_QUEUE).getMaxNanos());
+        assertEquals(2, latency.getHistogram(PipelineLatency.STAGE_COMPOSE).getCount());
+        assertEquals(2, latency.getHistogram(PipelineLatency.STAGE_POST).getCount());
+        assertEquals(1, latency.getHistogram(PipelineLatency.STAGE_TOTAL).getCount());
+        assertEquals(14 * MS, latency.getHistogram(PipelineLatency.STAGE_TOTAL).getMaxNanos());
+    }
+
+    @Test
+    public void dumpsOneLinePerStage() {
+        PipelineLatency latency = new PipelineLatency();
+        latency.recordCapture(0, MS, 2 * MS);
+        StringWriter out = new StringWriter();
+        latency.dump(new PrintWriter(out));
+        String[] lines = out.toString().trim().split("\n");
+        assertEquals(1 + PipelineLatency.STAGE_COUNT, lines.length);
+        assertTrue(lines[0].contains("p99"));
+        assertTrue(lines[1].startsWith("capture"));
+        assertTrue(lines[PipelineLatency.STAGE_COUNT].startsWith("total"));
+    }
+}
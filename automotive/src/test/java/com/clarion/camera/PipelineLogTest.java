@@ -0,0 +1,168 @@
+package com.clarion.camera;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+/**
+ * Host-side tests for {@link PipelineLog} and {@link PipelineLogPlayer}.
+ */
+public class PipelineLogTest {
+    private static final int WIDTH = 32;
+    private static final int HEIGHT = 8;
+    private static final int FRAME_BYTES = WIDTH * HEIGHT * 2;
+    private static final long MS = 1000000L;
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private static ByteBuffer frame(int fill) {
+        ByteBuffer frame = ByteBuffer.allocateDirect(FRAME_BYTES);
+        for (int i = 0; i < FRAME_BYTES; i++) {
+            frame.put(i, (byte) (fill + i));
+        }
+        return frame;
+    }
+
+    // gear, frame 0, speed, steering, frame 1, 10 ms apart
+    private File writeSession() throws IOException {
+        File file = mFolder.newFile("session.clog");
+        PipelineLog.Writer writer = new PipelineLog.Writer(file, WIDTH, HEIGHT);
+        long start = 5000 * MS;
+        writer.writeGearPos(2, start);
+        writer.writeFrame(frame(0), start + 10 * MS);
+        writer.writeSpeed(1.5f, start + 20 * MS);
+        writer.writeSteeringAngle(-90f, start + 30 * MS);
+        writer.writeFrame(frame(1), start + 40 * MS);
+        assertEquals(2, writer.getFrameCount());
+        assertEquals(3, writer.getSampleCount());
+        writer.close();
+        assertEquals(writer.getBytesWritten(), file.length());
+        return file;
+    }
+
+    @Test
+    public void readsBackWhatWasWritten() throws IOException {
+        PipelineLog.Reader reader = new PipelineLog.Reader(writeSession());
+        try {
+            assertEquals(WIDTH, reader.getWidth());
+            assertEquals(HEIGHT, reader.getHeight());
+
+            assertTrue(reader.next());
+            assertEquals(PipelineLog.TYPE_GEAR, reader.getType());
+            assertEquals(0, reader.getTimestampNanos());
+            assertEquals(2, reader.getGearPos());
+
+            assertTrue(reader.next());
+            assertEquals(PipelineLog.TYPE_FRAME, reader.getType());
+            assertEquals(10 * MS, reader.getTimestampNanos());
+            ByteBuffer copy = ByteBuffer.allocate(FRAME_BYTES);
+            reader.readFrame(copy);
+            copy.flip();
+            assertEquals(frame(0), copy);
+
+            assertTrue(reader.next());
+            assertEquals(PipelineLog.TYPE_SPEED, reader.getType());
+            assertEquals(1.5f, reader.getFloatValue(), 0);
+            assertTrue(reader.next());
+            assertEquals(PipelineLog.TYPE_STEERING, reader.getType());
+            assertEquals(-90f, reader.getFloatValue(), 0);
+            assertTrue(reader.next());
+            assertEquals(40 * MS, reader.getTimestampNanos());
+            assertFalse(reader.next());
+
+            reader.rewind();
+            assertTrue(reader.next());
+            assertEquals(PipelineLog.TYPE_GEAR, reader.getType());
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Test
+    public void aTruncatedLogEndsAtTheLastCompleteRecord() throws IOException {
+        File file = writeSession();
+        RandomAccessFile raw = new RandomAccessFile(file, "rw");
+        raw.setLength(file.length() - 100);
+        raw.close();
+
+        PipelineLog.Reader reader = new PipelineLog.Reader(file);
+        try {
+            int records = 0;
+            while (reader.next()) {
+                records++;
+            }
+            assertEquals(4, records);
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsOtherFiles() throws IOException {
+        File file = mFolder.newFile("other");
+        RandomAccessFile raw = new RandomAccessFile(file, "rw");
+        raw.write(new byte[64]);
+        raw.close();
+        new PipelineLog.Reader(file);
+    }
+
+    @Test
+    public void playerFeedsFramesAndSamplesInOrder() throws Exception {
+        SensorEventStore store = new SensorEventStore();
+        SensorEventStore.Reader sensors = store.newReader(null);
+        FramePool pool = new FramePool(FRAME_BYTES, 2);
+        PipelineLogPlayer player = new PipelineLogPlayer(writeSession(), pool, store,
+                false, true);
+        assertEquals(WIDTH, player.getWidth());
+        player.open();
+        try {
+            RawFrame first = player.nextFrame();
+            assertEquals(frame(0), first.getData());
+            first.release();
+            assertEquals(1 << SensorEventStore.SLOT_GEAR, store.poll(sensors));
+            assertEquals(2, sensors.getGearPos());
+
+            RawFrame second = player.nextFrame();
+            assertEquals(frame(1), second.getData());
+            second.release();
+            assertEquals((1 << SensorEventStore.SLOT_SPEED)
+                    | (1 << SensorEventStore.SLOT_STEERING), store.poll(sensors));
+            assertEquals(-90f, sensors.getSteeringAngle(), 0);
+
+            // loops back to the start
+            player.nextFrame().release();
+            assertEquals(1, player.getLoopCount());
+        } finally {
+            player.close();
+        }
+    }
+
+    @Test
+    public void realTimeReplayKeepsTheRecordedPace() throws Exception {
+        FramePool pool = new FramePool(FRAME_BYTES, 2);
+        PipelineLogPlayer player = new PipelineLogPlayer(writeSession(), pool,
+                new SensorEventStore(), true, false);
+        player.open();
+        try {
+            long start = System.nanoTime();
+            RawFrame frame = player.nextFrame();
+            long first = frame.getTimestampNanos();
+            frame.release();
+            frame = player.nextFrame();
+            long second = frame.getTimestampNanos();
+            frame.release();
+            assertEquals(30 * MS, second - first);
+            assertTrue(System.nanoTime() - start >= 35 * MS);
+        } finally {
+            player.close();
+        }
+    }
+}
@@ -0,0 +1,283 @@
+package com.clarion.camera;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Host-side tests for {@link PipelineLoop}. The test decides when an
+ * iteration ends, so the transitions are checked by what the loop did, not
+ * by how long it took.
+ */
+public class PipelineLoopTest {
+    private static final long FRAME_NANOS = TimeUnit.MILLISECONDS.toNanos(33);
+    private static final long TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(5);
+    // how long a parked loop is watched for iterations it must not run
+    private static final long PARKED_MILLIS = 100;
+
+    /**
+     * Blocks every "frame" until it gets a permit. The waker hands one out,
+     * like a camera delivering the frame the loop is waiting for.
+     */
+    private static class SteppedBody implements PipelineLoop.Body {
+        final Semaphore started = new Semaphore(0);
+        final Semaphore permits = new Semaphore(0);
+        final AtomicInteger frames = new AtomicInteger();
+        volatile Thread thread;
+
+        final Runnable waker = new Runnable() {
+            @Override
+            public void run() {
+                permits.release();
+            }
+        };
+
+        @Override
+        public boolean runOnce() throws InterruptedException {
+            thread = Thread.currentThread();
+            started.release();
+            permits.acquire();
+            frames.incrementAndGet();
+            return true;
+        }
+
+        void awaitStarted() throws InterruptedException {
+            assertTrue("no frame started", started.tryAcquire(5, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    public void resumeStartsTheLoop() throws Exception {
+        SteppedBody body = new SteppedBody();
+        PipelineLoop loop = new PipelineLoop("test", body, body.waker);
+        assertEquals(PipelineLoop.STATE_STOPPED, loop.getState());
+
+        loop.resume();
+        body.awaitStarted();
+        assertEquals(PipelineLoop.STATE_RUNNING, loop.getState());
+
+        // runs frame after frame
+        body.permits.release();
+        body.awaitStarted();
+        assertEquals(1, body.frames.get());
+        assertTrue(loop.stop(TIMEOUT_NANOS));
+    }
+
+    @Test
+    public void pauseFinishesTheCurrentFrameAndKeepsTheThread() throws Exception {
+        SteppedBody body = new SteppedBody();
+        PipelineLoop loop = new PipelineLoop("test", body, body.waker);
+        loop.resume();
+        body.awaitStarted();
+
+        assertTrue(loop.pause(TIMEOUT_NANOS));
+        assertEquals(PipelineLoop.STATE_PAUSED, loop.getState());
+        assertEquals(1, body.frames.get());
+        Thread thread = body.thread;
+        assertTrue(thread.isAlive());
+
+        // parked: no more frames
+        assertFalse(body.started.tryAcquire(PARKED_MILLIS, TimeUnit.MILLISECONDS));
+
+        // resuming is a notify on the same thread
+        loop.resume();
+        body.awaitStarted();
+        assertSame(thread, body.thread);
+        assertEquals(PipelineLoop.STATE_RUNNING, loop.getState());
+        assertTrue(loop.stop(TIMEOUT_NANOS));
+        assertEquals(2, body.frames.get());
+    }
+
+    @Test
+    public void stopFinishesTheCurrentFrameAndJoins() throws Exception {
+        SteppedBody body = new SteppedBody();
+        PipelineLoop loop = new PipelineLoop("test", body, body.waker);
+        loop.resume();
+        body.awaitStarted();
+
+        assertTrue(loop.stop(TIMEOUT_NANOS));
+        assertEquals(PipelineLoop.STATE_STOPPED, loop.getState());
+        assertEquals(1, body.frames.get());
+        assertFalse(body.thread.isAlive());
+    }
+
+    @Test
+    public void stopEndsAPausedLoop() throws Exception {
+        SteppedBody body = new SteppedBody();
+        PipelineLoop loop = new PipelineLoop("test", body, body.waker);
+        loop.resume();
+        body.awaitStarted();
+        assertTrue(loop.pause(TIMEOUT_NANOS));
+
+        assertTrue(loop.stop(TIMEOUT_NANOS));
+        assertEquals(PipelineLoop.STATE_STOPPED, loop.getState());
+        assertFalse(body.thread.isAlive());
+        // the paused loop had no frame to be woken from
+        body.permits.drainPermits();
+
+        // and can start again on a new thread
+        Thread previous = body.thread;
+        loop.resume();
+        body.awaitStarted();
+        assertNotSame(previous, body.thread);
+        assertTrue(loop.stop(TIMEOUT_NANOS));
+    }
+
+    @Test
+    public void wakerUnblocksAWaitingRenderLoop() throws Exception {
+        final FrameScheduler scheduler = new FrameScheduler(30);
+        final Semaphore rendered = new Semaphore(0);
+        PipelineLoop loop = new PipelineLoop("render", new PipelineLoop.Body() {
+            @Override
+            public boolean runOnce() throws InterruptedException {
+                if (scheduler.awaitRender()) {
+                    rendered.release();
+                }
+                return true;
+            }
+        }, new Runnable() {
+            @Override
+            public void run() {
+                scheduler.stop();
+            }
+        });
+        loop.resume();
+        scheduler.onFrameAvailable();
+        assertTrue(rendered.tryAcquire(5, TimeUnit.SECONDS));
+
+        // blocked in awaitRender with nothing to draw, which only the waker ends
+        assertTrue(loop.pause(TIMEOUT_NANOS));
+        assertEquals(PipelineLoop.STATE_PAUSED, loop.getState());
+
+        scheduler.start();
+        loop.resume();
+        scheduler.onFrameAvailable();
+        assertTrue(rendered.tryAcquire(5, TimeUnit.SECONDS));
+
+        assertTrue(loop.stop(TIMEOUT_NANOS));
+        assertEquals(PipelineLoop.STATE_STOPPED, loop.getState());
+    }
+
+    @Test
+    public void aFailingBodyEndsTheLoop() throws Exception {
+        final AtomicInteger runs = new AtomicInteger();
+        final CountDownLatch ran = new CountDownLatch(1);
+        PipelineLoop loop = new PipelineLoop("failing", new PipelineLoop.Body() {
+            @Override
+            public boolean runOnce() {
+                runs.incrementAndGet();
+                ran.countDown();
+                return false;
+            }
+        }, null);
+        loop.resume();
+        assertTrue(ran.await(5, TimeUnit.SECONDS));
+
+        // the loop was running and ends on its own, without a stop
+        long deadline = System.nanoTime() + TIMEOUT_NANOS;
+        while (loop.getState() != PipelineLoop.STATE_STOPPED) {
+            assertTrue("loop still " + loop, System.nanoTime() < deadline);
+            Thread.sleep(1);
+        }
+        assertEquals(1, runs.get());
+
+        // a later resume starts it again
+        loop.resume();
+        deadline = System.nanoTime() + TIMEOUT_NANOS;
+        while (runs.get() < 2) {
+            assertTrue("not restarted", System.nanoTime() < deadline);
+            Thread.sleep(1);
+        }
+        assertTrue(loop.stop(TIMEOUT_NANOS));
+    }
+
+    @Test
+    public void pauseTimesOutOnABlockedIteration() throws Exception {
+        final CountDownLatch entered = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        PipelineLoop loop = new PipelineLoop("blocked", new PipelineLoop.Body() {
+            @Override
+            public boolean runOnce() throws InterruptedException {
+                entered.countDown();
+                release.await();
+                return true;
+            }
+        }, null);
+        loop.resume();
+        assertTrue(entered.await(5, TimeUnit.SECONDS));
+        assertFalse(loop.pause(FRAME_NANOS));
+        // not acknowledged, so still inside the iteration
+        assertEquals(PipelineLoop.STATE_RUNNING, loop.getState());
+        release.countDown();
+        assertTrue(loop.pause(TIMEOUT_NANOS));
+        assertTrue(loop.stop(TIMEOUT_NANOS));
+    }
+
+    @Test
+    public void listenerHearsALoopThatParkedAfterATimeout() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch idle = new CountDownLatch(1);
+        final CountDownLatch entered = new CountDownLatch(1);
+        final AtomicInteger idleState = new AtomicInteger(-1);
+        PipelineLoop loop = new PipelineLoop("late", new PipelineLoop.Body() {
+            @Override
+            public boolean runOnce() throws InterruptedException {
+                entered.countDown();
+                release.await();
+                return true;
+            }
+        }, null);
+        loop.setListener(new PipelineLoop.Listener() {
+            @Override
+            public void onIdle(PipelineLoop loop) {
+                // the stop below is heard as well
+                idleState.compareAndSet(-1, loop.getState());
+                idle.countDown();
+            }
+        });
+        loop.resume();
+        assertTrue(entered.await(5, TimeUnit.SECONDS));
+        assertFalse(loop.pause(FRAME_NANOS));
+        assertEquals(1, idle.getCount());
+
+        release.countDown();
+        assertTrue("not told when the loop parked", idle.await(5, TimeUnit.SECONDS));
+        assertEquals(PipelineLoop.STATE_PAUSED, idleState.get());
+        assertTrue(loop.stop(TIMEOUT_NANOS));
+    }
+
+    @Test
+    public void aWokenBodyParksInsteadOfEnding() throws Exception {
+        final WakeableSleep sleep = new WakeableSleep();
+        final AtomicInteger frames = new AtomicInteger();
+        final CountDownLatch entered = new CountDownLatch(1);
+        PipelineLoop loop = new PipelineLoop("woken", new PipelineLoop.Body() {
+            @Override
+            public boolean runOnce() throws InterruptedException {
+                entered.countDown();
+                // a camera that has stopped delivering
+                sleep.until(System.nanoTime() + TimeUnit.MINUTES.toNanos(1));
+                frames.incrementAndGet();
+                return true;
+            }
+        }, new Runnable() {
+            @Override
+            public void run() {
+                sleep.wakeUp();
+            }
+        });
+        loop.resume();
+        assertTrue(entered.await(5, TimeUnit.SECONDS));
+
+        assertTrue(loop.pause(TIMEOUT_NANOS));
+        assertEquals(PipelineLoop.STATE_PAUSED, loop.getState());
+        assertEquals(0, frames.get());
+        assertTrue(loop.stop(TIMEOUT_NANOS));
+        assertEquals(PipelineLoop.STATE_STOPPED, loop.getState());
+    }
+}
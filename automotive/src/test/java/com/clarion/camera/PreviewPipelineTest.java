@@ -0,0 +1,131 @@
+package com.clarion.camera;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Host-side tests for {@link PreviewPipeline}, with a synthetic camera and
+ * int arrays as display frames.
+ */
+public class PreviewPipelineTest {
+    private static final int CAMERA_WIDTH = 64;
+    private static final int CAMERA_HEIGHT = 48;
+    private static final int WIDTH = 128;
+    private static final int HEIGHT = 96;
+    private static final int FPS = 200;
+    private static final long TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(5);
+
+    private static class RecordingHost implements PreviewPipeline.Host<int[]> {
+        final AtomicInteger rawFrames = new AtomicInteger();
+        final AtomicInteger filled = new AtomicInteger();
+        final CountDownLatch posted = new CountDownLatch(5);
+        final CountDownLatch halfDrawn = new CountDownLatch(1);
+        volatile IOException failure;
+
+        @Override
+        public void onRawFrame(RawFrame raw) {
+            assertEquals(CAMERA_WIDTH * CAMERA_HEIGHT * 2, raw.getData().remaining());
+            rawFrames.incrementAndGet();
+        }
+
+        @Override
+        public void fillFrame(int[] frame, IntBuffer pixels, int width, int height) {
+            assertEquals(WIDTH * HEIGHT, pixels.capacity());
+            pixels.rewind();
+            pixels.get(frame);
+            filled.incrementAndGet();
+        }
+
+        @Override
+        public void onSourceFailed(IOException e) {
+            failure = e;
+        }
+
+        @Override
+        public boolean lockSurface() {
+            return true;
+        }
+
+        @Override
+        public void drawFrame(int[] frame, int width, int height, boolean stale) {
+            if (!stale && width == WIDTH / 2 && height == HEIGHT / 2) {
+                halfDrawn.countDown();
+            }
+        }
+
+        @Override
+        public void postSurface() {
+        }
+
+        @Override
+        public void onFramePosted(long capturedNanos, long postedNanos) {
+            assertTrue(capturedNanos <= postedNanos);
+            posted.countDown();
+        }
+    }
+
+    private static PreviewPipeline<int[]> newPipeline(RecordingHost host) throws IOException {
+        FramePool pool = new FramePool(CAMERA_WIDTH * CAMERA_HEIGHT * 2, 3);
+        FrameSource source = new SyntheticFrameSource(CAMERA_WIDTH, CAMERA_HEIGHT, FPS, pool);
+        source.open();
+        PreviewPipeline<int[]> pipeline = new PreviewPipeline<>(source, host);
+        pipeline.setFrames(new int[WIDTH * HEIGHT], new int[WIDTH * HEIGHT],
+                new int[WIDTH * HEIGHT], ByteBuffer.allocateDirect(WIDTH * HEIGHT * 4)
+                        .order(ByteOrder.nativeOrder()).asIntBuffer(), WIDTH, HEIGHT);
+        return pipeline;
+    }
+
+    @Test
+    public void framesFlowFromTheSourceToTheSurface() throws Exception {
+        RecordingHost host = new RecordingHost();
+        PreviewPipeline<int[]> pipeline = newPipeline(host);
+        assertTrue(pipeline.framesMatch(WIDTH, HEIGHT));
+        assertFalse(pipeline.framesMatch(WIDTH, HEIGHT / 2));
+
+        pipeline.start(true);
+        assertTrue(pipeline.isStarted());
+        assertTrue("no frames posted", host.posted.await(5, TimeUnit.SECONDS));
+        assertTrue(pipeline.pause(TIMEOUT_NANOS));
+        assertTrue(pipeline.loopsIdle());
+        assertFalse(pipeline.isStarted());
+        assertTrue(host.rawFrames.get() >= 5);
+        assertEquals(host.rawFrames.get(), host.filled.get());
+        assertEquals(QualityGovernor.LEVEL_FULL, pipeline.getQualityLevel());
+
+        assertTrue(pipeline.stop(TIMEOUT_NANOS));
+        assertTrue(pipeline.loopsIdle());
+        assertNull(host.failure);
+        pipeline.getFrameSource().close();
+        pipeline.shutdown();
+        assertFalse(pipeline.hasFrames());
+    }
+
+    @Test
+    public void framesOverTheBudgetAreConvertedAtHalfResolution() throws Exception {
+        RecordingHost host = new RecordingHost();
+        PreviewPipeline<int[]> pipeline = newPipeline(host);
+        // every frame overruns
+        pipeline.setFrameBudgetNanos(1);
+        pipeline.start(true);
+        assertTrue("no half resolution frame", host.halfDrawn.await(5, TimeUnit.SECONDS));
+        assertTrue(pipeline.getQualityLevel() >= QualityGovernor.LEVEL_HALF_RESOLUTION);
+        assertTrue(pipeline.stop(TIMEOUT_NANOS));
+
+        // a restart is judged afresh
+        pipeline.setFrameBudgetNanos(QualityGovernor.DEFAULT_BUDGET_NANOS);
+        pipeline.start(true);
+        assertEquals(QualityGovernor.LEVEL_FULL, pipeline.getQualityLevel());
+        assertTrue(pipeline.stop(TIMEOUT_NANOS));
+        pipeline.getFrameSource().close();
+        pipeline.shutdown();
+    }
+}
@@ -0,0 +1,129 @@
+package com.clarion.camera;
+
+import org.junit.Test;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+import static org.junit.Assert.*;
+
+/**
+ * Host-side tests for {@link QualityGovernor}.
+ */
+public class QualityGovernorTest {
+    private static final long MS = 1000000L;
+    private static final long BUDGET = 20 * MS;
+
+    private long mNow = 0;
+
+    private int feed(QualityGovernor governor, long frameNanos, int frames) {
+        int level = governor.getLevel();
+        for (int i = 0; i < frames; i++) {
+            mNow += 33 * MS;
+            level = governor.onFrame(frameNanos, mNow);
+        }
+        return level;
+    }
+
+    @Test
+    public void staysAtFullQualityWithinBudget() {
+        QualityGovernor governor = new QualityGovernor(BUDGET);
+        assertEquals(QualityGovernor.LEVEL_FULL, feed(governor, 15 * MS, 1000));
+        assertEquals(0, governor.getDowngrades());
+        assertEquals(1000, governor.getFramesAtLevel(QualityGovernor.LEVEL_FULL));
+    }
+
+    @Test
+    public void stepsDownInOrderWhileOverrunning() {
+        QualityGovernor governor = new QualityGovernor(BUDGET);
+        assertEquals(QualityGovernor.LEVEL_FULL,
+                feed(governor, 30 * MS, QualityGovernor.DOWNGRADE_FRAMES - 1));
+        assertEquals(QualityGovernor.LEVEL_HALF_RESOLUTION, feed(governor, 30 * MS, 1));
+        assertEquals(QualityGovernor.LEVEL_STATIC_OVERLAY,
+                feed(governor, 30 * MS, QualityGovernor.DOWNGRADE_FRAMES));
+        assertEquals(QualityGovernor.LEVEL_LOW_RATE,
+                feed(governor, 30 * MS, QualityGovernor.DOWNGRADE_FRAMES));
+        // nothing below the lowest level
+        assertEquals(QualityGovernor.LEVEL_LOW_RATE, feed(governor, 30 * MS, 100));
+        assertEquals(3, governor.getDowngrades());
+    }
+
+    @Test
+    public void overlappingConvertAndRenderWithinBudgetKeepFullQuality() {
+        QualityGovernor governor = new QualityGovernor(BUDGET);
+        // 15 + 10 ms would be over the budget if the threads ran one after the other
+        for (int i = 0; i < 1000; i++) {
+            mNow += 33 * MS;
+            assertEquals(QualityGovernor.LEVEL_FULL, governor.onFrame(10 * MS, 15 * MS, mNow));
+        }
+        assertEquals(0, governor.getDowngrades());
+    }
+
+    @Test
+    public void eitherThreadOverrunningStepsDown() {
+        QualityGovernor render = new QualityGovernor(BUDGET);
+        QualityGovernor convert = new QualityGovernor(BUDGET);
+        for (int i = 0; i < QualityGovernor.DOWNGRADE_FRAMES; i++) {
+            mNow += 33 * MS;
+            render.onFrame(30 * MS, 5 * MS, mNow);
+            convert.onFrame(5 * MS, 30 * MS, mNow);
+        }
+        assertEquals(QualityGovernor.LEVEL_HALF_RESOLUTION, render.getLevel());
+        assertEquals(QualityGovernor.LEVEL_HALF_RESOLUTION, convert.getLevel());
+    }
+
+    @Test
+    public void singleSpikesDoNotStepDown() {
+        QualityGovernor governor = new QualityGovernor(BUDGET);
+        for (int i = 0; i < 100; i++) {
+            feed(governor, 10 * MS, 9);
+            feed(governor, 60 * MS, 1);
+        }
+        assertEquals(QualityGovernor.LEVEL_FULL, governor.getLevel());
+    }
+
+    @Test
+    public void stepsUpOnlyAfterALongRunWellUnderBudget() {
+        QualityGovernor governor = new QualityGovernor(BUDGET);
+        feed(governor, 30 * MS, QualityGovernor.DOWNGRADE_FRAMES);
+        assertEquals(QualityGovernor.LEVEL_HALF_RESOLUTION, governor.getLevel());
+
+        // just under the budget is not enough headroom
+        assertEquals(QualityGovernor.LEVEL_HALF_RESOLUTION, feed(governor, 18 * MS, 1000));
+
+        assertEquals(QualityGovernor.LEVEL_HALF_RESOLUTION,
+                feed(governor, 5 * MS, QualityGovernor.UPGRADE_FRAMES / 2));
+        // the smoothed frame time needs a few frames to drop under the threshold
+        assertEquals(QualityGovernor.LEVEL_FULL,
+                feed(governor, 5 * MS, QualityGovernor.UPGRADE_FRAMES / 2 + 5));
+        assertEquals(1, governor.getUpgrades());
+    }
+
+    @Test
+    public void notifiesAndRecordsChanges() {
+        QualityGovernor governor = new QualityGovernor(BUDGET);
+        final int[] changes = new int[2];
+        governor.setListener(new QualityGovernor.Listener() {
+            @Override
+            public void onQualityChanged(int oldLevel, int newLevel) {
+                changes[0] = oldLevel;
+                changes[1] = newLevel;
+            }
+        });
+        feed(governor, 30 * MS, QualityGovernor.DOWNGRADE_FRAMES);
+        assertEquals(QualityGovernor.LEVEL_FULL, changes[0]);
+        assertEquals(QualityGovernor.LEVEL_HALF_RESOLUTION, changes[1]);
+
+        StringWriter out = new StringWriter();
+        governor.dump(new PrintWriter(out));
+        assertTrue(out.toString(), out.toString().contains("-> half-resolution (frame 30.0 ms)"));
+
+        governor.reset();
+        assertEquals(QualityGovernor.LEVEL_FULL, governor.getLevel());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsEmptyBudget() {
+        new QualityGovernor(0);
+    }
+}
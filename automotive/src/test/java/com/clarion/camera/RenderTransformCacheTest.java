@@ -0,0 +1,108 @@
+package com.clarion.camera;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Host-side tests for {@link RenderTransformCache}.
+ */
+public class RenderTransformCacheTest {
+    private static final int SCREEN_WIDTH = 1280;
+    private static final int SCREEN_HEIGHT = 720;
+    private static final int OVERLAY_WIDTH = 800;
+    private static final int OVERLAY_HEIGHT = 400;
+    private static final int FRAMES = 100000;
+
+    private boolean update(RenderTransformCache cache, double angle) {
+        return cache.update(angle, SCREEN_WIDTH, SCREEN_HEIGHT,
+                OVERLAY_WIDTH, OVERLAY_HEIGHT);
+    }
+
+    @Test
+    public void rebuildsOnlyWhenInputsChange() {
+        RenderTransformCache cache = new RenderTransformCache();
+        assertTrue(update(cache, 0));
+        assertFalse(update(cache, 0));
+        assertTrue(update(cache, 30));
+        assertFalse(update(cache, 30));
+        assertTrue(cache.update(30, SCREEN_WIDTH, SCREEN_HEIGHT / 2, OVERLAY_WIDTH,
+                OVERLAY_HEIGHT));
+        assertTrue(cache.update(30, SCREEN_WIDTH, SCREEN_HEIGHT / 2, OVERLAY_WIDTH / 2,
+                OVERLAY_HEIGHT / 2));
+        cache.invalidate();
+        assertTrue(cache.update(30, SCREEN_WIDTH, SCREEN_HEIGHT / 2, OVERLAY_WIDTH / 2,
+                OVERLAY_HEIGHT / 2));
+    }
+
+    @Test
+    public void steeringAngleFadesOverlayIntoDynamicLines() {
+        RenderTransformCache cache = new RenderTransformCache();
+        update(cache, 0);
+        assertEquals(255, cache.getOverlayAlpha());
+        assertEquals(0, cache.getDynamicLinesAlpha());
+        float[] overlay = cache.getOverlayMatrix().clone();
+
+        update(cache, 120);
+        assertEquals(195, cache.getOverlayAlpha());
+        assertEquals(120, cache.getDynamicLinesAlpha());
+        // the overlay itself does not move with the steering angle
+        assertArrayEquals(overlay, cache.getOverlayMatrix(), 0);
+
+        update(cache, -600);
+        assertEquals(0, cache.getOverlayAlpha());
+        assertEquals(255, cache.getDynamicLinesAlpha());
+    }
+
+    @Test
+    public void preScaledOverlayIsOnlyTranslated() {
+        RenderTransformCache scaled = new RenderTransformCache();
+        update(scaled, 0);
+        RenderTransformCache preScaled = new RenderTransformCache();
+        int width = RenderTransformCache.overlayTargetWidth(SCREEN_WIDTH);
+        int height = RenderTransformCache.overlayTargetHeight(SCREEN_HEIGHT);
+        preScaled.update(0, SCREEN_WIDTH, SCREEN_HEIGHT, width, height);
+
+        float[] matrix = preScaled.getOverlayMatrix();
+        assertEquals(1, matrix[0], 0);
+        assertEquals(1, matrix[4], 0);
+        // at the same place as the scaled asset
+        assertEquals(scaled.getOverlayMatrix()[2], matrix[2], 0.5f);
+        assertEquals(scaled.getOverlayMatrix()[5], matrix[5], 0.5f);
+    }
+
+    @Test
+    public void steadyStateFramesDoNotAllocate() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threadBean =
+                (com.sun.management.ThreadMXBean) bean;
+        assumeTrue(threadBean.isThreadAllocatedMemorySupported());
+        threadBean.setThreadAllocatedMemoryEnabled(true);
+
+        RenderTransformCache cache = new RenderTransformCache();
+        long threadId = Thread.currentThread().getId();
+        // warm up so that class loading and JIT do not show up as allocations
+        for (int i = 0; i < 20000; i++) {
+            update(cache, 15);
+        }
+
+        long before = threadBean.getThreadAllocatedBytes(threadId);
+        int rebuilds = 0;
+        for (int i = 0; i < FRAMES; i++) {
+            if (update(cache, 15)) {
+                rebuilds++;
+            }
+        }
+        long allocated = threadBean.getThreadAllocatedBytes(threadId) - before;
+
+        assertEquals(0, rebuilds);
+        // the counter itself may report a few bytes of bookkeeping, but a
+        // single object per frame would add up to at least 16 bytes per frame
+        assertTrue("bytes allocated by " + FRAMES + " steady-state frames: "
+                + allocated, allocated < FRAMES);
+    }
+}
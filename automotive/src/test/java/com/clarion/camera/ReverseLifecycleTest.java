@@ -0,0 +1,136 @@
+package com.clarion.camera;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Host-side tests for {@link ReverseLifecycle}, against a simulated clock.
+ */
+public class ReverseLifecycleTest {
+    private static final long MS = 1000000L;
+    private static final int GEAR_DRIVE = 8;
+    private static final int GEAR_NEUTRAL = 1;
+
+    private long mNow = 1000 * MS;
+    private final List<Integer> mStates = new ArrayList<>();
+    private long mReverseNanos;
+    private ReverseLifecycle mLifecycle;
+
+    @Before
+    public void setUp() {
+        mLifecycle = new ReverseLifecycle(new NanoClock() {
+            @Override
+            public long nanoTime() {
+                return mNow;
+            }
+        });
+        mLifecycle.setListener(new ReverseLifecycle.Listener() {
+            @Override
+            public void onStateChanged(int oldState, int newState, long reverseNanos) {
+                mStates.add(newState);
+                mReverseNanos = reverseNanos;
+            }
+        });
+    }
+
+    // advances the clock, running update() at every deadline on the way
+    private void advance(long nanos) {
+        long end = mNow + nanos;
+        while (mLifecycle.getNextDeadlineNanos() <= end) {
+            mNow = Math.max(mNow, mLifecycle.getNextDeadlineNanos());
+            mLifecycle.update();
+        }
+        mNow = end;
+        mLifecycle.update();
+    }
+
+    private void engageReverse() {
+        mLifecycle.onGear(ReverseLifecycle.GEAR_REVERSE);
+        advance(ReverseLifecycle.REVERSE_DEBOUNCE_NANOS);
+    }
+
+    @Test
+    public void reverseActivatesAfterTheDebounce() {
+        long engaged = mNow;
+        mLifecycle.onGear(ReverseLifecycle.GEAR_REVERSE);
+        assertEquals(ReverseLifecycle.STATE_OFF, mLifecycle.getState());
+        assertEquals(engaged + ReverseLifecycle.REVERSE_DEBOUNCE_NANOS,
+                mLifecycle.getNextDeadlineNanos());
+
+        advance(ReverseLifecycle.REVERSE_DEBOUNCE_NANOS);
+        assertEquals(ReverseLifecycle.STATE_ACTIVE, mLifecycle.getState());
+        assertEquals(engaged, mReverseNanos);
+        assertTrue(ReverseLifecycle.REVERSE_DEBOUNCE_NANOS
+                < ReverseLifecycle.FIRST_FRAME_DEADLINE_NANOS / 10);
+    }
+
+    @Test
+    public void reverseGlitchIsIgnored() {
+        mLifecycle.onGear(ReverseLifecycle.GEAR_REVERSE);
+        advance(10 * MS);
+        mLifecycle.onGear(GEAR_NEUTRAL);
+        advance(1000 * MS);
+        assertEquals(ReverseLifecycle.STATE_OFF, mLifecycle.getState());
+        assertTrue(mStates.isEmpty());
+    }
+
+    @Test
+    public void shortShiftOutOfReverseKeepsTheView() {
+        engageReverse();
+        mLifecycle.onGear(GEAR_NEUTRAL);
+        advance(ReverseLifecycle.ACTIVE_HOLD_NANOS / 2);
+        mLifecycle.onGear(ReverseLifecycle.GEAR_REVERSE);
+        advance(10000 * MS);
+        assertEquals(ReverseLifecycle.STATE_ACTIVE, mLifecycle.getState());
+        assertEquals(1, mLifecycle.getActivations());
+    }
+
+    @Test
+    public void leavingReverseGoesToStandbyThenOff() {
+        engageReverse();
+        mLifecycle.onGear(GEAR_DRIVE);
+        advance(ReverseLifecycle.ACTIVE_HOLD_NANOS - MS);
+        assertEquals(ReverseLifecycle.STATE_ACTIVE, mLifecycle.getState());
+        advance(MS);
+        assertEquals(ReverseLifecycle.STATE_STANDBY, mLifecycle.getState());
+
+        advance(ReverseLifecycle.STANDBY_TIMEOUT_NANOS - MS);
+        assertEquals(ReverseLifecycle.STATE_STANDBY, mLifecycle.getState());
+        advance(MS);
+        assertEquals(ReverseLifecycle.STATE_OFF, mLifecycle.getState());
+        assertEquals(Long.MAX_VALUE, mLifecycle.getNextDeadlineNanos());
+        assertEquals(1, mLifecycle.getShutdowns());
+    }
+
+    @Test
+    public void drivingOffLeavesActiveRightAway() {
+        engageReverse();
+        mLifecycle.onGear(GEAR_DRIVE);
+        mLifecycle.onSpeed(ReverseLifecycle.EXIT_SPEED + 1);
+        assertEquals(ReverseLifecycle.STATE_STANDBY, mLifecycle.getState());
+    }
+
+    @Test
+    public void slowingDownWarmsUpAndStandbyReactivates() {
+        mLifecycle.onSpeed(20);
+        assertEquals(ReverseLifecycle.STATE_OFF, mLifecycle.getState());
+        mLifecycle.onSpeed(ReverseLifecycle.PARKING_SPEED - 1);
+        assertEquals(ReverseLifecycle.STATE_STANDBY, mLifecycle.getState());
+        // staying slow does not restart the timeout
+        advance(ReverseLifecycle.STANDBY_TIMEOUT_NANOS / 2);
+        mLifecycle.onSpeed(0.5f);
+
+        mLifecycle.onGear(ReverseLifecycle.GEAR_REVERSE);
+        advance(ReverseLifecycle.REVERSE_DEBOUNCE_NANOS);
+        assertEquals(ReverseLifecycle.STATE_ACTIVE, mLifecycle.getState());
+
+        assertEquals(2, mStates.size());
+        assertEquals(ReverseLifecycle.STATE_STANDBY, (int) mStates.get(0));
+        assertEquals(ReverseLifecycle.STATE_ACTIVE, (int) mStates.get(1));
+    }
+}
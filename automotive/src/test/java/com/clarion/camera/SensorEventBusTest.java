@@ -0,0 +1,146 @@
+package com.clarion.camera;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Host-side tests for {@link SensorEventBus}: dispatch to every subscriber,
+ * unregistering during a dispatch and registration next to a slow callback.
+ */
+public class SensorEventBusTest {
+
+    private static class CountingCallback extends SensorEventBus.Callback {
+        int gear = -1;
+        float speed = -1;
+        float steering = -1;
+        long events = 0;
+
+        @Override
+        public void OnGearPosValChange(int propValue) {
+            gear = propValue;
+            events++;
+        }
+
+        @Override
+        public void OnSpeedValChange(float propValue) {
+            speed = propValue;
+            events++;
+        }
+
+        @Override
+        public void OnSteeringAngleValChange(float propValue) {
+            steering = propValue;
+            events++;
+        }
+    }
+
+    @Test
+    public void dispatchesToEveryRegisteredCallback() {
+        SensorEventBus bus = new SensorEventBus();
+        CountingCallback first = new CountingCallback();
+        CountingCallback second = new CountingCallback();
+        bus.registerCallback(first);
+        bus.registerCallback(second);
+
+        bus.dispatchGearPos(2);
+        bus.dispatchSpeed(12.5f);
+        bus.dispatchSteeringAngle(-30f);
+
+        for (CountingCallback callback : new CountingCallback[] { first, second }) {
+            assertEquals(2, callback.gear);
+            assertEquals(12.5f, callback.speed, 0f);
+            assertEquals(-30f, callback.steering, 0f);
+        }
+
+        bus.unregisterCallback(first);
+        bus.dispatchGearPos(4);
+        assertEquals(2, first.gear);
+        assertEquals(4, second.gear);
+        assertEquals(1, bus.getCallbackCount());
+
+        bus.unregisterCallback(first);
+        bus.unregisterCallback(second);
+        assertEquals(0, bus.getCallbackCount());
+        bus.dispatchGearPos(1);
+    }
+
+    @Test
+    public void callbackMayUnregisterItselfDuringDispatch() {
+        final SensorEventBus bus = new SensorEventBus();
+        CountingCallback later = new CountingCallback();
+        bus.registerCallback(new SensorEventBus.Callback() {
+            @Override
+            public void OnGearPosValChange(int propValue) {
+                bus.unregisterCallback(this);
+            }
+        });
+        bus.registerCallback(later);
+
+        // the running dispatch still uses its snapshot
+        bus.dispatchGearPos(3);
+        assertEquals(3, later.gear);
+        assertEquals(1, bus.getCallbackCount());
+    }
+
+    @Test
+    public void slowCallbackDoesNotBlockRegistration() throws Exception {
+        final SensorEventBus bus = new SensorEventBus();
+        final CountDownLatch inCallback = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        bus.registerCallback(new SensorEventBus.Callback() {
+            @Override
+            public void OnSpeedValChange(float propValue) {
+                inCallback.countDown();
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        Thread dispatcher = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                bus.dispatchSpeed(1f);
+            }
+        });
+        dispatcher.start();
+        assertTrue(inCallback.await(1, TimeUnit.SECONDS));
+
+        long start = System.nanoTime();
+        bus.registerCallback(new CountingCallback());
+        bus.dispatchGearPos(2);
+        long elapsed = System.nanoTime() - start;
+        release.countDown();
+        dispatcher.join();
+
+        assertTrue("blocked for " + elapsed + "ns", elapsed < TimeUnit.MILLISECONDS.toNanos(500));
+        assertEquals(2, bus.getCallbackCount());
+    }
+
+    @Test
+    public void dispatchReachesEverySubscriber() {
+        SensorEventBus bus = new SensorEventBus();
+        CountingCallback[] callbacks = new CountingCallback[8];
+        for (int i = 0; i < callbacks.length; i++) {
+            callbacks[i] = new CountingCallback();
+            bus.registerCallback(callbacks[i]);
+        }
+
+        int events = 1000;
+        for (int i = 0; i < events; i++) {
+            bus.dispatchSteeringAngle(i);
+            bus.dispatchSpeed(i);
+        }
+
+        for (CountingCallback callback : callbacks) {
+            assertEquals(events - 1, callback.speed, 0f);
+            assertEquals(events - 1, callback.steering, 0f);
+            assertEquals(2 * events, callback.events);
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package com.clarion.camera;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * Host-side tests for {@link SensorEventStore}.
+ */
+public class SensorEventStoreTest {
+    @Test
+    public void burstsCoalesceIntoTheLatestValue() {
+        SensorEventStore store = new SensorEventStore();
+        SensorEventStore.Reader reader = store.newReader(null);
+        assertEquals(0, store.poll(reader));
+
+        for (int i = 1; i <= 100; i++) {
+            store.publishSpeed(i, i * 10L);
+        }
+        store.publishGearPos(2, 5L);
+
+        int changed = store.poll(reader);
+        assertEquals((1 << SensorEventStore.SLOT_SPEED) | (1 << SensorEventStore.SLOT_GEAR),
+                changed);
+        assertEquals(100f, reader.getSpeed(), 0f);
+        assertEquals(1000L, reader.getTimestamp(SensorEventStore.SLOT_SPEED));
+        assertEquals(2, reader.getGearPos());
+        assertEquals(100, store.getPublishCount(SensorEventStore.SLOT_SPEED));
+        assertEquals(0, store.poll(reader));
+    }
+
+    @Test
+    public void readersDrainIndependently() {
+        SensorEventStore store = new SensorEventStore();
+        SensorEventStore.Reader fast = store.newReader(null);
+        SensorEventStore.Reader slow = store.newReader(null);
+
+        store.publishSteeringAngle(10f, 1L);
+        assertEquals(1 << SensorEventStore.SLOT_STEERING, store.poll(fast));
+        store.publishSteeringAngle(-20f, 2L);
+        assertEquals(1 << SensorEventStore.SLOT_STEERING, store.poll(fast));
+        assertEquals(-20f, fast.getSteeringAngle(), 0f);
+
+        assertEquals(1 << SensorEventStore.SLOT_STEERING, store.poll(slow));
+        assertEquals(-20f, slow.getSteeringAngle(), 0f);
+    }
+
+    @Test
+    public void wakeupRunsOncePerBurst() {
+        SensorEventStore store = new SensorEventStore();
+        final AtomicInteger wakeups = new AtomicInteger();
+        SensorEventStore.Reader reader = store.newReader(new Runnable() {
+            @Override
+            public void run() {
+                wakeups.incrementAndGet();
+            }
+        });
+
+        store.publishSpeed(1f, 1L);
+        store.publishSpeed(2f, 2L);
+        store.publishGearPos(4, 3L);
+        assertEquals(1, wakeups.get());
+
+        store.poll(reader);
+        store.publishSpeed(3f, 4L);
+        assertEquals(2, wakeups.get());
+
+        store.removeReader(reader);
+        store.poll(reader);
+        store.publishSpeed(4f, 5L);
+        assertEquals(2, wakeups.get());
+    }
+
+    @Test
+    public void drainForwardsChangedSlotsToTheBus() {
+        SensorEventStore store = new SensorEventStore();
+        SensorEventStore.Reader reader = store.newReader(null);
+        SensorEventBus bus = new SensorEventBus();
+        final AtomicInteger gearEvents = new AtomicInteger();
+        final AtomicInteger speedEvents = new AtomicInteger();
+        bus.registerCallback(new SensorEventBus.Callback() {
+            @Override
+            public void OnGearPosValChange(int propValue) {
+                gearEvents.incrementAndGet();
+            }
+
+            @Override
+            public void OnSpeedValChange(float propValue) {
+                speedEvents.incrementAndGet();
+            }
+        });
+
+        store.publishGearPos(1, 1L);
+        store.publishGearPos(2, 2L);
+        store.publishGearPos(3, 3L);
+        store.drainTo(reader, bus);
+        store.drainTo(reader, bus);
+
+        assertEquals(1, gearEvents.get());
+        assertEquals(0, speedEvents.get());
+    }
+
+    @Test
+    public void concurrentPublishNeverTearsValueAndTimestamp() throws Exception {
+        final SensorEventStore store = new SensorEventStore();
+        final AtomicBoolean running = new AtomicBoolean(true);
+        final AtomicReference<String> failure = new AtomicReference<>();
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 1; i <= 500000; i++) {
+                    store.publishSteeringAngle(i, i);
+                    store.publishGearPos(i, i);
+                }
+                running.set(false);
+            }
+        });
+        writer.start();
+
+        SensorEventStore.Reader reader = store.newReader(null);
+        long lastTimestamp = 0;
+        while (running.get() && failure.get() == null) {
+            int changed = store.poll(reader);
+            if ((changed & (1 << SensorEventStore.SLOT_STEERING)) == 0) {
+                continue;
+            }
+            long timestamp = reader.getTimestamp(SensorEventStore.SLOT_STEERING);
+            if ((long) reader.getSteeringAngle() != timestamp) {
+                failure.set("angle " + reader.getSteeringAngle() + " with timestamp " + timestamp);
+            } else if (timestamp < lastTimestamp) {
+                failure.set("timestamp went back from " + lastTimestamp + " to " + timestamp);
+            }
+            lastTimestamp = timestamp;
+        }
+        writer.join();
+
+        assertNull(failure.get(), failure.get());
+        store.poll(reader);
+        assertEquals(500000f, reader.getSteeringAngle(), 0f);
+    }
+}
@@ -0,0 +1,96 @@
+package com.clarion.camera;
+
+import org.junit.Test;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Host-side tests for {@link StartupPipeline}.
+ */
+public class StartupPipelineTest {
+
+    @Test
+    public void runsPhasesInParallel() throws Exception {
+        StartupPipeline pipeline = new StartupPipeline();
+        // each phase only finishes once both have started
+        final CountDownLatch started = new CountDownLatch(2);
+        Callable<Integer> phase = new Callable<Integer>() {
+            @Override
+            public Integer call() throws Exception {
+                started.countDown();
+                assertTrue(started.await(5, TimeUnit.SECONDS));
+                return 7;
+            }
+        };
+        StartupPipeline.Phase<Integer> first = pipeline.add("first", phase);
+        StartupPipeline.Phase<Integer> second = pipeline.add("second", phase);
+        assertFalse(pipeline.isStarted());
+        pipeline.start();
+
+        assertEquals(7, (int) first.get());
+        assertEquals(7, (int) second.get());
+        assertTrue(first.isDone());
+        assertTrue(first.getDurationNanos() > 0);
+    }
+
+    @Test
+    public void failuresArriveAtGet() throws Exception {
+        StartupPipeline pipeline = new StartupPipeline();
+        StartupPipeline.Phase<Void> phase = pipeline.add("broken", new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                throw new IllegalStateException("no overlay");
+            }
+        });
+        pipeline.start();
+        try {
+            phase.get();
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+    }
+
+    @Test
+    public void dumpsPhasesAndMilestones() throws Exception {
+        StartupPipeline pipeline = new StartupPipeline();
+        StartupPipeline.Phase<Void> phase = pipeline.add("overlay", new Callable<Void>() {
+            @Override
+            public Void call() {
+                return null;
+            }
+        });
+        assertEquals(-1, pipeline.getMilestoneNanos("first-frame"));
+        pipeline.start();
+        phase.get();
+        pipeline.mark("first-frame");
+        long firstFrame = pipeline.getMilestoneNanos("first-frame");
+        assertTrue(firstFrame >= 0);
+        pipeline.mark("first-frame");
+        assertEquals(firstFrame, pipeline.getMilestoneNanos("first-frame"));
+
+        StringWriter out = new StringWriter();
+        pipeline.dump(new PrintWriter(out));
+        assertTrue(out.toString(), out.toString().contains("overlay"));
+        assertTrue(out.toString(), out.toString().contains("first-frame"));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void rejectsPhasesAfterTheStart() {
+        StartupPipeline pipeline = new StartupPipeline();
+        pipeline.start();
+        pipeline.add("late", new Callable<Void>() {
+            @Override
+            public Void call() {
+                return null;
+            }
+        });
+    }
+}
@@ -0,0 +1,94 @@
+package com.clarion.camera;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Host-side tests for {@link SteeringPredictor}.
+ */
+public class SteeringPredictorTest {
+    private static final long SAMPLE_INTERVAL = 20000000L; // 50 Hz
+
+    @Test
+    public void firstSampleIsTakenAsIs() {
+        SteeringPredictor predictor = new SteeringPredictor();
+        predictor.addSample(42, 1000L);
+        assertEquals(42, predictor.getAngle(), 0);
+        assertEquals(0, predictor.getRate(), 0);
+        assertEquals(1000L, predictor.getTimestampNanos());
+    }
+
+    @Test
+    public void tracksAConstantTurnAndPredictsAhead() {
+        SteeringPredictor predictor = new SteeringPredictor();
+        double degreesPerSecond = 90;
+        long t = 0;
+        for (int i = 0; i < 100; i++) {
+            t = i * SAMPLE_INTERVAL;
+            predictor.addSample(degreesPerSecond * t / 1e9, t);
+        }
+
+        assertEquals(degreesPerSecond, predictor.getRate(), 0.5);
+        long displayTime = t + 50000000L;
+        double predicted = SteeringPredictor.extrapolate(predictor.getAngle(),
+                predictor.getRate(), predictor.getTimestampNanos(), displayTime,
+                SteeringPredictor.DEFAULT_MAX_HORIZON_NANOS);
+        assertEquals(degreesPerSecond * displayTime / 1e9, predicted, 0.5);
+    }
+
+    @Test
+    public void smoothsNoiseOnAHeldWheel() {
+        SteeringPredictor predictor = new SteeringPredictor();
+        Random random = new Random(1);
+        double maxRawError = 0;
+        double maxFilteredError = 0;
+        for (int i = 0; i < 500; i++) {
+            double noise = random.nextGaussian() * 2;
+            predictor.addSample(30 + noise, i * SAMPLE_INTERVAL);
+            if (i > 50) {
+                maxRawError = Math.max(maxRawError, Math.abs(noise));
+                maxFilteredError = Math.max(maxFilteredError,
+                        Math.abs(predictor.getAngle() - 30));
+            }
+        }
+        assertTrue("filtered " + maxFilteredError + " raw " + maxRawError,
+                maxFilteredError < maxRawError);
+    }
+
+    @Test
+    public void extrapolationIsClampedToTheHorizon() {
+        assertEquals(10, SteeringPredictor.extrapolate(10, 100, 1000L, 500L, 1000L), 0);
+        assertEquals(10 + 100 * 0.2, SteeringPredictor.extrapolate(10, 100, 0L,
+                200000000L, 200000000L), 1e-9);
+    }
+
+    @Test
+    public void staleSamplesAreNoLongerExtrapolated() {
+        long horizon = 200000000L;
+        assertEquals(10 + 100 * 0.1, SteeringPredictor.extrapolate(10, 100, 0L,
+                300000000L, horizon), 1e-9);
+        assertEquals(10, SteeringPredictor.extrapolate(10, 100, 0L, 2 * horizon, horizon), 0);
+        assertEquals(10, SteeringPredictor.extrapolate(10, 100, 0L, 5000000000L, horizon), 0);
+    }
+
+    @Test
+    public void aGapInTheSamplesRestartsTheRate() {
+        SteeringPredictor predictor = new SteeringPredictor();
+        for (int i = 0; i < 50; i++) {
+            predictor.addSample(i, i * SAMPLE_INTERVAL);
+        }
+        assertTrue(predictor.getRate() > 10);
+
+        predictor.addSample(20, 60 * SAMPLE_INTERVAL + 1000000000L);
+        assertEquals(20, predictor.getAngle(), 0);
+        assertEquals(0, predictor.getRate(), 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsUnstableGains() {
+        new SteeringPredictor(0.5, 2.5);
+    }
+}
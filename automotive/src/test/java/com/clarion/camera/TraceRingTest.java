@@ -0,0 +1,106 @@
+package com.clarion.camera;
+
+import org.junit.Test;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+import static org.junit.Assert.*;
+
+/**
+ * Host-side tests for {@link TraceRing}.
+ */
+public class TraceRingTest {
+
+    private static String dump(TraceRing ring, int maxRecords) {
+        StringWriter out = new StringWriter();
+        ring.dump(new PrintWriter(out), maxRecords);
+        return out.toString();
+    }
+
+    @Test
+    public void decodesTheArgumentsByFormat() {
+        TraceRing ring = new TraceRing(8);
+        int gear = ring.defineEvent("gear", "i");
+        int speed = ring.defineEvent("speed", "f");
+        int rate = ring.defineEvent("rate", "ll");
+        int surface = ring.defineEvent("surface", "");
+        ring.trace(gear, 2);
+        ring.trace(speed, 12.5f);
+        ring.trace(rate, 7L, 1L << 40);
+        ring.trace(surface);
+
+        String[] lines = dump(ring, 8).split("\n");
+        assertEquals(5, lines.length);
+        assertTrue(lines[0], lines[0].startsWith("trace: 4 records"));
+        assertTrue(lines[1], lines[1].endsWith("gear 2"));
+        assertTrue(lines[2], lines[2].endsWith("speed 12.5"));
+        assertTrue(lines[3], lines[3].endsWith("rate 7 " + (1L << 40)));
+        assertTrue(lines[4], lines[4].endsWith("surface"));
+    }
+
+    @Test
+    public void keepsTheNewestRecordsWhenFull() {
+        TraceRing ring = new TraceRing(4);
+        int event = ring.defineEvent("n", "i");
+        for (int i = 0; i < 10; i++) {
+            ring.trace(event, i);
+        }
+        assertEquals(10, ring.getRecordCount());
+
+        String[] lines = dump(ring, 100).split("\n");
+        assertEquals(5, lines.length);
+        for (int i = 0; i < 4; i++) {
+            assertTrue(lines[i + 1], lines[i + 1].endsWith("n " + (6 + i)));
+        }
+        // a shorter dump shows the newest
+        lines = dump(ring, 2).split("\n");
+        assertTrue(lines[2], lines[2].endsWith("n 9"));
+    }
+
+    @Test
+    public void tracesNothingWhileDisabled() {
+        TraceRing ring = new TraceRing(4);
+        int event = ring.defineEvent("n", "");
+        ring.setEnabled(false);
+        ring.trace(event);
+        assertEquals(0, ring.getRecordCount());
+        ring.setEnabled(true);
+        ring.trace(event);
+        assertEquals(1, ring.getRecordCount());
+    }
+
+    @Test
+    public void concurrentWritersLoseNoRecords() throws Exception {
+        final TraceRing ring = new TraceRing(1 << 12);
+        final int event = ring.defineEvent("n", "ii");
+        Thread[] writers = new Thread[4];
+        for (int t = 0; t < writers.length; t++) {
+            final int writer = t;
+            writers[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 1000; i++) {
+                        ring.trace(event, writer, i);
+                    }
+                }
+            });
+            writers[t].start();
+        }
+        for (Thread writer : writers) {
+            writer.join();
+        }
+        assertEquals(4000, ring.getRecordCount());
+        assertEquals(4001, dump(ring, ring.getCapacity()).split("\n").length);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsCapacitiesThatAreNoPowerOfTwo() {
+        new TraceRing(100);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsUnknownFormats() {
+        new TraceRing(4).defineEvent("bad", "s");
+    }
+}
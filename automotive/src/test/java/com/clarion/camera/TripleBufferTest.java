@@ -0,0 +1,117 @@
+package com.clarion.camera;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * Host-side tests for {@link TripleBuffer}, including a producer/consumer
+ * stress test that checks for torn or out-of-order frames.
+ */
+public class TripleBufferTest {
+    private static final int FRAME_SIZE = 4096;
+
+    private static TripleBuffer<int[]> newBuffer() {
+        return new TripleBuffer<>(new int[FRAME_SIZE], new int[FRAME_SIZE],
+                new int[FRAME_SIZE]);
+    }
+
+    @Test
+    public void consumerSeesNewestFrameOnly() {
+        TripleBuffer<int[]> buffer = newBuffer();
+        assertFalse(buffer.swapToLatest());
+        assertEquals(0, buffer.getFrontSequence());
+
+        buffer.getBackBuffer()[0] = 1;
+        assertEquals(1, buffer.publish(100));
+        buffer.getBackBuffer()[0] = 2;
+        assertEquals(2, buffer.publish(200));
+
+        assertTrue(buffer.swapToLatest());
+        assertEquals(2, buffer.getFrontBuffer()[0]);
+        assertEquals(2, buffer.getFrontSequence());
+        assertEquals(200, buffer.getFrontTimestamp());
+        assertFalse(buffer.swapToLatest());
+        assertEquals(2, buffer.getFrontBuffer()[0]);
+
+        assertEquals(2, buffer.getPublishedCount());
+        assertEquals(1, buffer.getDroppedCount());
+        assertEquals(1, buffer.getConsumedCount());
+    }
+
+    @Test
+    public void producerNeverWritesIntoTheFrontBuffer() {
+        TripleBuffer<int[]> buffer = newBuffer();
+        for (int i = 0; i < 10; i++) {
+            buffer.publish(i);
+            buffer.swapToLatest();
+            assertNotSame(buffer.getFrontBuffer(), buffer.getBackBuffer());
+        }
+    }
+
+    @Test
+    public void concurrentExchangeNeverTearsOrReorders() throws Exception {
+        final TripleBuffer<int[]> buffer = newBuffer();
+        final AtomicBoolean producing = new AtomicBoolean(true);
+        final AtomicReference<String> failure = new AtomicReference<>();
+        final long frames = 200000;
+
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (long i = 1; i <= frames; i++) {
+                    Arrays.fill(buffer.getBackBuffer(), (int) i);
+                    buffer.publish(i);
+                }
+                producing.set(false);
+            }
+        });
+
+        Thread consumer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                long lastSequence = 0;
+                boolean draining = true;
+                while (draining) {
+                    draining = producing.get();
+                    if (!buffer.swapToLatest()) {
+                        continue;
+                    }
+                    long sequence = buffer.getFrontSequence();
+                    int[] frame = buffer.getFrontBuffer();
+                    if (sequence <= lastSequence) {
+                        failure.set("sequence went from " + lastSequence + " to " + sequence);
+                        return;
+                    }
+                    if (buffer.getFrontTimestamp() != sequence) {
+                        failure.set("timestamp does not match sequence " + sequence);
+                        return;
+                    }
+                    for (int value : frame) {
+                        if (value != (int) sequence) {
+                            failure.set("torn frame " + sequence + " contains " + value);
+                            return;
+                        }
+                    }
+                    lastSequence = sequence;
+                }
+                // the producer is done, pick up a frame published meanwhile
+                buffer.swapToLatest();
+            }
+        });
+
+        consumer.start();
+        producer.start();
+        producer.join(30000);
+        consumer.join(30000);
+
+        assertNull(failure.get(), failure.get());
+        assertEquals(frames, buffer.getPublishedCount());
+        assertEquals(frames, buffer.getFrontSequence());
+        assertEquals(frames, buffer.getConsumedCount() + buffer.getDroppedCount());
+    }
+}
@@ -0,0 +1,194 @@
+package com.clarion.camera;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.*;
+
+/**
+ * Host-side tests for {@link VehicleDataHub} against a fake sensor source.
+ */
+public class VehicleDataHubTest {
+    private static final int GEAR_DRIVE = 8;
+    private static final Runnable NO_WAKEUP = new Runnable() {
+        @Override
+        public void run() {
+        }
+    };
+
+    // applies the rate changes right away, on the caller's thread
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    /** Holds the rate changes back until they are run. */
+    private static class QueuedExecutor implements Executor {
+        final List<Runnable> queued = new ArrayList<>();
+
+        @Override
+        public void execute(Runnable command) {
+            queued.add(command);
+        }
+
+        void runAll() {
+            for (Runnable command : queued) {
+                command.run();
+            }
+            queued.clear();
+        }
+    }
+
+    /** Keeps the subscribed rates like CarSensorManager would. */
+    private static class FakeSensorSource implements VehicleDataHub.SensorSource {
+        final int[] rates = {VehicleDataHub.RATE_OFF, VehicleDataHub.RATE_OFF,
+                VehicleDataHub.RATE_OFF};
+        int calls = 0;
+
+        @Override
+        public void setRate(int sensor, int rate) {
+            rates[sensor] = rate;
+            calls++;
+        }
+    }
+
+    private static class RecordingCallback extends SensorEventBus.Callback {
+        final List<Integer> gears = new ArrayList<>();
+        final List<Float> speeds = new ArrayList<>();
+
+        @Override
+        public void OnGearPosValChange(int propValue) {
+            gears.add(propValue);
+        }
+
+        @Override
+        public void OnSpeedValChange(float propValue) {
+            speeds.add(propValue);
+        }
+    }
+
+    @Test
+    public void subscribesOnlyWhileConsumersAreRegistered() {
+        VehicleDataHub hub = new VehicleDataHub(DIRECT);
+        FakeSensorSource source = new FakeSensorSource();
+        hub.attach(source);
+        assertEquals(0, source.calls);
+
+        SensorEventStore.Reader first = hub.register(NO_WAKEUP);
+        SensorEventStore.Reader second = hub.register(NO_WAKEUP);
+        assertEquals(VehicleDataHub.RATE_NORMAL, source.rates[VehicleDataHub.SENSOR_GEAR]);
+        assertEquals(VehicleDataHub.RATE_NORMAL, source.rates[VehicleDataHub.SENSOR_SPEED]);
+        // one subscription per sensor, however many consumers
+        assertEquals(VehicleDataHub.SENSOR_COUNT, source.calls);
+
+        hub.unregister(first);
+        assertEquals(VehicleDataHub.RATE_NORMAL, source.rates[VehicleDataHub.SENSOR_GEAR]);
+        hub.unregister(second);
+        for (int sensor = 0; sensor < VehicleDataHub.SENSOR_COUNT; sensor++) {
+            assertEquals(VehicleDataHub.RATE_OFF, source.rates[sensor]);
+        }
+    }
+
+    @Test
+    public void attachingLateAppliesTheCurrentRates() {
+        VehicleDataHub hub = new VehicleDataHub(DIRECT);
+        hub.register(NO_WAKEUP);
+        hub.onGear(ReverseLifecycle.GEAR_REVERSE, 1);
+
+        FakeSensorSource source = new FakeSensorSource();
+        hub.attach(source);
+        assertEquals(VehicleDataHub.RATE_NORMAL, source.rates[VehicleDataHub.SENSOR_GEAR]);
+        assertEquals(VehicleDataHub.RATE_FASTEST, source.rates[VehicleDataHub.SENSOR_SPEED]);
+    }
+
+    @Test
+    public void speedsUpMotionSensorsOnlyInReverse() {
+        VehicleDataHub hub = new VehicleDataHub(DIRECT);
+        FakeSensorSource source = new FakeSensorSource();
+        hub.attach(source);
+        hub.register(NO_WAKEUP);
+
+        hub.onGear(ReverseLifecycle.GEAR_REVERSE, 1);
+        assertTrue(hub.isReverse());
+        assertEquals(VehicleDataHub.RATE_NORMAL, source.rates[VehicleDataHub.SENSOR_GEAR]);
+        assertEquals(VehicleDataHub.RATE_FASTEST, source.rates[VehicleDataHub.SENSOR_SPEED]);
+        assertEquals(VehicleDataHub.RATE_FASTEST, source.rates[VehicleDataHub.SENSOR_STEERING]);
+
+        // repeated reverse samples do not resubscribe
+        int calls = source.calls;
+        hub.onGear(ReverseLifecycle.GEAR_REVERSE, 2);
+        assertEquals(calls, source.calls);
+
+        hub.onGear(GEAR_DRIVE, 3);
+        assertEquals(VehicleDataHub.RATE_NORMAL, source.rates[VehicleDataHub.SENSOR_SPEED]);
+        assertEquals(VehicleDataHub.RATE_NORMAL, source.rates[VehicleDataHub.SENSOR_STEERING]);
+    }
+
+    @Test
+    public void everyConsumerGetsTheSamples() {
+        VehicleDataHub hub = new VehicleDataHub(DIRECT);
+        hub.attach(new FakeSensorSource());
+        SensorEventStore.Reader first = hub.register(NO_WAKEUP);
+        SensorEventStore.Reader second = hub.register(NO_WAKEUP);
+
+        hub.onGear(ReverseLifecycle.GEAR_REVERSE, 1);
+        hub.onSpeed(1.5f, 2);
+
+        RecordingCallback firstCallback = new RecordingCallback();
+        SensorEventBus firstBus = new SensorEventBus();
+        firstBus.registerCallback(firstCallback);
+        hub.drainTo(first, firstBus);
+        RecordingCallback secondCallback = new RecordingCallback();
+        SensorEventBus secondBus = new SensorEventBus();
+        secondBus.registerCallback(secondCallback);
+        hub.drainTo(second, secondBus);
+
+        assertEquals(ReverseLifecycle.GEAR_REVERSE, (int) firstCallback.gears.get(0));
+        assertEquals(1.5f, firstCallback.speeds.get(0), 0f);
+        assertEquals(firstCallback.gears, secondCallback.gears);
+        assertEquals(firstCallback.speeds, secondCallback.speeds);
+    }
+
+    @Test
+    public void detachForgetsTheSubscriptions() {
+        VehicleDataHub hub = new VehicleDataHub(DIRECT);
+        FakeSensorSource lost = new FakeSensorSource();
+        hub.attach(lost);
+        hub.register(NO_WAKEUP);
+        hub.detach(lost);
+        assertEquals(VehicleDataHub.RATE_OFF, hub.getRate(VehicleDataHub.SENSOR_GEAR));
+
+        // a reconnect subscribes everything again
+        FakeSensorSource reconnected = new FakeSensorSource();
+        hub.attach(reconnected);
+        assertEquals(VehicleDataHub.RATE_NORMAL, reconnected.rates[VehicleDataHub.SENSOR_GEAR]);
+    }
+
+    @Test
+    public void gearChangesResubscribeOutsideTheSensorCallback() {
+        QueuedExecutor rates = new QueuedExecutor();
+        VehicleDataHub hub = new VehicleDataHub(rates);
+        FakeSensorSource source = new FakeSensorSource();
+        hub.attach(source);
+        hub.register(NO_WAKEUP);
+        rates.runAll();
+        int calls = source.calls;
+
+        hub.onGear(ReverseLifecycle.GEAR_REVERSE, 1);
+        // decided right away, applied later
+        assertEquals(VehicleDataHub.RATE_FASTEST, hub.getRate(VehicleDataHub.SENSOR_SPEED));
+        assertEquals(calls, source.calls);
+
+        hub.onGear(GEAR_DRIVE, 2);
+        rates.runAll();
+        // in order, so the last decision wins
+        assertEquals(VehicleDataHub.RATE_NORMAL, source.rates[VehicleDataHub.SENSOR_SPEED]);
+        assertEquals(VehicleDataHub.RATE_NORMAL, source.rates[VehicleDataHub.SENSOR_STEERING]);
+        assertEquals(calls + 4, source.calls);
+    }
+}
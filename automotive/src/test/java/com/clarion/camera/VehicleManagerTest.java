@@ -0,0 +1,110 @@
+package com.clarion.camera;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * Host-side tests for {@link VehicleManager}.
+ */
+public class VehicleManagerTest {
+
+    @Test
+    public void snapshotCarriesValuesAndTimestamps() {
+        VehicleManager manager = new VehicleManager();
+        VehicleManager.VehicleState state = new VehicleManager.VehicleState();
+
+        manager.setSteeringAngle(45f, 100L);
+        manager.setGearPos(2, 200L);
+        manager.setSpeed(3.5f, 300L);
+        manager.readSnapshot(state);
+
+        assertEquals(45.0, state.steeringAngle, 0.0);
+        assertEquals(100L, state.steeringAngleTimestampNanos);
+        assertEquals(2, state.gearPos);
+        assertEquals(200L, state.gearPosTimestampNanos);
+        assertEquals(3.5f, state.speed, 0f);
+        assertEquals(300L, state.speedTimestampNanos);
+        assertEquals(3, state.version);
+    }
+
+    @Test
+    public void listenerIsOnlyNotifiedForChangedSteeringAngle() {
+        VehicleManager manager = new VehicleManager();
+        final AtomicInteger changes = new AtomicInteger();
+        manager.setOnChangeListener(new VehicleManager.OnChangeListener() {
+            @Override
+            public void onVehicleStateChanged() {
+                changes.incrementAndGet();
+            }
+        });
+
+        manager.setSteeringAngle(10f, 1L);
+        manager.setSteeringAngle(10f, 2L);
+        manager.setSteeringAngle(20f, 3L);
+        assertEquals(2, changes.get());
+    }
+
+    @Test
+    public void predictionLooksAheadByThePipelineLatency() {
+        VehicleManager manager = new VehicleManager();
+        VehicleManager.VehicleState state = new VehicleManager.VehicleState();
+        long interval = 10000000L;
+        for (int i = 0; i <= 100; i++) {
+            // 100 degrees per second
+            manager.setSteeringAngle(i, i * interval);
+        }
+        manager.readSnapshot(state);
+        long now = 100 * interval;
+
+        double withoutLatency = manager.predictSteeringAngle(state, now);
+        manager.setPipelineLatencyNanos(50000000L);
+        double withLatency = manager.predictSteeringAngle(state, now);
+
+        assertEquals(100, withoutLatency, 1);
+        assertEquals(105, withLatency, 1);
+    }
+
+    @Test
+    public void concurrentReadersNeverSeeATornSnapshot() throws Exception {
+        final VehicleManager manager = new VehicleManager();
+        final AtomicBoolean running = new AtomicBoolean(true);
+        final AtomicReference<String> failure = new AtomicReference<>();
+
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 1; i <= 1000000; i++) {
+                    manager.setState(i, i, i, i);
+                }
+                running.set(false);
+            }
+        });
+        writer.start();
+
+        VehicleManager.VehicleState state = new VehicleManager.VehicleState();
+        long lastVersion = 0;
+        while (running.get() && failure.get() == null) {
+            manager.readSnapshot(state);
+            long expected = state.steeringAngleTimestampNanos;
+            if (state.steeringAngle != expected || state.gearPos != expected
+                    || state.speed != (float) expected
+                    || state.gearPosTimestampNanos != expected
+                    || state.speedTimestampNanos != expected) {
+                failure.set("torn snapshot at " + expected);
+            } else if (state.version < lastVersion) {
+                failure.set("version went back from " + lastVersion + " to " + state.version);
+            }
+            lastVersion = state.version;
+        }
+        writer.join();
+
+        assertNull(failure.get(), failure.get());
+        manager.readSnapshot(state);
+        assertEquals(1000000, state.gearPos);
+    }
+}
@@ -0,0 +1,91 @@
+package com.clarion.camera;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Host-side tests for {@link YuyvConverter}.
+ */
+public class YuyvConverterTest {
+    private static final int WIDTH = 640;
+    private static final int HEIGHT = 480;
+
+    private static byte[] randomFrame(long seed) {
+        byte[] frame = new byte[WIDTH * HEIGHT * 2];
+        new Random(seed).nextBytes(frame);
+        return frame;
+    }
+
+    @Test
+    public void knownColorsMatchImageProc() {
+        byte[] frame = new byte[] {
+                16, (byte) 128, (byte) 235, (byte) 128,   // black, white
+                81, 90, (byte) 145, (byte) 240,           // saturated red-ish
+        };
+        int[] argb = new int[4];
+        YuyvConverter.convertReference(frame, argb, 4, 1);
+
+        assertEquals(0xff000000, argb[0]);
+        assertEquals(0xfffefefe, argb[1]);
+        assertEquals(YuyvConverter.toArgb(81, 90, 240), argb[2]);
+        assertEquals(YuyvConverter.toArgb(145, 90, 240), argb[3]);
+        assertEquals(0xff, (argb[3] >> 16) & 0xff);
+    }
+
+    @Test
+    public void stripedConversionIsBitExactWithReference() {
+        byte[] frame = randomFrame(42);
+        int[] expected = new int[WIDTH * HEIGHT];
+        YuyvConverter.convertReference(frame, expected, WIDTH, HEIGHT);
+
+        int[] threadCounts = { 1, 3, 4, 7 };
+        for (int threads : threadCounts) {
+            RowStripes stripes = new RowStripes("test", threads);
+            YuyvConverter converter = new YuyvConverter(WIDTH, HEIGHT, stripes);
+            try {
+                int[] heap = new int[WIDTH * HEIGHT];
+                converter.convert(ByteBuffer.wrap(frame), heap);
+                assertArrayEquals("heap buffer, threads=" + threads, expected, heap);
+
+                ByteBuffer direct = ByteBuffer.allocateDirect(frame.length);
+                direct.put(frame);
+                int[] fromDirect = new int[WIDTH * HEIGHT];
+                converter.convert(direct, fromDirect);
+                assertArrayEquals("direct buffer, threads=" + threads, expected, fromDirect);
+            } finally {
+                stripes.shutdown();
+            }
+        }
+    }
+
+    @Test
+    public void repeatedConversionsReuseTheWorkers() {
+        RowStripes stripes = new RowStripes("test", 4);
+        YuyvConverter converter = new YuyvConverter(WIDTH, HEIGHT, stripes);
+        try {
+            int[] expected = new int[WIDTH * HEIGHT];
+            int[] actual = new int[WIDTH * HEIGHT];
+            for (int i = 0; i < 20; i++) {
+                byte[] frame = randomFrame(i);
+                YuyvConverter.convertReference(frame, expected, WIDTH, HEIGHT);
+                converter.convert(ByteBuffer.wrap(frame), actual);
+                assertArrayEquals("frame " + i, expected, actual);
+            }
+            assertTrue(converter.measureNanosPerFrame(
+                    ByteBuffer.wrap(randomFrame(7)), actual, 5) > 0);
+        } finally {
+            stripes.shutdown();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsBuffersThatAreTooSmall() {
+        YuyvConverter converter = new YuyvConverter(WIDTH, HEIGHT,
+                new RowStripes("test", 1));
+        converter.convert(ByteBuffer.allocate(16), new int[WIDTH * HEIGHT]);
+    }
+}
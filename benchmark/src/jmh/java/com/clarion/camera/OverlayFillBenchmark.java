@@ -0,0 +1,110 @@
+package com.clarion.camera;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fill cost of the overlay on the software canvas of {@code lockCanvas()}:
+ * a pre-composited full-screen layer blended at full alpha, against the
+ * pre-scaled overlay blended at its own bounds with the paint alpha. Both
+ * use a premultiplied source-over blend that skips transparent source
+ * pixels, like the raster blitter. The guide lines are drawn the same way
+ * in both cases and are left out.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class OverlayFillBenchmark {
+    private static final int OVERLAY_COLOR = 0xffffff00;
+    // width of the drawn strokes in the overlay, in pixels
+    private static final int STROKE = 6;
+
+    @Param({"1280x720", "1920x1080"})
+    public String surface;
+
+    private int mWidth;
+    private int mHeight;
+    private int mOverlayWidth;
+    private int mOverlayHeight;
+    private int mOverlayLeft;
+    private int mOverlayTop;
+    private int[] mOverlay;
+    private int[] mLayer;
+    private int[] mSurface;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        int separator = surface.indexOf('x');
+        mWidth = Integer.parseInt(surface.substring(0, separator));
+        mHeight = Integer.parseInt(surface.substring(separator + 1));
+        mOverlayWidth = RenderTransformCache.overlayTargetWidth(mWidth);
+        mOverlayHeight = RenderTransformCache.overlayTargetHeight(mHeight);
+        RenderTransformCache transforms = new RenderTransformCache();
+        transforms.update(0, mWidth, mHeight, mOverlayWidth, mOverlayHeight);
+        mOverlayLeft = Math.round(transforms.getOverlayMatrix()[2]);
+        mOverlayTop = Math.round(transforms.getOverlayMatrix()[5]);
+
+        // a frame of strokes, transparent inside, like the guide line asset
+        mOverlay = new int[mOverlayWidth * mOverlayHeight];
+        for (int y = 0; y < mOverlayHeight; y++) {
+            for (int x = 0; x < mOverlayWidth; x++) {
+                boolean stroke = x < STROKE || x >= mOverlayWidth - STROKE
+                        || y % (mOverlayHeight / 4) < STROKE;
+                mOverlay[y * mOverlayWidth + x] = stroke ? OVERLAY_COLOR : 0;
+            }
+        }
+        // the same overlay pre-composited into a full-screen layer
+        mLayer = new int[mWidth * mHeight];
+        for (int y = 0; y < mOverlayHeight; y++) {
+            System.arraycopy(mOverlay, y * mOverlayWidth, mLayer,
+                    (mOverlayTop + y) * mWidth + mOverlayLeft, mOverlayWidth);
+        }
+        mSurface = new int[mWidth * mHeight];
+    }
+
+    @Benchmark
+    public int[] fullScreenLayer() {
+        blend(mLayer, mWidth, mHeight, 255, mSurface, mWidth, 0, 0);
+        return mSurface;
+    }
+
+    @Benchmark
+    public int[] overlayWithPaintAlpha() {
+        blend(mOverlay, mOverlayWidth, mOverlayHeight, 195, mSurface, mWidth,
+                mOverlayLeft, mOverlayTop);
+        return mSurface;
+    }
+
+    private static void blend(int[] src, int srcWidth, int srcHeight, int alpha,
+                              int[] dst, int dstWidth, int left, int top) {
+        int scale = alpha + 1;
+        for (int y = 0; y < srcHeight; y++) {
+            int s = y * srcWidth;
+            int d = (top + y) * dstWidth + left;
+            for (int x = 0; x < srcWidth; x++, s++, d++) {
+                int color = src[s];
+                if (color == 0) {
+                    continue;
+                }
+                // scale the premultiplied source by the paint alpha
+                int rb = ((color & 0x00ff00ff) * scale >>> 8) & 0x00ff00ff;
+                int ag = ((color >>> 8) & 0x00ff00ff) * scale & 0xff00ff00;
+                color = ag | rb;
+                int inverse = 256 - (color >>> 24);
+                int under = dst[d];
+                int underRb = ((under & 0x00ff00ff) * inverse >>> 8) & 0x00ff00ff;
+                int underAg = ((under >>> 8) & 0x00ff00ff) * inverse & 0xff00ff00;
+                dst[d] = color + (underAg | underRb);
+            }
+        }
+    }
+}
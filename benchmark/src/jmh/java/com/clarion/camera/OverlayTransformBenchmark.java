@@ -0,0 +1,79 @@
+package com.clarion.camera;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-frame overlay math of {@code RearviewCameraView}: the overlay matrix
+ * and alpha values, the guide line lookup and the steering prediction. The
+ * steady-state variants are what a frame costs while the wheel is held, the
+ * changing ones what it costs while it is turned.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class OverlayTransformBenchmark {
+    private static final int SCREEN_WIDTH = 1280;
+    private static final int SCREEN_HEIGHT = 720;
+    private static final int OVERLAY_WIDTH = 800;
+    private static final int OVERLAY_HEIGHT = 400;
+
+    private final RenderTransformCache mTransformCache = new RenderTransformCache();
+    private final GuideLineGeometry mGuideLines = new GuideLineGeometry();
+    private final SteeringPredictor mPredictor = new SteeringPredictor();
+    private int mFrame = 0;
+    private long mTimestamp = 0;
+
+    @Setup
+    public void setUp() {
+        mGuideLines.setViewport(SCREEN_WIDTH, SCREEN_HEIGHT);
+    }
+
+    // sweeps the wheel from lock to lock, one bucket per frame
+    private double nextAngle() {
+        mFrame++;
+        return (mFrame % 1080) - 540;
+    }
+
+    @Benchmark
+    public boolean transformsSteady() {
+        return mTransformCache.update(30, SCREEN_WIDTH, SCREEN_HEIGHT,
+                OVERLAY_WIDTH, OVERLAY_HEIGHT);
+    }
+
+    @Benchmark
+    public int transformsTurning() {
+        mTransformCache.update(nextAngle(), SCREEN_WIDTH, SCREEN_HEIGHT,
+                OVERLAY_WIDTH, OVERLAY_HEIGHT);
+        return mTransformCache.getOverlayAlpha() + mTransformCache.getDynamicLinesAlpha();
+    }
+
+    @Benchmark
+    public int guideLineLookup() {
+        return mGuideLines.getOffset(mGuideLines.indexFor(nextAngle() + 0.3));
+    }
+
+    // what a surface size change costs, the whole angle table is rebuilt
+    @Benchmark
+    public float[] guideLineTableRebuild() {
+        mFrame++;
+        mGuideLines.setViewport(SCREEN_WIDTH + (mFrame & 1), SCREEN_HEIGHT);
+        return mGuideLines.getPoints();
+    }
+
+    @Benchmark
+    public double steeringPrediction() {
+        mTimestamp += 20000000L;
+        mPredictor.addSample(nextAngle() * 0.1, mTimestamp);
+        return SteeringPredictor.extrapolate(mPredictor.getAngle(), mPredictor.getRate(),
+                mPredictor.getTimestampNanos(), mTimestamp + 50000000L,
+                SteeringPredictor.DEFAULT_MAX_HORIZON_NANOS);
+    }
+}
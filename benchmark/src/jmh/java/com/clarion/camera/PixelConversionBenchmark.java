@@ -0,0 +1,117 @@
+package com.clarion.camera;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * YUYV 640x480 camera frame to ARGB, as done on the capture thread for
+ * every frame: the plain converter, and the fused mirror and scale kernel
+ * for common surface sizes, each on one thread and on all cores. The
+ * kernel writes either an int array or, as the preview does, a direct
+ * buffer in bitmap byte order; the memory copy of copyPixelsFromBuffer
+ * that is left after that is measured on its own.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PixelConversionBenchmark {
+    private static final int SOURCE_WIDTH = 640;
+    private static final int SOURCE_HEIGHT = 480;
+
+    @Param({"1", "0"})
+    public int threads;
+
+    @Param({"1280x720", "1920x720"})
+    public String surface;
+
+    private RowStripes mStripes;
+    private YuyvConverter mConverter;
+    private MirrorScaleKernel mKernel;
+    private ByteBuffer mFrame;
+    private byte[] mFrameBytes;
+    private int[] mSourcePixels;
+    private int[] mSurfacePixels;
+    private int mWidth;
+    private IntBuffer mBitmapPixels;
+    // stands in for the bitmap's own memory
+    private IntBuffer mBitmap;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        // 0 means one stripe per core
+        mStripes = threads == 0 ? RowStripes.forAvailableCores("bench")
+                : new RowStripes("bench", threads);
+        int separator = surface.indexOf('x');
+        int width = Integer.parseInt(surface.substring(0, separator));
+        int height = Integer.parseInt(surface.substring(separator + 1));
+
+        mFrameBytes = new byte[SOURCE_WIDTH * SOURCE_HEIGHT * 2];
+        new Random(42).nextBytes(mFrameBytes);
+        mFrame = ByteBuffer.allocateDirect(mFrameBytes.length);
+        mFrame.put(mFrameBytes);
+        mFrame.clear();
+
+        mConverter = new YuyvConverter(SOURCE_WIDTH, SOURCE_HEIGHT, mStripes);
+        mKernel = new MirrorScaleKernel(SOURCE_WIDTH, SOURCE_HEIGHT, width, height, mStripes);
+        mSourcePixels = new int[SOURCE_WIDTH * SOURCE_HEIGHT];
+        mSurfacePixels = new int[width * height];
+        mWidth = width;
+        mBitmapPixels = ByteBuffer.allocateDirect(width * height * 4)
+                .order(ByteOrder.nativeOrder()).asIntBuffer();
+        mBitmap = ByteBuffer.allocateDirect(width * height * 4)
+                .order(ByteOrder.nativeOrder()).asIntBuffer();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        mStripes.shutdown();
+    }
+
+    @Benchmark
+    public int[] convert() {
+        mConverter.convert(mFrame, mSourcePixels);
+        return mSourcePixels;
+    }
+
+    @Benchmark
+    public int[] convertMirrorScale() {
+        mKernel.convert(mFrame, mSurfacePixels);
+        return mSurfacePixels;
+    }
+
+    @Benchmark
+    public IntBuffer convertMirrorScaleToBitmapOrder() {
+        mKernel.convert(mFrame, mBitmapPixels, mWidth);
+        return mBitmapPixels;
+    }
+
+    // the copy of Bitmap.copyPixelsFromBuffer, a plain memcpy
+    @Benchmark
+    public IntBuffer copyPixelsFromBuffer() {
+        mBitmapPixels.rewind();
+        mBitmap.clear();
+        mBitmap.put(mBitmapPixels);
+        return mBitmap;
+    }
+
+    // the floating point formula the fixed point kernels are checked against
+    @Benchmark
+    public int[] convertReference() {
+        YuyvConverter.convertReference(mFrameBytes, mSourcePixels, SOURCE_WIDTH, SOURCE_HEIGHT);
+        return mSourcePixels;
+    }
+}
@@ -0,0 +1,89 @@
+package com.clarion.camera;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sensor path from the car service callback to the render thread: publish
+ * into the coalescing store, drain it into the bus, fan out to the
+ * subscribers and read the vehicle state snapshot once per frame.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class SensorDispatchBenchmark {
+
+    @Param({"1", "8"})
+    public int subscribers;
+
+    private final SensorEventBus mBus = new SensorEventBus();
+    private final SensorEventStore mStore = new SensorEventStore();
+    private final VehicleManager mVehicleManager = new VehicleManager();
+    private final VehicleManager.VehicleState mState = new VehicleManager.VehicleState();
+    private SensorEventStore.Reader mReader;
+    private float mValue = 0;
+
+    /** Subscriber that keeps the values alive without doing real work. */
+    public static class SinkCallback extends SensorEventBus.Callback {
+        volatile float mLast;
+
+        @Override
+        public void OnSpeedValChange(float propValue) {
+            mLast = propValue;
+        }
+
+        @Override
+        public void OnSteeringAngleValChange(float propValue) {
+            mLast = propValue;
+        }
+    }
+
+    @Setup
+    public void setUp() {
+        for (int i = 0; i < subscribers; i++) {
+            mBus.registerCallback(new SinkCallback());
+        }
+        mReader = mStore.newReader(null);
+    }
+
+    @Benchmark
+    public void busDispatch() {
+        mBus.dispatchSteeringAngle(mValue++);
+    }
+
+    @Benchmark
+    public int storePublishAndDrain() {
+        mStore.publishSpeed(mValue++, 1000L);
+        mStore.publishSteeringAngle(mValue, 1000L);
+        return mStore.drainTo(mReader, mBus);
+    }
+
+    // a burst of samples between two drains coalesces into one dispatch
+    @Benchmark
+    public int storeBurstOfTen() {
+        for (int i = 0; i < 10; i++) {
+            mStore.publishSteeringAngle(mValue++, 1000L);
+        }
+        return mStore.drainTo(mReader, mBus);
+    }
+
+    @Benchmark
+    public void vehicleStateUpdate() {
+        mVehicleManager.setSteeringAngle(mValue++ % 540, System.nanoTime());
+    }
+
+    @Benchmark
+    public void vehicleStateSnapshot(Blackhole blackhole) {
+        mVehicleManager.readSnapshot(mState);
+        blackhole.consume(mState.version);
+    }
+}
@@ -0,0 +1,500 @@
+package com.clarion.camera;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+
+/**
+ * Headless soak run of the whole camera pipeline on a plain JVM.
+ *
+ * The capture and render loops are the {@link PreviewPipeline} that
+ * CameraPreview runs in the car, with its {@link FrameScheduler} pacing and
+ * {@link QualityGovernor} steps: frames of a {@link SyntheticFrameSource}
+ * (or of raw frames replayed by {@link FileReplayFrameSource}) are
+ * converted and handed over to the render thread, which blends the
+ * pre-scaled overlay for the predicted steering angle and draws its guide
+ * lines, like {@code RearviewCameraView}. A {@link ScriptedDrive} publishes
+ * sensor samples into the {@link SensorEventStore}, which a drain thread
+ * forwards through the {@link SensorEventBus} into the
+ * {@link VehicleManager}. With --log a {@link PipelineLog} recorded in the
+ * car replaces both the camera and the scripted drive, in real time or,
+ * with --max-speed, as fast as the capture thread takes the frames. Only
+ * the Bitmaps and the Canvas are replaced, by surface-sized pixel arrays.
+ *
+ * Reports the sustained frame rate, frame time percentiles, the quality
+ * level, the per-stage latency, the allocation rate of the pipeline threads
+ * and GC pauses.
+ * Exits with status 1 if the sustained frame rate is more than 5% below the
+ * target.
+ *
+ * Usage: PipelineSoak [--seconds 600] [--fps 30] [--size 1280x720] [--report 10]
+ *                     [--replay frames.yuyv | --log session.clog [--max-speed]]
+ */
+public class PipelineSoak {
+    private static final long NANOS_PER_SECOND = 1000000000L;
+    private static final int OVERLAY_COLOR = 0xffffff00;
+    // pixels sampled per guide line segment when drawing the lines
+    private static final int SAMPLES_PER_SEGMENT = 32;
+    // width of the strokes in the synthetic overlay, in pixels
+    private static final int OVERLAY_STROKE = 6;
+    private static final int CAMERA_WIDTH = 640;
+    private static final int CAMERA_HEIGHT = 480;
+    private static final long STOP_TIMEOUT_NANOS = 5 * NANOS_PER_SECOND;
+
+    private final int mWidth;
+    private final int mHeight;
+    private final int mTargetFps;
+
+    private final PreviewPipeline<int[]> mPipeline;
+    private final FramePool mFramePool =
+            new FramePool(CAMERA_WIDTH * CAMERA_HEIGHT * 2, 3);
+    private final FrameSource mCamera;
+
+    private final SensorEventStore mStore = new SensorEventStore();
+    private final SensorEventBus mBus = new SensorEventBus();
+    private final VehicleManager mVehicleManager = new VehicleManager();
+    // null when replaying a pipeline log
+    private final ScriptedDrive mDrive;
+    private final SensorEventStore.Reader mReader;
+    private final Object mDrainLock = new Object();
+    private boolean mDrainPending = false;
+
+    // the same per-frame overlay steps as RearviewCameraView
+    private final OverlayFrame mOverlayFrame = new OverlayFrame(mVehicleManager);
+    // pre-scaled like the one CameraStartup loads
+    private final int mOverlayWidth;
+    private final int mOverlayHeight;
+    private final int[] mOverlay;
+    private final int[] mSurface;
+
+    private final LatencyHistogram mFrameTimes = new LatencyHistogram();
+    private final LatencyHistogram mGcPauses = new LatencyHistogram();
+    private volatile boolean mStopped = false;
+    private volatile IOException mSourceFailure = null;
+    // the loop threads, to measure what they allocate
+    private volatile Thread mCaptureThread = null;
+    private volatile Thread mRenderThread = null;
+    // render thread only
+    private long mLastPosted = 0;
+
+    PipelineSoak(int width, int height, int targetFps, File replay, File log,
+                 boolean realTime) throws IOException {
+        mWidth = width;
+        mHeight = height;
+        mTargetFps = targetFps;
+        if (log != null) {
+            mCamera = new PipelineLogPlayer(log, mFramePool, mStore, realTime, true);
+            mDrive = null;
+        } else if (replay != null) {
+            mCamera = new FileReplayFrameSource(replay, CAMERA_WIDTH, CAMERA_HEIGHT,
+                    targetFps, true, mFramePool);
+            mDrive = new ScriptedDrive(mStore);
+        } else {
+            mCamera = new SyntheticFrameSource(CAMERA_WIDTH, CAMERA_HEIGHT, targetFps,
+                    mFramePool);
+            mDrive = new ScriptedDrive(mStore);
+        }
+        mPipeline = new PreviewPipeline<>(mCamera, mHost);
+        mPipeline.setTargetFps(targetFps);
+        mPipeline.setFrames(new int[width * height], new int[width * height],
+                new int[width * height], ByteBuffer.allocateDirect(width * height * 4)
+                        .order(ByteOrder.nativeOrder()).asIntBuffer(), width, height);
+        mSurface = new int[width * height];
+
+        mOverlayWidth = RenderTransformCache.overlayTargetWidth(width);
+        mOverlayHeight = RenderTransformCache.overlayTargetHeight(height);
+        mOverlay = newOverlay(mOverlayWidth, mOverlayHeight);
+
+        mReader = mStore.newReader(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (mDrainLock) {
+                    mDrainPending = true;
+                    mDrainLock.notify();
+                }
+            }
+        });
+        mBus.registerCallback(new SensorEventBus.Callback() {
+            @Override
+            public void OnGearPosValChange(int propValue) {
+                mVehicleManager.setGearPos(propValue, System.nanoTime());
+            }
+
+            @Override
+            public void OnSpeedValChange(float propValue) {
+                mVehicleManager.setSpeed(propValue, System.nanoTime());
+            }
+
+            @Override
+            public void OnSteeringAngleValChange(float propValue) {
+                mVehicleManager.setSteeringAngle(propValue, System.nanoTime());
+            }
+        });
+        mVehicleManager.setOnChangeListener(new VehicleManager.OnChangeListener() {
+            @Override
+            public void onVehicleStateChanged() {
+                mPipeline.requestRender();
+            }
+        });
+    }
+
+    private final PreviewPipeline.Host<int[]> mHost = new PreviewPipeline.Host<int[]>() {
+        @Override
+        public void onRawFrame(RawFrame raw) {
+        }
+
+        @Override
+        public void fillFrame(int[] frame, IntBuffer pixels, int width, int height) {
+            // copyPixelsFromBuffer of the bitmap, the whole buffer
+            mCaptureThread = Thread.currentThread();
+            pixels.rewind();
+            pixels.get(frame);
+        }
+
+        @Override
+        public void onSourceFailed(IOException e) {
+            mSourceFailure = e;
+        }
+
+        @Override
+        public boolean lockSurface() {
+            mRenderThread = Thread.currentThread();
+            return true;
+        }
+
+        @Override
+        public void drawFrame(int[] frame, int width, int height, boolean stale) {
+            // drawBitmap of the video frame
+            if (stale) {
+                Arrays.fill(mSurface, 0xff000000);
+            } else if (width == mWidth && height == mHeight) {
+                System.arraycopy(frame, 0, mSurface, 0, mSurface.length);
+            } else {
+                scaleUp(frame, width, height);
+            }
+            // drawOnCanvas of RearviewCameraView
+            int bucket = mOverlayFrame.prepare(System.nanoTime(),
+                    mPipeline.getDisplayLatencyNanos(), mPipeline.getQualityLevel(),
+                    mWidth, mHeight, mOverlayWidth, mOverlayHeight);
+            drawOverlay();
+            if (bucket != OverlayFrame.STATIC_OVERLAY) {
+                drawLines(bucket);
+            }
+        }
+
+        @Override
+        public void postSurface() {
+            long posted = System.nanoTime();
+            if (mLastPosted != 0) {
+                mFrameTimes.record(posted - mLastPosted);
+            }
+            mLastPosted = posted;
+        }
+
+        @Override
+        public void onFramePosted(long capturedNanos, long postedNanos) {
+        }
+    };
+
+    private final Runnable mDrainLoop = new Runnable() {
+        @Override
+        public void run() {
+            while (!mStopped) {
+                synchronized (mDrainLock) {
+                    while (!mDrainPending && !mStopped) {
+                        try {
+                            mDrainLock.wait();
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                    }
+                    mDrainPending = false;
+                }
+                mStore.drainTo(mReader, mBus);
+            }
+        }
+    };
+
+    /** The drawBitmap of the half resolution frame, nearest-neighbour. */
+    private void scaleUp(int[] frame, int width, int height) {
+        for (int y = 0; y < mHeight; y++) {
+            int row = y * height / mHeight * mWidth;
+            int d = y * mWidth;
+            for (int x = 0; x < mWidth; x++) {
+                mSurface[d + x] = frame[row + x * width / mWidth];
+            }
+        }
+    }
+
+    private void drawOverlay() {
+        RenderTransformCache transforms = mOverlayFrame.getTransforms();
+        float[] matrix = transforms.getOverlayMatrix();
+        blend(mOverlay, mOverlayWidth, mOverlayHeight, transforms.getOverlayAlpha(),
+                mSurface, mWidth, (int) matrix[2], (int) matrix[5]);
+    }
+
+    /** The drawLines of the guide lines of a steering bucket. */
+    private void drawLines(int bucket) {
+        GuideLineGeometry guideLines = mOverlayFrame.getGuideLines();
+        float[] points = guideLines.getPoints();
+        int offset = guideLines.getOffset(bucket);
+        for (int i = 0; i < GuideLineGeometry.FLOATS_PER_ANGLE; i += 4) {
+            float x0 = points[offset + i];
+            float y0 = points[offset + i + 1];
+            float x1 = points[offset + i + 2];
+            float y1 = points[offset + i + 3];
+            for (int s = 0; s < SAMPLES_PER_SEGMENT; s++) {
+                float t = s / (float) SAMPLES_PER_SEGMENT;
+                int x = (int) (x0 + (x1 - x0) * t);
+                int y = (int) (y0 + (y1 - y0) * t);
+                if (x >= 0 && x < mWidth && y >= 0 && y < mHeight) {
+                    mSurface[y * mWidth + x] = OVERLAY_COLOR;
+                }
+            }
+        }
+    }
+
+    // a frame of strokes, transparent inside, like the guide line asset
+    private static int[] newOverlay(int width, int height) {
+        int[] overlay = new int[width * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                boolean stroke = x < OVERLAY_STROKE || x >= width - OVERLAY_STROKE
+                        || y % Math.max(1, height / 4) < OVERLAY_STROKE;
+                overlay[y * width + x] = stroke ? OVERLAY_COLOR : 0;
+            }
+        }
+        return overlay;
+    }
+
+    /** Premultiplied source-over with a paint alpha, skipping transparent pixels. */
+    private static void blend(int[] src, int srcWidth, int srcHeight, int alpha,
+                              int[] dst, int dstWidth, int left, int top) {
+        int scale = alpha + 1;
+        for (int y = 0; y < srcHeight; y++) {
+            int s = y * srcWidth;
+            int d = (top + y) * dstWidth + left;
+            for (int x = 0; x < srcWidth; x++, s++, d++) {
+                int color = src[s];
+                if (color == 0) {
+                    continue;
+                }
+                int rb = ((color & 0x00ff00ff) * scale >>> 8) & 0x00ff00ff;
+                int ag = ((color >>> 8) & 0x00ff00ff) * scale & 0xff00ff00;
+                color = ag | rb;
+                int inverse = 256 - (color >>> 24);
+                int under = dst[d];
+                int underRb = ((under & 0x00ff00ff) * inverse >>> 8) & 0x00ff00ff;
+                int underAg = ((under >>> 8) & 0x00ff00ff) * inverse & 0xff00ff00;
+                dst[d] = color + (underAg | underRb);
+            }
+        }
+    }
+
+    private void listenForGcPauses() {
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            if (!(gc instanceof NotificationEmitter)) {
+                continue;
+            }
+            ((NotificationEmitter) gc).addNotificationListener(new NotificationListener() {
+                @Override
+                public void handleNotification(Notification notification, Object handback) {
+                    if (!GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION
+                            .equals(notification.getType())) {
+                        return;
+                    }
+                    GarbageCollectionNotificationInfo info = GarbageCollectionNotificationInfo
+                            .from((CompositeData) notification.getUserData());
+                    // concurrent cycles run next to the application, they are no pause
+                    if (!info.getGcName().contains("Concurrent")) {
+                        mGcPauses.record(info.getGcInfo().getDuration() * 1000000L);
+                    }
+                }
+            }, null, null);
+        }
+    }
+
+    private static long allocatedBytes(Thread... threads) {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+            return -1;
+        }
+        com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) bean;
+        long total = 0;
+        for (Thread thread : threads) {
+            total += threadBean.getThreadAllocatedBytes(thread.getId());
+        }
+        return total;
+    }
+
+    /** @return the sustained frame rate */
+    double run(long seconds, long reportSeconds, PrintWriter out)
+            throws IOException, InterruptedException {
+        listenForGcPauses();
+        mCamera.open();
+        Thread drain = new Thread(mDrainLoop, "SoakDrain");
+        Thread drive = mDrive != null ? new Thread(mDrive, "SoakDrive") : null;
+
+        long start = System.nanoTime();
+        mPipeline.start(true);
+        drain.start();
+        if (drive != null) {
+            drive.start();
+        }
+        // discount the first frames, they carry class loading and JIT
+        Thread.sleep(1000);
+        mPipeline.getLatency().reset();
+        mFrameTimes.reset();
+        long warmedUp = System.nanoTime();
+        long renderedAtStart = mPipeline.getRenderedFrames();
+        Thread capture = mCaptureThread;
+        Thread render = mRenderThread;
+        if (capture == null || render == null) {
+            throw new IllegalStateException("no frame within the warm-up", mSourceFailure);
+        }
+        long allocatedAtStart = allocatedBytes(capture, render);
+
+        long end = warmedUp + seconds * NANOS_PER_SECOND;
+        long lastReport = warmedUp;
+        long lastRendered = renderedAtStart;
+        long lastAllocated = allocatedAtStart;
+        while (System.nanoTime() < end && mSourceFailure == null) {
+            Thread.sleep(Math.min(reportSeconds * 1000L,
+                    Math.max(1, (end - System.nanoTime()) / 1000000L)));
+            long now = System.nanoTime();
+            long rendered = mPipeline.getRenderedFrames();
+            long allocated = allocatedBytes(capture, render);
+            double window = (now - lastReport) / 1e9;
+            out.println(String.format("%6.0fs  fps %5.1f  frame p50 %6.2f ms  p99 %6.2f ms"
+                            + "  %s  alloc %8.0f B/s  gc pauses %d",
+                    (now - warmedUp) / 1e9, (rendered - lastRendered) / window,
+                    mFrameTimes.getPercentileNanos(0.5) / 1e6,
+                    mFrameTimes.getPercentileNanos(0.99) / 1e6,
+                    QualityGovernor.nameOf(mPipeline.getQualityLevel()),
+                    (allocated - lastAllocated) / window, mGcPauses.getCount()));
+            out.flush();
+            lastReport = now;
+            lastRendered = rendered;
+            lastAllocated = allocated;
+        }
+
+        long stop = System.nanoTime();
+        long rendered = mPipeline.getRenderedFrames() - renderedAtStart;
+        long allocated = allocatedBytes(capture, render) - allocatedAtStart;
+        mStopped = true;
+        if (mDrive != null) {
+            mDrive.stop();
+        }
+        if (!mPipeline.stop(STOP_TIMEOUT_NANOS)) {
+            throw new IllegalStateException("loops did not stop: " + mPipeline);
+        }
+        synchronized (mDrainLock) {
+            mDrainLock.notify();
+        }
+        drain.join();
+        if (drive != null) {
+            drive.join();
+        }
+        mCamera.close();
+        mPipeline.shutdown();
+        if (mSourceFailure != null) {
+            throw new IOException("frame source failed", mSourceFailure);
+        }
+
+        double duration = (stop - warmedUp) / 1e9;
+        double fps = rendered / duration;
+        out.println();
+        out.println(String.format("duration        %.1f s (plus %.1f s warm-up)",
+                duration, (warmedUp - start) / 1e9));
+        out.println(String.format("sustained fps   %.2f (target %d)", fps, mTargetFps));
+        out.println(String.format("frame time      mean %.2f  p50 %.2f  p90 %.2f  p99 %.2f"
+                        + "  p99.9 %.2f  max %.2f ms",
+                mFrameTimes.getMeanNanos() / 1e6, mFrameTimes.getPercentileNanos(0.5) / 1e6,
+                mFrameTimes.getPercentileNanos(0.9) / 1e6,
+                mFrameTimes.getPercentileNanos(0.99) / 1e6,
+                mFrameTimes.getPercentileNanos(0.999) / 1e6,
+                mFrameTimes.getMaxNanos() / 1e6));
+        out.println(String.format("allocation      %.0f B/s on the capture and render threads",
+                allocated / duration));
+        out.println(String.format("gc pauses       %d, p99 %.2f ms, max %.2f ms",
+                mGcPauses.getCount(), mGcPauses.getPercentileNanos(0.99) / 1e6,
+                mGcPauses.getMaxNanos() / 1e6));
+        out.println("sensor samples  " + (mStore.getPublishCount(SensorEventStore.SLOT_GEAR)
+                + mStore.getPublishCount(SensorEventStore.SLOT_SPEED)
+                + mStore.getPublishCount(SensorEventStore.SLOT_STEERING)));
+        out.println();
+        out.println("pipeline:");
+        mPipeline.dump(out);
+        return fps;
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        long seconds = 600;
+        long reportSeconds = 10;
+        int fps = FrameScheduler.DEFAULT_TARGET_FPS;
+        int width = 1280;
+        int height = 720;
+        File replay = null;
+        File log = null;
+        boolean realTime = true;
+        int i = 0;
+        while (i < args.length) {
+            String option = args[i++];
+            if ("--max-speed".equals(option)) {
+                realTime = false;
+                continue;
+            }
+            if (i == args.length) {
+                throw new IllegalArgumentException("missing value for " + option);
+            }
+            String value = args[i++];
+            switch (option) {
+                case "--seconds":
+                    seconds = Long.parseLong(value);
+                    break;
+                case "--fps":
+                    fps = Integer.parseInt(value);
+                    break;
+                case "--report":
+                    reportSeconds = Long.parseLong(value);
+                    break;
+                case "--size":
+                    int separator = value.indexOf('x');
+                    width = Integer.parseInt(value.substring(0, separator));
+                    height = Integer.parseInt(value.substring(separator + 1));
+                    break;
+                case "--replay":
+                    replay = new File(value);
+                    break;
+                case "--log":
+                    log = new File(value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("unknown option " + option);
+            }
+        }
+
+        PrintWriter out = new PrintWriter(System.out);
+        out.println(String.format("soak: %d s at %dx%d, target %d fps, %d cores",
+                seconds, width, height, fps, Runtime.getRuntime().availableProcessors()));
+        double sustained = new PipelineSoak(width, height, fps, replay, log, realTime)
+                .run(seconds, reportSeconds, out);
+        out.flush();
+        if (sustained < 0.95 * fps) {
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package com.clarion.camera;
+
+/**
+ * Replays a scripted parking manoeuvre in place of CarSensorManager,
+ * publishing gear, speed and steering samples into a
+ * {@link SensorEventStore} the way the sensor listener of MainActivity does.
+ *
+ * One cycle lasts {@link #CYCLE_SECONDS}: parked, reverse engaged, backing
+ * up while the wheel is turned from lock to lock, stopped, pulling forward,
+ * and parked again. Samples are published at {@link #SAMPLE_RATE_HZ}.
+ */
+class ScriptedDrive implements Runnable {
+    // CarSensorEvent gear values
+    static final int GEAR_NEUTRAL = 1;
+    static final int GEAR_REVERSE = 2;
+    static final int GEAR_PARK = 4;
+    static final int GEAR_DRIVE = 8;
+
+    static final int CYCLE_SECONDS = 60;
+    static final int SAMPLE_RATE_HZ = 50;
+    private static final double MAX_STEERING_ANGLE = 540;
+
+    private final SensorEventStore mStore;
+    private volatile boolean mStopped = false;
+    private long mSamples = 0;
+
+    ScriptedDrive(SensorEventStore store) {
+        mStore = store;
+    }
+
+    void stop() {
+        mStopped = true;
+    }
+
+    long getSampleCount() {
+        return mSamples;
+    }
+
+    @Override
+    public void run() {
+        long start = System.nanoTime();
+        long interval = 1000000000L / SAMPLE_RATE_HZ;
+        long next = start;
+        while (!mStopped) {
+            long now = System.nanoTime();
+            double seconds = ((now - start) / 1e9) % CYCLE_SECONDS;
+            publish(seconds, now);
+            mSamples++;
+
+            next += interval;
+            long wait = next - System.nanoTime();
+            if (wait > 0) {
+                try {
+                    Thread.sleep(wait / 1000000L, (int) (wait % 1000000L));
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private void publish(double seconds, long timestamp) {
+        int gear;
+        float speed;
+        double steering;
+        if (seconds < 5) {
+            gear = GEAR_PARK;
+            speed = 0;
+            steering = 0;
+        } else if (seconds < 35) {
+            // backing into a space, wheel swept lock to lock every 10 s
+            gear = GEAR_REVERSE;
+            speed = (float) Math.min(1.5, (seconds - 5) / 2);
+            steering = MAX_STEERING_ANGLE * Math.sin(2 * Math.PI * (seconds - 5) / 10);
+        } else if (seconds < 40) {
+            gear = GEAR_NEUTRAL;
+            speed = 0;
+            steering = MAX_STEERING_ANGLE * Math.sin(2 * Math.PI * 30 / 10);
+        } else if (seconds < 55) {
+            gear = GEAR_DRIVE;
+            speed = (float) Math.min(3, (seconds - 40) / 3);
+            steering = 90 * Math.sin(2 * Math.PI * (seconds - 40) / 15);
+        } else {
+            gear = GEAR_PARK;
+            speed = 0;
+            steering = 0;
+        }
+        mStore.publishGearPos(gear, timestamp);
+        mStore.publishSpeed(speed, timestamp);
+        mStore.publishSteeringAngle((float) steering, timestamp);
+    }
+}